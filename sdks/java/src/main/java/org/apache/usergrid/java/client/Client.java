@@ -24,15 +24,27 @@ import static org.apache.usergrid.java.client.utils.UrlUtils.addQueryParams;
 import static org.apache.usergrid.java.client.utils.UrlUtils.encodeParams;
 import static org.apache.usergrid.java.client.utils.UrlUtils.path;
 
+import java.util.ArrayList;
 import java.util.Collections;
 import java.util.EnumSet;
 import java.util.HashMap;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import java.util.NoSuchElementException;
 import java.util.UUID;
+import java.util.concurrent.Callable;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
 
 import com.fasterxml.jackson.databind.node.JsonNodeFactory;
+import org.apache.http.impl.client.DefaultHttpClient;
+import org.apache.http.impl.conn.PoolingClientConnectionManager;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.http.HttpEntity;
@@ -40,6 +52,7 @@ import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpMethod;
 import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
+import org.springframework.http.client.HttpComponentsClientHttpRequestFactory;
 import org.springframework.web.client.HttpClientErrorException;
 import org.springframework.web.client.RestTemplate;
 import org.apache.usergrid.java.client.entities.Activity;
@@ -47,6 +60,7 @@ import org.apache.usergrid.java.client.entities.Device;
 import org.apache.usergrid.java.client.entities.Entity;
 import org.apache.usergrid.java.client.entities.Group;
 import org.apache.usergrid.java.client.entities.User;
+import org.apache.usergrid.java.client.exception.ClientException;
 import org.apache.usergrid.java.client.response.ApiResponse;
 
 /**
@@ -85,8 +99,19 @@ public class Client {
 
     private String currentOrganization = null;
 
+    // Default number of entities sent in a single POST by createEntities
+    public static final int DEFAULT_BATCH_SIZE = 100;
+
     static RestTemplate restTemplate = new RestTemplate();
 
+    private RestTemplate clientRestTemplate = restTemplate;
+
+    private PoolingClientConnectionManager connectionManager = null;
+
+    private ExecutorService executor = null;
+
+    private int batchSize = DEFAULT_BATCH_SIZE;
+
     /**
      * Default constructor for instantiating a client.
      */
@@ -288,6 +313,86 @@ public class Client {
         this.currentOrganization = currentOrganization;
     }
 
+    /**
+     * Switch this client to a pooled, keep-alive HTTP connection manager and
+     * an executor of the same size for the async methods. Without this the
+     * client shares a single RestTemplate that opens a new connection for
+     * every request.
+     *
+     * @param maxConnections
+     *            maximum number of open connections, and so the maximum
+     *            number of requests in flight at once
+     * @param connectTimeout
+     *            connect timeout in milliseconds, 0 for none
+     * @param readTimeout
+     *            socket read timeout in milliseconds, 0 for none
+     * @return Client object for method call chaining
+     */
+    public Client withPooledConnections(int maxConnections, int connectTimeout,
+            int readTimeout) {
+        shutdown();
+        connectionManager = new PoolingClientConnectionManager();
+        connectionManager.setMaxTotal(maxConnections);
+        // all requests go to the same api host
+        connectionManager.setDefaultMaxPerRoute(maxConnections);
+        HttpComponentsClientHttpRequestFactory requestFactory = new HttpComponentsClientHttpRequestFactory(
+                new DefaultHttpClient(connectionManager));
+        requestFactory.setConnectTimeout(connectTimeout);
+        requestFactory.setReadTimeout(readTimeout);
+        clientRestTemplate = new RestTemplate(requestFactory);
+        // daemon threads, so an idle client doesn't keep the JVM from exiting
+        executor = Executors.newFixedThreadPool(maxConnections,
+                new ThreadFactory() {
+                    private final ThreadFactory threads = Executors
+                            .defaultThreadFactory();
+
+                    @Override
+                    public Thread newThread(Runnable runnable) {
+                        Thread thread = threads.newThread(runnable);
+                        thread.setDaemon(true);
+                        return thread;
+                    }
+                });
+        return this;
+    }
+
+    /**
+     * @param batchSize
+     *            number of entities sent in a single request by
+     *            createEntities (default: 100)
+     * @return Client object for method call chaining
+     */
+    public Client withBatchSize(int batchSize) {
+        if (batchSize < 1) {
+            throw new IllegalArgumentException("Batch size must be positive");
+        }
+        this.batchSize = batchSize;
+        return this;
+    }
+
+    /**
+     * @return number of entities sent in a single request by createEntities
+     */
+    public int getBatchSize() {
+        return batchSize;
+    }
+
+    /**
+     * Release the pooled connections and async executor, if any. The client
+     * falls back to the shared, unpooled RestTemplate afterwards.
+     */
+    public void shutdown() {
+        if (executor != null) {
+            executor.shutdown();
+            executor = null;
+        }
+        if (connectionManager != null) {
+            connectionManager.shutdown();
+            connectionManager = null;
+        }
+        clientRestTemplate = restTemplate;
+    }
+
     /**
      * Low-level HTTP request method. Synchronous, blocks till response or
      * timeout.
@@ -312,7 +417,9 @@ public class Client {
         if (accessToken != null) {
             String auth = "Bearer " + accessToken;
             requestHeaders.set("Authorization", auth);
-            log.info("Authorization: " + auth);
+            if (log.isDebugEnabled()) {
+                log.debug("Authorization: {}", auth);
+            }
         }
         String url = path(apiUrl, segments);
 
@@ -335,10 +442,12 @@ public class Client {
             requestEntity = new HttpEntity<Object>(requestHeaders);
         }
         log.info("Client.httpRequest(): url: " + url);
-        ResponseEntity<T> responseEntity = restTemplate.exchange(url, method,
-                requestEntity, cls);
-        log.info("Client.httpRequest(): reponse body: "
-                + responseEntity.getBody().toString());
+        ResponseEntity<T> responseEntity = clientRestTemplate.exchange(url,
+                method, requestEntity, cls);
+        if (log.isDebugEnabled()) {
+            log.debug("Client.httpRequest(): reponse body: "
+                    + responseEntity.getBody());
+        }
         return responseEntity.getBody();
     }
 
@@ -357,7 +466,9 @@ public class Client {
         try {
             response = httpRequest(method, ApiResponse.class, params, data,
                     segments);
-            log.info("Client.apiRequest(): Response: " + response);
+            if (log.isDebugEnabled()) {
+                log.debug("Client.apiRequest(): Response: {}", response);
+            }
         } catch (HttpClientErrorException e) {
             log.error("Client.apiRequest(): HTTP error: "
                     + e.getLocalizedMessage());
@@ -374,6 +485,31 @@ public class Client {
         return response;
     }
 
+    /**
+     * High-level Usergrid API request executed on the client's executor.
+     * Requires withPooledConnections to have been called so that the number of
+     * requests in flight is bounded by the connection pool.
+     *
+     * @param method
+     * @param params
+     * @param data
+     * @param segments
+     * @return a future for the response
+     */
+    public Future<ApiResponse> apiRequestAsync(final HttpMethod method,
+            final Map<String, Object> params, final Object data,
+            final String... segments) {
+        if (executor == null) {
+            throw new IllegalStateException(
+                    "Async requests require withPooledConnections");
+        }
+        return executor.submit(new Callable<ApiResponse>() {
+            public ApiResponse call() throws Exception {
+                return apiRequest(method, params, data, segments);
+            }
+        });
+    }
+
     protected void assertValidApplicationId() {
         if (isEmpty(applicationId)) {
             throw new IllegalArgumentException("No application id specified");
@@ -408,9 +544,12 @@ public class Client {
             loggedInUser = response.getUser();
             accessToken = response.getAccessToken();
             currentOrganization = null;
-            log.info("Client.authorizeAppUser(): Access token: " + accessToken);
-        } else {
-            log.info("Client.authorizeAppUser(): Response: " + response);
+            if (log.isDebugEnabled()) {
+                log.debug("Client.authorizeAppUser(): Access token: {}",
+                        accessToken);
+            }
+        } else if (log.isDebugEnabled()) {
+            log.debug("Client.authorizeAppUser(): Response: {}", response);
         }
         return response;
     }
@@ -464,9 +603,12 @@ public class Client {
             loggedInUser = response.getUser();
             accessToken = response.getAccessToken();
             currentOrganization = null;
-            log.info("Client.authorizeAppUser(): Access token: " + accessToken);
-        } else {
-            log.info("Client.authorizeAppUser(): Response: " + response);
+            if (log.isDebugEnabled()) {
+                log.debug("Client.authorizeAppUser(): Access token: {}",
+                        accessToken);
+            }
+        } else if (log.isDebugEnabled()) {
+            log.debug("Client.authorizeAppUser(): Response: {}", response);
         }
         return response;
     }
@@ -497,11 +639,13 @@ public class Client {
             loggedInUser = response.getUser();
             accessToken = response.getAccessToken();
             currentOrganization = null;
-            log.info("Client.authorizeAppUserViaFacebook(): Access token: "
-                    + accessToken);
-        } else {
-            log.info("Client.authorizeAppUserViaFacebook(): Response: "
-                    + response);
+            if (log.isDebugEnabled()) {
+                log.debug("Client.authorizeAppUserViaFacebook(): Access token: {}",
+                        accessToken);
+            }
+        } else if (log.isDebugEnabled()) {
+            log.debug("Client.authorizeAppUserViaFacebook(): Response: {}",
+                    response);
         }
         return response;
     }
@@ -535,10 +679,12 @@ public class Client {
             loggedInUser = null;
             accessToken = response.getAccessToken();
             currentOrganization = null;
-            log.info("Client.authorizeAppClient(): Access token: "
-                    + accessToken);
-        } else {
-            log.info("Client.authorizeAppClient(): Response: " + response);
+            if (log.isDebugEnabled()) {
+                log.debug("Client.authorizeAppClient(): Access token: {}",
+                        accessToken);
+            }
+        } else if (log.isDebugEnabled()) {
+            log.debug("Client.authorizeAppClient(): Response: {}", response);
         }
         return response;
     }
@@ -619,6 +765,82 @@ public class Client {
         return response;
     }
 
+    /**
+     * Asynchronously create a new entity on the server.
+     *
+     * @param entity
+     * @return a future for an ApiResponse with the new entity in it.
+     */
+    public Future<ApiResponse> createEntityAsync(Entity entity) {
+        assertValidApplicationId();
+        if (isEmpty(entity.getType())) {
+            throw new IllegalArgumentException("Missing entity type");
+        }
+        return apiRequestAsync(HttpMethod.POST, null, entity, organizationId,
+                applicationId, entity.getType());
+    }
+
+    /**
+     * Create many entities of one type. Entities are posted as JSON arrays of
+     * up to getBatchSize() entities each, so a large import needs one request
+     * per batch instead of one per entity. When the client is pooled the
+     * batches are sent concurrently.
+     *
+     * @param type
+     *            the collection to create the entities in
+     * @param entities
+     *            the entity properties
+     * @return one ApiResponse per batch, in order
+     */
+    public List<ApiResponse> createEntities(String type,
+            List<? extends Map<String, Object>> entities) {
+        List<Future<ApiResponse>> futures = createEntitiesAsync(type, entities);
+        List<ApiResponse> responses = new ArrayList<ApiResponse>(futures.size());
+        for (Future<ApiResponse> future : futures) {
+            try {
+                responses.add(future.get());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new ClientException("Interrupted creating entities", e);
+            } catch (ExecutionException e) {
+                throw new ClientException("Unable to create entities",
+                        e.getCause());
+            }
+        }
+        return responses;
+    }
+
+    /**
+     * Asynchronous form of createEntities. Without pooled connections the
+     * batches are sent on the calling thread and the returned futures are
+     * already complete.
+     *
+     * @param type
+     * @param entities
+     * @return one future per batch, in order
+     */
+    public List<Future<ApiResponse>> createEntitiesAsync(String type,
+            List<? extends Map<String, Object>> entities) {
+        assertValidApplicationId();
+        if (isEmpty(type)) {
+            throw new IllegalArgumentException("Missing entity type");
+        }
+        List<Future<ApiResponse>> futures = new ArrayList<Future<ApiResponse>>();
+        for (int start = 0; start < entities.size(); start += batchSize) {
+            List<Map<String, Object>> batch = new ArrayList<Map<String, Object>>(
+                    entities.subList(start,
+                            Math.min(start + batchSize, entities.size())));
+            if (executor != null) {
+                futures.add(apiRequestAsync(HttpMethod.POST, null, batch,
+                        organizationId, applicationId, type));
+            } else {
+                futures.add(new CompletedFuture(apiRequest(HttpMethod.POST,
+                        null, batch, organizationId, applicationId, type)));
+            }
+        }
+        return futures;
+    }
+
     /**
      * Creates a user.
      *
@@ -1052,6 +1274,118 @@ public class Client {
 
     }
 
+    /**
+     * Iterate over every entity matched by a query. Pages are fetched lazily
+     * with the response cursor as the iterator reaches the end of the current
+     * page, so only one page is held in memory at a time.
+     *
+     * @param query
+     *            the first page of results, e.g. from queryEntitiesRequest
+     * @return an iterable that may be iterated once
+     */
+    public Iterable<Entity> iterate(final Query query) {
+        return new Iterable<Entity>() {
+            public Iterator<Entity> iterator() {
+                return new PagingIterator(query);
+            }
+        };
+    }
+
+    /**
+     * Iterate over every entity in a collection that matches the provided
+     * query command, fetching pages lazily.
+     *
+     * @param type
+     *            the collection to query
+     * @param ql
+     *            the query, or null for all entities
+     * @return an iterable that may be iterated once
+     */
+    public Iterable<Entity> queryEntities(String type, String ql) {
+        assertValidApplicationId();
+        Map<String, Object> params = new HashMap<String, Object>();
+        if (ql != null) {
+            params.put("ql", ql);
+        }
+        return iterate(queryEntitiesRequest(HttpMethod.GET, params, null,
+                organizationId, applicationId, type));
+    }
+
+    /**
+     * Walks the entities of each page in turn, requesting the next page only
+     * once the current one is exhausted.
+     */
+    private static class PagingIterator implements Iterator<Entity> {
+        Query query;
+        Iterator<Entity> page;
+
+        private PagingIterator(Query query) {
+            this.query = query;
+            this.page = entities(query);
+        }
+
+        private static Iterator<Entity> entities(Query query) {
+            if ((query == null) || (query.getResponse() == null)
+                    || (query.getResponse().getEntities() == null)) {
+                return Collections.<Entity> emptyList().iterator();
+            }
+            return query.getResponse().getEntities().iterator();
+        }
+
+        public boolean hasNext() {
+            while (!page.hasNext()) {
+                if ((query == null) || !query.more()) {
+                    return false;
+                }
+                query = query.next();
+                page = entities(query);
+            }
+            return true;
+        }
+
+        public Entity next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            return page.next();
+        }
+
+        public void remove() {
+            throw new UnsupportedOperationException();
+        }
+    }
+
+    /**
+     * Future for a response that was already received on the calling thread.
+     */
+    private static class CompletedFuture implements Future<ApiResponse> {
+        final ApiResponse response;
+
+        private CompletedFuture(ApiResponse response) {
+            this.response = response;
+        }
+
+        public boolean cancel(boolean mayInterruptIfRunning) {
+            return false;
+        }
+
+        public boolean isCancelled() {
+            return false;
+        }
+
+        public boolean isDone() {
+            return true;
+        }
+
+        public ApiResponse get() {
+            return response;
+        }
+
+        public ApiResponse get(long timeout, TimeUnit unit) {
+            return response;
+        }
+    }
+
     /**
      * Query object
      *
@@ -0,0 +1,88 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.usergrid.benchmarks;
+
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import org.apache.usergrid.persistence.cassandra.CursorCache;
+import org.apache.usergrid.utils.UUIDUtils;
+
+import me.prettyprint.hector.api.beans.DynamicComposite;
+
+
+/**
+ * Measures encoding and decoding of the cursor string returned with every paged query, for a query with three
+ * slices as produced by an AND of two terms and a sort.
+ */
+@State( Scope.Thread )
+@BenchmarkMode( Mode.AverageTime )
+@OutputTimeUnit( TimeUnit.NANOSECONDS )
+@Warmup( iterations = 5 )
+@Measurement( iterations = 10 )
+@Fork( 1 )
+public class CursorCacheBenchmark {
+
+    private static final int[] SLICE_HASHES = { 1983512, -77214390, 412 };
+
+    private ByteBuffer[] cursors;
+
+    private String encoded;
+
+
+    @Setup
+    public void setup() {
+        cursors = new ByteBuffer[SLICE_HASHES.length];
+
+        for ( int i = 0; i < SLICE_HASHES.length; i++ ) {
+            cursors[i] = new DynamicComposite( "value" + i, UUIDUtils.newTimeUUID() ).serialize();
+        }
+
+        encoded = encode();
+    }
+
+
+    @Benchmark
+    public String encode() {
+        CursorCache cache = new CursorCache();
+
+        for ( int i = 0; i < SLICE_HASHES.length; i++ ) {
+            cache.setNextCursor( SLICE_HASHES[i], cursors[i].duplicate() );
+        }
+
+        return cache.asString();
+    }
+
+
+    @Benchmark
+    public ByteBuffer decode() {
+        CursorCache cache = new CursorCache( encoded );
+        return cache.getCursorBytes( SLICE_HASHES[0] );
+    }
+}
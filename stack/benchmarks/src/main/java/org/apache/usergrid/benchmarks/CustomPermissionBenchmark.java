@@ -0,0 +1,115 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.usergrid.benchmarks;
+
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import org.apache.usergrid.security.shiro.CompiledPermissions;
+import org.apache.usergrid.security.shiro.CustomPermission;
+import org.apache.usergrid.utils.UUIDUtils;
+
+
+/**
+ * Measures authorization of a single request against the granted permissions of a subject, both the way Shiro checks
+ * each granted permission in turn until one implies the request, and against the permissions compiled once into
+ * {@link CompiledPermissions}.
+ */
+@State( Scope.Thread )
+@BenchmarkMode( Mode.AverageTime )
+@OutputTimeUnit( TimeUnit.MICROSECONDS )
+@Warmup( iterations = 5 )
+@Measurement( iterations = 10 )
+@Fork( 1 )
+public class CustomPermissionBenchmark {
+
+    private List<CustomPermission> granted;
+
+    private CompiledPermissions compiled;
+
+    private CustomPermission allowed;
+
+    private CustomPermission denied;
+
+
+    @Setup
+    public void setup() {
+        UUID applicationId = UUIDUtils.newTimeUUID();
+
+        granted = new ArrayList<CustomPermission>();
+
+        for ( int i = 0; i < 30; i++ ) {
+            granted.add( new CustomPermission( "applications:get,put:" + applicationId + ":/groups/group" + i + "/**" ) );
+        }
+
+        granted.add( new CustomPermission( "applications:get:" + applicationId + ":/users/*/activities/**" ) );
+        granted.add( new CustomPermission( "applications:get,post,put,delete:" + applicationId + ":/devices/*" ) );
+
+        compiled = new CompiledPermissions( granted );
+
+        allowed = new CustomPermission( "applications:get:" + applicationId + ":/devices/phone" );
+        denied = new CustomPermission( "applications:delete:" + applicationId + ":/users/edanuff" );
+    }
+
+
+    @Benchmark
+    public boolean implied() {
+        return isPermitted( allowed );
+    }
+
+
+    @Benchmark
+    public boolean notImplied() {
+        return isPermitted( denied );
+    }
+
+
+    @Benchmark
+    public boolean compiledImplied() {
+        return compiled.implies( allowed );
+    }
+
+
+    @Benchmark
+    public boolean compiledNotImplied() {
+        return compiled.implies( denied );
+    }
+
+
+    private boolean isPermitted( CustomPermission requested ) {
+        for ( CustomPermission permission : granted ) {
+            if ( permission.implies( requested ) ) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
@@ -0,0 +1,67 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.usergrid.benchmarks;
+
+
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import org.apache.usergrid.persistence.IndexBucketLocator.IndexType;
+import org.apache.usergrid.persistence.cassandra.SimpleIndexBucketLocatorImpl;
+import org.apache.usergrid.utils.UUIDUtils;
+
+
+/** Measures {@link SimpleIndexBucketLocatorImpl#getBucket}, which runs for every index entry written. */
+@State( Scope.Thread )
+@BenchmarkMode( Mode.AverageTime )
+@OutputTimeUnit( TimeUnit.NANOSECONDS )
+@Warmup( iterations = 5 )
+@Measurement( iterations = 10 )
+@Fork( 1 )
+public class IndexBucketLocatorBenchmark {
+
+    private SimpleIndexBucketLocatorImpl locator;
+
+    private UUID applicationId;
+
+    private UUID entityId;
+
+
+    @Setup
+    public void setup() {
+        locator = new SimpleIndexBucketLocatorImpl( 20 );
+        applicationId = UUIDUtils.newTimeUUID();
+        entityId = UUIDUtils.newTimeUUID();
+    }
+
+
+    @Benchmark
+    public String getBucket() {
+        return locator.getBucket( applicationId, IndexType.COLLECTION, entityId, "users", "username" );
+    }
+}
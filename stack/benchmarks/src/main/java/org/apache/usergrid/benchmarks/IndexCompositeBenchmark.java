@@ -0,0 +1,85 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.usergrid.benchmarks;
+
+
+import java.nio.ByteBuffer;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import org.apache.usergrid.persistence.cassandra.IndexUpdate;
+import org.apache.usergrid.utils.UUIDUtils;
+
+import me.prettyprint.hector.api.beans.DynamicComposite;
+
+import static java.util.Arrays.asList;
+
+
+/**
+ * Measures building and serializing the DynamicComposite column names written for every indexed property, in the
+ * same shape as {@link IndexUpdate.IndexEntry#getIndexComposite(Object...)} builds them for connection indexes.
+ */
+@State( Scope.Thread )
+@BenchmarkMode( Mode.AverageTime )
+@OutputTimeUnit( TimeUnit.NANOSECONDS )
+@Warmup( iterations = 5 )
+@Measurement( iterations = 10 )
+@Fork( 1 )
+public class IndexCompositeBenchmark {
+
+    private UUID entityId;
+
+    private UUID timestampUuid;
+
+    private Object stringValue;
+
+    private Object longValue;
+
+
+    @Setup
+    public void setup() {
+        entityId = UUIDUtils.newTimeUUID();
+        timestampUuid = UUIDUtils.newTimeUUID();
+        stringValue = IndexUpdate.toIndexableValue( "Ed Anuff" );
+        longValue = IndexUpdate.toIndexableValue( 42L );
+    }
+
+
+    @Benchmark
+    public ByteBuffer stringIndexComposite() {
+        return new DynamicComposite( IndexUpdate.indexValueCode( stringValue ), stringValue,
+                asList( entityId, "likes", "user" ), timestampUuid ).serialize();
+    }
+
+
+    @Benchmark
+    public ByteBuffer longIndexComposite() {
+        return new DynamicComposite( IndexUpdate.indexValueCode( longValue ), longValue,
+                asList( entityId, "likes", "user" ), timestampUuid ).serialize();
+    }
+}
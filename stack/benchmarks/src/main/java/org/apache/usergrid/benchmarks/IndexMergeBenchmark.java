@@ -0,0 +1,99 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.usergrid.benchmarks;
+
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import org.apache.usergrid.persistence.cassandra.ApplicationCF;
+import org.apache.usergrid.persistence.cassandra.index.IndexMultiBucketSetLoader;
+import org.apache.usergrid.utils.UUIDUtils;
+
+import me.prettyprint.hector.api.beans.DynamicComposite;
+import me.prettyprint.hector.api.beans.HColumn;
+import me.prettyprint.hector.api.factory.HFactory;
+
+import static org.apache.usergrid.persistence.cassandra.Serializers.be;
+
+
+/**
+ * Measures the in memory merge of index columns read from every bucket, which {@link IndexMultiBucketSetLoader}
+ * performs for each page of an indexed query.
+ */
+@State( Scope.Thread )
+@BenchmarkMode( Mode.AverageTime )
+@OutputTimeUnit( TimeUnit.MICROSECONDS )
+@Warmup( iterations = 5 )
+@Measurement( iterations = 10 )
+@Fork( 1 )
+public class IndexMergeBenchmark {
+
+    @Param( { "20", "100" } )
+    public int buckets;
+
+    @Param( { "10", "1000" } )
+    public int pageSize;
+
+    private Map<ByteBuffer, List<HColumn<ByteBuffer, ByteBuffer>>> results;
+
+
+    @Setup
+    public void setup() {
+        results = new LinkedHashMap<ByteBuffer, List<HColumn<ByteBuffer, ByteBuffer>>>();
+
+        ByteBuffer empty = ByteBuffer.allocate( 0 );
+
+        for ( int bucket = 0; bucket < buckets; bucket++ ) {
+            List<HColumn<ByteBuffer, ByteBuffer>> columns = new ArrayList<HColumn<ByteBuffer, ByteBuffer>>();
+
+            // each bucket returns up to a page of columns, already sorted as cassandra would
+            for ( int i = 0; i < pageSize; i++ ) {
+                UUID entityId = UUIDUtils.newTimeUUID();
+                ByteBuffer name = new DynamicComposite( ( byte ) 1, "value" + ( i * buckets + bucket ), entityId,
+                        UUIDUtils.newTimeUUID() ).serialize();
+                columns.add( HFactory.createColumn( name, empty, be, be ) );
+            }
+
+            results.put( ByteBuffer.wrap( ( "bucket" + bucket ).getBytes() ), columns );
+        }
+    }
+
+
+    @Benchmark
+    public TreeSet<HColumn<ByteBuffer, ByteBuffer>> merge() {
+        return IndexMultiBucketSetLoader.merge( results, ApplicationCF.ENTITY_INDEX, pageSize, false );
+    }
+}
@@ -0,0 +1,73 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.usergrid.benchmarks;
+
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import org.apache.usergrid.utils.JsonUtils;
+
+
+/**
+ * Measures {@link JsonUtils#normalizeJsonTree(Object)} over a nested document.  Normalizing is idempotent, so the
+ * same tree is reused across invocations, which still walks every node and attempts every uuid conversion.
+ */
+@State( Scope.Thread )
+@BenchmarkMode( Mode.AverageTime )
+@OutputTimeUnit( TimeUnit.MICROSECONDS )
+@Warmup( iterations = 5 )
+@Measurement( iterations = 10 )
+@Fork( 1 )
+public class JsonUtilsBenchmark {
+
+    private static final String DOCUMENT = "{\"uuid\":\"0c3a7ac0-0d22-11e4-9191-0800200c9a66\",\"type\":\"product\","
+            + "\"name\":\"red shoe\",\"price\":120,\"sizes\":[7,8,9,10,11],\"tags\":[\"footwear\",\"sale\",\"red\"],"
+            + "\"metadata\":{\"owner\":\"1c3a7ac0-0d22-11e4-9191-0800200c9a66\",\"revision\":3,"
+            + "\"history\":[{\"by\":\"2c3a7ac0-0d22-11e4-9191-0800200c9a66\",\"at\":1405000000000},"
+            + "{\"by\":\"3c3a7ac0-0d22-11e4-9191-0800200c9a66\",\"at\":1405000001000}]}}";
+
+    private Object tree;
+
+
+    @Setup
+    public void setup() {
+        tree = JsonUtils.parse( DOCUMENT );
+    }
+
+
+    @Benchmark
+    public Object normalizeJsonTree() {
+        return JsonUtils.normalizeJsonTree( tree );
+    }
+
+
+    @Benchmark
+    public Object parseAndNormalizeJsonTree() {
+        return JsonUtils.normalizeJsonTree( JsonUtils.parse( DOCUMENT ) );
+    }
+}
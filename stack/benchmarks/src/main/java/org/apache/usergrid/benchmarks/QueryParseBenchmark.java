@@ -0,0 +1,59 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.usergrid.benchmarks;
+
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Warmup;
+
+import org.apache.usergrid.persistence.Query;
+import org.apache.usergrid.persistence.exceptions.QueryParseException;
+
+
+/** Measures parsing of query language strings with {@link Query#fromQL(String)}. */
+@BenchmarkMode( Mode.AverageTime )
+@OutputTimeUnit( TimeUnit.MICROSECONDS )
+@Warmup( iterations = 5 )
+@Measurement( iterations = 10 )
+@Fork( 1 )
+public class QueryParseBenchmark {
+
+    @Benchmark
+    public Query simpleEquality() throws QueryParseException {
+        return Query.fromQL( "select * where username = 'edanuff'" );
+    }
+
+
+    @Benchmark
+    public Query compoundWithSort() throws QueryParseException {
+        return Query.fromQL( "select * where status = 'active' and age > 21 and not banned = true "
+                + "or name contains 'ed*' order by created desc" );
+    }
+
+
+    @Benchmark
+    public Query location() throws QueryParseException {
+        return Query.fromQL( "select * where location within 1000 of 37.776753, -122.407846" );
+    }
+}
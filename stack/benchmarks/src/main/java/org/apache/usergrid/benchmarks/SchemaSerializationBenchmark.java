@@ -0,0 +1,106 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.usergrid.benchmarks;
+
+
+import java.nio.ByteBuffer;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import org.apache.usergrid.persistence.Schema;
+import org.apache.usergrid.utils.UUIDUtils;
+
+
+/**
+ * Measures the per property cost of turning entity properties into column values and back, which every entity read
+ * and write pays for each of its properties.
+ */
+@State( Scope.Thread )
+@BenchmarkMode( Mode.AverageTime )
+@OutputTimeUnit( TimeUnit.MICROSECONDS )
+@Warmup( iterations = 5 )
+@Measurement( iterations = 10 )
+@Fork( 1 )
+public class SchemaSerializationBenchmark {
+
+    private Map<String, Object> properties;
+
+    private Map<String, ByteBuffer> columns;
+
+
+    @Setup
+    public void setup() {
+        UUID uuid = UUIDUtils.newTimeUUID();
+
+        Map<String, Object> location = new HashMap<String, Object>();
+        location.put( "latitude", 37.776753 );
+        location.put( "longitude", -122.407846 );
+
+        properties = new LinkedHashMap<String, Object>();
+        properties.put( "uuid", uuid );
+        properties.put( "type", "user" );
+        properties.put( "created", System.currentTimeMillis() );
+        properties.put( "modified", System.currentTimeMillis() );
+        properties.put( "username", "edanuff" );
+        properties.put( "email", "ed@anuff.com" );
+        properties.put( "name", "Ed Anuff" );
+        properties.put( "activated", true );
+        properties.put( "age", 42 );
+        properties.put( "location", location );
+        properties.put( "owner", UUIDUtils.newTimeUUID().toString() );
+
+        columns = new LinkedHashMap<String, ByteBuffer>();
+        for ( Entry<String, Object> property : properties.entrySet() ) {
+            columns.put( property.getKey(),
+                    Schema.serializeEntityProperty( "user", property.getKey(), property.getValue() ) );
+        }
+    }
+
+
+    @Benchmark
+    public void serializeEntityProperties( Blackhole bh ) {
+        for ( Entry<String, Object> property : properties.entrySet() ) {
+            bh.consume( Schema.serializeEntityProperty( "user", property.getKey(), property.getValue() ) );
+        }
+    }
+
+
+    @Benchmark
+    public Map<String, Object> deserializeEntityProperties() {
+        Map<String, ByteBuffer> copy = new LinkedHashMap<String, ByteBuffer>( columns.size() );
+        for ( Entry<String, ByteBuffer> column : columns.entrySet() ) {
+            copy.put( column.getKey(), column.getValue().duplicate() );
+        }
+        return Schema.deserializeEntityProperties( copy );
+    }
+}
@@ -0,0 +1,167 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.usergrid.benchmarks;
+
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import org.apache.usergrid.persistence.cassandra.CursorCache;
+import org.apache.usergrid.persistence.query.ir.result.ResultIterator;
+import org.apache.usergrid.persistence.query.ir.result.ScanColumn;
+import org.apache.usergrid.persistence.query.ir.result.SubtractionIterator;
+import org.apache.usergrid.persistence.query.ir.result.UUIDIndexSliceParser;
+import org.apache.usergrid.utils.UUIDUtils;
+
+
+/**
+ * Measures paging through a NOT query, such as <code>status = 'active' and not banned = true</code>, with {@link
+ * SubtractionIterator}.  Both sides are equality slices returned in uuid order, the subtract side holding the given
+ * percentage of the keep side.  The slices are held in memory, so this measures the merge and the number of pages
+ * read rather than Cassandra.
+ */
+@State( Scope.Thread )
+@BenchmarkMode( Mode.AverageTime )
+@OutputTimeUnit( TimeUnit.MILLISECONDS )
+@Warmup( iterations = 5 )
+@Measurement( iterations = 10 )
+@Fork( 1 )
+public class SubtractionBenchmark {
+
+    private static final int PAGE_SIZE = 1000;
+
+    @Param( { "1", "50" } )
+    public int subtractPercent;
+
+    @Param( { "100000" } )
+    public int keepSize;
+
+    private List<ScanColumn> keep;
+
+    private List<ScanColumn> subtract;
+
+
+    @Setup
+    public void setup() {
+        keep = new ArrayList<ScanColumn>( keepSize );
+        subtract = new ArrayList<ScanColumn>();
+
+        ByteBuffer empty = ByteBuffer.allocate( 0 );
+        int every = 100 / subtractPercent;
+
+        for ( int i = 0; i < keepSize; i++ ) {
+            ScanColumn col = new UUIDIndexSliceParser.UUIDColumn( UUIDUtils.newTimeUUID(), empty );
+            keep.add( col );
+
+            if ( i % every == 0 ) {
+                subtract.add( col );
+            }
+        }
+    }
+
+
+    @Benchmark
+    public int subtractAllPages() {
+        SubtractionIterator sub = new SubtractionIterator( PAGE_SIZE );
+        sub.setKeepIterator( new SliceResults( keep ) );
+        sub.setSubtractIterator( new SliceResults( subtract ) );
+
+        int count = 0;
+
+        while ( sub.hasNext() ) {
+            count += sub.next().size();
+        }
+
+        return count;
+    }
+
+
+    /** Pages through a list of columns in uuid order, as an equality slice would */
+    private static class SliceResults implements ResultIterator {
+
+        private final List<ScanColumn> columns;
+
+        private int position;
+
+
+        private SliceResults( List<ScanColumn> columns ) {
+            this.columns = columns;
+        }
+
+
+        @Override
+        public void reset() {
+            position = 0;
+        }
+
+
+        @Override
+        public void finalizeCursor( CursorCache cache, UUID lastValue ) {
+        }
+
+
+        @Override
+        public boolean isUUIDOrdered() {
+            return true;
+        }
+
+
+        @Override
+        public Iterator<Set<ScanColumn>> iterator() {
+            return this;
+        }
+
+
+        @Override
+        public boolean hasNext() {
+            return position < columns.size();
+        }
+
+
+        @Override
+        public Set<ScanColumn> next() {
+            int end = Math.min( position + PAGE_SIZE, columns.size() );
+            Set<ScanColumn> page = new LinkedHashSet<ScanColumn>( columns.subList( position, end ) );
+            position = end;
+            return page;
+        }
+
+
+        @Override
+        public void remove() {
+            throw new UnsupportedOperationException();
+        }
+    }
+}
@@ -0,0 +1,37 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.usergrid.events;
+
+
+/**
+ * Fans entity change events out to listeners in this JVM and, through an optional {@link EntityChangeTransport}, to
+ * the other nodes of the cluster.
+ */
+public interface EntityChangeBus {
+
+    /**
+     * Publish a change.  Must never block or fail the write that produced it, events may be dropped under load.
+     */
+    public void publish( EntityChangeEvent event );
+
+    public void addListener( EntityChangeListener listener );
+
+    public void removeListener( EntityChangeListener listener );
+
+    /** @return true if anything would receive a published event */
+    public boolean hasSubscribers();
+}
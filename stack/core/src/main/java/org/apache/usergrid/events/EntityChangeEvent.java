@@ -0,0 +1,114 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.usergrid.events;
+
+
+import java.io.Serializable;
+import java.util.UUID;
+
+
+/**
+ * A lightweight notification that an entity was written.  Only the identity of the entity is carried, subscribers
+ * that need the new state load it themselves.
+ */
+public class EntityChangeEvent implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+
+    public enum ChangeType {
+        CREATED, UPDATED, DELETED
+    }
+
+
+    private UUID applicationId;
+    private UUID entityId;
+    private String entityType;
+    private ChangeType changeType;
+    private long timestamp;
+
+
+    public EntityChangeEvent() {
+    }
+
+
+    public EntityChangeEvent( UUID applicationId, UUID entityId, String entityType, ChangeType changeType,
+                              long timestamp ) {
+        this.applicationId = applicationId;
+        this.entityId = entityId;
+        this.entityType = entityType;
+        this.changeType = changeType;
+        this.timestamp = timestamp;
+    }
+
+
+    public UUID getApplicationId() {
+        return applicationId;
+    }
+
+
+    public void setApplicationId( UUID applicationId ) {
+        this.applicationId = applicationId;
+    }
+
+
+    public UUID getEntityId() {
+        return entityId;
+    }
+
+
+    public void setEntityId( UUID entityId ) {
+        this.entityId = entityId;
+    }
+
+
+    public String getEntityType() {
+        return entityType;
+    }
+
+
+    public void setEntityType( String entityType ) {
+        this.entityType = entityType;
+    }
+
+
+    public ChangeType getChangeType() {
+        return changeType;
+    }
+
+
+    public void setChangeType( ChangeType changeType ) {
+        this.changeType = changeType;
+    }
+
+
+    /** @return the time of the write in milliseconds */
+    public long getTimestamp() {
+        return timestamp;
+    }
+
+
+    public void setTimestamp( long timestamp ) {
+        this.timestamp = timestamp;
+    }
+
+
+    @Override
+    public String toString() {
+        return "EntityChangeEvent [" + changeType + " " + entityType + " " + entityId + " in " + applicationId + "]";
+    }
+}
@@ -14,23 +14,15 @@
  * See the License for the specific language governing permissions and
  * limitations under the License.
  */
-package org.apache.usergrid.persistence.cassandra.util;
+package org.apache.usergrid.events;
 
 
-import java.lang.annotation.ElementType;
-import java.lang.annotation.Retention;
-import java.lang.annotation.RetentionPolicy;
-import java.lang.annotation.Target;
+/** Receives entity change events from an {@link EntityChangeBus} */
+public interface EntityChangeListener {
 
-
-/**
- * Mark a method as able to participate in a trace session
- *
- * @author zznate
- */
-@Target(value = { ElementType.METHOD })
-@Retention(RetentionPolicy.RUNTIME)
-public @interface TraceParticipant {
-
-    String name() default "";
+    /**
+     * Called on a bus thread, never on the thread that performed the write.  Implementations must not block for
+     * long, since they delay delivery to every other listener.
+     */
+    public void onEntityChange( EntityChangeEvent event );
 }
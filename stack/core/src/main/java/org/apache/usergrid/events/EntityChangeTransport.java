@@ -0,0 +1,30 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.usergrid.events;
+
+
+/** Carries entity change events between nodes so listeners see writes made anywhere in the cluster */
+public interface EntityChangeTransport {
+
+    /** Send an event that originated on this node to every other node */
+    public void send( EntityChangeEvent event );
+
+    /** Set the listener that receives events originating on other nodes */
+    public void setReceiver( EntityChangeListener receiver );
+
+    public void close();
+}
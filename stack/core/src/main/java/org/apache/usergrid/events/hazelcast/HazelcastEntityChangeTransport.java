@@ -0,0 +1,76 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.usergrid.events.hazelcast;
+
+
+import java.util.UUID;
+
+import org.apache.usergrid.events.EntityChangeEvent;
+import org.apache.usergrid.events.EntityChangeListener;
+import org.apache.usergrid.events.EntityChangeTransport;
+
+import com.hazelcast.core.Hazelcast;
+import com.hazelcast.core.ITopic;
+import com.hazelcast.core.MessageListener;
+
+
+/**
+ * Sends entity change events between nodes on a Hazelcast topic.  Hazelcast delivers a topic message to the
+ * publishing member too, so each node tags its events with a node id and ignores its own.
+ */
+public class HazelcastEntityChangeTransport implements EntityChangeTransport, MessageListener<Object[]> {
+
+    private final String nodeId = UUID.randomUUID().toString();
+
+    private final ITopic<Object[]> topic;
+
+    private volatile EntityChangeListener receiver;
+
+
+    public HazelcastEntityChangeTransport( String topicName ) {
+        topic = Hazelcast.getTopic( topicName );
+        topic.addMessageListener( this );
+    }
+
+
+    @Override
+    public void send( EntityChangeEvent event ) {
+        topic.publish( new Object[] { nodeId, event } );
+    }
+
+
+    @Override
+    public void setReceiver( EntityChangeListener receiver ) {
+        this.receiver = receiver;
+    }
+
+
+    @Override
+    public void onMessage( Object[] message ) {
+        EntityChangeListener r = receiver;
+        if ( ( r == null ) || nodeId.equals( message[0] ) ) {
+            return;
+        }
+        r.onEntityChange( ( EntityChangeEvent ) message[1] );
+    }
+
+
+    @Override
+    public void close() {
+        topic.removeMessageListener( this );
+    }
+}
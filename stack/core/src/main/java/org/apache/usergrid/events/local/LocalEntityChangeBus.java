@@ -0,0 +1,179 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.usergrid.events.local;
+
+
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.RejectedExecutionHandler;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import org.apache.usergrid.events.EntityChangeBus;
+import org.apache.usergrid.events.EntityChangeEvent;
+import org.apache.usergrid.events.EntityChangeListener;
+import org.apache.usergrid.events.EntityChangeTransport;
+
+import com.yammer.metrics.Metrics;
+import com.yammer.metrics.core.Counter;
+
+
+/**
+ * In-JVM event bus.  Publishing only enqueues the event, delivery happens on a small pool of daemon threads so a
+ * slow listener never holds up a write.  The queue is bounded and events are dropped once it is full.
+ * <p/>
+ * When a transport is set, events published on this node are also sent to the other nodes, and events received from
+ * them are delivered to the local listeners only.
+ */
+public class LocalEntityChangeBus implements EntityChangeBus {
+
+    private static final Logger logger = LoggerFactory.getLogger( LocalEntityChangeBus.class );
+
+    private final Counter published = Metrics.newCounter( LocalEntityChangeBus.class, "events_published" );
+    private final Counter dropped = Metrics.newCounter( LocalEntityChangeBus.class, "events_dropped" );
+
+    private final List<EntityChangeListener> listeners = new CopyOnWriteArrayList<EntityChangeListener>();
+
+    private final ThreadPoolExecutor executor;
+
+    private EntityChangeTransport transport;
+
+
+    public LocalEntityChangeBus( int queueSize, int threads ) {
+        executor = new ThreadPoolExecutor( threads, threads, 0L, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<Runnable>( queueSize ), new DaemonThreadFactory(), new DropPolicy() );
+    }
+
+
+    public void setTransport( EntityChangeTransport transport ) {
+        this.transport = transport;
+        if ( transport != null ) {
+            transport.setReceiver( new EntityChangeListener() {
+                @Override
+                public void onEntityChange( EntityChangeEvent event ) {
+                    enqueue( event, false );
+                }
+            } );
+        }
+    }
+
+
+    public EntityChangeTransport getTransport() {
+        return transport;
+    }
+
+
+    @Override
+    public void publish( EntityChangeEvent event ) {
+        if ( !hasSubscribers() ) {
+            return;
+        }
+        published.inc();
+        enqueue( event, transport != null );
+    }
+
+
+    private void enqueue( final EntityChangeEvent event, final boolean forward ) {
+        if ( listeners.isEmpty() && !forward ) {
+            return;
+        }
+        executor.execute( new Runnable() {
+            @Override
+            public void run() {
+                deliver( event, forward );
+            }
+        } );
+    }
+
+
+    private void deliver( EntityChangeEvent event, boolean forward ) {
+        if ( forward ) {
+            try {
+                transport.send( event );
+            }
+            catch ( Exception e ) {
+                logger.warn( "Unable to send {} to other nodes", event, e );
+            }
+        }
+
+        for ( EntityChangeListener listener : listeners ) {
+            try {
+                listener.onEntityChange( event );
+            }
+            catch ( Exception e ) {
+                logger.error( "Listener {} failed on {}", new Object[] { listener, event, e } );
+            }
+        }
+    }
+
+
+    @Override
+    public void addListener( EntityChangeListener listener ) {
+        listeners.add( listener );
+    }
+
+
+    @Override
+    public void removeListener( EntityChangeListener listener ) {
+        listeners.remove( listener );
+    }
+
+
+    @Override
+    public boolean hasSubscribers() {
+        return transport != null || !listeners.isEmpty();
+    }
+
+
+    public void destroy() {
+        executor.shutdown();
+        if ( transport != null ) {
+            transport.close();
+        }
+    }
+
+
+    /** Never block the publishing thread, drop the event and count it instead */
+    private class DropPolicy implements RejectedExecutionHandler {
+
+        @Override
+        public void rejectedExecution( Runnable r, ThreadPoolExecutor executor ) {
+            dropped.inc();
+            logger.debug( "Event queue full, dropping event" );
+        }
+    }
+
+
+    private static class DaemonThreadFactory implements ThreadFactory {
+
+        private final AtomicInteger count = new AtomicInteger();
+
+
+        @Override
+        public Thread newThread( Runnable r ) {
+            Thread thread = new Thread( r, "EntityChangeBus-" + count.incrementAndGet() );
+            thread.setDaemon( true );
+            return thread;
+        }
+    }
+}
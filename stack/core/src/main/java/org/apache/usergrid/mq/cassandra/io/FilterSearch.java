@@ -18,8 +18,11 @@ package org.apache.usergrid.mq.cassandra.io;
 
 
 import java.nio.ByteBuffer;
-import java.util.Iterator;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Set;
 import java.util.SortedSet;
 import java.util.TreeSet;
 import java.util.UUID;
@@ -35,6 +38,7 @@ import org.apache.usergrid.mq.QueueResults;
 import com.fasterxml.uuid.UUIDComparator;
 
 import me.prettyprint.hector.api.Keyspace;
+import me.prettyprint.hector.api.beans.AbstractComposite.Component;
 import me.prettyprint.hector.api.beans.AbstractComposite.ComponentEquality;
 import me.prettyprint.hector.api.beans.DynamicComposite;
 import me.prettyprint.hector.api.beans.HColumn;
@@ -63,6 +67,11 @@ public class FilterSearch extends NoTransactionSearch
 
     private static final Logger logger = LoggerFactory.getLogger( FilterSearch.class );
 
+    /** Slices with more distinct values in a shard are read whole instead of merged in message order */
+    public static final int MAX_MERGED_VALUES = 32;
+
+    private int columnsRead;
+
 
     /**
      *
@@ -86,49 +95,14 @@ public class FilterSearch extends NoTransactionSearch
         QueryProcessor qp = new QueryProcessor( query );
         List<QuerySlice> slices = qp.getSlices();
 
-        long limit = query.getLimit();
-
         UUID queueId = getQueueId( queuePath );
         UUID consumerId = getConsumerId( queueId, query );
         QueueBounds bounds = getQueueBounds( queueId );
 
-        UUIDComparator comparator = query.isReversed() ? new ReverseUUIDComparator() : new UUIDComparator();
-
-        SortedSet<UUID> merged = null;
-
-        for ( QuerySlice slice : slices )
-        {
-            SortedSet<UUID> results =
-                    searchQueueRange( ko, queueId, bounds, slice, query.getLastMessageId(), query.isReversed(),
-                            comparator );
-
-            if ( merged == null )
-            {
-                merged = results;
-            }
-            else
-            {
-                merged.retainAll( results );
-            }
-        }
-
-        // now trim. Not efficient, but when indexing is updated, seeking will
-        // change, so I'm not worried about this.
-        if ( merged.size() > limit )
-        {
-            Iterator<UUID> current = merged.iterator();
-            UUID max = null;
-
-
-            for ( int i = 0; i <= limit && current.hasNext(); i++ )
-            {
-                max = current.next();
-            }
-
-            merged = merged.headSet( max );
-        }
+        List<UUID> ids = searchQueue( queueId, bounds, slices, query.getLastMessageId(), query.isReversed(),
+                query.getLimit() );
 
-        List<Message> messages = loadMessages( merged, query.isReversed() );
+        List<Message> messages = loadMessages( ids, query.isReversed() );
 
         QueueResults results = createResults( messages, queuePath, queueId, consumerId );
 
@@ -136,16 +110,39 @@ public class FilterSearch extends NoTransactionSearch
     }
 
 
-    public SortedSet<UUID> searchQueueRange( Keyspace ko, UUID queueId, QueueBounds bounds, QuerySlice slice, UUID last,
-                                             boolean reversed, UUIDComparator comparator )
+    /** @return the number of index columns read by the last search */
+    public int getColumnsRead()
+    {
+        return columnsRead;
+    }
+
+
+    /**
+     * Find the first messages after the last one returned that match every slice. Shards are searched in queue order
+     * and the search stops at the first shard that fills the limit, so a page never reads further into the queue than
+     * it has to. Passing the last returned message back in resumes the search where the previous page stopped.
+     *
+     * @param last the last message returned by the previous page, or null to start at the queue bound
+     *
+     * @return the matching message ids in queue order
+     */
+    public List<UUID> searchQueue( UUID queueId, QueueBounds bounds, List<QuerySlice> slices, UUID last,
+                                   boolean reversed, int limit )
     {
 
-        TreeSet<UUID> uuid_set = new TreeSet<UUID>( comparator );
+        columnsRead = 0;
+
+        List<UUID> ids = new ArrayList<UUID>();
 
         if ( bounds == null )
         {
             logger.error( "Necessary queue bounds not found" );
-            return uuid_set;
+            return ids;
+        }
+
+        if ( slices.isEmpty() )
+        {
+            return ids;
         }
 
         UUID start_uuid = reversed ? bounds.getNewest() : bounds.getOldest();
@@ -157,89 +154,446 @@ public class FilterSearch extends NoTransactionSearch
             start_uuid = last;
         }
 
-
         if ( finish_uuid == null )
         {
             logger.error( "No last message in queue" );
-            return uuid_set;
+            return ids;
         }
 
+        UUIDComparator comparator = reversed ? new ReverseUUIDComparator() : new UUIDComparator();
+
         long start_ts_shard = roundLong( getTimestampInMillis( start_uuid ), QUEUE_SHARD_INTERVAL );
 
         long finish_ts_shard = roundLong( getTimestampInMillis( finish_uuid ), QUEUE_SHARD_INTERVAL );
 
         long current_ts_shard = start_ts_shard;
 
-        if ( reversed )
-        {
-            current_ts_shard = finish_ts_shard;
-        }
+        SearchRange range = new SearchRange( start_uuid, last != null, finish_uuid, comparator );
 
-        ByteBuffer start = null;
-        if ( slice.getCursor() != null )
+        while ( ( reversed ? current_ts_shard >= finish_ts_shard : current_ts_shard <= finish_ts_shard ) && ( ids.size()
+                < limit ) )
         {
-            start = slice.getCursor();
+            searchShard( queueId, current_ts_shard, slices, range, last, reversed, limit, ids );
+
+            if ( reversed )
+            {
+                current_ts_shard -= QUEUE_SHARD_INTERVAL;
+            }
+            else
+            {
+                current_ts_shard += QUEUE_SHARD_INTERVAL;
+            }
         }
-        else if ( slice.getStart() != null )
+
+        return ids;
+    }
+
+
+    /** Add the messages in the shard that match every slice to the ids, until the limit is reached */
+    private void searchShard( UUID queueId, long shard, List<QuerySlice> slices, SearchRange range, UUID last,
+                              boolean reversed, int limit, List<UUID> ids )
+    {
+
+        List<SliceValues> values = new ArrayList<SliceValues>( slices.size() );
+
+        for ( QuerySlice slice : slices )
         {
-            DynamicComposite s = new DynamicComposite( slice.getStart().getCode(), slice.getStart().getValue() );
-            if ( !slice.getStart().isInclusive() )
+            SliceValues sliceValues = new SliceValues( slice, getValues( queueId, shard, slice ) );
+
+            // nothing in this shard can match every slice
+            if ( sliceValues.values != null && sliceValues.values.isEmpty() )
             {
-                setEqualityFlag( s, ComponentEquality.GREATER_THAN_EQUAL );
+                return;
             }
-            start = s.serialize();
+
+            values.add( sliceValues );
         }
 
-        ByteBuffer finish = null;
-        if ( slice.getFinish() != null )
+        // the slice with the fewest values drives the search, the others only check its matches
+        Collections.sort( values );
+
+        SliceValues driver = values.get( 0 );
+        List<SliceValues> others = values.subList( 1, values.size() );
+
+        if ( driver.values == null )
         {
-            DynamicComposite f = new DynamicComposite( slice.getFinish().getCode(), slice.getFinish().getValue() );
-            if ( slice.getFinish().isInclusive() )
+            SortedSet<UUID> matches = new TreeSet<UUID>( range.comparator );
+            matches.addAll( searchAll( queueId, shard, driver ) );
+
+            if ( !matches.isEmpty() )
             {
-                setEqualityFlag( f, ComponentEquality.GREATER_THAN_EQUAL );
+                UUID low = reversed ? matches.last() : matches.first();
+                UUID high = reversed ? matches.first() : matches.last();
+                retainMatches( queueId, shard, others, low, high, matches );
             }
-            finish = f.serialize();
+
+            range.addTo( matches, limit, ids );
+            return;
         }
 
-        while ( ( current_ts_shard >= start_ts_shard ) && ( current_ts_shard <= finish_ts_shard ) && ( uuid_set.size()
-                < DEFAULT_SEARCH_COUNT ) )
+        UUID after = last;
+        int count = Math.min( Math.max( limit, 1 ), DEFAULT_SEARCH_COUNT );
+
+        // messages read past the end of the page, kept for the next one
+        SortedSet<UUID> pending = new TreeSet<UUID>( range.comparator );
+
+        while ( ids.size() < limit )
         {
+            SortedSet<UUID> matches = pending;
+            pending = new TreeSet<UUID>( range.comparator );
+
+            // the page is complete up to the nearest message any unfinished value was read to
+            UUID end = null;
 
-            while ( true )
+            for ( DynamicComposite value : driver.values )
             {
-                List<HColumn<ByteBuffer, ByteBuffer>> results =
-                        createSliceQuery( ko, be, be, be ).setColumnFamily( PROPERTY_INDEX.getColumnFamily() )
-                                .setKey( bytebuffer( key( queueId, current_ts_shard, slice.getPropertyName() ) ) )
-                                .setRange( start, finish, false, DEFAULT_SEARCH_COUNT ).execute().get().getColumns();
+                List<UUID> page = searchValue( queueId, shard, driver.slice, value, after, count, reversed );
 
-                for ( HColumn<ByteBuffer, ByteBuffer> column : results )
+                matches.addAll( page );
+
+                if ( page.size() == count )
                 {
-                    DynamicComposite c = DynamicComposite.fromByteBuffer( column.getName().duplicate() );
-                    UUID uuid = c.get( 2, ue );
+                    UUID lastRead = page.get( page.size() - 1 );
 
-                    uuid_set.add( uuid );
+                    if ( end == null || range.comparator.compare( lastRead, end ) < 0 )
+                    {
+                        end = lastRead;
+                    }
                 }
+            }
+
+            if ( end != null )
+            {
+                pending.addAll( matches.tailSet( end ) );
+                pending.remove( end );
+                matches.removeAll( pending );
+            }
+
+            if ( !matches.isEmpty() )
+            {
+                UUID low = reversed ? matches.last() : matches.first();
+                UUID high = reversed ? matches.first() : matches.last();
+                retainMatches( queueId, shard, others, low, high, matches );
+            }
+
+            range.addTo( matches, limit, ids );
+
+            if ( end == null )
+            {
+                return;
+            }
+
+            after = end;
+
+            // the other slices are filtering, so read further ahead next time
+            count = Math.min( count * 2, DEFAULT_SEARCH_COUNT );
+        }
+    }
+
+
+    /**
+     * Remove the matches that aren't in every other slice. Slices with known values are only read between the low and
+     * high message ids of the matches.
+     */
+    private void retainMatches( UUID queueId, long shard, List<SliceValues> slices, UUID low, UUID high,
+                                SortedSet<UUID> matches )
+    {
+
+        for ( int i = 0; i < slices.size() && !matches.isEmpty(); i++ )
+        {
+            SliceValues sliceValues = slices.get( i );
 
-                if ( results.size() < DEFAULT_SEARCH_COUNT )
+            if ( sliceValues.values == null )
+            {
+                // read at most once per shard, it's the same whatever the page
+                if ( sliceValues.all == null )
                 {
-                    break;
+                    sliceValues.all = searchAll( queueId, shard, sliceValues );
                 }
 
-                start = results.get( results.size() - 1 ).getName().duplicate();
+                matches.retainAll( sliceValues.all );
+                continue;
             }
 
-            if ( reversed )
+            Set<UUID> found = new HashSet<UUID>();
+
+            for ( DynamicComposite value : sliceValues.values )
             {
-                current_ts_shard -= QUEUE_SHARD_INTERVAL;
+                ByteBuffer start = messageBound( value, low, ComponentEquality.EQUAL );
+                ByteBuffer finish = messageBound( value, high, ComponentEquality.GREATER_THAN_EQUAL );
+                found.addAll( searchAll( queueId, shard, sliceValues.slice, start, finish ) );
             }
-            else
+
+            matches.retainAll( found );
+        }
+    }
+
+
+    /**
+     * Find the distinct values of the slice in the shard, reading one column per value. The columns of a single value
+     * are ordered by message id, so the slice can then be read in message order by merging its values.
+     *
+     * @return the values, or null if there are more than {@link #MAX_MERGED_VALUES}
+     */
+    private List<DynamicComposite> getValues( UUID queueId, long shard, QuerySlice slice )
+    {
+
+        List<DynamicComposite> values = new ArrayList<DynamicComposite>();
+
+        ByteBuffer start = getStart( slice );
+        ByteBuffer finish = getFinish( slice );
+
+        while ( true )
+        {
+            List<HColumn<ByteBuffer, ByteBuffer>> results =
+                    readIndex( queueId, shard, slice, start, finish, false, 1 );
+
+            if ( results.isEmpty() )
             {
-                current_ts_shard += QUEUE_SHARD_INTERVAL;
+                return values;
+            }
+
+            if ( values.size() == MAX_MERGED_VALUES )
+            {
+                return null;
             }
+
+            DynamicComposite value = getValue( results.get( 0 ) );
+            values.add( value );
+
+            start = messageBound( value, null, ComponentEquality.GREATER_THAN_EQUAL );
         }
+    }
+
+
+    /** Read a page of one value of a slice in message order, starting after the given message */
+    private List<UUID> searchValue( UUID queueId, long shard, QuerySlice slice, DynamicComposite value, UUID after,
+                                    int count, boolean reversed )
+    {
 
-        // trim the results
-        return uuid_set.headSet( finish_uuid ).tailSet( start_uuid );
+        ByteBuffer start;
+        ByteBuffer finish;
+
+        if ( reversed )
+        {
+            start = after == null ? messageBound( value, null, ComponentEquality.GREATER_THAN_EQUAL ) :
+                    messageBound( value, after, ComponentEquality.LESS_THAN_EQUAL );
+            finish = messageBound( value, null, ComponentEquality.EQUAL );
+        }
+        else
+        {
+            start = after == null ? messageBound( value, null, ComponentEquality.EQUAL ) :
+                    messageBound( value, after, ComponentEquality.GREATER_THAN_EQUAL );
+            finish = messageBound( value, null, ComponentEquality.GREATER_THAN_EQUAL );
+        }
+
+        List<UUID> page = new ArrayList<UUID>( count );
+
+        for ( HColumn<ByteBuffer, ByteBuffer> column : readIndex( queueId, shard, slice, start, finish, reversed,
+                count ) )
+        {
+            page.add( getMessageId( column ) );
+        }
+
+        return page;
+    }
+
+
+    /** Read every message of the slice in the shard */
+    private Set<UUID> searchAll( UUID queueId, long shard, SliceValues sliceValues )
+    {
+        QuerySlice slice = sliceValues.slice;
+        return searchAll( queueId, shard, slice, getStart( slice ), getFinish( slice ) );
+    }
+
+
+    private Set<UUID> searchAll( UUID queueId, long shard, QuerySlice slice, ByteBuffer start, ByteBuffer finish )
+    {
+
+        Set<UUID> uuid_set = new HashSet<UUID>();
+
+        while ( true )
+        {
+            List<HColumn<ByteBuffer, ByteBuffer>> results =
+                    readIndex( queueId, shard, slice, start, finish, false, DEFAULT_SEARCH_COUNT );
+
+            for ( HColumn<ByteBuffer, ByteBuffer> column : results )
+            {
+                uuid_set.add( getMessageId( column ) );
+            }
+
+            if ( results.size() < DEFAULT_SEARCH_COUNT )
+            {
+                break;
+            }
+
+            start = results.get( results.size() - 1 ).getName().duplicate();
+        }
+
+        return uuid_set;
+    }
+
+
+    private List<HColumn<ByteBuffer, ByteBuffer>> readIndex( UUID queueId, long shard, QuerySlice slice,
+                                                             ByteBuffer start, ByteBuffer finish, boolean reversed,
+                                                             int count )
+    {
+
+        List<HColumn<ByteBuffer, ByteBuffer>> results =
+                createSliceQuery( ko, be, be, be ).setColumnFamily( PROPERTY_INDEX.getColumnFamily() )
+                        .setKey( bytebuffer( key( queueId, shard, slice.getPropertyName() ) ) )
+                        .setRange( start, finish, reversed, count ).execute().get().getColumns();
+
+        columnsRead += results.size();
+
+        return results;
+    }
+
+
+    private static ByteBuffer getStart( QuerySlice slice )
+    {
+        if ( slice.getStart() == null )
+        {
+            return null;
+        }
+
+        DynamicComposite s = new DynamicComposite( slice.getStart().getCode(), slice.getStart().getValue() );
+        if ( !slice.getStart().isInclusive() )
+        {
+            setEqualityFlag( s, ComponentEquality.GREATER_THAN_EQUAL );
+        }
+        return s.serialize();
+    }
+
+
+    private static ByteBuffer getFinish( QuerySlice slice )
+    {
+        if ( slice.getFinish() == null )
+        {
+            return null;
+        }
+
+        DynamicComposite f = new DynamicComposite( slice.getFinish().getCode(), slice.getFinish().getValue() );
+        if ( slice.getFinish().isInclusive() )
+        {
+            setEqualityFlag( f, ComponentEquality.GREATER_THAN_EQUAL );
+        }
+        return f.serialize();
+    }
+
+
+    private static UUID getMessageId( HColumn<ByteBuffer, ByteBuffer> column )
+    {
+        DynamicComposite c = DynamicComposite.fromByteBuffer( column.getName().duplicate() );
+        return c.get( 2, ue );
+    }
+
+
+    /** The type code and value components of an index column */
+    @SuppressWarnings( { "unchecked", "rawtypes" } )
+    private static DynamicComposite getValue( HColumn<ByteBuffer, ByteBuffer> column )
+    {
+        DynamicComposite c = DynamicComposite.fromByteBuffer( column.getName().duplicate() );
+
+        DynamicComposite value = new DynamicComposite();
+        for ( int i = 0; i < 2; i++ )
+        {
+            Component component = c.getComponent( i );
+            value.addComponent( component.getValue(), component.getSerializer(), component.getComparator() );
+        }
+        return value;
+    }
+
+
+    /** The index column bound for a value, optionally followed by a message id */
+    @SuppressWarnings( { "unchecked", "rawtypes" } )
+    private static ByteBuffer messageBound( DynamicComposite value, UUID messageId, ComponentEquality equality )
+    {
+        DynamicComposite bound = new DynamicComposite();
+        for ( int i = 0; i < value.size(); i++ )
+        {
+            Component component = value.getComponent( i );
+            bound.addComponent( component.getValue(), component.getSerializer(), component.getComparator() );
+        }
+
+        if ( messageId != null )
+        {
+            bound.addComponent( messageId, ue );
+        }
+
+        return setEqualityFlag( bound, equality ).serialize();
+    }
+
+
+    /** A slice and its values in the shard being searched */
+    private static class SliceValues implements Comparable<SliceValues>
+    {
+
+        private final QuerySlice slice;
+
+        /** The distinct values, or null if there are too many to merge */
+        private final List<DynamicComposite> values;
+
+        /** Every message of a slice without values, read when first needed */
+        private Set<UUID> all;
+
+
+        private SliceValues( QuerySlice slice, List<DynamicComposite> values )
+        {
+            this.slice = slice;
+            this.values = values;
+        }
+
+
+        @Override
+        public int compareTo( SliceValues o )
+        {
+            int size = values == null ? Integer.MAX_VALUE : values.size();
+            int otherSize = o.values == null ? Integer.MAX_VALUE : o.values.size();
+            return size < otherSize ? -1 : ( size == otherSize ? 0 : 1 );
+        }
+    }
+
+
+    /** The bounds of the queue being read, in the direction it's read */
+    private static class SearchRange
+    {
+
+        private final UUID start;
+        private final boolean startExclusive;
+        private final UUID finish;
+        private final UUIDComparator comparator;
+
+
+        private SearchRange( UUID start, boolean startExclusive, UUID finish, UUIDComparator comparator )
+        {
+            this.start = start;
+            this.startExclusive = startExclusive;
+            this.finish = finish;
+            this.comparator = comparator;
+        }
+
+
+        /** Add the matches inside the bounds to the ids, until the limit is reached */
+        private void addTo( SortedSet<UUID> matches, int limit, List<UUID> ids )
+        {
+            for ( UUID uuid : matches )
+            {
+                if ( ids.size() >= limit )
+                {
+                    return;
+                }
+
+                int compared = comparator.compare( uuid, start );
+
+                if ( compared < 0 || ( compared == 0 && startExclusive ) || comparator.compare( uuid, finish ) > 0 )
+                {
+                    continue;
+                }
+
+                ids.add( uuid );
+            }
+        }
     }
 
 
@@ -84,6 +84,18 @@ public interface EntityManager {
      */
     public Entity create( UUID importId, String entityType, Map<String, Object> properties ) throws Exception;
 
+    /**
+     * Creates a group of entities that already carry their own UUIDs, such as the entities of an export file, using a
+     * single mutation batch instead of one round trip per entity.
+     *
+     * @param entities the entities to create, each with its uuid, type and properties set
+     *
+     * @return the newly created entity objects, in the order they were passed in.
+     *
+     * @throws Exception the exception
+     */
+    public List<Entity> createImported( List<? extends Entity> entities ) throws Exception;
+
     public void createApplicationCollection( String entityType ) throws Exception;
 
     public EntityRef getAlias( String aliasType, String alias ) throws Exception;
@@ -310,6 +322,17 @@ public interface EntityManager {
      */
     public void delete( EntityRef entityRef ) throws Exception;
 
+    /**
+     * Deletes the specified entity, deferring the expensive part.  The entity is removed from its primary collection
+     * and stops being returned by queries immediately, while its connections, remaining index entries and dictionaries
+     * are removed later by a background job.
+     *
+     * @param entityRef an entity reference
+     *
+     * @throws Exception the exception
+     */
+    public void softDelete( EntityRef entityRef ) throws Exception;
+
     /**
      * Gets the entities and collections that the specified entity is a member of.
      *
@@ -433,6 +456,15 @@ public interface EntityManager {
     public ConnectionRef createConnection( EntityRef connectingEntity, ConnectedEntityRef... connections )
             throws Exception;
 
+    /**
+     * Creates a group of connections using a single mutation batch.
+     *
+     * @param connections the connections to create, as returned by {@link #connectionRef}
+     *
+     * @throws Exception the exception
+     */
+    public void createConnections( List<ConnectionRef> connections ) throws Exception;
+
     public ConnectionRef connectionRef( EntityRef connectingEntity, String connectionType,
                                         EntityRef connectedEntityRef ) throws Exception;
 
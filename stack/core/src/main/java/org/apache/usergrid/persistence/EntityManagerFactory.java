@@ -88,6 +88,14 @@ public interface EntityManagerFactory {
      */
     public abstract UUID lookupApplication( String name ) throws Exception;
 
+    /**
+     * Drops any cached name or entity of the application, so the next lookup reads it again. Call when an application
+     * is renamed or removed.
+     *
+     * @param applicationId the application id.
+     */
+    public abstract void invalidateApplication( UUID applicationId );
+
     /**
      * Returns all the applications in the system.
      *
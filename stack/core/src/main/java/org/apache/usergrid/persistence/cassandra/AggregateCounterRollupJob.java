@@ -0,0 +1,95 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.usergrid.persistence.cassandra;
+
+
+import java.util.UUID;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+
+import org.apache.usergrid.batch.JobExecution;
+import org.apache.usergrid.batch.job.OnlyOnceJob;
+import org.apache.usergrid.persistence.EntityManagerFactory;
+import org.apache.usergrid.persistence.entities.JobData;
+
+import static org.apache.usergrid.utils.ConversionUtils.uuid;
+
+
+/**
+ * Rolls up the MINUTE aggregate counters of an application into the coarser resolutions when counters are written in
+ * rollup mode. Scheduled by the entity manager after the period it was incremented in closes; see {@link
+ * CounterRollup}.
+ */
+public class AggregateCounterRollupJob extends OnlyOnceJob {
+
+    private static final Logger logger = LoggerFactory.getLogger( AggregateCounterRollupJob.class );
+
+    public static final String JOB_NAME = "aggregateCounterRollupJob";
+
+    public static final String APPLICATION_ID = "applicationId";
+
+    @Autowired
+    private EntityManagerFactory emf;
+
+    private long interval = 10000;
+
+
+    public AggregateCounterRollupJob() {
+    }
+
+
+    @Override
+    protected void doJob( JobExecution execution ) throws Exception {
+
+        JobData jobData = execution.getJobData();
+        UUID applicationId = uuid( jobData.getProperty( APPLICATION_ID ) );
+
+        EntityManagerImpl em = ( EntityManagerImpl ) emf.getEntityManager( applicationId );
+
+        execution.heartbeat();
+
+        int rolled = em.rollupAggregateCounters();
+
+        logger.info( "Rolled up {} counter periods of application {}", rolled, applicationId );
+    }
+
+
+    @Override
+    protected long getDelay( JobExecution execution ) throws Exception {
+        return interval;
+    }
+
+
+    @Override
+    public void dead( JobExecution execution ) throws Exception {
+        logger.error( "Counter rollup for application {} failed too many times",
+                execution.getJobData().getProperty( APPLICATION_ID ) );
+    }
+
+
+    public void setEmf( EntityManagerFactory emf ) {
+        this.emf = emf;
+    }
+
+
+    /** Milliseconds to wait before retrying when another run holds the job */
+    public void setInterval( long interval ) {
+        this.interval = interval;
+    }
+}
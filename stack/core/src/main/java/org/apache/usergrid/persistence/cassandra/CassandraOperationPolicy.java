@@ -0,0 +1,391 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.usergrid.persistence.cassandra;
+
+
+import java.nio.ByteBuffer;
+import java.util.Collections;
+import java.util.List;
+import java.util.Properties;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.apache.usergrid.persistence.cassandra.util.TimedOpTag;
+import org.apache.usergrid.persistence.cassandra.util.TraceTag;
+import org.apache.usergrid.persistence.cassandra.util.TraceTagManager;
+
+import com.yammer.metrics.Metrics;
+import com.yammer.metrics.core.Counter;
+import com.yammer.metrics.core.Histogram;
+
+import me.prettyprint.hector.api.beans.ColumnSlice;
+import me.prettyprint.hector.api.beans.HColumn;
+import me.prettyprint.hector.api.beans.Row;
+import me.prettyprint.hector.api.beans.Rows;
+import me.prettyprint.hector.api.exceptions.HTimedOutException;
+import me.prettyprint.hector.api.exceptions.HUnavailableException;
+import me.prettyprint.hector.api.exceptions.HectorException;
+import me.prettyprint.hector.api.exceptions.HectorTransportException;
+import me.prettyprint.hector.api.query.Query;
+import me.prettyprint.hector.api.query.QueryResult;
+
+import static org.apache.commons.collections.MapUtils.getBooleanValue;
+import static org.apache.commons.collections.MapUtils.getIntValue;
+import static org.apache.commons.collections.MapUtils.getLongValue;
+
+
+/**
+ * Timeout, hedging and retry policy for Cassandra operations.
+ * <p/>
+ * Reads can be given a per operation class timeout, and can optionally be hedged: if a read hasn't returned after
+ * the 95th percentile latency of its class, the same query is issued again and whichever returns first wins. The
+ * connection pool sends the second attempt to the least busy host, which usually isn't the one still working on the
+ * first. Reads run inline on the calling thread unless a timeout or hedging is configured, or when every read
+ * thread is busy, in which case the read is neither timed out nor hedged.
+ * <p/>
+ * Writes are retried with jittered exponential backoff by {@link org.apache.usergrid.persistence.hector
+ * .CountingMutator}, which uses this policy for the delay between attempts.
+ * <p/>
+ * When a trace is attached to the calling thread, the rows, columns and bytes returned by each read are added to it.
+ */
+public class CassandraOperationPolicy {
+
+    private static final Logger logger = LoggerFactory.getLogger( CassandraOperationPolicy.class );
+
+    /** Classes of operation that are timed and hedged separately */
+    public enum OperationClass {
+        /** A slice or column read from a single row */
+        READ,
+        /** A read across several rows */
+        MULTIGET
+    }
+
+    /** How often the hedge delay is recomputed from the latency histograms */
+    private static final long HEDGE_DELAY_REFRESH = 1000;
+
+    private static final Counter writeRetries = Metrics.newCounter( CassandraOperationPolicy.class, "write_retries" );
+    private static final Counter readTimeouts = Metrics.newCounter( CassandraOperationPolicy.class, "read_timeouts" );
+    private static final Counter hedgedReads = Metrics.newCounter( CassandraOperationPolicy.class, "hedged_reads" );
+    private static final Counter hedgedReadsWon =
+            Metrics.newCounter( CassandraOperationPolicy.class, "hedged_reads_won" );
+    private static final Counter rejectedReads =
+            Metrics.newCounter( CassandraOperationPolicy.class, "rejected_reads" );
+
+    private final Histogram[] latencies = new Histogram[OperationClass.values().length];
+    private final long[] hedgeDelays = new long[OperationClass.values().length];
+    private volatile long hedgeDelaysComputedAt;
+
+    private final long[] timeouts = new long[OperationClass.values().length];
+    private final boolean hedgeReads;
+    private final long hedgeMinDelay;
+    private final long retryBackoff;
+    private final long retryMaxBackoff;
+
+    private final Random random = new Random();
+    private ThreadPoolExecutor executor;
+
+    private TraceTagManager traceTagManager;
+
+
+    /** Create a policy with no timeouts or hedging, and the default write backoff */
+    public CassandraOperationPolicy() {
+        this( new Properties() );
+    }
+
+
+    public CassandraOperationPolicy( Properties properties ) {
+        timeouts[OperationClass.READ.ordinal()] = getLongValue( properties, "cassandra.read.timeout", 0 );
+        timeouts[OperationClass.MULTIGET.ordinal()] = getLongValue( properties, "cassandra.multiget.timeout", 0 );
+        hedgeReads = getBooleanValue( properties, "cassandra.read.hedge", false );
+        hedgeMinDelay = getLongValue( properties, "cassandra.read.hedge.delay.min", 10 );
+        retryBackoff = getLongValue( properties, "cassandra.write.retry.backoff", 10 );
+        retryMaxBackoff = getLongValue( properties, "cassandra.write.retry.backoff.max", 1000 );
+
+        for ( OperationClass type : OperationClass.values() ) {
+            latencies[type.ordinal()] = Metrics.newHistogram( CassandraOperationPolicy.class,
+                    type.name().toLowerCase() + "_latency", true );
+            hedgeDelays[type.ordinal()] = hedgeMinDelay;
+        }
+
+        if ( hedgeReads || timeouts[OperationClass.READ.ordinal()] > 0
+                || timeouts[OperationClass.MULTIGET.ordinal()] > 0 ) {
+            int threads = getIntValue( properties, "cassandra.read.threads", 50 );
+            executor = new ThreadPoolExecutor( 0, threads, 60, TimeUnit.SECONDS, new SynchronousQueue<Runnable>(),
+                    new ReadThreadFactory(), new ThreadPoolExecutor.AbortPolicy() );
+        }
+    }
+
+
+    /** Set the trace manager whose active trace is given the size of each read */
+    public void setTraceTagManager( TraceTagManager traceTagManager ) {
+        this.traceTagManager = traceTagManager;
+    }
+
+
+    /**
+     * Execute a read query under the policy for its operation class.
+     *
+     * @throws HTimedOutException if no attempt returned within the timeout for the class
+     */
+    public <T> QueryResult<T> read( OperationClass type, final Query<T> query ) throws Exception {
+        TraceTag trace = traceTagManager != null ? traceTagManager.acquire() : null;
+        long start = System.currentTimeMillis();
+
+        QueryResult<T> result;
+        if ( executor == null ) {
+            result = query.execute();
+        }
+        else if ( trace == null ) {
+            result = read( type, query, timeouts[type.ordinal()] );
+        }
+        else {
+            // the query runs on a pool thread that has no trace, so time it here instead
+            TimedOpTag timer = traceTagManager.timerInstance();
+            boolean success = false;
+            try {
+                result = read( type, query, timeouts[type.ordinal()] );
+                success = true;
+            }
+            finally {
+                timer.stopAndApply( type.name(), success );
+                traceTagManager.addTimer( timer );
+            }
+        }
+
+        // recorded whether or not reads are hedged, so the hedge delay is known as soon as hedging is turned on
+        latencies[type.ordinal()].update( System.currentTimeMillis() - start );
+
+        if ( trace != null ) {
+            countRead( trace, result.get() );
+        }
+        return result;
+    }
+
+
+    private <T> QueryResult<T> read( OperationClass type, final Query<T> query, long timeout ) throws Exception {
+        Callable<QueryResult<T>> attempt = new Callable<QueryResult<T>>() {
+            @Override
+            public QueryResult<T> call() throws Exception {
+                return query.execute();
+            }
+        };
+
+        long start = System.currentTimeMillis();
+        long deadline = timeout > 0 ? start + timeout : Long.MAX_VALUE;
+
+        ExecutorCompletionService<QueryResult<T>> completion =
+                new ExecutorCompletionService<QueryResult<T>>( executor );
+        Future<QueryResult<T>> first;
+        try {
+            first = completion.submit( attempt );
+        }
+        catch ( RejectedExecutionException e ) {
+            // every read thread is busy, fall back to a plain read rather than queue behind them
+            rejectedReads.inc();
+            return query.execute();
+        }
+        Future<QueryResult<T>> second = null;
+
+        try {
+            Future<QueryResult<T>> done = null;
+
+            if ( hedgeReads ) {
+                done = completion.poll( Math.min( getHedgeDelay( type ), deadline - start ), TimeUnit.MILLISECONDS );
+                if ( done == null && System.currentTimeMillis() < deadline ) {
+                    try {
+                        second = completion.submit( attempt );
+                        hedgedReads.inc();
+                    }
+                    catch ( RejectedExecutionException e ) {
+                        // no thread to hedge on, keep waiting for the first attempt
+                        rejectedReads.inc();
+                    }
+                }
+            }
+
+            if ( done == null ) {
+                done = timeout > 0 ?
+                       completion.poll( Math.max( deadline - System.currentTimeMillis(), 0 ), TimeUnit.MILLISECONDS ) :
+                       completion.take();
+            }
+
+            if ( done == null ) {
+                readTimeouts.inc();
+                throw new HTimedOutException( type + " read timed out after " + timeout + "ms" );
+            }
+
+            QueryResult<T> result = getResult( done, second != null ? completion : null, deadline );
+
+            if ( ( second != null ) && ( done == second ) ) {
+                hedgedReadsWon.inc();
+            }
+
+            return result;
+        }
+        finally {
+            first.cancel( true );
+            if ( second != null ) {
+                second.cancel( true );
+            }
+        }
+    }
+
+
+    /**
+     * Get the result of a finished attempt. If it failed and a hedged attempt is still running, wait for that one
+     * instead.
+     */
+    private <T> QueryResult<T> getResult( Future<QueryResult<T>> done,
+                                          ExecutorCompletionService<QueryResult<T>> pending, long deadline )
+            throws Exception {
+        try {
+            return done.get();
+        }
+        catch ( ExecutionException e ) {
+            if ( pending != null ) {
+                Future<QueryResult<T>> other = pending.poll( Math.max( deadline - System.currentTimeMillis(), 0 ),
+                        TimeUnit.MILLISECONDS );
+                if ( other != null ) {
+                    return getResult( other, null, deadline );
+                }
+            }
+            throw unwrap( e );
+        }
+        catch ( CancellationException e ) {
+            throw new HTimedOutException( e );
+        }
+    }
+
+
+    private static Exception unwrap( ExecutionException e ) {
+        if ( e.getCause() instanceof Exception ) {
+            return ( Exception ) e.getCause();
+        }
+        return e;
+    }
+
+
+    /** Add the rows, columns and bytes in a read result to the trace */
+    static void countRead( TraceTag trace, Object result ) {
+        if ( result instanceof Rows ) {
+            for ( Row<?, ?, ?> row : ( Rows<?, ?, ?> ) result ) {
+                countColumns( trace, row.getColumnSlice().getColumns() );
+            }
+        }
+        else if ( result instanceof ColumnSlice ) {
+            countColumns( trace, ( ( ColumnSlice<?, ?> ) result ).getColumns() );
+        }
+        else if ( result instanceof HColumn ) {
+            countColumns( trace, Collections.singletonList( ( HColumn<?, ?> ) result ) );
+        }
+    }
+
+
+    private static void countColumns( TraceTag trace, List<? extends HColumn<?, ?>> columns ) {
+        long bytes = 0;
+        for ( HColumn<?, ?> column : columns ) {
+            bytes += size( column.getNameBytes() ) + size( column.getValueBytes() );
+        }
+        trace.addRead( 1, columns.size(), bytes );
+    }
+
+
+    private static int size( ByteBuffer buffer ) {
+        return buffer != null ? buffer.remaining() : 0;
+    }
+
+
+    /** @return the delay before a read of this class is hedged, the 95th percentile latency but at least the minimum */
+    private long getHedgeDelay( OperationClass type ) {
+        long now = System.currentTimeMillis();
+        if ( now - hedgeDelaysComputedAt > HEDGE_DELAY_REFRESH ) {
+            hedgeDelaysComputedAt = now;
+            for ( OperationClass t : OperationClass.values() ) {
+                Histogram h = latencies[t.ordinal()];
+                long p95 = h.count() > 0 ? ( long ) h.getSnapshot().get95thPercentile() : 0;
+                hedgeDelays[t.ordinal()] = Math.max( hedgeMinDelay, p95 );
+            }
+        }
+        return hedgeDelays[type.ordinal()];
+    }
+
+
+    /** @return true if a failed write may have not been applied, and is worth trying again */
+    public boolean isRetryable( HectorException e ) {
+        return ( e instanceof HTimedOutException ) || ( e instanceof HUnavailableException )
+                || ( e instanceof HectorTransportException );
+    }
+
+
+    /**
+     * Sleep before retrying a write. The delay is a random time up to the backoff doubled for every previous attempt,
+     * capped at the maximum backoff, so writers that failed together don't retry together.
+     *
+     * @param attempt the number of attempts that have failed so far, starting at 1
+     */
+    public void backoff( int attempt ) {
+        writeRetries.inc();
+
+        long max = Math.min( retryMaxBackoff, retryBackoff << Math.min( attempt - 1, 20 ) );
+        if ( max <= 0 ) {
+            return;
+        }
+
+        long delay = ( long ) ( random.nextDouble() * max );
+        logger.debug( "Retrying write in {}ms after attempt {}", delay, attempt );
+
+        try {
+            Thread.sleep( delay );
+        }
+        catch ( InterruptedException e ) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+
+    public void shutdown() {
+        if ( executor != null ) {
+            executor.shutdownNow();
+        }
+    }
+
+
+    private static class ReadThreadFactory implements ThreadFactory {
+
+        private final AtomicInteger count = new AtomicInteger();
+
+
+        @Override
+        public Thread newThread( Runnable r ) {
+            Thread thread = new Thread( r, "cassandra-read-" + count.incrementAndGet() );
+            thread.setDaemon( true );
+            return thread;
+        }
+    }
+}
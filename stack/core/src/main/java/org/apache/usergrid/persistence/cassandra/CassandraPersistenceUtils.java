@@ -32,6 +32,7 @@ import java.util.UUID;
 import org.codehaus.jackson.JsonNode;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.apache.usergrid.persistence.hector.CountingMutator;
 import org.apache.usergrid.utils.JsonUtils;
 
 import org.apache.cassandra.thrift.ColumnDef;
@@ -327,9 +328,15 @@ public class CassandraPersistenceUtils {
     }
 
 
+    /**
+     * Execute a batch. Batches built with {@link CountingMutator} are retried with backoff when a timeout or
+     * unavailable host may have kept them from being applied, other mutators are executed once.
+     */
     public static MutationResult batchExecute( Mutator<?> m, int retries ) {
+        if ( m instanceof CountingMutator ) {
+            return ( ( CountingMutator<?> ) m ).execute( retries );
+        }
         return m.execute();
-
     }
 
 
@@ -39,6 +39,7 @@ import org.apache.usergrid.persistence.IndexBucketLocator;
 import org.apache.usergrid.persistence.IndexBucketLocator.IndexType;
 import org.apache.usergrid.persistence.cassandra.index.IndexBucketScanner;
 import org.apache.usergrid.persistence.cassandra.index.IndexScanner;
+import org.apache.usergrid.persistence.cassandra.util.TraceTagManager;
 import org.apache.usergrid.persistence.hector.CountingMutator;
 
 import me.prettyprint.cassandra.connection.HConnectionManager;
@@ -83,6 +84,8 @@ import static me.prettyprint.hector.api.factory.HFactory.createVirtualKeyspace;
 import static org.apache.commons.collections.MapUtils.getIntValue;
 import static org.apache.commons.collections.MapUtils.getString;
 import static org.apache.usergrid.persistence.cassandra.ApplicationCF.ENTITY_ID_SETS;
+import static org.apache.usergrid.persistence.cassandra.CassandraOperationPolicy.OperationClass.MULTIGET;
+import static org.apache.usergrid.persistence.cassandra.CassandraOperationPolicy.OperationClass.READ;
 import static org.apache.usergrid.persistence.cassandra.CassandraPersistenceUtils.batchExecute;
 import static org.apache.usergrid.persistence.cassandra.CassandraPersistenceUtils.buildSetIdListMutator;
 import static org.apache.usergrid.utils.ConversionUtils.bytebuffer;
@@ -131,6 +134,10 @@ public class CassandraService {
 
     ConsistencyLevelPolicy consistencyLevelPolicy;
 
+    CassandraOperationPolicy operationPolicy = new CassandraOperationPolicy();
+
+    TraceTagManager traceTagManager;
+
     private Keyspace systemKeyspace;
 
     private Map<String, String> accessMap;
@@ -172,6 +179,10 @@ public class CassandraService {
         final int flushSize = getIntValue( properties, "cassandra.mutation.flushsize", 2000 );
         CountingMutator.MAX_SIZE = flushSize;
 
+        operationPolicy = new CassandraOperationPolicy( properties );
+        operationPolicy.setTraceTagManager( traceTagManager );
+        CountingMutator.setRetryPolicy( operationPolicy );
+
 
     }
 
@@ -234,6 +245,16 @@ public class CassandraService {
     }
 
 
+    public CassandraOperationPolicy getOperationPolicy() {
+        return operationPolicy;
+    }
+
+
+    public void setTraceTagManager( TraceTagManager traceTagManager ) {
+        this.traceTagManager = traceTagManager;
+    }
+
+
     /** @return keyspace for application UUID */
     public static String keyspaceForApplication( UUID applicationId ) {
         if ( USE_VIRTUAL_KEYSPACES ) {
@@ -431,7 +452,7 @@ public class CassandraService {
         q.setColumnFamily( columnFamily.toString() );
         q.setKey( bytebuffer( key ) );
         q.setRange( null, null, false, ALL_COUNT );
-        QueryResult<ColumnSlice<N, V>> r = q.execute();
+        QueryResult<ColumnSlice<N, V>> r = operationPolicy.read( READ, q );
         ColumnSlice<N, V> slice = r.get();
         List<HColumn<N, V>> results = slice.getColumns();
 
@@ -519,7 +540,7 @@ public class CassandraService {
      * else { q.setRange(start_bytes, finish_bytes, reversed, count); }
      */
         q.setRange( start_bytes, finish_bytes, reversed, count );
-        QueryResult<ColumnSlice<ByteBuffer, ByteBuffer>> r = q.execute();
+        QueryResult<ColumnSlice<ByteBuffer, ByteBuffer>> r = operationPolicy.read( READ, q );
         ColumnSlice<ByteBuffer, ByteBuffer> slice = r.get();
         List<HColumn<ByteBuffer, ByteBuffer>> results = slice.getColumns();
 
@@ -573,7 +594,7 @@ public class CassandraService {
         }
 
         q.setRange( start_bytes, finish_bytes, reversed, count );
-        QueryResult<Rows<ByteBuffer, ByteBuffer, ByteBuffer>> r = q.execute();
+        QueryResult<Rows<ByteBuffer, ByteBuffer, ByteBuffer>> r = operationPolicy.read( MULTIGET, q );
         Rows<ByteBuffer, ByteBuffer, ByteBuffer> rows = r.get();
 
         Map<ByteBuffer, List<HColumn<ByteBuffer, ByteBuffer>>> results =
@@ -609,7 +630,7 @@ public class CassandraService {
         q.setColumnFamily( columnFamily.toString() );
         q.setKeys( keys );
         q.setRange( null, null, false, ALL_COUNT );
-        QueryResult<Rows<K, N, V>> r = q.execute();
+        QueryResult<Rows<K, N, V>> r = operationPolicy.read( MULTIGET, q );
         Rows<K, N, V> results = r.get();
 
         if ( db_logger.isInfoEnabled() ) {
@@ -653,7 +674,7 @@ public class CassandraService {
         q.setColumnNames( ( N[] ) nameSerializer.fromBytesSet( se.toBytesSet( new ArrayList<String>( columnNames ) ) )
                                                 .toArray() );
 
-        QueryResult<ColumnSlice<N, V>> r = q.execute();
+        QueryResult<ColumnSlice<N, V>> r = operationPolicy.read( READ, q );
         ColumnSlice<N, V> slice = r.get();
         List<HColumn<N, V>> results = slice.getColumns();
 
@@ -697,7 +718,7 @@ public class CassandraService {
         q.setKeys( keys );
         q.setColumnNames( ( N[] ) nameSerializer.fromBytesSet( se.toBytesSet( new ArrayList<String>( columnNames ) ) )
                                                 .toArray() );
-        QueryResult<Rows<K, N, V>> r = q.execute();
+        QueryResult<Rows<K, N, V>> r = operationPolicy.read( MULTIGET, q );
         Rows<K, N, V> results = r.get();
 
         if ( db_logger.isInfoEnabled() ) {
@@ -740,8 +761,8 @@ public class CassandraService {
      */
 
         ColumnQuery<ByteBuffer, N, V> q = HFactory.createColumnQuery( ko, be, nameSerializer, valueSerializer );
-        QueryResult<HColumn<N, V>> r =
-                q.setKey( bytebuffer( key ) ).setName( column ).setColumnFamily( columnFamily.toString() ).execute();
+        q.setKey( bytebuffer( key ) ).setName( column ).setColumnFamily( columnFamily.toString() );
+        QueryResult<HColumn<N, V>> r = operationPolicy.read( READ, q );
         HColumn<N, V> result = r.get();
 
         if ( db_logger.isInfoEnabled() ) {
@@ -769,9 +790,8 @@ public class CassandraService {
      */
 
         SliceQuery<ByteBuffer, N, V> q = HFactory.createSliceQuery( ko, be, nameSerializer, valueSerializer );
-        QueryResult<ColumnSlice<N, V>> r =
-                q.setKey( bytebuffer( key ) ).setColumnNames( columns ).setColumnFamily( columnFamily.toString() )
-                 .execute();
+        q.setKey( bytebuffer( key ) ).setColumnNames( columns ).setColumnFamily( columnFamily.toString() );
+        QueryResult<ColumnSlice<N, V>> r = operationPolicy.read( READ, q );
         ColumnSlice<N, V> result = r.get();
 
         if ( db_logger.isDebugEnabled() ) {
@@ -1050,6 +1070,7 @@ public class CassandraService {
 
     
     public void destroy() throws Exception {
+    	operationPolicy.shutdown();
     	if (cluster != null) {
     		HConnectionManager connectionManager = cluster.getConnectionManager();
     		if (connectionManager != null) {
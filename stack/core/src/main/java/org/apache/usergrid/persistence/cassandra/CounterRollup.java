@@ -0,0 +1,313 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.usergrid.persistence.cassandra;
+
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.UUID;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.apache.usergrid.persistence.CounterResolution;
+
+import com.google.common.collect.Lists;
+
+import me.prettyprint.hector.api.Keyspace;
+import me.prettyprint.hector.api.beans.CounterRow;
+import me.prettyprint.hector.api.beans.CounterRows;
+import me.prettyprint.hector.api.beans.HColumn;
+import me.prettyprint.hector.api.beans.HCounterColumn;
+import me.prettyprint.hector.api.beans.Row;
+import me.prettyprint.hector.api.beans.Rows;
+import me.prettyprint.hector.api.factory.HFactory;
+import me.prettyprint.hector.api.mutation.Mutator;
+import me.prettyprint.hector.api.query.MultigetSliceCounterQuery;
+import me.prettyprint.hector.api.query.MultigetSliceQuery;
+
+import static me.prettyprint.hector.api.factory.HFactory.createCounterColumn;
+import static me.prettyprint.hector.api.factory.HFactory.createMutator;
+import static org.apache.usergrid.persistence.cassandra.ApplicationCF.APPLICATION_AGGREGATE_COUNTERS;
+import static org.apache.usergrid.persistence.cassandra.ApplicationCF.ENTITY_DICTIONARIES;
+import static org.apache.usergrid.persistence.cassandra.CassandraPersistenceUtils.addDeleteToMutator;
+import static org.apache.usergrid.persistence.cassandra.CassandraPersistenceUtils.addInsertToMutator;
+import static org.apache.usergrid.persistence.cassandra.CassandraPersistenceUtils.batchExecute;
+import static org.apache.usergrid.persistence.cassandra.CassandraPersistenceUtils.key;
+import static org.apache.usergrid.persistence.cassandra.CassandraService.ALL_COUNT;
+import static org.apache.usergrid.persistence.cassandra.Serializers.be;
+import static org.apache.usergrid.persistence.cassandra.Serializers.le;
+import static org.apache.usergrid.persistence.cassandra.Serializers.se;
+import static org.apache.usergrid.utils.ConversionUtils.bytebuffer;
+
+
+/**
+ * Folds MINUTE aggregate counters into the coarser resolutions when {@link CounterUtils} runs in rollup mode.
+ * <p/>
+ * The write path only increments the MINUTE row of a counter, and lists the row as pending for the five minute period
+ * the increment fell in. Rolling up a period sums each pending row's MINUTE columns in the period and adds whatever
+ * has not been rolled before to the FIVE_MINUTES through MONTH and ALL rows. The amount rolled is kept per row, so a
+ * period can be rolled again to pick up counts that land late. Periods stay pending until they are older than the
+ * retention, and reads add the not yet rolled part of every pending period. Counts for a period about to be retired
+ * are written to every resolution right away instead, see {@link CounterUtils#isRollupRetired}.
+ */
+public class CounterRollup {
+
+    private static final Logger logger = LoggerFactory.getLogger( CounterRollup.class );
+
+    /** Pending periods of an application */
+    public static final String DICTIONARY_ROLLUP_PERIODS = "counter_rollup_periods";
+
+    /** MINUTE rows incremented in a period */
+    public static final String DICTIONARY_ROLLUP_ROWS = "counter_rollup_rows";
+
+    /** The amount of each row rolled up so far in a period */
+    public static final String DICTIONARY_ROLLUP_TOTALS = "counter_rollup_totals";
+
+    /** The unit of rollup. Every coarser resolution is a whole number of periods */
+    public static final CounterResolution PERIOD = CounterResolution.FIVE_MINUTES;
+
+    private static final int MULTIGET_SIZE = 100;
+
+    private final CassandraService cass;
+    private final UUID applicationId;
+
+
+    public CounterRollup( CassandraService cass, UUID applicationId ) {
+        this.cass = cass;
+        this.applicationId = applicationId;
+    }
+
+
+    /** @return the start of the period the timestamp falls in */
+    public static long period( long timestamp ) {
+        return PERIOD.round( timestamp );
+    }
+
+
+    public static Object periodsKey( UUID applicationId ) {
+        return key( applicationId, DICTIONARY_ROLLUP_PERIODS );
+    }
+
+
+    public static Object rowsKey( UUID applicationId, long period ) {
+        return key( applicationId, DICTIONARY_ROLLUP_ROWS, period );
+    }
+
+
+    public static Object totalsKey( UUID applicationId, long period ) {
+        return key( applicationId, DICTIONARY_ROLLUP_TOTALS, period );
+    }
+
+
+    /** @return the row of the same counter at another resolution */
+    public static String atResolution( String row, CounterResolution resolution ) {
+        return row.substring( 0, row.lastIndexOf( ':' ) + 1 ) + resolution.name();
+    }
+
+
+    /** @return the pending periods in ascending order */
+    public List<Long> getPendingPeriods() throws Exception {
+        List<Long> periods = new ArrayList<Long>();
+        for ( HColumn<Long, ByteBuffer> column : cass
+                .getAllColumns( keyspace(), ENTITY_DICTIONARIES, periodsKey( applicationId ), le, be ) ) {
+            periods.add( column.getName() );
+        }
+        return periods;
+    }
+
+
+    /**
+     * Roll up every pending period that closed at least delay ms before now. Periods that closed more than retention
+     * ms before now are rolled a last time and stop being pending.
+     *
+     * @return the number of periods rolled
+     */
+    public int rollup( long now, long delay, long retention ) throws Exception {
+        int rolled = 0;
+        for ( long period : getPendingPeriods() ) {
+            long closed = period + PERIOD.interval();
+            if ( closed + delay > now ) {
+                break;
+            }
+            rollup( period, closed + retention <= now );
+            rolled++;
+        }
+        return rolled;
+    }
+
+
+    private void rollup( long period, boolean last ) throws Exception {
+        Keyspace ko = keyspace();
+        Object rowsKey = rowsKey( applicationId, period );
+        Object totalsKey = totalsKey( applicationId, period );
+
+        List<String> rows = new ArrayList<String>( cass.getAllColumnNames( ko, ENTITY_DICTIONARIES, rowsKey ) );
+        Map<String, Long> sums = sumPeriod( rows, period );
+        Map<String, Long> rolled = getRolled( totalsKey );
+
+        long timestamp = cass.createTimestamp();
+        Mutator<ByteBuffer> m = createMutator( ko, be );
+        int changed = 0;
+
+        for ( String row : rows ) {
+            Long sum = sums.get( row );
+            Long previous = rolled.get( row );
+            long delta = ( sum != null ? sum : 0 ) - ( previous != null ? previous : 0 );
+            if ( delta == 0 ) {
+                continue;
+            }
+
+            for ( CounterResolution resolution : CounterResolution.values() ) {
+                if ( resolution == CounterResolution.MINUTE ) {
+                    continue;
+                }
+                HCounterColumn<Long> c = createCounterColumn( resolution.round( period ), delta, le );
+                m.addCounter( bytebuffer( atResolution( row, resolution ) ), APPLICATION_AGGREGATE_COUNTERS.toString(),
+                        c );
+            }
+            if ( !last ) {
+                addInsertToMutator( m, ENTITY_DICTIONARIES, totalsKey, row, sum, timestamp );
+            }
+            changed++;
+        }
+
+        if ( last ) {
+            addDeleteToMutator( m, ENTITY_DICTIONARIES, rowsKey, timestamp );
+            addDeleteToMutator( m, ENTITY_DICTIONARIES, totalsKey, timestamp );
+            addDeleteToMutator( m, ENTITY_DICTIONARIES, periodsKey( applicationId ), period, timestamp );
+        }
+
+        batchExecute( m, CassandraService.RETRY_COUNT );
+
+        logger.debug( "Rolled up {} of {} counter rows for period {} of application {}",
+                new Object[] { changed, rows.size(), period, applicationId } );
+    }
+
+
+    /**
+     * The counts of a MINUTE row that pending periods have not rolled up yet, keyed by the column they belong to at the
+     * given resolution.
+     */
+    public Map<Long, Long> getUnrolled( String row, CounterResolution resolution ) throws Exception {
+        Map<Long, Long> unrolled = new TreeMap<Long, Long>();
+
+        List<Long> periods = getPendingPeriods();
+        if ( periods.isEmpty() ) {
+            return unrolled;
+        }
+
+        String minuteRow = atResolution( row, CounterResolution.MINUTE );
+        long start = periods.get( 0 );
+        long finish = periods.get( periods.size() - 1 ) + PERIOD.interval() - 1;
+
+        // sum the minutes of each pending period, skipping the retired periods between them
+        Set<Long> pending = new HashSet<Long>( periods );
+        Map<Long, Long> sums = new HashMap<Long, Long>();
+        for ( HCounterColumn<Long> column : HFactory.createCounterSliceQuery( keyspace(), se, le )
+                                                   .setColumnFamily( APPLICATION_AGGREGATE_COUNTERS.toString() )
+                                                   .setKey( minuteRow ).setRange( start, finish, false, ALL_COUNT )
+                                                   .execute().get().getColumns() ) {
+            long period = period( column.getName() );
+            if ( !pending.contains( period ) ) {
+                continue;
+            }
+            Long sum = sums.get( period );
+            sums.put( period, ( sum != null ? sum : 0 ) + column.getValue() );
+        }
+
+        // and subtract what each has rolled up
+        List<ByteBuffer> totalsKeys = new ArrayList<ByteBuffer>();
+        Map<ByteBuffer, Long> periodsByKey = new HashMap<ByteBuffer, Long>();
+        for ( Long period : periods ) {
+            ByteBuffer totalsKey = bytebuffer( totalsKey( applicationId, period ) );
+            totalsKeys.add( totalsKey );
+            periodsByKey.put( totalsKey, period );
+        }
+
+        MultigetSliceQuery<ByteBuffer, String, Long> q = HFactory.createMultigetSliceQuery( keyspace(), be, se, le );
+        q.setColumnFamily( ENTITY_DICTIONARIES.toString() );
+        q.setKeys( totalsKeys );
+        q.setColumnNames( minuteRow );
+        Rows<ByteBuffer, String, Long> totals = q.execute().get();
+
+        for ( Row<ByteBuffer, String, Long> total : totals ) {
+            HColumn<String, Long> column = total.getColumnSlice().getColumnByName( minuteRow );
+            Long period = periodsByKey.get( total.getKey() );
+            if ( column != null && sums.containsKey( period ) ) {
+                sums.put( period, sums.get( period ) - column.getValue() );
+            }
+        }
+
+        for ( Map.Entry<Long, Long> sum : sums.entrySet() ) {
+            if ( sum.getValue() == 0 ) {
+                continue;
+            }
+            long bucket = resolution.round( sum.getKey() );
+            Long value = unrolled.get( bucket );
+            unrolled.put( bucket, ( value != null ? value : 0 ) + sum.getValue() );
+        }
+
+        return unrolled;
+    }
+
+
+    /** Sum the MINUTE columns of each row within the period */
+    private Map<String, Long> sumPeriod( List<String> rows, long period ) {
+        Map<String, Long> sums = new HashMap<String, Long>();
+        long finish = period + PERIOD.interval() - 1;
+
+        for ( List<String> keys : Lists.partition( rows, MULTIGET_SIZE ) ) {
+            MultigetSliceCounterQuery<String, Long> q =
+                    HFactory.createMultigetSliceCounterQuery( keyspace(), se, le );
+            q.setColumnFamily( APPLICATION_AGGREGATE_COUNTERS.toString() );
+            q.setRange( period, finish, false, ALL_COUNT );
+            q.setKeys( keys );
+            CounterRows<String, Long> results = q.execute().get();
+
+            for ( CounterRow<String, Long> row : results ) {
+                long sum = 0;
+                for ( HCounterColumn<Long> column : row.getColumnSlice().getColumns() ) {
+                    sum += column.getValue();
+                }
+                sums.put( row.getKey(), sum );
+            }
+        }
+
+        return sums;
+    }
+
+
+    private Map<String, Long> getRolled( Object totalsKey ) throws Exception {
+        Map<String, Long> rolled = new HashMap<String, Long>();
+        for ( HColumn<String, Long> column : cass
+                .getAllColumns( keyspace(), ENTITY_DICTIONARIES, totalsKey, se, le ) ) {
+            rolled.put( column.getName(), column.getValue() );
+        }
+        return rolled;
+    }
+
+
+    private Keyspace keyspace() {
+        return cass.getApplicationKeyspace( applicationId );
+    }
+}
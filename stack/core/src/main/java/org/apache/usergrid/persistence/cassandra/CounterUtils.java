@@ -24,6 +24,7 @@ import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
 import java.util.UUID;
+import java.util.concurrent.TimeUnit;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -31,12 +32,16 @@ import org.apache.usergrid.mq.Message;
 import org.apache.usergrid.mq.cassandra.QueuesCF;
 import org.apache.usergrid.persistence.CounterResolution;
 import org.apache.usergrid.persistence.entities.Event;
+import org.apache.usergrid.persistence.hector.CountingMutator;
 
 import org.apache.commons.lang.StringUtils;
 
 import org.apache.usergrid.count.Batcher;
 import org.apache.usergrid.count.common.Count;
 
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+
 import me.prettyprint.cassandra.serializers.PrefixedSerializer;
 import me.prettyprint.hector.api.beans.HCounterColumn;
 import me.prettyprint.hector.api.mutation.Mutator;
@@ -48,6 +53,8 @@ import static org.apache.usergrid.persistence.cassandra.ApplicationCF.APPLICATIO
 import static org.apache.usergrid.persistence.cassandra.ApplicationCF.ENTITY_COUNTERS;
 import static org.apache.usergrid.persistence.cassandra.ApplicationCF.ENTITY_DICTIONARIES;
 import static org.apache.usergrid.persistence.cassandra.CassandraPersistenceUtils.addInsertToMutator;
+import static org.apache.usergrid.persistence.cassandra.CassandraPersistenceUtils.batchExecute;
+import static org.apache.usergrid.persistence.cassandra.CassandraPersistenceUtils.createTimestamp;
 import static org.apache.usergrid.persistence.cassandra.CassandraPersistenceUtils.key;
 import static org.apache.usergrid.utils.ConversionUtils.bytebuffer;
 import static org.apache.usergrid.persistence.cassandra.Serializers.*;
@@ -61,12 +68,89 @@ public class CounterUtils {
 
     private Batcher batcher;
 
+    private boolean rollup = false;
+
+    private long rollupDelay = 120000;
+
+    private long rollupRetention = 3600000;
+
+    private CassandraService cass;
+
+    /** Pending rollup rows and rollup schedules this node has written */
+    private final Cache<String, Boolean> rollupRegistrations =
+            CacheBuilder.newBuilder().maximumSize( 100000 ).expireAfterWrite( 10, TimeUnit.MINUTES ).build();
+
 
     public void setBatcher( Batcher batcher ) {
         this.batcher = batcher;
     }
 
 
+    /** Used to register the pending rows of the rollup */
+    public void setCassandraService( CassandraService cass ) {
+        this.cass = cass;
+    }
+
+
+    /**
+     * When true, aggregate counters are only incremented at {@link CounterResolution#MINUTE} and the coarser
+     * resolutions are filled in by {@link AggregateCounterRollupJob}. See {@link CounterRollup}.
+     */
+    public void setRollup( boolean rollup ) {
+        this.rollup = rollup;
+    }
+
+
+    public boolean isRollup() {
+        return rollup;
+    }
+
+
+    /** Milliseconds after a period closes before it is rolled up, to let batched counts land */
+    public void setRollupDelay( long rollupDelay ) {
+        this.rollupDelay = rollupDelay;
+    }
+
+
+    public long getRollupDelay() {
+        return rollupDelay;
+    }
+
+
+    /** Milliseconds after a period closes during which it is rolled again to pick up late counts */
+    public void setRollupRetention( long rollupRetention ) {
+        this.rollupRetention = rollupRetention;
+    }
+
+
+    public long getRollupRetention() {
+        return rollupRetention;
+    }
+
+
+    /** @return true if this node has scheduled the rollup of the application for the current period */
+    public boolean isRollupScheduled( UUID applicationId, long now ) {
+        return rollupRegistrations.getIfPresent( "schedule:" + applicationId + ":" + CounterRollup.period( now ) )
+                != null;
+    }
+
+
+    /** Remember that the rollup of the application is scheduled for the current period */
+    public void setRollupScheduled( UUID applicationId, long now ) {
+        rollupRegistrations.put( "schedule:" + applicationId + ":" + CounterRollup.period( now ), Boolean.TRUE );
+    }
+
+
+    /**
+     * @return true if the period the counter timestamp falls in is retired, or will be before a count written now is
+     *         sure to have landed, so the count can't wait for a rollup
+     */
+    public boolean isRollupRetired( long counterTimestamp, long now ) {
+        return CounterRollup.period( counterTimestamp ) + CounterRollup.PERIOD.interval() + rollupRetention
+                - rollupDelay <= now;
+    }
+
+
     /** Set the type to 'new' ("n"), 'parallel' ("p"), 'old' ("o" - the default) If not one of the above, do nothing */
     public void setCounterType( String counterType ) {
         if ( counterType == null ) {
@@ -223,11 +307,26 @@ public class CounterUtils {
     public void batchIncrementAggregateCounters( Mutator<ByteBuffer> m, UUID applicationId, UUID userId, UUID groupId,
                                                  UUID queueId, String category, String name, long value,
                                                  long counterTimestamp, long cassandraTimestamp ) {
-        for ( CounterResolution resolution : CounterResolution.values() ) {
-            logger.debug( "BIAC for resolution {}", resolution );
-            batchIncrementAggregateCounters( m, userId, groupId, queueId, category, resolution, name, value,
-                    counterTimestamp, applicationId );
-            logger.debug( "DONE BIAC for resolution {}", resolution );
+        if ( rollup && !isRollupRetired( counterTimestamp, System.currentTimeMillis() ) ) {
+            List<String> rows =
+                    getAggregateCounterRows( userId, groupId, queueId, category, CounterResolution.MINUTE, name );
+            long column = CounterResolution.MINUTE.round( counterTimestamp );
+
+            // registered first, so no row is counted without the rollup knowing about it
+            registerRollupRows( applicationId, rows, column );
+
+            for ( String row : rows ) {
+                handleAggregateCounterRow( m, row, column, value, applicationId );
+            }
+        }
+        else {
+            // late counts in rollup mode go straight to every resolution, as the rollup is done with their period
+            for ( CounterResolution resolution : CounterResolution.values() ) {
+                logger.debug( "BIAC for resolution {}", resolution );
+                batchIncrementAggregateCounters( m, userId, groupId, queueId, category, resolution, name, value,
+                        counterTimestamp, applicationId );
+                logger.debug( "DONE BIAC for resolution {}", resolution );
+            }
         }
         batchIncrementEntityCounter( m, applicationId, name, value, cassandraTimestamp, applicationId );
         if ( userId != null ) {
@@ -242,6 +341,16 @@ public class CounterUtils {
     private void batchIncrementAggregateCounters( Mutator<ByteBuffer> m, UUID userId, UUID groupId, UUID queueId,
                                                   String category, CounterResolution resolution, String name,
                                                   long value, long counterTimestamp, UUID applicationId ) {
+        for ( String row : getAggregateCounterRows( userId, groupId, queueId, category, resolution, name ) ) {
+            handleAggregateCounterRow( m, row, resolution.round( counterTimestamp ), value, applicationId );
+        }
+    }
+
+
+    /** The rows an increment of the named counter updates at the resolution */
+    private List<String> getAggregateCounterRows( UUID userId, UUID groupId, UUID queueId, String category,
+                                                  CounterResolution resolution, String name ) {
+        List<String> rows = new ArrayList<String>();
 
         String[] segments = StringUtils.split( name, '.' );
         for ( int j = 0; j < segments.length; j++ ) {
@@ -252,9 +361,7 @@ public class CounterUtils {
             }
 
             // *:*:*:*
-            handleAggregateCounterRow( m,
-                    AggregateCounterSelection.rowBuilder( name, null, null, null, null, resolution ),
-                    resolution.round( counterTimestamp ), value, applicationId );
+            rows.add( AggregateCounterSelection.rowBuilder( name, null, null, null, null, resolution ) );
             String currentRow = null;
             HashSet<String> rowSet = new HashSet<String>( 16 );
             for ( int i = 0; i < 16; i++ ) {
@@ -280,11 +387,12 @@ public class CounterUtils {
 
                 if ( non_null > 0 && !rowSet.contains( currentRow ) ) {
                     rowSet.add( currentRow );
-                    handleAggregateCounterRow( m, currentRow, resolution.round( counterTimestamp ), value,
-                            applicationId );
+                    rows.add( currentRow );
                 }
             }
         }
+
+        return rows;
     }
 
 
@@ -310,6 +418,46 @@ public class CounterUtils {
     }
 
 
+    /**
+     * Record MINUTE rows in the pending list of their period. Each node writes a row's registration once per period,
+     * and only remembers it after the write succeeded, so a failed write is tried again with the next count.
+     */
+    private void registerRollupRows( UUID applicationId, List<String> rows, long column ) {
+        long period = CounterRollup.period( column );
+        long timestamp = createTimestamp();
+
+        Mutator<ByteBuffer> m =
+                CountingMutator.createFlushingMutator( cass.getApplicationKeyspace( applicationId ), be );
+        List<String> registrations = new ArrayList<String>();
+
+        for ( String row : rows ) {
+            String registration = applicationId + ":" + period + ":" + row;
+            if ( rollupRegistrations.getIfPresent( registration ) == null ) {
+                addInsertToMutator( m, ENTITY_DICTIONARIES, CounterRollup.rowsKey( applicationId, period ), row, null,
+                        timestamp );
+                registrations.add( registration );
+            }
+        }
+
+        String registration = applicationId + ":" + period;
+        if ( rollupRegistrations.getIfPresent( registration ) == null ) {
+            addInsertToMutator( m, ENTITY_DICTIONARIES, CounterRollup.periodsKey( applicationId ), period, null,
+                    timestamp );
+            registrations.add( registration );
+        }
+
+        if ( registrations.isEmpty() ) {
+            return;
+        }
+
+        batchExecute( m, CassandraService.RETRY_COUNT );
+
+        for ( String written : registrations ) {
+            rollupRegistrations.put( written, Boolean.TRUE );
+        }
+    }
+
+
     public AggregateCounterSelection getAggregateCounterSelection( String name, UUID userId, UUID groupId, UUID queueId,
                                                                    String category ) {
         return new AggregateCounterSelection( name, userId, groupId, queueId, category );
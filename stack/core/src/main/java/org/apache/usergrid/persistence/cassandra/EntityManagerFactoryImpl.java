@@ -18,9 +18,12 @@ package org.apache.usergrid.persistence.cassandra;
 
 
 import java.nio.ByteBuffer;
+import java.util.Collections;
 import java.util.Map;
 import java.util.TreeMap;
 import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -28,19 +31,25 @@ import org.springframework.beans.BeansException;
 import org.springframework.context.ApplicationContext;
 import org.springframework.context.ApplicationContextAware;
 import org.apache.usergrid.persistence.DynamicEntity;
+import org.apache.usergrid.persistence.EntityFactory;
 import org.apache.usergrid.persistence.EntityManager;
 import org.apache.usergrid.persistence.EntityManagerFactory;
+import org.apache.usergrid.events.EntityChangeBus;
 import org.apache.usergrid.persistence.entities.Application;
 import org.apache.usergrid.persistence.exceptions.ApplicationAlreadyExistsException;
 import org.apache.usergrid.persistence.hector.CountingMutator;
+import org.apache.usergrid.mq.cassandra.QueueManagerFactoryImpl;
 import org.apache.usergrid.utils.UUIDUtils;
 
 import org.apache.commons.lang.StringUtils;
 
+import com.google.common.cache.Cache;
 import com.google.common.cache.CacheBuilder;
 import com.google.common.cache.CacheLoader;
 import com.google.common.cache.LoadingCache;
+import com.yammer.metrics.Metrics;
 import com.yammer.metrics.annotation.Metered;
+import com.yammer.metrics.core.Counter;
 
 import me.prettyprint.hector.api.Keyspace;
 import me.prettyprint.hector.api.beans.ColumnSlice;
@@ -90,12 +99,54 @@ public class EntityManagerFactoryImpl implements EntityManagerFactory, Applicati
 
     private boolean skipAggregateCounters;
 
-    private LoadingCache<UUID, EntityManager> entityManagers =
-            CacheBuilder.newBuilder().maximumSize( 100 ).build( new CacheLoader<UUID, EntityManager>() {
-                public EntityManager load( UUID appId ) { // no checked exception
-                    return _getEntityManager( appId );
-                }
-            } );
+    public static final int DEFAULT_ENTITY_MANAGER_CACHE_SIZE = 1000;
+
+    public static final int DEFAULT_APPLICATION_CACHE_SIZE = 10000;
+    public static final long DEFAULT_APPLICATION_CACHE_TTL = 60000;
+    public static final long DEFAULT_APPLICATION_CACHE_NEGATIVE_TTL = 5000;
+
+    private QueueManagerFactoryImpl queueManagerFactory;
+    private IndexBucketLocator indexBucketLocator;
+    private EntityChangeBus entityChangeBus;
+    private boolean softDeletes = false;
+    private boolean uniqueClaims = true;
+    private long tombstoneCleanupDelay = 60000;
+
+    private final Counter entityManagerCacheHits =
+            Metrics.newCounter( EntityManagerFactoryImpl.class, "entity_manager_cache_hits" );
+    private final Counter entityManagerCacheMisses =
+            Metrics.newCounter( EntityManagerFactoryImpl.class, "entity_manager_cache_misses" );
+
+    private LoadingCache<UUID, EntityManager> entityManagers = buildCache( DEFAULT_ENTITY_MANAGER_CACHE_SIZE );
+
+    private final Counter applicationIdCacheHits =
+            Metrics.newCounter( EntityManagerFactoryImpl.class, "application_id_cache_hits" );
+    private final Counter applicationIdCacheMisses =
+            Metrics.newCounter( EntityManagerFactoryImpl.class, "application_id_cache_misses" );
+    private final Counter applicationCacheHits =
+            Metrics.newCounter( EntityManagerFactoryImpl.class, "application_cache_hits" );
+    private final Counter applicationCacheMisses =
+            Metrics.newCounter( EntityManagerFactoryImpl.class, "application_cache_misses" );
+
+    private int applicationCacheSize = DEFAULT_APPLICATION_CACHE_SIZE;
+    private long applicationCacheTtl = DEFAULT_APPLICATION_CACHE_TTL;
+    private long applicationCacheNegativeTtl = DEFAULT_APPLICATION_CACHE_NEGATIVE_TTL;
+
+    /** Application ids by lower case name. Null when application caching is disabled */
+    private Cache<String, UUID> applicationIds;
+
+    /** Names that were recently looked up and don't exist, so repeated lookups of them don't reach Cassandra */
+    private Cache<String, Boolean> missingApplications;
+
+    /** Application entities by id, never handed out directly since callers may modify what they are given */
+    private Cache<UUID, Application> applications;
+
+    /** Bumped on every invalidation, so an entity read before an invalidation is not cached after it */
+    private final AtomicLong applicationGeneration = new AtomicLong();
+
+    {
+        buildApplicationCaches();
+    }
 
 
     /**
@@ -132,6 +183,12 @@ public class EntityManagerFactoryImpl implements EntityManagerFactory, Applicati
      */
     @Override
     public EntityManager getEntityManager( UUID applicationId ) {
+        EntityManager em = entityManagers.getIfPresent( applicationId );
+        if ( em != null ) {
+            entityManagerCacheHits.inc();
+            return em;
+        }
+        entityManagerCacheMisses.inc();
         try {
             return entityManagers.get( applicationId );
         }
@@ -143,11 +200,167 @@ public class EntityManagerFactoryImpl implements EntityManagerFactory, Applicati
 
 
     private EntityManager _getEntityManager( UUID applicationId ) {
-        //EntityManagerImpl em = new EntityManagerImpl();
-        EntityManager em = applicationContext.getBean( "entityManager", EntityManager.class );
-        //em.init(this,cass,counterUtils,applicationId, skipAggregateCounters);
-        em.setApplicationId( applicationId );
-        return em;
+        return new EntityManagerImpl( this, applicationId );
+    }
+
+
+    private LoadingCache<UUID, EntityManager> buildCache( int size ) {
+        return CacheBuilder.newBuilder().maximumSize( size ).build( new CacheLoader<UUID, EntityManager>() {
+            public EntityManager load( UUID appId ) { // no checked exception
+                return _getEntityManager( appId );
+            }
+        } );
+    }
+
+
+    /** Maximum number of per-application entity managers kept, replaces any entity managers already cached */
+    public void setEntityManagerCacheSize( int entityManagerCacheSize ) {
+        entityManagers = buildCache( entityManagerCacheSize );
+    }
+
+
+    /**
+     * Build the application name and entity caches. Names resolve to the same id for the life of the application, so
+     * the ttl only bounds how long another node's changes to the application entity go unseen here. Missing names are
+     * kept for the much shorter negative ttl, so an application created on another node shows up quickly.
+     */
+    private void buildApplicationCaches() {
+        if ( applicationCacheSize <= 0 || applicationCacheTtl <= 0 ) {
+            applicationIds = null;
+            missingApplications = null;
+            applications = null;
+            return;
+        }
+
+        applicationIds = CacheBuilder.newBuilder().maximumSize( applicationCacheSize )
+                                     .expireAfterWrite( applicationCacheTtl, TimeUnit.MILLISECONDS ).build();
+        missingApplications = CacheBuilder.newBuilder().maximumSize( applicationCacheSize )
+                                          .expireAfterWrite( Math.max( 0, applicationCacheNegativeTtl ),
+                                                  TimeUnit.MILLISECONDS ).build();
+        applications = CacheBuilder.newBuilder().maximumSize( applicationCacheSize )
+                                   .expireAfterWrite( applicationCacheTtl, TimeUnit.MILLISECONDS ).build();
+    }
+
+
+    /** Maximum number of application names and entities cached. 0 disables the caches */
+    public void setApplicationCacheSize( int applicationCacheSize ) {
+        this.applicationCacheSize = applicationCacheSize;
+        buildApplicationCaches();
+    }
+
+
+    /** Milliseconds application names and entities are cached for. 0 disables the caches */
+    public void setApplicationCacheTtl( long applicationCacheTtl ) {
+        this.applicationCacheTtl = applicationCacheTtl;
+        buildApplicationCaches();
+    }
+
+
+    /** Milliseconds a name that doesn't exist is remembered for */
+    public void setApplicationCacheNegativeTtl( long applicationCacheNegativeTtl ) {
+        this.applicationCacheNegativeTtl = applicationCacheNegativeTtl;
+        buildApplicationCaches();
+    }
+
+
+    @Override
+    public void invalidateApplication( UUID applicationId ) {
+        if ( applicationIds == null ) {
+            return;
+        }
+
+        applicationGeneration.incrementAndGet();
+        applications.invalidate( applicationId );
+        applicationIds.asMap().values().removeAll( Collections.singleton( applicationId ) );
+
+        // a renamed application's new name may have been looked up before it existed
+        missingApplications.invalidateAll();
+    }
+
+
+    /** Cache the id of the application name, or that it doesn't exist if the id is null */
+    private void cacheApplicationId( String name, UUID applicationId ) {
+        if ( applicationIds == null ) {
+            return;
+        }
+
+        if ( applicationId != null ) {
+            applicationIds.put( name, applicationId );
+            missingApplications.invalidate( name );
+        }
+        else {
+            missingApplications.put( name, Boolean.TRUE );
+        }
+    }
+
+
+    public QueueManagerFactoryImpl getQueueManagerFactory() {
+        return queueManagerFactory;
+    }
+
+
+    public void setQueueManagerFactory( QueueManagerFactoryImpl queueManagerFactory ) {
+        this.queueManagerFactory = queueManagerFactory;
+    }
+
+
+    public IndexBucketLocator getIndexBucketLocator() {
+        return indexBucketLocator;
+    }
+
+
+    public void setIndexBucketLocator( IndexBucketLocator indexBucketLocator ) {
+        this.indexBucketLocator = indexBucketLocator;
+    }
+
+
+    public EntityChangeBus getEntityChangeBus() {
+        return entityChangeBus;
+    }
+
+
+    public void setEntityChangeBus( EntityChangeBus entityChangeBus ) {
+        this.entityChangeBus = entityChangeBus;
+    }
+
+
+    public boolean isSkipAggregateCounters() {
+        return skipAggregateCounters;
+    }
+
+
+    public boolean isSoftDeletes() {
+        return softDeletes;
+    }
+
+
+    /** When true, entity managers write tombstones on delete and leave the cleanup to the tombstone cleanup job */
+    public void setSoftDeletes( boolean softDeletes ) {
+        this.softDeletes = softDeletes;
+    }
+
+
+    public boolean isUniqueClaims() {
+        return uniqueClaims;
+    }
+
+
+    /**
+     * When true, entity managers claim unique property values optimistically. When false they check and write them
+     * under a lock from the lock manager.
+     */
+    public void setUniqueClaims( boolean uniqueClaims ) {
+        this.uniqueClaims = uniqueClaims;
+    }
+
+
+    public long getTombstoneCleanupDelay() {
+        return tombstoneCleanupDelay;
+    }
+
+
+    public void setTombstoneCleanupDelay( long tombstoneCleanupDelay ) {
+        this.tombstoneCleanupDelay = tombstoneCleanupDelay;
     }
 
 
@@ -228,8 +441,8 @@ public class EntityManagerFactoryImpl implements EntityManagerFactory, Applicati
                                        Map<String, Object> properties ) throws Exception {
 
         String appName = buildAppName( organizationName, name );
-        // check for pre-existing
-        if ( lookupApplication( appName ) != null ) {
+        // check for pre-existing, ignoring the cache
+        if ( readApplicationId( appName ) != null ) {
             throw new ApplicationAlreadyExistsException( appName );
         }
         if ( properties == null ) {
@@ -251,6 +464,8 @@ public class EntityManagerFactoryImpl implements EntityManagerFactory, Applicati
 
         batchExecute( m, RETRY_COUNT );
 
+        cacheApplicationId( appName, applicationId );
+
         EntityManager em = getEntityManager( applicationId );
         em.create( TYPE_APPLICATION, APPLICATION_ENTITY_CLASS, properties );
 
@@ -282,6 +497,28 @@ public class EntityManagerFactoryImpl implements EntityManagerFactory, Applicati
     @Metered(group = "core", name = "EntityManagerFactory_lookupApplication_byName")
     public UUID lookupApplication( String name ) throws Exception {
         name = name.toLowerCase();
+
+        if ( applicationIds != null ) {
+            UUID applicationId = applicationIds.getIfPresent( name );
+            if ( applicationId != null ) {
+                applicationIdCacheHits.inc();
+                return applicationId;
+            }
+            if ( missingApplications.getIfPresent( name ) != null ) {
+                applicationIdCacheHits.inc();
+                return null;
+            }
+            applicationIdCacheMisses.inc();
+        }
+
+        UUID applicationId = readApplicationId( name );
+        cacheApplicationId( name, applicationId );
+        return applicationId;
+    }
+
+
+    /** Read the id of the lower case application name from Cassandra */
+    private UUID readApplicationId( String name ) throws Exception {
         HColumn<String, ByteBuffer> column =
                 cass.getColumn( cass.getSystemKeyspace(), APPLICATIONS_CF, name, PROPERTY_UUID );
         if ( column != null ) {
@@ -302,17 +539,35 @@ public class EntityManagerFactoryImpl implements EntityManagerFactory, Applicati
      */
     @Metered(group = "core", name = "EntityManagerFactory_getApplication")
     public Application getApplication( String name ) throws Exception {
-        name = name.toLowerCase();
-        HColumn<String, ByteBuffer> column =
-                cass.getColumn( cass.getSystemKeyspace(), APPLICATIONS_CF, name, PROPERTY_UUID );
-        if ( column == null ) {
+        UUID applicationId = lookupApplication( name );
+        if ( applicationId == null ) {
             return null;
         }
 
-        UUID applicationId = uuid( column.getValue() );
+        if ( applications != null ) {
+            Application application = applications.getIfPresent( applicationId );
+            if ( application != null ) {
+                applicationCacheHits.inc();
+                return copyOf( application );
+            }
+            applicationCacheMisses.inc();
+        }
 
+        long generation = applicationGeneration.get();
         EntityManager em = getEntityManager( applicationId );
-        return ( ( EntityManagerImpl ) em ).getEntity( applicationId, Application.class );
+        Application application = ( ( EntityManagerImpl ) em ).getEntity( applicationId, Application.class );
+        if ( application != null && applications != null && applicationGeneration.get() == generation ) {
+            applications.put( applicationId, copyOf( application ) );
+        }
+        return application;
+    }
+
+
+    /** A copy of the application entity whose properties can be changed without changing the original */
+    private static Application copyOf( Application application ) {
+        Application copy = EntityFactory.newEntity( application.getUuid(), TYPE_APPLICATION, Application.class );
+        copy.setProperties( application.getProperties() );
+        return copy;
     }
 
 
@@ -331,6 +586,7 @@ public class EntityManagerFactoryImpl implements EntityManagerFactory, Applicati
             ColumnSlice<String, UUID> slice = row.getColumnSlice();
             HColumn<String, UUID> column = slice.getColumnByName( PROPERTY_UUID );
             applications.put( row.getKey(), column.getValue() );
+            cacheApplicationId( row.getKey().toLowerCase(), column.getValue() );
         }
         return applications;
     }
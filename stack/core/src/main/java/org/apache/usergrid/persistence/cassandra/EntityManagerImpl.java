@@ -18,6 +18,7 @@ package org.apache.usergrid.persistence.cassandra;
 
 
 import java.nio.ByteBuffer;
+import java.util.AbstractMap;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
@@ -33,13 +34,16 @@ import java.util.Set;
 import java.util.TreeMap;
 import java.util.TreeSet;
 import java.util.UUID;
-
-import javax.annotation.Resource;
+import java.util.concurrent.TimeUnit;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.context.ApplicationContext;
 import org.springframework.util.Assert;
+import org.apache.usergrid.batch.service.SchedulerService;
+import org.apache.usergrid.events.EntityChangeBus;
+import org.apache.usergrid.events.EntityChangeEvent;
+import org.apache.usergrid.events.EntityChangeEvent.ChangeType;
 import org.apache.usergrid.locking.Lock;
 import org.apache.usergrid.mq.Message;
 import org.apache.usergrid.mq.QueueManager;
@@ -69,10 +73,10 @@ import org.apache.usergrid.persistence.SimpleEntityRef;
 import org.apache.usergrid.persistence.SimpleRoleRef;
 import org.apache.usergrid.persistence.TypedEntity;
 import org.apache.usergrid.persistence.cassandra.CounterUtils.AggregateCounterSelection;
-import org.apache.usergrid.persistence.cassandra.util.TraceParticipant;
 import org.apache.usergrid.persistence.entities.Application;
 import org.apache.usergrid.persistence.entities.Event;
 import org.apache.usergrid.persistence.entities.Group;
+import org.apache.usergrid.persistence.entities.JobData;
 import org.apache.usergrid.persistence.entities.Role;
 import org.apache.usergrid.persistence.entities.User;
 import org.apache.usergrid.persistence.exceptions.DuplicateUniquePropertyExistsException;
@@ -80,9 +84,12 @@ import org.apache.usergrid.persistence.exceptions.EntityNotFoundException;
 import org.apache.usergrid.persistence.exceptions.RequiredPropertyNotFoundException;
 import org.apache.usergrid.persistence.exceptions.UnexpectedEntityTypeException;
 import org.apache.usergrid.persistence.hector.CountingMutator;
+import org.apache.usergrid.persistence.query.ir.result.ScanColumn;
 import org.apache.usergrid.persistence.schema.CollectionInfo;
+import org.apache.usergrid.persistence.schema.EntityInfo;
 import org.apache.usergrid.utils.ClassUtils;
 import org.apache.usergrid.utils.CompositeUtils;
+import org.apache.usergrid.utils.JsonUtils;
 import org.apache.usergrid.utils.UUIDUtils;
 
 import com.google.common.collect.BiMap;
@@ -184,27 +191,70 @@ public class EntityManagerImpl implements EntityManager {
     public static final String APPLICATION_COLLECTION = "application.collection.";
     public static final String APPLICATION_ENTITIES = "application.entities";
     public static final long ONE_COUNT = 1L;
-    @Resource
     private EntityManagerFactoryImpl emf;
-    @Resource
     private QueueManagerFactoryImpl qmf;
-    @Resource
     private IndexBucketLocator indexBucketLocator;
 
     private UUID applicationId;
 
     private Application application;
-    @Resource
     private CassandraService cass;
-    @Resource
     private CounterUtils counterUtils;
+    private EntityChangeBus entityChangeBus;
 
     private boolean skipAggregateCounters;
 
+    /** Row in ENTITY_ID_SETS holding the soft deleted entities of the application awaiting cleanup */
+    public static final String TOMBSTONES_SET = "tombstones";
+
+    /** How long a node trusts that an application has no tombstones before reading the row again */
+    private static final long TOMBSTONE_CHECK_INTERVAL = 1000;
+
+    private volatile boolean tombstonesExist = false;
+
+    private volatile long tombstonesCheckedAt = 0;
+
+    private long tombstoneCleanupDelay = 60000;
+
+    /** When this node last scheduled the tombstone cleanup of the application */
+    private volatile long tombstoneCleanupScheduledAt = 0;
+
+    private boolean softDeletes = false;
+
+    private boolean uniqueClaims = true;
+
+    /** The most claims on a unique property value read back when deciding which one wins */
+    private static final int UNIQUE_CLAIM_COUNT = 100;
+
+    /**
+     * Milliseconds a unique property claim is trusted before its entity is checked for the value. A claim is written
+     * before the entity, so a younger claim may belong to a write that's still in progress.
+     */
+    private static final long UNIQUE_CLAIM_GRACE = 60000;
+
     public EntityManagerImpl() {
     }
 
 
+    /**
+     * Create an entity manager for an application, sharing the services and settings held by the factory. This is
+     * cheap enough to do for every cache miss and involves no reads.
+     */
+    public EntityManagerImpl( EntityManagerFactoryImpl emf, UUID applicationId ) {
+        this.emf = emf;
+        this.cass = emf.cass;
+        this.counterUtils = emf.counterUtils;
+        this.qmf = emf.getQueueManagerFactory();
+        this.indexBucketLocator = emf.getIndexBucketLocator();
+        this.entityChangeBus = emf.getEntityChangeBus();
+        this.skipAggregateCounters = emf.isSkipAggregateCounters();
+        this.softDeletes = emf.isSoftDeletes();
+        this.uniqueClaims = emf.isUniqueClaims();
+        this.tombstoneCleanupDelay = emf.getTombstoneCleanupDelay();
+        this.applicationId = applicationId;
+    }
+
+
     public EntityManagerImpl init( EntityManagerFactoryImpl emf, CassandraService cass, CounterUtils counterUtils,
                                    UUID applicationId, boolean skipAggregateCounters ) {
         this.emf = emf;
@@ -230,6 +280,27 @@ public class EntityManagerImpl implements EntityManager {
     }
 
 
+    /** When true, delete() writes a tombstone and leaves the full cleanup to the tombstone cleanup job */
+    public void setSoftDeletes( boolean softDeletes ) {
+        this.softDeletes = softDeletes;
+    }
+
+
+    /**
+     * When true, unique property values are claimed optimistically rather than under a lock; see {@link
+     * #claimUniqueProperty(EntityRef, String, String, Object, UUID)}
+     */
+    public void setUniqueClaims( boolean uniqueClaims ) {
+        this.uniqueClaims = uniqueClaims;
+    }
+
+
+    /** Milliseconds after a soft delete before the cleanup job runs, also the least time between two schedules */
+    public void setTombstoneCleanupDelay( long tombstoneCleanupDelay ) {
+        this.tombstoneCleanupDelay = tombstoneCleanupDelay;
+    }
+
+
     public ApplicationContext getApplicationContext() {
         return emf.applicationContext;
     }
@@ -295,6 +366,18 @@ public class EntityManagerImpl implements EntityManager {
     public Mutator<ByteBuffer> batchSetProperty( Mutator<ByteBuffer> batch, EntityRef entity, String propertyName,
                                                  Object propertyValue, boolean force, boolean noRead,
                                                  UUID timestampUuid ) throws Exception {
+        return batchSetProperty( batch, entity, propertyName, propertyValue, force, noRead, timestampUuid, null );
+    }
+
+
+    /**
+     * Batch set property, maintaining the indexes through the given relation manager, or through a new one for the
+     * entity if null.
+     */
+    private Mutator<ByteBuffer> batchSetProperty( Mutator<ByteBuffer> batch, EntityRef entity, String propertyName,
+                                                  Object propertyValue, boolean force, boolean noRead,
+                                                  UUID timestampUuid, RelationManagerImpl relationManager )
+            throws Exception {
 
         long timestamp = getTimestampInMicros( timestampUuid );
 
@@ -336,37 +419,57 @@ public class EntityManagerImpl implements EntityManager {
              */
             if ( defaultSchema.getEntityInfo( entity.getType() ).isPropertyUnique( propertyName ) ) {
 
-                Lock lock = getUniqueUpdateLock( cass.getLockManager(), applicationId, propertyValue, entity.getType(),
-                        propertyName );
+                String collectionName = Schema.defaultCollectionName( entity.getType() );
 
-                try {
-                    lock.lock();
-
-                    if ( !isPropertyValueUniqueForEntity( entity.getUuid(), entity.getType(), propertyName,
-                            propertyValue ) ) {
-                        throw new DuplicateUniquePropertyExistsException( entity.getType(), propertyName,
-                                propertyValue );
-                    }
+                Object oldValue = noRead ? null :
+                                  getProperty( new SimpleEntityRef( entity.getType(), entity.getUuid() ), propertyName );
 
+                // the entity already owns this value, so there's nothing to check or index
+                if ( propertyValue != null && propertyValue.equals( oldValue ) ) {
+                    logger.debug( "Unique property {} of {} unchanged", propertyName, entity.getUuid() );
+                }
+                else if ( uniqueClaims ) {
 
-                    String collectionName = Schema.defaultCollectionName( entity.getType() );
+                    if ( propertyValue != null ) {
+                        claimUniqueProperty( entity, collectionName, propertyName, propertyValue, timestampUuid );
+                    }
 
-                    uniquePropertyDelete( batch, collectionName, entity.getType(), propertyName, propertyValue,
+                    uniquePropertyDelete( batch, collectionName, propertyName, propertyValue, oldValue,
                             entity.getUuid(), timestamp - 1 );
-                    uniquePropertyWrite( batch, collectionName, propertyName, propertyValue, entity.getUuid(),
-                            timestamp );
                 }
-                finally {
-                    lock.unlock();
+                else {
+
+                    Lock lock = getUniqueUpdateLock( cass.getLockManager(), applicationId, propertyValue,
+                            entity.getType(), propertyName );
+
+                    try {
+                        lock.lock();
+
+                        if ( !isPropertyValueUniqueForEntity( entity.getUuid(), entity.getType(), propertyName,
+                                propertyValue ) ) {
+                            throw new DuplicateUniquePropertyExistsException( entity.getType(), propertyName,
+                                    propertyValue );
+                        }
+
+                        uniquePropertyDelete( batch, collectionName, propertyName, propertyValue, oldValue,
+                                entity.getUuid(), timestamp - 1 );
+                        uniquePropertyWrite( batch, collectionName, propertyName, propertyValue, entity.getUuid(),
+                                timestamp );
+                    }
+                    finally {
+                        lock.unlock();
+                    }
                 }
             }
         }
 
         if ( getDefaultSchema().isPropertyIndexed( entity.getType(), propertyName ) ) {
             //this call is incorrect.  The current entity is NOT the head entity
-            getRelationManager( entity )
-                    .batchUpdatePropertyIndexes( batch, propertyName, propertyValue, entitySchemaHasProperty, noRead,
-                            timestampUuid );
+            if ( relationManager == null ) {
+                relationManager = getRelationManager( entity );
+            }
+            relationManager.batchUpdatePropertyIndexes( batch, propertyName, propertyValue, entitySchemaHasProperty,
+                    noRead, timestampUuid );
         }
 
 
@@ -533,16 +636,32 @@ public class EntityManagerImpl implements EntityManager {
 
         Object key = createUniqueIndexKey( ownerEntityId, collectionNameInternal, propertyName, propertyValue );
 
-        List<HColumn<ByteBuffer, ByteBuffer>> cols =
-                cass.getColumns( cass.getApplicationKeyspace( applicationId ), ENTITY_UNIQUE, key, null, null, 2,
-                        false );
+        List<UniqueClaim> claims = getUniqueClaims( key );
 
 
         //No columns at all, it's unique
-        if ( cols.size() == 0 ) {
+        if ( claims.size() == 0 ) {
             return Collections.emptySet();
         }
 
+        //without entries written under the lock, the value belongs to the earliest claim that isn't stale
+        if ( claims.get( 0 ).claimedAt != null ) {
+            String entityType = Schema.getAssociatedEntityType( collectionNameInternal );
+            for ( UniqueClaim claim : claims ) {
+                if ( !isStaleClaim( claim, entityType, ownerEntityId, collectionNameInternal, propertyName, key ) ) {
+                    return Collections.singleton( claim.entityId );
+                }
+            }
+            return Collections.emptySet();
+        }
+
+        List<HColumn<ByteBuffer, ByteBuffer>> cols = new ArrayList<HColumn<ByteBuffer, ByteBuffer>>();
+        for ( UniqueClaim claim : claims ) {
+            if ( claim.claimedAt == null ) {
+                cols.add( claim.column );
+            }
+        }
+
         //shouldn't happen, but it's an error case
         if ( cols.size() > 1 ) {
             logger.error( "INDEX CORRUPTION: More than 1 unique value exists for entities in ownerId {} of type {} on "
@@ -567,12 +686,9 @@ public class EntityManagerImpl implements EntityManager {
 
 
     /** Add this unique index to the delete */
-    private void uniquePropertyDelete( Mutator<ByteBuffer> m, String collectionName, String entityType,
-                                       String propertyName, Object propertyValue, UUID entityId, long timestamp )
+    private void uniquePropertyDelete( Mutator<ByteBuffer> m, String collectionName, String propertyName,
+                                       Object propertyValue, Object oldValue, UUID entityId, long timestamp )
             throws Exception {
-        //read the old value and delete it
-
-        Object oldValue = getProperty( new SimpleEntityRef( entityType, entityId ), propertyName );
 
         //we have an old value.  If the new value is empty, we want to delete the old value.  If the new value is
         // different we want to delete, otherwise we don't issue the delete
@@ -593,6 +709,200 @@ public class EntityManagerImpl implements EntityManager {
     }
 
 
+    /**
+     * Claim a unique property value for the entity without taking a lock. The claim is written straight away, holding
+     * the time it was made, then the claims on the value are read back and the earliest live claim wins, ties going
+     * to the lower entity id. Entries written under the lock hold no time and always come first. A claim that's older
+     * than {@link #UNIQUE_CLAIM_GRACE} and whose entity doesn't hold the value was left by a failed write, and is
+     * removed. The winning claim stays as the unique index entry; a losing one is removed straight away, or by the
+     * cleanup job if that fails.
+     *
+     * @throws DuplicateUniquePropertyExistsException if another entity's claim wins
+     */
+    private void claimUniqueProperty( EntityRef entity, String collectionName, String propertyName,
+                                      Object propertyValue, UUID timestampUuid ) throws Exception {
+
+        Object key = createUniqueIndexKey( applicationId, collectionName, propertyName, propertyValue );
+        long timestamp = getTimestampInMicros( timestampUuid );
+
+        Keyspace ko = cass.getApplicationKeyspace( applicationId );
+        Mutator<ByteBuffer> m = CountingMutator.createFlushingMutator( ko, be );
+        addInsertToMutator( m, ENTITY_UNIQUE, key, entity.getUuid(), timestampUuid, timestamp );
+        batchExecute( m, CassandraService.RETRY_COUNT );
+
+        // claims are in order, so the first live one wins
+        for ( UniqueClaim claim : getUniqueClaims( key ) ) {
+
+            if ( claim.entityId.equals( entity.getUuid() ) ) {
+                return;
+            }
+
+            if ( !isStaleClaim( claim, entity.getType(), applicationId, collectionName, propertyName, key ) ) {
+                yieldUniqueClaim( key, entity, propertyName, timestamp );
+                throw new DuplicateUniquePropertyExistsException( entity.getType(), propertyName, propertyValue );
+            }
+
+            logger.info( "Removing stale claim of {} on unique property {} value {}",
+                    new Object[] { claim.entityId, propertyName, propertyValue } );
+            removeUniqueClaim( key, claim.entityId, getTimestampInMicros( claim.claimedAt ) );
+        }
+    }
+
+
+    /** Remove the claim of an entity that yielded the value, leaving it to the cleanup job if that fails */
+    private void yieldUniqueClaim( Object key, EntityRef entity, String propertyName, long timestamp ) {
+        try {
+            removeUniqueClaim( key, entity.getUuid(), timestamp );
+        }
+        catch ( Exception e ) {
+            logger.warn( "Unable to remove the claim of {} on unique property {}, scheduling its cleanup",
+                    entity.getUuid(), propertyName );
+            scheduleUniqueClaimCleanup( key, entity, propertyName, timestamp );
+        }
+    }
+
+
+    /**
+     * Remove the unique property claims a failed create or update made for the entity. A claim is kept if the entity
+     * holds the value after all, as a failed write may still have landed.
+     */
+    private void releaseUniqueClaims( EntityRef entity, Map<String, Object> properties, long timestamp ) {
+        if ( !uniqueClaims ) {
+            return;
+        }
+
+        String collectionName = Schema.defaultCollectionName( entity.getType() );
+
+        for ( Map.Entry<String, Object> property : properties.entrySet() ) {
+            if ( property.getValue() == null || !getDefaultSchema()
+                    .isPropertyUnique( entity.getType(), property.getKey() ) ) {
+                continue;
+            }
+
+            Object key =
+                    createUniqueIndexKey( applicationId, collectionName, property.getKey(), property.getValue() );
+            try {
+                cleanupUniqueClaim( key.toString(), entity.getType(), entity.getUuid(), property.getKey(),
+                        timestamp );
+            }
+            catch ( Exception e ) {
+                logger.warn( "Unable to release the claim of {} on unique property {}, scheduling its cleanup",
+                        entity.getUuid(), property.getKey() );
+                scheduleUniqueClaimCleanup( key, entity, property.getKey(), timestamp );
+            }
+        }
+    }
+
+
+    /** @return the entries for a unique property value, earliest claim first */
+    private List<UniqueClaim> getUniqueClaims( Object key ) throws Exception {
+
+        List<HColumn<ByteBuffer, ByteBuffer>> cols =
+                cass.getColumns( cass.getApplicationKeyspace( applicationId ), ENTITY_UNIQUE, key, null, null,
+                        UNIQUE_CLAIM_COUNT, false );
+
+        List<UniqueClaim> claims = new ArrayList<UniqueClaim>( cols.size() );
+        for ( HColumn<ByteBuffer, ByteBuffer> col : cols ) {
+            claims.add( new UniqueClaim( col ) );
+        }
+
+        Collections.sort( claims );
+
+        return claims;
+    }
+
+
+    /** True if the claim is past its grace period and its entity doesn't hold the value */
+    private boolean isStaleClaim( UniqueClaim claim, String entityType, UUID ownerId, String collectionName,
+                                  String propertyName, Object key ) throws Exception {
+
+        if ( claim.claimedAt == null
+                || System.currentTimeMillis() - getTimestampInMillis( claim.claimedAt ) < UNIQUE_CLAIM_GRACE ) {
+            return false;
+        }
+
+        Object value = getProperty( new SimpleEntityRef( entityType, claim.entityId ), propertyName );
+
+        return value == null || !key.equals( createUniqueIndexKey( ownerId, collectionName, propertyName, value ) );
+    }
+
+
+    /** Remove a claim, unless it's been claimed again since */
+    private void removeUniqueClaim( Object key, UUID entityId, long timestamp ) throws Exception {
+        Mutator<ByteBuffer> m = CountingMutator.createFlushingMutator( cass.getApplicationKeyspace( applicationId ), be );
+        addDeleteToMutator( m, ENTITY_UNIQUE, key, entityId, timestamp );
+        batchExecute( m, CassandraService.RETRY_COUNT );
+    }
+
+
+    /** Schedule the background job that removes a losing unique property claim */
+    private void scheduleUniqueClaimCleanup( Object key, EntityRef entity, String propertyName, long timestamp ) {
+        JobData jobData = new JobData();
+        jobData.setProperty( UniqueClaimCleanupJob.APPLICATION_ID, applicationId );
+        jobData.setProperty( UniqueClaimCleanupJob.ROW_KEY, key.toString() );
+        jobData.setProperty( UniqueClaimCleanupJob.ENTITY_TYPE, entity.getType() );
+        jobData.setProperty( UniqueClaimCleanupJob.ENTITY_ID, entity.getUuid() );
+        jobData.setProperty( UniqueClaimCleanupJob.PROPERTY_NAME, propertyName );
+        jobData.setProperty( UniqueClaimCleanupJob.TIMESTAMP, timestamp );
+
+        SchedulerService scheduler = getApplicationContext().getBean( "schedulerService", SchedulerService.class );
+        scheduler.createJob( UniqueClaimCleanupJob.JOB_NAME, System.currentTimeMillis() + UNIQUE_CLAIM_GRACE,
+                jobData );
+    }
+
+
+    /**
+     * Remove a losing unique property claim of an entity, unless the entity has since come to hold the value.
+     *
+     * @param key the unique index row key of the claimed value
+     * @param timestamp the time the claim was written, in microseconds
+     *
+     * @return true if the claim was removed
+     */
+    public boolean cleanupUniqueClaim( String key, String entityType, UUID entityId, String propertyName,
+                                       long timestamp ) throws Exception {
+
+        Object value = getProperty( new SimpleEntityRef( entityType, entityId ), propertyName );
+
+        String collectionName = Schema.defaultCollectionName( entityType );
+        if ( value != null && key.equals( createUniqueIndexKey( applicationId, collectionName, propertyName, value ) ) ) {
+            return false;
+        }
+
+        removeUniqueClaim( key, entityId, timestamp );
+        return true;
+    }
+
+
+    /** An entry in the unique index of a property value. Entries without a claim time were written under the lock */
+    private static class UniqueClaim implements Comparable<UniqueClaim> {
+
+        private final HColumn<ByteBuffer, ByteBuffer> column;
+        private final UUID entityId;
+        private final UUID claimedAt;
+
+
+        private UniqueClaim( HColumn<ByteBuffer, ByteBuffer> column ) {
+            this.column = column;
+            this.entityId = ue.fromByteBuffer( column.getName().duplicate() );
+
+            ByteBuffer value = column.getValue();
+            this.claimedAt = value != null && value.remaining() == 16 ? ue.fromByteBuffer( value.duplicate() ) : null;
+        }
+
+
+        @Override
+        public int compareTo( UniqueClaim o ) {
+            if ( claimedAt == null || o.claimedAt == null ) {
+                return claimedAt == o.claimedAt ? 0 : ( claimedAt == null ? -1 : 1 );
+            }
+
+            int compare = UUIDUtils.compare( claimedAt, o.claimedAt );
+            return compare != 0 ? compare : UUIDUtils.compare( entityId, o.entityId );
+        }
+    }
+
+
     /**
      * Create a row key for the entity of the given type with the name and value in the property.  Used for fast unique
      * index lookups
@@ -691,7 +1001,6 @@ public class EntityManagerImpl implements EntityManager {
 
 
     @Override
-    @TraceParticipant
     public Entity create( String entityType, Map<String, Object> properties ) throws Exception {
         return create( entityType, null, properties );
     }
@@ -710,7 +1019,6 @@ public class EntityManagerImpl implements EntityManager {
      * @throws Exception the exception
      */
     @Metered( group = "core", name = "EntityManager_create" )
-    @TraceParticipant
     public <A extends Entity> A create( String entityType, Class<A> entityClass, Map<String, Object> properties,
                                         UUID importId ) throws Exception {
 
@@ -720,17 +1028,90 @@ public class EntityManagerImpl implements EntityManager {
         Mutator<ByteBuffer> m = CountingMutator.createFlushingMutator( ko, be );
         A entity = batchCreate( m, entityType, entityClass, properties, importId, timestampUuid );
 
-        batchExecute( m, CassandraService.RETRY_COUNT );
+        try {
+            batchExecute( m, CassandraService.RETRY_COUNT );
+        }
+        catch ( Exception e ) {
+            if ( entity != null ) {
+                releaseUniqueClaims( entity, entity.getProperties(), getTimestampInMicros( timestampUuid ) );
+            }
+            throw e;
+        }
+
+        if ( entity != null ) {
+            publishChange( ChangeType.CREATED, entity.getUuid(), entity.getType(), timestampUuid );
+        }
 
         return entity;
     }
 
 
-    @SuppressWarnings( "unchecked" )
+    @Override
+    @Metered( group = "core", name = "EntityManager_createImported" )
+    public List<Entity> createImported( List<? extends Entity> entities ) throws Exception {
+
+        List<Entity> created = new ArrayList<Entity>( entities.size() );
+
+        if ( entities.isEmpty() ) {
+            return created;
+        }
+
+        UUID timestampUuid = newTimeUUID();
+
+        Keyspace ko = cass.getApplicationKeyspace( applicationId );
+        Mutator<ByteBuffer> m = CountingMutator.createBatchMutator( ko, be );
+
+        // collection counters are only incremented once the batch is written, so that a caller falling back to
+        // creating the entities one at a time doesn't count them twice
+        List<Map.Entry<String, Long>> collectionIncrements = new ArrayList<Map.Entry<String, Long>>();
+
+        try {
+            for ( Entity entity : entities ) {
+                created.add( batchCreate( m, entity.getType(), null, entity.getProperties(), entity.getUuid(),
+                        timestampUuid, collectionIncrements ) );
+            }
+
+            batchExecute( m, CassandraService.RETRY_COUNT );
+        }
+        catch ( Exception e ) {
+            for ( Entity entity : created ) {
+                if ( entity != null ) {
+                    releaseUniqueClaims( entity, entity.getProperties(), getTimestampInMicros( timestampUuid ) );
+                }
+            }
+            throw e;
+        }
+
+        for ( Map.Entry<String, Long> increment : collectionIncrements ) {
+            incrementEntityCollection( increment.getKey(), increment.getValue() );
+        }
+
+        for ( Entity entity : created ) {
+            if ( entity != null ) {
+                publishChange( ChangeType.CREATED, entity.getUuid(), entity.getType(), timestampUuid );
+            }
+        }
+
+        return created;
+    }
+
+
     @Metered( group = "core", name = "EntityManager_batchCreate" )
     public <A extends Entity> A batchCreate( Mutator<ByteBuffer> m, String entityType, Class<A> entityClass,
                                              Map<String, Object> properties, UUID importId, UUID timestampUuid )
             throws Exception {
+        return batchCreate( m, entityType, entityClass, properties, importId, timestampUuid, null );
+    }
+
+
+    /**
+     * Batch create, adding the collection counter increments to the given list instead of applying them right away
+     * if it isn't null. Each increment is the collection name and the cassandra timestamp to count it at.
+     */
+    @SuppressWarnings( "unchecked" )
+    private <A extends Entity> A batchCreate( Mutator<ByteBuffer> m, String entityType, Class<A> entityClass,
+                                              Map<String, Object> properties, UUID importId, UUID timestampUuid,
+                                              List<Map.Entry<String, Long>> collectionIncrements ) throws Exception {
 
         String eType = Schema.normalizeEntityType( entityType );
 
@@ -874,7 +1255,7 @@ public class EntityManagerImpl implements EntityManager {
                 }
             }
             Message message = storeEventAsMessage( m, event, timestamp );
-            incrementEntityCollection( "events", timestamp );
+            incrementEntityCollection( "events", timestamp, collectionIncrements );
 
             entity.setUuid( message.getUuid() );
             return entity;
@@ -895,17 +1276,36 @@ public class EntityManagerImpl implements EntityManager {
 
             entity.setProperty( prop_name, propertyValue );
 
-            batchSetProperty( m, entity, prop_name, propertyValue, true, true, timestampUuid );
+            try {
+                batchSetProperty( m, entity, prop_name, propertyValue, true, true, timestampUuid );
+            }
+            catch ( Exception e ) {
+                // claims are made at the time of the uuid, which an imported entity's timestamp may predate
+                releaseUniqueClaims( entity, entity.getProperties(), getTimestampInMicros( timestampUuid ) );
+                throw e;
+            }
         }
 
         if ( !is_application ) {
-            incrementEntityCollection( collection_name, timestamp );
+            incrementEntityCollection( collection_name, timestamp, collectionIncrements );
         }
 
         return entity;
     }
 
 
+    private void incrementEntityCollection( String collection_name, long cassandraTimestamp,
+                                            List<Map.Entry<String, Long>> collectionIncrements ) {
+        if ( collectionIncrements != null ) {
+            collectionIncrements
+                    .add( new AbstractMap.SimpleEntry<String, Long>( collection_name, cassandraTimestamp ) );
+        }
+        else {
+            incrementEntityCollection( collection_name, cassandraTimestamp );
+        }
+    }
+
+
     private void incrementEntityCollection( String collection_name, long cassandraTimestamp ) {
         try {
             incrementAggregateCounters( null, null, null, APPLICATION_COLLECTION + collection_name,
@@ -953,20 +1353,28 @@ public class EntityManagerImpl implements EntityManager {
         Keyspace ko = cass.getApplicationKeyspace( applicationId );
         Mutator<ByteBuffer> m = CountingMutator.createFlushingMutator( ko, be );
 
-        Object itemKey = key( entityId );
+        batchInsertEntity( m, type, entityId, cass.createTimestamp() );
 
-        long timestamp = cass.createTimestamp();
+        batchExecute( m, CassandraService.RETRY_COUNT );
+    }
+
+
+    public Mutator<ByteBuffer> batchInsertEntity( Mutator<ByteBuffer> m, String type, UUID entityId,
+                                                  long timestamp ) {
+
+        Object itemKey = key( entityId );
 
         addPropertyToMutator( m, itemKey, type, PROPERTY_UUID, entityId, timestamp );
         addPropertyToMutator( m, itemKey, type, PROPERTY_TYPE, type, timestamp );
 
-        batchExecute( m, CassandraService.RETRY_COUNT );
+        return m;
     }
 
 
     public Message storeEventAsMessage( Mutator<ByteBuffer> m, Event event, long timestamp ) {
 
         counterUtils.addEventCounterMutations( m, applicationId, event, timestamp );
+        scheduleCounterRollup();
 
         QueueManager q = qmf.getQueueManager( applicationId );
 
@@ -1373,7 +1781,7 @@ public class EntityManagerImpl implements EntityManager {
     @Metered( group = "core", name = "EntityManager_updateProperties" )
     public void updateProperties( UUID entityId, Map<String, Object> properties ) throws Exception {
 
-        EntityRef entity = getRef( entityId );
+        Entity entity = get( entityId );
         if ( entity == null ) {
             return;
         }
@@ -1382,11 +1790,89 @@ public class EntityManagerImpl implements EntityManager {
         Mutator<ByteBuffer> m = CountingMutator.createFlushingMutator( ko, be );
 
         UUID timestampUuid = newTimeUUID();
-        properties.put( PROPERTY_MODIFIED, getTimestampInMillis( timestampUuid ) );
 
-        batchUpdateProperties( m, entity, properties, timestampUuid );
+        try {
+            m = batchUpdateChangedProperties( m, entity, properties, timestampUuid );
 
-        batchExecute( m, CassandraService.RETRY_COUNT );
+            batchExecute( m, CassandraService.RETRY_COUNT );
+        }
+        catch ( Exception e ) {
+            // claims on values the entity already holds are kept
+            releaseUniqueClaims( entity, properties, getTimestampInMicros( timestampUuid ) );
+            throw e;
+        }
+
+        publishChange( ChangeType.UPDATED, entity.getUuid(), entity.getType(), timestampUuid );
+    }
+
+
+    /**
+     * Batch update the properties of a PUT whose values differ from the persisted ones, along with the modified
+     * timestamp. Unchanged values get no property write and no index maintenance.
+     *
+     * @param batch the batch
+     * @param entity the persisted entity
+     * @param properties the properties of the PUT
+     * @param timestampUuid the timestamp of the update operation as a time uuid
+     *
+     * @return batch
+     *
+     * @throws Exception the exception
+     */
+    public Mutator<ByteBuffer> batchUpdateChangedProperties( Mutator<ByteBuffer> batch, Entity entity,
+                                                             Map<String, Object> properties, UUID timestampUuid )
+            throws Exception {
+
+        // values equal to the persisted ones need no property write and no index maintenance
+        Map<String, Object> changed = new LinkedHashMap<String, Object>();
+        int indexed = 0;
+        for ( Map.Entry<String, Object> property : properties.entrySet() ) {
+            String propertyName = property.getKey();
+            Object propertyValue = getDefaultSchema()
+                    .validateEntityPropertyValue( entity.getType(), propertyName, property.getValue() );
+            Object persistedValue = entity.getProperty( propertyName );
+            if ( ( propertyValue == null ) ? ( persistedValue == null ) : propertyValue.equals( persistedValue ) ) {
+                continue;
+            }
+            changed.put( propertyName, property.getValue() );
+            if ( getDefaultSchema().isPropertyIndexed( entity.getType(), propertyName ) ) {
+                indexed++;
+            }
+        }
+
+        changed.put( PROPERTY_MODIFIED, getTimestampInMillis( timestampUuid ) );
+        properties.put( PROPERTY_MODIFIED, changed.get( PROPERTY_MODIFIED ) );
+
+        // one relation manager for all the properties; when more than the modified timestamp is indexed it reads
+        // the previous index entries in one slice instead of one per property
+        RelationManagerImpl relationManager = getRelationManager( entity );
+        if ( indexed > 0 ) {
+            relationManager.prepareIndexUpdates();
+        }
+
+        for ( Map.Entry<String, Object> property : changed.entrySet() ) {
+            batch = batchSetProperty( batch, entity, property.getKey(), property.getValue(), false, false,
+                    timestampUuid, relationManager );
+        }
+
+        return batch;
+    }
+
+
+    /**
+     * Notify change listeners of a completed write, cheap when nothing is subscribed. A write to the application entity
+     * itself also drops it from the factory's application cache.
+     */
+    private void publishChange( ChangeType changeType, UUID entityId, String entityType, UUID timestampUuid ) {
+        if ( ( changeType != ChangeType.CREATED ) && applicationId.equals( entityId ) && ( emf != null ) ) {
+            emf.invalidateApplication( applicationId );
+        }
+
+        if ( ( entityChangeBus == null ) || !entityChangeBus.hasSubscribers() ) {
+            return;
+        }
+        entityChangeBus.publish( new EntityChangeEvent( applicationId, entityId, entityType, changeType,
+                getTimestampInMillis( timestampUuid ) ) );
     }
 
 
@@ -1406,14 +1892,37 @@ public class EntityManagerImpl implements EntityManager {
         Mutator<ByteBuffer> m = CountingMutator.createFlushingMutator( ko, be );
 
         UUID timestampUuid = newTimeUUID();
+
+        batchDeleteEntity( m, entity, getPropertyNames( entity ), timestampUuid );
+
+        //decrease entity count
+        if ( !TYPE_APPLICATION.equals( entity.getType() ) ) {
+            String collection_name = Schema.defaultCollectionName( entity.getType() );
+            decrementEntityCollection( collection_name );
+        }
+
+        batchExecute( m, CassandraService.RETRY_COUNT );
+
+        publishChange( ChangeType.DELETED, entityId, entity.getType(), timestampUuid );
+    }
+
+
+    /**
+     * Disconnect the entity, remove it from every index and containing collection, and delete its properties and
+     * dictionaries.  This is the expensive part of a delete, every connection and index entry is read.
+     *
+     * @param properties the names of the properties to remove from indexes
+     */
+    private void batchDeleteEntity( Mutator<ByteBuffer> m, EntityRef entity, Set<String> properties,
+                                    UUID timestampUuid ) throws Exception {
+
         long timestamp = getTimestampInMicros( timestampUuid );
 
         // get all connections and disconnect them
-        getRelationManager( ref( entityId ) ).batchDisconnect( m, timestampUuid );
+        getRelationManager( entity ).batchDisconnect( m, timestampUuid );
 
         // delete all core properties and any dynamic property that's ever been
         // dictionary for this entity
-        Set<String> properties = getPropertyNames( entity );
         if ( properties != null ) {
             for ( String propertyName : properties ) {
                 m = batchSetProperty( m, entity, propertyName, null, true, false, timestampUuid );
@@ -1437,13 +1946,6 @@ public class EntityManagerImpl implements EntityManager {
         // find all the containing collections
         getRelationManager( entity ).batchRemoveFromContainers( m, timestampUuid );
 
-        //decrease entity count
-        if ( !TYPE_APPLICATION.equals( entity.getType() ) ) {
-            String collection_name = Schema.defaultCollectionName( entity.getType() );
-            decrementEntityCollection( collection_name );
-        }
-
-
         timestamp += 1;
 
         if ( dictionaries != null ) {
@@ -1457,15 +1959,245 @@ public class EntityManagerImpl implements EntityManager {
             }
         }
 
-        addDeleteToMutator( m, ENTITY_PROPERTIES, key( entityId ), timestamp );
+        addDeleteToMutator( m, ENTITY_PROPERTIES, key( entity.getUuid() ), timestamp );
+    }
+
+
+    @Override
+    @Metered( group = "core", name = "EntityManager_softDelete" )
+    public void softDelete( EntityRef entityRef ) throws Exception {
+
+        Entity entity = get( entityRef );
+        if ( entity == null ) {
+            return;
+        }
+
+        // application and associated entities (roles, connections) are deleted inline as before
+        if ( TYPE_APPLICATION.equals( entity.getType() ) || Schema.isAssociatedEntityType( entity.getType() ) ) {
+            deleteEntity( entity.getUuid() );
+            return;
+        }
+
+        logger.info( "softDelete {} of type {} in application {}",
+                new Object[] { entity.getUuid(), entity.getType(), applicationId } );
+
+        Keyspace ko = cass.getApplicationKeyspace( applicationId );
+        Mutator<ByteBuffer> m = CountingMutator.createFlushingMutator( ko, be );
+
+        UUID timestampUuid = newTimeUUID();
+        long timestamp = getTimestampInMicros( timestampUuid );
+
+        String collectionName = Schema.defaultCollectionName( entity.getType() );
+
+        // remove from the primary collection and its indexes so application queries stop finding it now
+        getRelationManager( getApplicationRef() )
+                .batchRemoveFromCollection( m, collectionName, entity, true, timestampUuid );
+
+        // release unique values now, the properties they would be read from are deleted below
+        EntityInfo entityInfo = getDefaultSchema().getEntityInfo( entity.getType() );
+        if ( entityInfo != null ) {
+            for ( Map.Entry<String, Object> property : entity.getProperties().entrySet() ) {
+                if ( ( property.getValue() != null ) && entityInfo.isPropertyUnique( property.getKey() ) ) {
+                    addDeleteToMutator( m, ENTITY_UNIQUE,
+                            createUniqueIndexKey( applicationId, collectionName, property.getKey(),
+                                    property.getValue() ), timestamp, entity.getUuid() );
+                }
+            }
+        }
+
+        // the tombstone keeps the properties the cleanup needs to find the remaining index entries
+        addInsertToMutator( m, ENTITY_ID_SETS, key( applicationId, TOMBSTONES_SET ), entity.getUuid(),
+                JsonUtils.mapToJsonString( entity.getProperties() ), timestamp );
+
+        addDeleteToMutator( m, ENTITY_PROPERTIES, key( entity.getUuid() ), timestamp + 1 );
+
+        decrementEntityCollection( collectionName );
 
         batchExecute( m, CassandraService.RETRY_COUNT );
+
+        tombstonesExist = true;
+        tombstonesCheckedAt = System.currentTimeMillis();
+
+        publishChange( ChangeType.DELETED, entity.getUuid(), entity.getType(), timestampUuid );
+
+        // every soft delete asks for a cleanup, so a tombstone written while a job makes its last pass, or after a
+        // job died, still gets purged. A node schedules at most one job per cleanup delay, and since that job runs
+        // after the delay it also covers the soft deletes made on the node until then.
+        long now = System.currentTimeMillis();
+        if ( now >= tombstoneCleanupScheduledAt + tombstoneCleanupDelay ) {
+            tombstoneCleanupScheduledAt = now;
+            scheduleTombstoneCleanup( tombstoneCleanupDelay );
+        }
+    }
+
+
+    /**
+     * Fully delete up to count soft deleted entities, oldest tombstones first.
+     *
+     * @return the number of entities purged, less than count once no tombstones remain
+     */
+    @Metered( group = "core", name = "EntityManager_purgeTombstones" )
+    public int purgeTombstones( int count, long pauseMillis ) throws Exception {
+
+        Keyspace ko = cass.getApplicationKeyspace( applicationId );
+
+        List<HColumn<ByteBuffer, ByteBuffer>> tombstones =
+                cass.getColumns( ko, ENTITY_ID_SETS, key( applicationId, TOMBSTONES_SET ), null, null, count,
+                        false );
+
+        int purged = 0;
+
+        for ( HColumn<ByteBuffer, ByteBuffer> tombstone : tombstones ) {
+            UUID entityId = ue.fromByteBuffer( tombstone.getName() );
+
+            @SuppressWarnings( "unchecked" ) Map<String, Object> properties =
+                    ( Map<String, Object> ) JsonUtils.parse( se.fromByteBuffer( tombstone.getValue() ) );
+
+            Mutator<ByteBuffer> m = CountingMutator.createFlushingMutator( ko, be );
+            UUID timestampUuid = newTimeUUID();
+
+            if ( properties != null ) {
+                DynamicEntity entity =
+                        new DynamicEntity( string( properties.get( PROPERTY_TYPE ) ), entityId, properties );
+                batchDeleteEntity( m, entity, properties.keySet(), timestampUuid );
+            }
+
+            addDeleteToMutator( m, ENTITY_ID_SETS, key( applicationId, TOMBSTONES_SET ), entityId,
+                    getTimestampInMicros( timestampUuid ) + 1 );
+
+            batchExecute( m, CassandraService.RETRY_COUNT );
+
+            purged++;
+
+            if ( pauseMillis > 0 ) {
+                Thread.sleep( pauseMillis );
+            }
+        }
+
+        if ( purged < count ) {
+            tombstonesExist = false;
+        }
+
+        return purged;
+    }
+
+
+    /**
+     * Remove soft deleted ids from query results.  Whether the application has any tombstones at all is checked at most
+     * once every TOMBSTONE_CHECK_INTERVAL milliseconds, the ids themselves are only looked up when it does.
+     */
+    public List<ScanColumn> filterTombstones( List<ScanColumn> ids ) throws Exception {
+        if ( ids.isEmpty() || !hasTombstones( false ) ) {
+            return ids;
+        }
+
+        UUID[] names = new UUID[ids.size()];
+        for ( int i = 0; i < names.length; i++ ) {
+            names[i] = ids.get( i ).getUUID();
+        }
+
+        List<HColumn<UUID, ByteBuffer>> found = cass.getColumns( cass.getApplicationKeyspace( applicationId ),
+                ENTITY_ID_SETS, key( applicationId, TOMBSTONES_SET ), names, ue, be ).getColumns();
+
+        if ( found.isEmpty() ) {
+            return ids;
+        }
+
+        Set<UUID> tombstoned = new HashSet<UUID>();
+        for ( HColumn<UUID, ByteBuffer> column : found ) {
+            tombstoned.add( column.getName() );
+        }
+
+        List<ScanColumn> live = new ArrayList<ScanColumn>( ids.size() );
+        for ( ScanColumn id : ids ) {
+            if ( !tombstoned.contains( id.getUUID() ) ) {
+                live.add( id );
+            }
+        }
+        return live;
+    }
+
+
+    private boolean hasTombstones( boolean force ) throws Exception {
+        long now = System.currentTimeMillis();
+        if ( !force && now < tombstonesCheckedAt + TOMBSTONE_CHECK_INTERVAL ) {
+            return tombstonesExist;
+        }
+
+        tombstonesExist = !cass.getColumns( cass.getApplicationKeyspace( applicationId ), ENTITY_ID_SETS,
+                key( applicationId, TOMBSTONES_SET ), null, null, 1, false ).isEmpty();
+        tombstonesCheckedAt = now;
+
+        return tombstonesExist;
+    }
+
+
+    /** Schedule the background job that purges this application's soft deleted entities */
+    public void scheduleTombstoneCleanup( long delay ) {
+        JobData jobData = new JobData();
+        jobData.setProperty( TombstoneCleanupJob.APPLICATION_ID, applicationId );
+
+        SchedulerService scheduler = getApplicationContext().getBean( "schedulerService", SchedulerService.class );
+        scheduler.createJob( TombstoneCleanupJob.JOB_NAME, System.currentTimeMillis() + delay, jobData );
+    }
+
+
+    /**
+     * In rollup mode, schedule the job that rolls up this application's aggregate counters once the current period has
+     * closed. Each node schedules at most one job per application per period.
+     */
+    private void scheduleCounterRollup() {
+        if ( !counterUtils.isRollup() ) {
+            return;
+        }
+
+        long now = System.currentTimeMillis();
+        if ( counterUtils.isRollupScheduled( applicationId, now ) ) {
+            return;
+        }
+
+        JobData jobData = new JobData();
+        jobData.setProperty( AggregateCounterRollupJob.APPLICATION_ID, applicationId );
+
+        long runAt = CounterRollup.period( now ) + CounterRollup.PERIOD.interval() + counterUtils.getRollupDelay();
+        SchedulerService scheduler = getApplicationContext().getBean( "schedulerService", SchedulerService.class );
+        scheduler.createJob( AggregateCounterRollupJob.JOB_NAME, runAt, jobData );
+
+        counterUtils.setRollupScheduled( applicationId, now );
+    }
+
+
+    /**
+     * Roll up the closed periods of this application's MINUTE aggregate counters into the coarser resolutions. Only
+     * one node rolls up an application at a time; if another holds the lock this returns without doing anything.
+     *
+     * @return the number of periods rolled up
+     */
+    public int rollupAggregateCounters() throws Exception {
+        Lock lock = cass.getLockManager().createLock( applicationId, CounterRollup.DICTIONARY_ROLLUP_PERIODS );
+        if ( !lock.tryLock( 0, TimeUnit.MILLISECONDS ) ) {
+            return 0;
+        }
+
+        try {
+            return new CounterRollup( cass, applicationId )
+                    .rollup( System.currentTimeMillis(), counterUtils.getRollupDelay(),
+                            counterUtils.getRollupRetention() );
+        }
+        finally {
+            lock.unlock();
+        }
     }
 
 
     @Override
     public void delete( EntityRef entityRef ) throws Exception {
-        deleteEntity( entityRef.getUuid() );
+        if ( softDeletes ) {
+            softDelete( entityRef );
+        }
+        else {
+            deleteEntity( entityRef.getUuid() );
+        }
     }
 
 
@@ -1580,12 +2312,12 @@ public class EntityManagerImpl implements EntityManager {
         SliceCounterQuery<String, Long> q = createCounterSliceQuery( ko, se, le );
         q.setColumnFamily( APPLICATION_AGGREGATE_COUNTERS.toString() );
         q.setRange( start, finish, false, ALL_COUNT );
-        QueryResult<CounterSlice<Long>> r = q.setKey(
-                counterUtils.getAggregateCounterRow( counterName, userId, groupId, queueId, category, resolution ) )
-                                             .execute();
+        String row = counterUtils.getAggregateCounterRow( counterName, userId, groupId, queueId, category, resolution );
+        QueryResult<CounterSlice<Long>> r = q.setKey( row ).execute();
+        Map<Long, Long> values = withUnrolled( row, resolution, start, finish, r.get().getColumns() );
         List<AggregateCounter> counters = new ArrayList<AggregateCounter>();
-        for ( HCounterColumn<Long> column : r.get().getColumns() ) {
-            AggregateCounter count = new AggregateCounter( column.getName(), column.getValue() );
+        for ( Map.Entry<Long, Long> value : values.entrySet() ) {
+            AggregateCounter count = new AggregateCounter( value.getKey(), value.getValue() );
             if ( pad && !( resolution == CounterResolution.ALL ) ) {
                 while ( count.getTimestamp() != expected_time ) {
                     counters.add( new AggregateCounter( expected_time, 0 ) );
@@ -1605,6 +2337,40 @@ public class EntityManagerImpl implements EntityManager {
     }
 
 
+    /**
+     * The columns of an aggregate counter row in time order. In rollup mode the counts of pending periods that have not
+     * been rolled into the row yet are added in.
+     */
+    private Map<Long, Long> withUnrolled( String row, CounterResolution resolution, long start, long finish,
+                                          List<HCounterColumn<Long>> columns ) {
+        Map<Long, Long> values = new TreeMap<Long, Long>();
+        for ( HCounterColumn<Long> column : columns ) {
+            values.put( column.getName(), column.getValue() );
+        }
+
+        if ( !counterUtils.isRollup() || resolution == CounterResolution.MINUTE ) {
+            return values;
+        }
+
+        try {
+            Map<Long, Long> unrolled = new CounterRollup( cass, applicationId ).getUnrolled( row, resolution );
+            for ( Map.Entry<Long, Long> count : unrolled.entrySet() ) {
+                long column = count.getKey();
+                if ( resolution != CounterResolution.ALL && ( column < start || column > finish ) ) {
+                    continue;
+                }
+                Long value = values.get( column );
+                values.put( column, ( value != null ? value : 0 ) + count.getValue() );
+            }
+        }
+        catch ( Exception e ) {
+            logger.error( "Unable to read pending rollups of counter row {}", row, e );
+        }
+
+        return values;
+    }
+
+
     @Override
     @Metered( group = "core", name = "EntityManager_getAggregateCounters_fromQueryObj" )
     public Results getAggregateCounters( Query query ) throws Exception {
@@ -1656,8 +2422,10 @@ public class EntityManagerImpl implements EntityManager {
         for ( CounterRow<String, Long> r : rows.get() ) {
             expected_time = start;
             List<AggregateCounter> counters = new ArrayList<AggregateCounter>();
-            for ( HCounterColumn<Long> column : r.getColumnSlice().getColumns() ) {
-                AggregateCounter count = new AggregateCounter( column.getName(), column.getValue() );
+            Map<Long, Long> values =
+                    withUnrolled( r.getKey(), resolution, start, finish, r.getColumnSlice().getColumns() );
+            for ( Map.Entry<Long, Long> value : values.entrySet() ) {
+                AggregateCounter count = new AggregateCounter( value.getKey(), value.getValue() );
                 if ( pad && ( resolution != CounterResolution.ALL ) ) {
                     while ( count.getTimestamp() != expected_time ) {
                         counters.add( new AggregateCounter( expected_time, 0 ) );
@@ -2019,8 +2787,17 @@ public class EntityManagerImpl implements EntityManager {
         propertyValue = getDefaultSchema().validateEntityPropertyValue( entity.getType(), propertyName, propertyValue );
 
         entity.setProperty( propertyName, propertyValue );
-        batch = batchSetProperty( batch, entity, propertyName, propertyValue, override, false, timestampUuid );
-        batchExecute( batch, CassandraService.RETRY_COUNT );
+        try {
+            batch = batchSetProperty( batch, entity, propertyName, propertyValue, override, false, timestampUuid );
+            batchExecute( batch, CassandraService.RETRY_COUNT );
+        }
+        catch ( Exception e ) {
+            releaseUniqueClaims( entity, Collections.singletonMap( propertyName, propertyValue ),
+                    getTimestampInMicros( timestampUuid ) );
+            throw e;
+        }
+
+        publishChange( ChangeType.UPDATED, entity.getUuid(), entity.getType(), timestampUuid );
     }
 
 
@@ -2532,6 +3309,7 @@ public class EntityManagerImpl implements EntityManager {
                             value, cassandraTimestamp / 1000, cassandraTimestamp );
 
             batchExecute( m, CassandraService.RETRY_COUNT );
+            scheduleCounterRollup();
         }
     }
 
@@ -2547,6 +3325,7 @@ public class EntityManagerImpl implements EntityManager {
                     timestamp );
 
             batchExecute( m, CassandraService.RETRY_COUNT );
+            scheduleCounterRollup();
         }
     }
 
@@ -2688,6 +3467,32 @@ public class EntityManagerImpl implements EntityManager {
     }
 
 
+    @Override
+    @Metered( group = "core", name = "EntityManager_createConnections" )
+    public void createConnections( List<ConnectionRef> connections ) throws Exception {
+
+        if ( connections.isEmpty() ) {
+            return;
+        }
+
+        UUID timestampUuid = newTimeUUID();
+        Mutator<ByteBuffer> batch = CountingMutator.createBatchMutator( cass.getApplicationKeyspace( applicationId ),
+                be );
+
+        for ( ConnectionRef connection : connections ) {
+            EntityRef connectingEntity = validate( connection.getConnectingEntity() );
+            EntityRef connectedEntity = validate( connection.getConnectedEntity() );
+
+            ConnectionRefImpl connectionImpl =
+                    new ConnectionRefImpl( connectingEntity, connection.getConnectionType(), connectedEntity );
+
+            getRelationManager( connectingEntity ).batchCreateConnection( batch, connectionImpl, timestampUuid );
+        }
+
+        batchExecute( batch, CassandraService.RETRY_COUNT );
+    }
+
+
     @Override
     public ConnectionRef connectionRef( EntityRef connectingEntity, String connectionType,
                                         EntityRef connectedEntityRef ) throws Exception {
@@ -20,9 +20,13 @@ package org.apache.usergrid.persistence.cassandra;
 import java.nio.ByteBuffer;
 import java.util.ArrayList;
 import java.util.Iterator;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Set;
 import java.util.Stack;
 import java.util.UUID;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -75,6 +79,7 @@ import org.apache.usergrid.persistence.schema.CollectionInfo;
 import me.prettyprint.cassandra.serializers.UUIDSerializer;
 
 import static org.apache.usergrid.persistence.Schema.getDefaultSchema;
+import static org.apache.usergrid.utils.IndexUtils.keywords;
 
 
 public class QueryProcessor {
@@ -84,6 +89,9 @@ public class QueryProcessor {
 
     private static final Schema SCHEMA = getDefaultSchema();
 
+    /** The word a CONTAINS prefix search ends in */
+    private static final Pattern TRAILING_WORD = Pattern.compile( "[\\p{L}\\p{N}]*$" );
+
     private final CollectionInfo collectionInfo;
     private final EntityManager em;
     private final ResultsLoaderFactory loaderFactory;
@@ -275,7 +283,7 @@ public class QueryProcessor {
         CursorCache resultsCursor = new CursorCache();
 
         while ( entityIds.size() < size && itr.hasNext() ) {
-            entityIds.addAll( itr.next() );
+            entityIds.addAll( filterTombstones( itr.next() ) );
         }
 
         //set our cursor, we paged through more entities than we want to return
@@ -310,6 +318,16 @@ public class QueryProcessor {
     }
 
 
+    /** Drop soft deleted entities that are still referenced by indexes awaiting cleanup */
+    private List<ScanColumn> filterTombstones( Set<ScanColumn> page ) throws Exception {
+        List<ScanColumn> ids = new ArrayList<ScanColumn>( page );
+        if ( em instanceof EntityManagerImpl ) {
+            return ( ( EntityManagerImpl ) em ).filterTombstones( ids );
+        }
+        return ids;
+    }
+
+
     private class TreeEvaluator implements QueryVisitor {
 
         // stack for nodes that will be used to construct the tree and create
@@ -451,8 +469,42 @@ public class QueryProcessor {
 
             String fieldName = op.getProperty().getIndexedValue();
 
-            node.setStart( fieldName, string.getValue(), true );
-            node.setFinish( fieldName, string.getEndValue(), true );
+            String value = string.getValue();
+            String endValue = string.getEndValue();
+
+            // analyze the literal the same way property values are when they're indexed
+            List<String> tokens = value != null ? keywords( value ) : new ArrayList<String>();
+
+            // the last token of a prefix search is the prefix, so it splits where the indexed terms do
+            String prefix = null;
+            if ( value != null && endValue != null && endValue.endsWith( "\uFFFF" ) ) {
+                String lower = value.toLowerCase();
+                if ( !tokens.isEmpty() && lower.endsWith( tokens.get( tokens.size() - 1 ) ) ) {
+                    prefix = tokens.remove( tokens.size() - 1 );
+                }
+                else {
+                    // the analyzer dropped the last word, a stop word, so it's searched for as typed
+                    Matcher matcher = TRAILING_WORD.matcher( lower );
+                    prefix = matcher.find() ? matcher.group() : null;
+                }
+            }
+
+            Set<String> terms = new LinkedHashSet<String>( tokens );
+
+            // nothing left after analysis, search for the literal as it is
+            if ( terms.isEmpty() && ( prefix == null || prefix.isEmpty() ) ) {
+                node.setStart( fieldName, string.getValue(), true );
+                node.setFinish( fieldName, endValue, true );
+                return;
+            }
+
+            for ( String term : terms ) {
+                node.addTermSlice( fieldName, term, term );
+            }
+
+            if ( prefix != null && !prefix.isEmpty() ) {
+                node.addTermSlice( fieldName, prefix, prefix + "\uFFFF" );
+            }
         }
 
 
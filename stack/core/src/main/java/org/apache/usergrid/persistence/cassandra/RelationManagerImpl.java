@@ -21,6 +21,7 @@ import java.nio.ByteBuffer;
 import java.util.AbstractMap;
 import java.util.ArrayList;
 import java.util.Collections;
+import java.util.HashMap;
 import java.util.Iterator;
 import java.util.LinkedHashMap;
 import java.util.List;
@@ -152,6 +153,15 @@ public class RelationManagerImpl implements RelationManager {
     private EntityRef headEntity;
     private IndexBucketLocator indexBucketLocator;
 
+    /** Previous index entries of the head entity by entry name, set by prepareIndexUpdates */
+    private Map<String, List<HColumn<ByteBuffer, ByteBuffer>>> prevIndexEntries;
+
+    /** Collections containing the head entity, read once by prepareIndexUpdates */
+    private Map<EntityRef, Set<String>> containingCollections;
+
+    /** Connections into the head entity, kept by the first backward connections update after prepareIndexUpdates */
+    private List<ConnectionRefImpl> incomingConnections;
+
 
     public RelationManagerImpl() {
     }
@@ -184,6 +194,36 @@ public class RelationManagerImpl implements RelationManager {
     }
 
 
+    /**
+     * Reads what a series of batchUpdatePropertyIndexes calls for the head entity would otherwise read once per
+     * property: the previous index entries, which all live in the entity's ENTITY_INDEX_ENTRIES row and are read in
+     * one slice, the collections containing the entity and the connections into it. Only meant for a relation manager
+     * used for a single update, as nothing invalidates what's read here.
+     */
+    public void prepareIndexUpdates() throws Exception {
+
+        List<HColumn<ByteBuffer, ByteBuffer>> entries =
+                cass.getColumns( cass.getApplicationKeyspace( applicationId ), ENTITY_INDEX_ENTRIES,
+                        headEntity.getUuid(), null, null, INDEX_ENTRY_LIST_COUNT, false );
+
+        // too many entries to hold, leave them to the per property reads
+        if ( entries.size() < INDEX_ENTRY_LIST_COUNT ) {
+            prevIndexEntries = new HashMap<String, List<HColumn<ByteBuffer, ByteBuffer>>>();
+            for ( HColumn<ByteBuffer, ByteBuffer> entry : entries ) {
+                String entryName = ( String ) DynamicComposite.fromByteBuffer( entry.getName().duplicate() ).get( 0 );
+                List<HColumn<ByteBuffer, ByteBuffer>> list = prevIndexEntries.get( entryName );
+                if ( list == null ) {
+                    list = new ArrayList<HColumn<ByteBuffer, ByteBuffer>>();
+                    prevIndexEntries.put( entryName, list );
+                }
+                list.add( entry );
+            }
+        }
+
+        containingCollections = getContainingCollections();
+    }
+
+
     /** side effect: converts headEntity into an Entity if it is an EntityRef! */
     private Entity getHeadEntity() throws Exception {
         Entity entity = null;
@@ -803,6 +843,17 @@ public class RelationManagerImpl implements RelationManager {
     private IndexUpdate doBackwardConnectionsUpdate( IndexUpdate indexUpdate ) throws Exception {
         final Entity targetEntity = indexUpdate.getEntity();
 
+        List<ConnectionRefImpl> found = null;
+        if ( ( containingCollections != null ) && targetEntity.getUuid().equals( headEntity.getUuid() ) ) {
+            if ( incomingConnections != null ) {
+                for ( ConnectionRefImpl connectionRef : incomingConnections ) {
+                    batchUpdateConnectionIndex( indexUpdate, connectionRef );
+                }
+                return indexUpdate;
+            }
+            found = new ArrayList<ConnectionRefImpl>();
+        }
+
         final ConnectionTypesIterator connectionTypes =
                 new ConnectionTypesIterator( cass, applicationId, targetEntity.getUuid(), false, 100 );
 
@@ -820,9 +871,19 @@ public class RelationManagerImpl implements RelationManager {
                         new ConnectionRefImpl( sourceEntity, connectionType, indexUpdate.getEntity() );
 
                 batchUpdateConnectionIndex( indexUpdate, connectionRef );
+
+                // keep them for the following updates unless there are too many to hold
+                if ( ( found != null ) && ( found.size() < INDEX_ENTRY_LIST_COUNT ) ) {
+                    found.add( connectionRef );
+                }
+                else {
+                    found = null;
+                }
             }
         }
 
+        incomingConnections = found;
+
         return indexUpdate;
     }
 
@@ -1079,6 +1140,25 @@ public class RelationManagerImpl implements RelationManager {
     }
 
 
+    /**
+     * Adds a new connection, and the loopback from the connecting entity to the connection itself, to an existing batch
+     * so that several connections can be written in one mutation.
+     */
+    public Mutator<ByteBuffer> batchCreateConnection( Mutator<ByteBuffer> batch, ConnectionRefImpl connection,
+                                                      UUID timestampUuid ) throws Exception {
+
+        batchUpdateEntityConnection( batch, false, connection, timestampUuid );
+
+        ConnectionRefImpl loopback = connection.getConnectionToConnectionEntity();
+        em.batchInsertEntity( batch, CONNECTION_ENTITY_CONNECTION_TYPE, loopback.getConnectedEntityId(),
+                getTimestampInMicros( timestampUuid ) );
+
+        batchUpdateEntityConnection( batch, false, loopback, timestampUuid );
+
+        return batch;
+    }
+
+
     @Metered(group = "core", name = "RelationManager_batchDisconnect")
     public void batchDisconnect( Mutator<ByteBuffer> batch, UUID timestampUuid ) throws Exception {
 
@@ -1137,7 +1217,13 @@ public class RelationManagerImpl implements RelationManager {
 
             List<HColumn<ByteBuffer, ByteBuffer>> entries = null;
 
-            if ( isMultiValue && validIndexableValue( entryValue ) ) {
+            if ( !isMultiValue && ( prevIndexEntries != null ) && entity.getUuid().equals( headEntity.getUuid() ) ) {
+                entries = prevIndexEntries.get( entryName );
+                if ( entries == null ) {
+                    entries = Collections.emptyList();
+                }
+            }
+            else if ( isMultiValue && validIndexableValue( entryValue ) ) {
                 entries = cass.getColumns( cass.getApplicationKeyspace( applicationId ), ENTITY_INDEX_ENTRIES,
                         entity.getUuid(),
                         new DynamicComposite( entryName, indexValueCode( entryValue ), toIndexableValue( entryValue ) ),
@@ -1293,6 +1379,9 @@ public class RelationManagerImpl implements RelationManager {
                 EntityRef applicationRef = new SimpleEntityRef( TYPE_APPLICATION, applicationId );
                 addMapSet( containerEntities, applicationRef, defaultCollectionName( entity.getType() ) );
             }
+            else if ( containingCollections != null ) {
+                containerEntities = containingCollections;
+            }
             else {
                 containerEntities = getContainingCollections();
             }
@@ -0,0 +1,115 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.usergrid.persistence.cassandra;
+
+
+import java.util.UUID;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+
+import org.apache.usergrid.batch.JobExecution;
+import org.apache.usergrid.batch.job.OnlyOnceJob;
+import org.apache.usergrid.persistence.EntityManagerFactory;
+import org.apache.usergrid.persistence.entities.JobData;
+
+import static org.apache.usergrid.utils.ConversionUtils.uuid;
+
+
+/**
+ * Finishes soft deletes for an application: disconnects each tombstoned entity, removes its remaining index entries
+ * and dictionaries, then drops the tombstone.  Each run purges at most batchSize entities, pausing between them, and
+ * reschedules itself while tombstones remain so cleanup never monopolizes a scheduler worker.
+ */
+public class TombstoneCleanupJob extends OnlyOnceJob {
+
+    private static final Logger logger = LoggerFactory.getLogger( TombstoneCleanupJob.class );
+
+    public static final String JOB_NAME = "tombstoneCleanupJob";
+
+    public static final String APPLICATION_ID = "applicationId";
+
+    @Autowired
+    private EntityManagerFactory emf;
+
+    private int batchSize = 100;
+
+    private long pause = 0;
+
+    private long interval = 10000;
+
+
+    public TombstoneCleanupJob() {
+    }
+
+
+    @Override
+    protected void doJob( JobExecution execution ) throws Exception {
+
+        JobData jobData = execution.getJobData();
+        UUID applicationId = uuid( jobData.getProperty( APPLICATION_ID ) );
+
+        EntityManagerImpl em = ( EntityManagerImpl ) emf.getEntityManager( applicationId );
+
+        execution.heartbeat();
+
+        int purged = em.purgeTombstones( batchSize, pause );
+
+        logger.info( "Purged {} soft deleted entities from application {}", purged, applicationId );
+
+        if ( purged == batchSize ) {
+            execution.delay( interval );
+        }
+    }
+
+
+    @Override
+    protected long getDelay( JobExecution execution ) throws Exception {
+        return interval;
+    }
+
+
+    @Override
+    public void dead( JobExecution execution ) throws Exception {
+        logger.error( "Tombstone cleanup for application {} failed too many times",
+                execution.getJobData().getProperty( APPLICATION_ID ) );
+    }
+
+
+    public void setEmf( EntityManagerFactory emf ) {
+        this.emf = emf;
+    }
+
+
+    /** Maximum entities purged per run */
+    public void setBatchSize( int batchSize ) {
+        this.batchSize = batchSize;
+    }
+
+
+    /** Milliseconds to pause between purging entities, to throttle the load cleanup puts on cassandra */
+    public void setPause( long pause ) {
+        this.pause = pause;
+    }
+
+
+    /** Milliseconds between runs while tombstones remain */
+    public void setInterval( long interval ) {
+        this.interval = interval;
+    }
+}
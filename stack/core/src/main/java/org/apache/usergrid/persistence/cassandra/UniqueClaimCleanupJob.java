@@ -0,0 +1,100 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.usergrid.persistence.cassandra;
+
+
+import java.util.UUID;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+
+import org.apache.usergrid.batch.JobExecution;
+import org.apache.usergrid.batch.job.OnlyOnceJob;
+import org.apache.usergrid.persistence.EntityManagerFactory;
+import org.apache.usergrid.persistence.entities.JobData;
+
+import static org.apache.usergrid.utils.ConversionUtils.getLong;
+import static org.apache.usergrid.utils.ConversionUtils.uuid;
+
+
+/**
+ * Removes a unique property claim that lost to another entity's claim on the same value. Scheduled by the entity
+ * manager when it can't remove the claim itself; the claim is kept if its entity has since come to hold the value.
+ */
+public class UniqueClaimCleanupJob extends OnlyOnceJob {
+
+    private static final Logger logger = LoggerFactory.getLogger( UniqueClaimCleanupJob.class );
+
+    public static final String JOB_NAME = "uniqueClaimCleanupJob";
+
+    public static final String APPLICATION_ID = "applicationId";
+
+    public static final String ROW_KEY = "rowKey";
+
+    public static final String ENTITY_TYPE = "entityType";
+
+    public static final String ENTITY_ID = "entityId";
+
+    public static final String PROPERTY_NAME = "propertyName";
+
+    public static final String TIMESTAMP = "timestamp";
+
+    @Autowired
+    private EntityManagerFactory emf;
+
+
+    public UniqueClaimCleanupJob() {
+    }
+
+
+    @Override
+    protected void doJob( JobExecution execution ) throws Exception {
+
+        JobData jobData = execution.getJobData();
+        UUID applicationId = uuid( jobData.getProperty( APPLICATION_ID ) );
+        UUID entityId = uuid( jobData.getProperty( ENTITY_ID ) );
+
+        EntityManagerImpl em = ( EntityManagerImpl ) emf.getEntityManager( applicationId );
+
+        boolean removed = em.cleanupUniqueClaim( ( String ) jobData.getProperty( ROW_KEY ),
+                ( String ) jobData.getProperty( ENTITY_TYPE ), entityId,
+                ( String ) jobData.getProperty( PROPERTY_NAME ), getLong( jobData.getProperty( TIMESTAMP ) ) );
+
+        logger.debug( "Unique claim {} of {} {}", new Object[] {
+                jobData.getProperty( ROW_KEY ), entityId, removed ? "removed" : "kept"
+        } );
+    }
+
+
+    @Override
+    protected long getDelay( JobExecution execution ) throws Exception {
+        return 10000;
+    }
+
+
+    @Override
+    public void dead( JobExecution execution ) throws Exception {
+        logger.error( "Cleanup of unique claim {} failed too many times",
+                execution.getJobData().getProperty( ROW_KEY ) );
+    }
+
+
+    public void setEmf( EntityManagerFactory emf ) {
+        this.emf = emf;
+    }
+}
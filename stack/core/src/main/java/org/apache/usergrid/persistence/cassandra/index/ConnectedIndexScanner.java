@@ -279,4 +279,13 @@ public class ConnectedIndexScanner implements IndexScanner {
     public int getPageSize() {
         return pageSize;
     }
+
+
+    /* (non-Javadoc)
+     * @see org.apache.usergrid.persistence.cassandra.index.IndexScanner#estimateSize()
+     */
+    @Override
+    public long estimateSize() {
+        return -1;
+    }
 }
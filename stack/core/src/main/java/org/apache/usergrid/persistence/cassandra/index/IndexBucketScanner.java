@@ -46,6 +46,9 @@ import static org.apache.usergrid.persistence.cassandra.CassandraPersistenceUtil
  */
 public class IndexBucketScanner implements IndexScanner {
 
+    /** Most columns read from the sampled bucket when estimating the scan size */
+    public static final int ESTIMATE_SAMPLE_SIZE = 100;
+
     private final CassandraService cass;
     private final IndexBucketLocator indexBucketLocator;
     private final UUID applicationId;
@@ -237,4 +240,24 @@ public class IndexBucketScanner implements IndexScanner {
     public int getPageSize() {
         return pageSize;
     }
+
+
+    /**
+     * Entities are spread evenly over the buckets, so count the range in the first bucket only, up to {@link
+     * #ESTIMATE_SAMPLE_SIZE} columns, and scale it by the number of buckets. Scans at or over the sample size all
+     * estimate the same.
+     */
+    @Override
+    public long estimateSize() throws Exception {
+        List<String> buckets = indexBucketLocator.getBuckets( applicationId, indexType, indexPath );
+
+        if ( buckets.isEmpty() ) {
+            return 0;
+        }
+
+        List<HColumn<ByteBuffer, ByteBuffer>> sample = cass.getColumns( cass.getApplicationKeyspace( applicationId ),
+                columnFamily, key( keyPrefix, buckets.get( 0 ) ), scanStart, finish, ESTIMATE_SAMPLE_SIZE, reversed );
+
+        return ( sample == null ? 0 : sample.size() ) * ( long ) buckets.size();
+    }
 }
@@ -56,6 +56,18 @@ public class IndexMultiBucketSetLoader {
                 cass.multiGetColumns( cass.getApplicationKeyspace( applicationId ), columnFamily, rowKeys, start,
                         finish, resultSize, reversed );
 
+        return merge( results, columnFamily, resultSize, reversed );
+    }
+
+
+    /**
+     * Merges the columns read from each bucket into a single sorted set, keeping at most resultSize of the lowest
+     * columns in the requested order
+     */
+    public static TreeSet<HColumn<ByteBuffer, ByteBuffer>> merge(
+            Map<ByteBuffer, List<HColumn<ByteBuffer, ByteBuffer>>> results, ApplicationCF columnFamily, int resultSize,
+            boolean reversed ) {
+
         final Comparator<ByteBuffer> comparator = reversed ? new DynamicCompositeReverseComparator( columnFamily ) :
                                                   new DynamicCompositeForwardComparator( columnFamily );
 
@@ -37,4 +37,11 @@ public interface IndexScanner
 
     public int getPageSize();
 
+    /**
+     * Estimate how many columns the scan returns from a small sample of the index, so intersections can be driven from
+     * the most selective scan.
+     *
+     * @return the estimate, or -1 if the scanner can't estimate its size
+     */
+    public long estimateSize() throws Exception;
 }
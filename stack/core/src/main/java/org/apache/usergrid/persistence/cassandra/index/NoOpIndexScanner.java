@@ -92,4 +92,13 @@ public class NoOpIndexScanner implements IndexScanner {
     public int getPageSize() {
         return 0;
     }
+
+
+    /* (non-Javadoc)
+     * @see org.apache.usergrid.persistence.cassandra.index.IndexScanner#estimateSize()
+     */
+    @Override
+    public long estimateSize() {
+        return 0;
+    }
 }
@@ -19,7 +19,9 @@ package org.apache.usergrid.persistence.cassandra.util;
 
 import java.util.ArrayList;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.UUID;
 
 
@@ -32,6 +34,14 @@ public class TraceTag implements Iterable<TimedOpTag> {
     private final List<TimedOpTag> timedOps;
     private final boolean metered;
 
+    // totals for the whole trace, kept when the timed ops are flushed
+    private int totalOps;
+    private long totalElapsed;
+    private long rows;
+    private long columns;
+    private long bytes;
+    private final Map<String, Integer> opCounts = new LinkedHashMap<String, Integer>();
+
 
     private TraceTag( UUID tag, String name, boolean metered ) {
         this.tag = tag;
@@ -58,8 +68,24 @@ public class TraceTag implements Iterable<TimedOpTag> {
     }
 
 
+    /** Add an operation to the trace. Metered traces only keep the totals, not the operations themselves */
     public void add( TimedOpTag timedOpTag ) {
-        timedOps.add( timedOpTag );
+        if ( !metered ) {
+            timedOps.add( timedOpTag );
+        }
+        totalOps++;
+        totalElapsed += timedOpTag.getElapsed();
+        String opName = timedOpTag.getTagName() != null ? timedOpTag.getTagName() : "unknown";
+        Integer count = opCounts.get( opName );
+        opCounts.put( opName, count != null ? count + 1 : 1 );
+    }
+
+
+    /** Add the size of a read result to the totals for this trace */
+    public void addRead( int rows, int columns, long bytes ) {
+        this.rows += rows;
+        this.columns += columns;
+        this.bytes += bytes;
     }
 
 
@@ -86,6 +112,42 @@ public class TraceTag implements Iterable<TimedOpTag> {
     }
 
 
+    /** The number of operations timed over the life of this trace, including any already flushed */
+    public int getTotalOps() {
+        return totalOps;
+    }
+
+
+    /** Milliseconds spent in timed operations over the life of this trace */
+    public long getTotalElapsed() {
+        return totalElapsed;
+    }
+
+
+    /** Rows returned by reads during this trace */
+    public long getRows() {
+        return rows;
+    }
+
+
+    /** Columns returned by reads during this trace */
+    public long getColumns() {
+        return columns;
+    }
+
+
+    /** Bytes of column names and values returned by reads during this trace */
+    public long getBytes() {
+        return bytes;
+    }
+
+
+    /** The number of operations timed during this trace, by operation name */
+    public Map<String, Integer> getOpCounts() {
+        return opCounts;
+    }
+
+
     /** Remove the currently held {@link TimedOpTag} instances */
     public void removeOps() {
         timedOps.clear();
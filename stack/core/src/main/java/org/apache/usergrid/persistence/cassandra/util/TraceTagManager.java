@@ -44,6 +44,10 @@ public class TraceTagManager {
 
     private int flushAtOpCount = 100;
 
+    private double sampleRate;
+
+    private boolean profileHeaders;
+
     @Resource
     private TraceTagReporter traceTagReporter;
 
@@ -96,6 +100,31 @@ public class TraceTagManager {
     }
 
 
+    /**
+     * The fraction of requests, between 0 and 1, to trace when {@link #setTraceEnabled(boolean)} is false. Traced
+     * requests are profiled by the REST layer. The default is 0.
+     */
+    public double getSampleRate() {
+        return sampleRate;
+    }
+
+
+    public void setSampleRate( double sampleRate ) {
+        this.sampleRate = sampleRate;
+    }
+
+
+    /** If set to true, clients may ask for the profile of their request to be returned in the response headers */
+    public boolean getProfileHeaders() {
+        return profileHeaders;
+    }
+
+
+    public void setProfileHeaders( boolean profileHeaders ) {
+        this.profileHeaders = profileHeaders;
+    }
+
+
     /** Get the tag from a ThreadLocal. Will return null if no tag is attached. */
     public TraceTag acquire() {
         return localTraceTag.get();
@@ -19,8 +19,13 @@
 package org.apache.usergrid.persistence.hector;
 
 
+import java.util.ArrayList;
+import java.util.List;
+
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.apache.usergrid.persistence.cassandra.CassandraOperationPolicy;
+import org.apache.usergrid.persistence.cassandra.CassandraService;
 
 import me.prettyprint.hector.api.Keyspace;
 import me.prettyprint.hector.api.Serializer;
@@ -28,6 +33,7 @@ import me.prettyprint.hector.api.beans.HColumn;
 import me.prettyprint.hector.api.beans.HCounterColumn;
 import me.prettyprint.hector.api.beans.HCounterSuperColumn;
 import me.prettyprint.hector.api.beans.HSuperColumn;
+import me.prettyprint.hector.api.exceptions.HectorException;
 import me.prettyprint.hector.api.factory.HFactory;
 import me.prettyprint.hector.api.mutation.MutationResult;
 import me.prettyprint.hector.api.mutation.Mutator;
@@ -53,6 +59,20 @@ public class CountingMutator<K> implements Mutator<K> {
 
     private final Mutator<K> target;
 
+    /**
+     * Policy used for the backoff between write retries, set from configuration when the CassandraService starts
+     */
+    private static volatile CassandraOperationPolicy retryPolicy = new CassandraOperationPolicy();
+
+    /**
+     * Hector drops pending mutations when execute fails, so the mutations since the last execute are recorded here
+     * to be replayed on retry.  Only mutations with a fixed timestamp are recorded, anything else (counters,
+     * deletions stamped when they are executed) makes the batch unsafe to retry.
+     */
+    private List<Replay<K>> replayLog = new ArrayList<Replay<K>>();
+
+    private boolean retryable = true;
+
 
     /**
      * Create a mutator that will flush if our max size is reached
@@ -108,6 +128,7 @@ public class CountingMutator<K> implements Mutator<K> {
     public <SN> Mutator<K> addSuperDelete( final K key, final String cf, final SN sColumnName,
                                            final Serializer<SN> sNameSerializer ) {
         target.addSuperDelete( key, cf, sColumnName, sNameSerializer );
+        disableRetry();
         checkAndFlush();
         return this;
     }
@@ -116,6 +137,12 @@ public class CountingMutator<K> implements Mutator<K> {
     @Override
     public <N, V> Mutator<K> addInsertion( final K key, final String cf, final HColumn<N, V> c ) {
         target.addInsertion( key, cf, c );
+        record( new Replay<K>() {
+            @Override
+            public void apply( final Mutator<K> m ) {
+                m.addInsertion( key, cf, c );
+            }
+        } );
         checkAndFlush();
         return this;
     }
@@ -124,6 +151,12 @@ public class CountingMutator<K> implements Mutator<K> {
     @Override
     public <SN, N, V> Mutator<K> addInsertion( final K key, final String cf, final HSuperColumn<SN, N, V> sc ) {
         target.addInsertion( key, cf, sc );
+        record( new Replay<K>() {
+            @Override
+            public void apply( final Mutator<K> m ) {
+                m.addInsertion( key, cf, sc );
+            }
+        } );
         checkAndFlush();
         return this;
     }
@@ -133,6 +166,7 @@ public class CountingMutator<K> implements Mutator<K> {
     public <N> Mutator<K> addDeletion( final K key, final String cf, final N columnName,
                                        final Serializer<N> nameSerializer ) {
         target.addDeletion( key, cf, columnName, nameSerializer );
+        disableRetry();
         checkAndFlush();
         return this;
     }
@@ -141,6 +175,7 @@ public class CountingMutator<K> implements Mutator<K> {
     @Override
     public <N> Mutator<K> addDeletion( final K key, final String cf ) {
         target.addDeletion( key, cf );
+        disableRetry();
         checkAndFlush();
         return this;
     }
@@ -149,6 +184,7 @@ public class CountingMutator<K> implements Mutator<K> {
     @Override
     public <N> Mutator<K> addDeletion( final Iterable<K> keys, final String cf ) {
         target.addDeletion( keys, cf );
+        disableRetry();
         checkAndFlush();
         return this;
     }
@@ -157,6 +193,12 @@ public class CountingMutator<K> implements Mutator<K> {
     @Override
     public <N> Mutator<K> addDeletion( final Iterable<K> keys, final String cf, final long clock ) {
         target.addDeletion( keys, cf, clock );
+        record( new Replay<K>() {
+            @Override
+            public void apply( final Mutator<K> m ) {
+                m.addDeletion( keys, cf, clock );
+            }
+        } );
         checkAndFlush();
         return this;
     }
@@ -165,6 +207,12 @@ public class CountingMutator<K> implements Mutator<K> {
     @Override
     public <N> Mutator<K> addDeletion( final K key, final String cf, final long clock ) {
         target.addDeletion( key, cf, clock );
+        record( new Replay<K>() {
+            @Override
+            public void apply( final Mutator<K> m ) {
+                m.addDeletion( key, cf, clock );
+            }
+        } );
         checkAndFlush();
         return this;
     }
@@ -174,6 +222,12 @@ public class CountingMutator<K> implements Mutator<K> {
     public <N> Mutator<K> addDeletion( final K key, final String cf, final N columnName,
                                        final Serializer<N> nameSerializer, final long clock ) {
         target.addDeletion( key, cf, columnName, nameSerializer, clock );
+        record( new Replay<K>() {
+            @Override
+            public void apply( final Mutator<K> m ) {
+                m.addDeletion( key, cf, columnName, nameSerializer, clock );
+            }
+        } );
         checkAndFlush();
         return this;
     }
@@ -182,6 +236,7 @@ public class CountingMutator<K> implements Mutator<K> {
     @Override
     public <SN, N, V> Mutator<K> addSubDelete( final K key, final String cf, final HSuperColumn<SN, N, V> sc ) {
         target.addSubDelete( key, cf, sc );
+        disableRetry();
         checkAndFlush();
         return this;
     }
@@ -191,6 +246,12 @@ public class CountingMutator<K> implements Mutator<K> {
     public <SN, N, V> Mutator<K> addSubDelete( final K key, final String cf, final HSuperColumn<SN, N, V> sc,
                                                final long clock ) {
         target.addSubDelete( key, cf, sc, clock );
+        record( new Replay<K>() {
+            @Override
+            public void apply( final Mutator<K> m ) {
+                m.addSubDelete( key, cf, sc, clock );
+            }
+        } );
         checkAndFlush();
         return this;
     }
@@ -200,6 +261,7 @@ public class CountingMutator<K> implements Mutator<K> {
     public <SN, N> Mutator<K> addSubDelete( final K key, final String cf, final SN sColumnName, final N columnName,
                                             final Serializer<SN> sNameSerializer, final Serializer<N> nameSerialer ) {
         target.addSubDelete( key, cf, sColumnName, columnName, sNameSerializer, nameSerialer );
+        disableRetry();
         checkAndFlush();
         return this;
     }
@@ -210,6 +272,12 @@ public class CountingMutator<K> implements Mutator<K> {
                                             final Serializer<SN> sNameSerializer, final Serializer<N> nameSerialer,
                                             final long clock ) {
         target.addSubDelete( key, cf, sColumnName, columnName, sNameSerializer, nameSerialer, clock );
+        record( new Replay<K>() {
+            @Override
+            public void apply( final Mutator<K> m ) {
+                m.addSubDelete( key, cf, sColumnName, columnName, sNameSerializer, nameSerialer, clock );
+            }
+        } );
         checkAndFlush();
         return this;
     }
@@ -217,12 +285,60 @@ public class CountingMutator<K> implements Mutator<K> {
 
     @Override
     public MutationResult execute() {
-        return target.execute();
+        return execute( 0 );
+    }
+
+
+    /**
+     * Execute the pending mutations, retrying with backoff up to the given number of times if they timed out or no
+     * host was available.  Batches that aren't safe to replay are only tried once.
+     */
+    public MutationResult execute( int retries ) {
+        List<Replay<K>> pending = replayLog;
+        boolean canRetry = retryable && retries > 0;
+
+        replayLog = new ArrayList<Replay<K>>();
+        retryable = true;
+
+        for ( int attempt = 1; ; attempt++ ) {
+            try {
+                return target.execute();
+            }
+            catch ( HectorException e ) {
+                if ( !canRetry || attempt > retries || !retryPolicy.isRetryable( e ) ) {
+                    throw e;
+                }
+
+                logger.warn( "Mutation of {} operations failed on attempt {}, retrying: {}",
+                        new Object[] { pending.size(), attempt, e.getMessage() } );
+
+                retryPolicy.backoff( attempt );
+
+                for ( Replay<K> replay : pending ) {
+                    replay.apply( target );
+                }
+            }
+        }
+    }
+
+
+    private void record( Replay<K> replay ) {
+        if ( retryable ) {
+            replayLog.add( replay );
+        }
+    }
+
+
+    private void disableRetry() {
+        retryable = false;
+        replayLog.clear();
     }
 
 
     @Override
     public Mutator<K> discardPendingMutations() {
+        replayLog.clear();
+        retryable = true;
         return target.discardPendingMutations();
     }
 
@@ -272,6 +388,7 @@ public class CountingMutator<K> implements Mutator<K> {
     @Override
     public <N> Mutator<K> addCounter( final K key, final String cf, final HCounterColumn<N> c ) {
         target.addCounter( key, cf, c );
+        disableRetry();
         checkAndFlush();
         return this;
     }
@@ -280,6 +397,7 @@ public class CountingMutator<K> implements Mutator<K> {
     @Override
     public <SN, N> Mutator<K> addCounter( final K key, final String cf, final HCounterSuperColumn<SN, N> sc ) {
         target.addCounter( key, cf, sc );
+        disableRetry();
         checkAndFlush();
         return this;
     }
@@ -289,6 +407,7 @@ public class CountingMutator<K> implements Mutator<K> {
     public <N> Mutator<K> addCounterDeletion( final K key, final String cf, final N counterColumnName,
                                               final Serializer<N> nameSerializer ) {
         target.addCounterDeletion( key, cf, counterColumnName, nameSerializer );
+        disableRetry();
         checkAndFlush();
         return this;
     }
@@ -297,6 +416,7 @@ public class CountingMutator<K> implements Mutator<K> {
     @Override
     public <N> Mutator<K> addCounterDeletion( final K key, final String cf ) {
         target.addCounterDeletion( key, cf );
+        disableRetry();
         checkAndFlush();
         return this;
     }
@@ -306,6 +426,7 @@ public class CountingMutator<K> implements Mutator<K> {
     public <SN, N> Mutator<K> addCounterSubDeletion( final K key, final String cf,
                                                      final HCounterSuperColumn<SN, N> sc ) {
         target.addCounterSubDeletion( key, cf, sc );
+        disableRetry();
         checkAndFlush();
         return this;
     }
@@ -324,7 +445,7 @@ public class CountingMutator<K> implements Mutator<K> {
 
         if ( target.getPendingMutationCount() >= maxSize ) {
             logger.info( "Max mutation size of {} reached.  Flushing", maxSize);
-            target.execute();
+            execute( CassandraService.RETRY_COUNT );
         }
     }
 
@@ -341,4 +462,27 @@ public class CountingMutator<K> implements Mutator<K> {
 
         return new CountingMutator<K>( target, MAX_SIZE );
     }
+
+
+    /**
+     * Create a mutator that never flushes on its own, so all of its mutations are sent in the one execute that the
+     * caller makes, and a failure leaves nothing half written by an earlier flush
+     */
+    public static <K> CountingMutator<K> createBatchMutator( Keyspace keyspace, Serializer<K> keySerializer ) {
+        Mutator<K> target = HFactory.createMutator( keyspace, keySerializer );
+
+        return new CountingMutator<K>( target, Integer.MAX_VALUE );
+    }
+
+
+    /** Set the policy used for the backoff between write retries by every mutator */
+    public static void setRetryPolicy( CassandraOperationPolicy policy ) {
+        retryPolicy = policy;
+    }
+
+
+    /** A recorded mutation that can be applied again to the target mutator */
+    private interface Replay<K> {
+        void apply( Mutator<K> m );
+    }
 }
@@ -17,6 +17,10 @@
 package org.apache.usergrid.persistence.query.ir;
 
 
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
 import java.util.Stack;
 
 import org.apache.usergrid.persistence.EntityManager;
@@ -233,16 +237,74 @@ public abstract class SearchVisitor implements NodeVisitor {
     public void visit( SliceNode node ) throws Exception {
         IntersectionIterator intersections = new IntersectionIterator( queryProcessor.getPageSizeHint( node ) );
 
-        for ( QuerySlice slice : node.getAllSlices() ) {
+        List<QuerySlice> slices = new ArrayList<QuerySlice>( node.getAllSlices() );
+        List<IndexScanner> scanners = new ArrayList<IndexScanner>( slices.size() );
+        List<SliceIterator> iterators = new ArrayList<SliceIterator>( slices.size() );
+
+        for ( QuerySlice slice : slices ) {
             IndexScanner scanner = secondaryIndexScan( node, slice );
 
-            intersections.addIterator( new SliceIterator( slice, scanner, COLLECTION_PARSER) );
+            scanners.add( scanner );
+            iterators.add( new SliceIterator( slice, scanner, COLLECTION_PARSER ) );
+        }
+
+        for ( int index : selectivityOrder( slices, scanners, iterators ) ) {
+            intersections.addIterator( iterators.get( index ) );
         }
 
         results.push( intersections );
     }
 
 
+    /**
+     * The intersection reads its first slice once, and the other slices again for every page of the first, so drive
+     * it from the slice with the fewest entries. A slice with a cursor was first on the previous page and is the only
+     * one positioned, so it stays first. Otherwise slices are only reordered when that can't change the order of the
+     * results: every slice is uuid ordered, or scans a full text term, where no order is defined.
+     *
+     * @return the indexes of the slices in the order to intersect them
+     */
+    private List<Integer> selectivityOrder( List<QuerySlice> slices, List<IndexScanner> scanners,
+                                            List<SliceIterator> iterators ) throws Exception {
+        List<Integer> order = new ArrayList<Integer>( slices.size() );
+        for ( int i = 0; i < slices.size(); i++ ) {
+            order.add( i );
+        }
+
+        if ( slices.size() < 2 ) {
+            return order;
+        }
+
+        for ( int i = 0; i < slices.size(); i++ ) {
+            if ( slices.get( i ).hasCursor() ) {
+                order.add( 0, order.remove( i ) );
+                return order;
+            }
+        }
+
+        for ( int i = 0; i < slices.size(); i++ ) {
+            if ( !iterators.get( i ).isUUIDOrdered() && !slices.get( i ).getPropertyName().endsWith( ".keywords" ) ) {
+                return order;
+            }
+        }
+
+        final long[] sizes = new long[slices.size()];
+        for ( int i = 0; i < sizes.length; i++ ) {
+            long size = scanners.get( i ).estimateSize();
+            sizes[i] = size < 0 ? Long.MAX_VALUE : size;
+        }
+
+        Collections.sort( order, new Comparator<Integer>() {
+            @Override
+            public int compare( Integer first, Integer second ) {
+                return sizes[first] < sizes[second] ? -1 : ( sizes[first] == sizes[second] ? 0 : 1 );
+            }
+        } );
+
+        return order;
+    }
+
+
     /**
      * Create a secondary index scan for the given slice node. DOES NOT apply to the "all" case. This should only
      * generate a slice for secondary property scanning
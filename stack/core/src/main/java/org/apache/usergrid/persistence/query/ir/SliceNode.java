@@ -71,7 +71,39 @@ public class SliceNode extends QueryNode {
      * @param start The start value. this will be processed and turned into an indexed value
      */
     public void setStart( String fieldName, Object start, boolean inclusive ) {
-        QuerySlice slice = getOrCreateSlice( fieldName );
+        setStart( getOrCreateSlice( fieldName ), start, inclusive );
+    }
+
+
+    /** Set the finish. If finish value is greater than the existing, I.E. null or higher comparison, then */
+    public void setFinish( String fieldName, Object finish, boolean inclusive ) {
+        setFinish( getOrCreateSlice( fieldName ), finish, inclusive );
+    }
+
+
+    /**
+     * Add a slice over a single term of a full text property. Unlike ranges set with {@link #setStart(String, Object,
+     * boolean)} and {@link #setFinish(String, Object, boolean)}, each term gets a slice of its own, so all terms have to
+     * match
+     *
+     * @param start The first indexed value of the term
+     * @param finish The last indexed value of the term, past the start for a prefix
+     */
+    public void addTermSlice( String fieldName, Object start, Object finish ) {
+        String key = fieldName;
+        for ( int i = 1; this.pairs.containsKey( key ); i++ ) {
+            key = fieldName + "#" + i;
+        }
+
+        QuerySlice slice = new QuerySlice( fieldName, id );
+        this.pairs.put( key, slice );
+
+        setStart( slice, start, true );
+        setFinish( slice, finish, true );
+    }
+
+
+    private void setStart( QuerySlice slice, Object start, boolean inclusive ) {
 
         // if the value is null don't set the range on the slice
         if ( start == null ) {
@@ -99,9 +131,7 @@ public class SliceNode extends QueryNode {
     }
 
 
-    /** Set the finish. If finish value is greater than the existing, I.E. null or higher comparison, then */
-    public void setFinish( String fieldName, Object finish, boolean inclusive ) {
-        QuerySlice slice = getOrCreateSlice( fieldName );
+    private void setFinish( QuerySlice slice, Object finish, boolean inclusive ) {
 
         // if the value is null don't set the range on the slice
         if ( finish == null ) {
@@ -32,6 +32,12 @@ public class EmptyIterator implements ResultIterator {
     }
 
 
+    @Override
+    public boolean isUUIDOrdered() {
+        return true;
+    }
+
+
     @Override
     public void finalizeCursor( CursorCache cache, UUID lastValue ) {
         //no op
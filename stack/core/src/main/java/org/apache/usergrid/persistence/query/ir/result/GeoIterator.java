@@ -210,6 +210,13 @@ public class GeoIterator implements ResultIterator {
     }
 
 
+    /** Results are ordered by distance */
+    @Override
+    public boolean isUUIDOrdered() {
+        return false;
+    }
+
+
     /*
      * (non-Javadoc)
      *
@@ -151,6 +151,13 @@ public class IntersectionIterator extends MultiIterator {
     }
 
 
+    /** The cursor can only be set on the root iterator, which can't be positioned at every column we return */
+    @Override
+    public boolean isUUIDOrdered() {
+        return false;
+    }
+
+
     /*
      * (non-Javadoc)
      *
@@ -135,6 +135,13 @@ public class OrderByIterator extends MergeIterator {
     }
 
 
+    /** Results are ordered by the sort properties */
+    @Override
+    public boolean isUUIDOrdered() {
+        return false;
+    }
+
+
     @Override
     public void finalizeCursor( CursorCache cache, UUID lastValue ) {
         int sliceHash = slice.hashCode();
@@ -0,0 +1,125 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.usergrid.persistence.query.ir.result;
+
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Set;
+import java.util.UUID;
+
+import org.apache.usergrid.persistence.cassandra.CursorCache;
+import org.apache.usergrid.utils.UUIDUtils;
+
+
+/**
+ * A child iterator that returns its results in uuid order, read a column at a time.  Tracks the position within the
+ * page it last returned so the child's cursor can be set to the last column taken.
+ *
+ * @author tnine
+ */
+final class OrderedChild implements Comparable<OrderedChild> {
+
+    private static final Comparator<ScanColumn> COMP = new Comparator<ScanColumn>() {
+        @Override
+        public int compare( final ScanColumn o1, final ScanColumn o2 ) {
+            return UUIDUtils.compare( o1.getUUID(), o2.getUUID() );
+        }
+    };
+
+    private final ResultIterator itr;
+
+    private List<ScanColumn> page = Collections.emptyList();
+
+    /** The number of columns of the page we've taken */
+    private int position;
+
+
+    OrderedChild( final ResultIterator itr ) {
+        this.itr = itr;
+    }
+
+
+    /** Load the next non empty page.  Returns false if the child has no more columns */
+    boolean load() {
+        while ( itr.hasNext() ) {
+            final Set<ScanColumn> next = itr.next();
+
+            if ( next == null || next.size() == 0 ) {
+                continue;
+            }
+
+            page = new ArrayList<ScanColumn>( next );
+            Collections.sort( page, COMP );
+            position = 0;
+
+            return true;
+        }
+
+        //keep our last page so we can still set a cursor in it
+        return false;
+    }
+
+
+    /** True if there's a column to take, loading the next page if this one is used up */
+    boolean hasHead() {
+        return position < page.size() || load();
+    }
+
+
+    ScanColumn head() {
+        return page.get( position );
+    }
+
+
+    /** Take the head.  Returns false if the page is used up */
+    boolean consume() {
+        position++;
+        return position < page.size();
+    }
+
+
+    /**
+     * Set the child's cursor to the last column we took at or before lastLoaded.  It can only be positioned within its
+     * current page, if the column came from an earlier one it will start over from its old cursor
+     */
+    void finalizeCursor( final CursorCache cache, final UUID lastLoaded ) {
+        for ( int i = position - 1; i >= 0; i-- ) {
+            final UUID uuid = page.get( i ).getUUID();
+
+            if ( UUIDUtils.compare( uuid, lastLoaded ) <= 0 ) {
+                itr.finalizeCursor( cache, uuid );
+                return;
+            }
+        }
+    }
+
+
+    /** Forget our position once the child has been reset */
+    void clear() {
+        page = Collections.emptyList();
+        position = 0;
+    }
+
+
+    @Override
+    public int compareTo( final OrderedChild o ) {
+        return COMP.compare( head(), o.head() );
+    }
+}
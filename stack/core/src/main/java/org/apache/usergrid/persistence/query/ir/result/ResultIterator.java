@@ -41,4 +41,10 @@ public interface ResultIterator extends Iterable<Set<ScanColumn>>, Iterator<Set<
 
     /** Finalize the cursor for this results.  Pass in the uuid of the last entity loaded. */
     public void finalizeCursor( CursorCache cache, UUID lastValue );
+
+    /**
+     * True if every page is in ascending uuid order and starts after the last uuid of the previous page.  Such results
+     * can be merged a column at a time instead of being read to the end
+     */
+    public boolean isUUIDOrdered();
 }
@@ -187,6 +187,17 @@ public class SliceIterator implements ResultIterator {
     }
 
 
+    /**
+     * An equality slice of a secondary index is ordered by the entity uuid, since every column has the same value.
+     * Ranges are ordered by value first.
+     */
+    @Override
+    public boolean isUUIDOrdered() {
+        return parser instanceof SecondaryIndexSliceParser && !slice.isReversed() && slice.getStart() != null
+                && slice.getStart().equals( slice.getFinish() );
+    }
+
+
     /*
      * (non-Javadoc)
      *
@@ -50,6 +50,12 @@ public class StaticIdIterator implements ResultIterator {
     }
 
 
+    @Override
+    public boolean isUUIDOrdered() {
+        return true;
+    }
+
+
     @Override
     public void finalizeCursor( CursorCache cache, UUID lastValue ) {
         //no cursor, it's a static list
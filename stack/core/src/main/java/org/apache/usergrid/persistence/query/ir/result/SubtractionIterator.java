@@ -17,25 +17,39 @@
 package org.apache.usergrid.persistence.query.ir.result;
 
 
+import java.util.HashSet;
 import java.util.LinkedHashSet;
 import java.util.Set;
 import java.util.UUID;
 
 import org.apache.usergrid.persistence.cassandra.CursorCache;
-
-import com.google.common.collect.Sets;
+import org.apache.usergrid.utils.UUIDUtils;
 
 
 /**
- * Simple iterator to perform Unions
+ * Removes the results of one iterator from those of another.  A small subtract side is read once into memory.  When
+ * both sides are in uuid order the subtract side is advanced alongside the keep side, so neither is read more than
+ * once.  Otherwise the subtract side has to be read to the end for every page of the keep side.
  *
  * @author tnine
  */
 public class SubtractionIterator extends MergeIterator {
 
+    /** The most subtract columns we'll hold in memory */
+    private static final int MAX_IN_MEMORY = 10000;
+
     private ResultIterator keepIterator;
     private ResultIterator subtractIterator;
 
+    /** The subtract side, when it was small enough to read into memory */
+    private Set<ScanColumn> subtractSet;
+
+    /** The subtract side, when both sides are merged in uuid order */
+    private OrderedChild subtractChild;
+
+    /** True once we've chosen how to subtract */
+    private boolean initialized;
+
 
     public SubtractionIterator( int pageSize ) {
         super( pageSize );
@@ -62,7 +76,17 @@ public class SubtractionIterator extends MergeIterator {
     @Override
     public void doReset() {
         keepIterator.reset();
+
+        //the in memory set doesn't change, we never need to read it again
+        if ( subtractSet != null ) {
+            return;
+        }
+
         subtractIterator.reset();
+
+        if ( subtractChild != null ) {
+            subtractChild.clear();
+        }
     }
 
 
@@ -77,6 +101,10 @@ public class SubtractionIterator extends MergeIterator {
             return null;
         }
 
+        if ( !initialized ) {
+            initialize();
+        }
+
         Set<ScanColumn> results = new LinkedHashSet<ScanColumn>( pageSize );
 
         /**
@@ -87,11 +115,19 @@ public class SubtractionIterator extends MergeIterator {
 
             Set<ScanColumn> keepPage = keepIterator.next();
 
-            while ( subtractIterator.hasNext() && keepPage.size() > 0 ) {
-                keepPage.removeAll( subtractIterator.next() );
+            if ( subtractSet != null ) {
+                keepPage.removeAll( subtractSet );
             }
+            else if ( subtractChild != null ) {
+                keepPage = antiJoin( keepPage );
+            }
+            else {
+                while ( subtractIterator.hasNext() && keepPage.size() > 0 ) {
+                    keepPage.removeAll( subtractIterator.next() );
+                }
 
-            subtractIterator.reset();
+                subtractIterator.reset();
+            }
 
             results.addAll( keepPage );
         }
@@ -100,6 +136,71 @@ public class SubtractionIterator extends MergeIterator {
     }
 
 
+    /**
+     * Read the subtract side into memory if it's small.  If not, and both sides are in uuid order, set up the ordered
+     * merge.
+     */
+    private void initialize() {
+        initialized = true;
+
+        Set<ScanColumn> subtract = new HashSet<ScanColumn>();
+
+        while ( subtractIterator.hasNext() ) {
+            subtract.addAll( subtractIterator.next() );
+
+            if ( subtract.size() > MAX_IN_MEMORY ) {
+                subtractIterator.reset();
+
+                if ( keepIterator.isUUIDOrdered() && subtractIterator.isUUIDOrdered() ) {
+                    subtractChild = new OrderedChild( subtractIterator );
+                }
+
+                return;
+            }
+        }
+
+        subtractSet = subtract;
+    }
+
+
+    /**
+     * Remove the subtract columns from a page of the keep side, advancing the subtract side up to each column we
+     * keep.  Both sides are in uuid order, so the subtract side never has to go back.
+     */
+    private Set<ScanColumn> antiJoin( Set<ScanColumn> keepPage ) {
+        Set<ScanColumn> results = new LinkedHashSet<ScanColumn>( keepPage.size() );
+
+        for ( ScanColumn keep : keepPage ) {
+            int compare = -1;
+
+            while ( subtractChild.hasHead() ) {
+                compare = UUIDUtils.compare( subtractChild.head().getUUID(), keep.getUUID() );
+
+                if ( compare >= 0 ) {
+                    break;
+                }
+
+                subtractChild.consume();
+            }
+
+            if ( compare != 0 ) {
+                results.add( keep );
+            }
+        }
+
+        return results;
+    }
+
+
+    /**
+     * The cursor can only be set on the keep side, which can't be positioned at every column we return
+     */
+    @Override
+    public boolean isUUIDOrdered() {
+        return false;
+    }
+
+
     /* (non-Javadoc)
      * @see org.apache.usergrid.persistence.query.ir.result.ResultIterator#finalizeCursor(org.apache.usergrid.persistence.cassandra
      * .CursorCache)
@@ -109,5 +210,11 @@ public class SubtractionIterator extends MergeIterator {
         //we can only keep a cursor on our keep result set, we must subtract from every page of keep when loading
         // results
         keepIterator.finalizeCursor( cache, lastLoaded );
+
+        //when merging, the subtract side resumes after the last column before lastLoaded, since the keep side
+        // resumes after lastLoaded
+        if ( subtractChild != null ) {
+            subtractChild.finalizeCursor( cache, lastLoaded );
+        }
     }
 }
@@ -24,6 +24,7 @@ import java.util.Collections;
 import java.util.Comparator;
 import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.PriorityQueue;
 import java.util.Set;
 import java.util.UUID;
 
@@ -33,7 +34,9 @@ import org.apache.usergrid.utils.UUIDUtils;
 import static org.apache.usergrid.persistence.cassandra.Serializers.*;
 
 /**
- * Simple iterator to perform Unions
+ * Simple iterator to perform Unions.  Children that return their results in uuid order are merged through a heap of
+ * their current columns, reading only what is needed to fill each page and keeping their position between pages. Any
+ * other children have to be read to the end and reset for every page.
  *
  * @author tnine
  */
@@ -45,6 +48,18 @@ public class UnionIterator extends MultiIterator {
 
     private final int id;
 
+    /** The children merged a column at a time.  Null until the first page is loaded */
+    private List<OrderedChild> ordered;
+
+    /** The children that must be read in full for every page */
+    private List<ResultIterator> unordered;
+
+    /** Ordered children keyed by their current column */
+    private PriorityQueue<OrderedChild> heads;
+
+    /** Ordered children that must load their next page before they can be added to the heap */
+    private List<OrderedChild> pending;
+
 
     /**
      * @param pageSize The page size to return
@@ -80,10 +95,13 @@ public class UnionIterator extends MultiIterator {
             return null;
         }
 
+        if ( ordered == null ) {
+            partition();
+        }
 
         list.clear();
 
-        for ( ResultIterator itr : iterators ) {
+        for ( ResultIterator itr : unordered ) {
 
             while ( itr.hasNext() ) {
                 list.addAll( itr.next() );
@@ -92,6 +110,8 @@ public class UnionIterator extends MultiIterator {
             itr.reset();
         }
 
+        merge();
+
         //mark us for the next page
         list.mark();
 
@@ -100,6 +120,76 @@ public class UnionIterator extends MultiIterator {
     }
 
 
+    /**
+     * Take columns from the ordered children, smallest first, until the page is full and no child has a column that
+     * belongs in it.  A column is only taken when it will be returned on this page or is at or below the min, so the
+     * children never have to go back.
+     */
+    private void merge() {
+
+        while ( true ) {
+
+            for ( OrderedChild child : pending ) {
+                if ( child.load() ) {
+                    heads.add( child );
+                }
+            }
+
+            pending.clear();
+
+            OrderedChild child = heads.peek();
+
+            if ( child == null ) {
+                return;
+            }
+
+            ScanColumn head = child.head();
+
+            if ( list.isFull() && COMP.compare( head, list.last() ) >= 0 ) {
+                return;
+            }
+
+            heads.poll();
+
+            list.add( head );
+
+            if ( child.consume() ) {
+                heads.add( child );
+            }
+            else {
+                pending.add( child );
+            }
+        }
+    }
+
+
+    /** Split the children into those we can merge and those we have to drain */
+    private void partition() {
+        ordered = new ArrayList<OrderedChild>();
+        unordered = new ArrayList<ResultIterator>();
+        heads = new PriorityQueue<OrderedChild>( Math.max( 1, iterators.size() ) );
+        pending = new ArrayList<OrderedChild>();
+
+        for ( ResultIterator itr : iterators ) {
+            if ( itr.isUUIDOrdered() ) {
+                OrderedChild child = new OrderedChild( itr );
+                ordered.add( child );
+                pending.add( child );
+            }
+            else {
+                unordered.add( itr );
+            }
+        }
+    }
+
+
+    /** Our pages are always in uuid order */
+    @Override
+    public boolean isUUIDOrdered() {
+        return true;
+    }
+
+
     /*
      * (non-Javadoc)
      *
@@ -112,8 +202,14 @@ public class UnionIterator extends MultiIterator {
 
         ByteBuffer buff = ue.toByteBuffer( lastLoaded );
         cache.setNextCursor( id, buff );
-        //get our scan column and put them in the cache
-        //we finalize the cursor of the min
+
+        //position the ordered children after the last column they gave us, so a resumed cursor doesn't read them
+        // from their start.  The min above still filters whatever the others return again
+        if ( ordered != null ) {
+            for ( OrderedChild child : ordered ) {
+                child.finalizeCursor( cache, lastLoaded );
+            }
+        }
     }
 
 
@@ -124,6 +220,15 @@ public class UnionIterator extends MultiIterator {
 
         list.reset();
 
+        if ( ordered != null ) {
+            heads.clear();
+            pending.clear();
+
+            for ( OrderedChild child : ordered ) {
+                child.clear();
+                pending.add( child );
+            }
+        }
     }
 
 
@@ -225,6 +330,28 @@ public class UnionIterator extends MultiIterator {
         }
 
 
+        /**
+         * True if a column after the last one can't be added
+         */
+        public boolean isFull() {
+            return this.list.size() >= maxSize;
+        }
+
+
+        /**
+         * Return the largest column in the list, or null if it's empty
+         */
+        public ScanColumn last() {
+            final int size = this.list.size();
+
+            if ( size == 0 ) {
+                return null;
+            }
+
+            return this.list.get( size - 1 );
+        }
+
+
         /**
          * Clear the list
          */
@@ -20,6 +20,7 @@ package org.apache.usergrid;
 import org.junit.runner.RunWith;
 import org.junit.runners.Suite;
 import org.apache.usergrid.cassandra.Concurrent;
+import org.apache.usergrid.events.local.LocalEntityChangeBusTest;
 import org.apache.usergrid.locking.zookeeper.ZookeeperLockManagerTest;
 import org.apache.usergrid.mq.QueuePathsTest;
 import org.apache.usergrid.persistence.EntityTest;
@@ -27,8 +28,10 @@ import org.apache.usergrid.persistence.QueryTest;
 import org.apache.usergrid.persistence.QueryUtilsTest;
 import org.apache.usergrid.persistence.SchemaTest;
 import org.apache.usergrid.persistence.UtilsTest;
+import org.apache.usergrid.persistence.cassandra.CassandraOperationPolicyTest;
 import org.apache.usergrid.persistence.cassandra.QueryProcessorTest;
 import org.apache.usergrid.persistence.cassandra.SimpleIndexBucketLocatorImplTest;
+import org.apache.usergrid.persistence.hector.CountingMutatorTest;
 import org.apache.usergrid.persistence.query.ir.result.IntersectionIteratorTest;
 import org.apache.usergrid.persistence.query.ir.result.SubtractionIteratorTest;
 import org.apache.usergrid.persistence.query.ir.result.UnionIteratorTest;
@@ -42,7 +45,8 @@ import org.apache.usergrid.persistence.query.tree.StringLiteralTest;
         ZookeeperLockManagerTest.class, QueuePathsTest.class, QueryProcessorTest.class,
         SimpleIndexBucketLocatorImplTest.class, EntityTest.class, QueryTest.class, QueryUtilsTest.class,
         SchemaTest.class, UtilsTest.class, IntersectionIteratorTest.class, SubtractionIteratorTest.class,
-        UnionIteratorTest.class, GrammarTreeTest.class, LongLiteralTest.class, StringLiteralTest.class
+        UnionIteratorTest.class, GrammarTreeTest.class, LongLiteralTest.class, StringLiteralTest.class,
+        LocalEntityChangeBusTest.class, CassandraOperationPolicyTest.class, CountingMutatorTest.class
 })
 @Concurrent()
 public class CoreTestSuite {}
@@ -0,0 +1,160 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.usergrid.events.local;
+
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.apache.usergrid.events.EntityChangeEvent;
+import org.apache.usergrid.events.EntityChangeEvent.ChangeType;
+import org.apache.usergrid.events.EntityChangeListener;
+import org.apache.usergrid.events.EntityChangeTransport;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+
+public class LocalEntityChangeBusTest {
+
+    private LocalEntityChangeBus bus;
+
+
+    @Before
+    public void setUp() {
+        bus = new LocalEntityChangeBus( 10, 1 );
+    }
+
+
+    @After
+    public void tearDown() {
+        bus.destroy();
+    }
+
+
+    @Test
+    public void deliversInOrder() throws Exception {
+        final CountDownLatch latch = new CountDownLatch( 3 );
+        final List<ChangeType> received = new ArrayList<ChangeType>();
+
+        bus.addListener( new EntityChangeListener() {
+            @Override
+            public void onEntityChange( EntityChangeEvent event ) {
+                received.add( event.getChangeType() );
+                latch.countDown();
+            }
+        } );
+
+        bus.publish( event( ChangeType.CREATED ) );
+        bus.publish( event( ChangeType.UPDATED ) );
+        bus.publish( event( ChangeType.DELETED ) );
+
+        assertTrue( latch.await( 5, TimeUnit.SECONDS ) );
+        assertEquals( ChangeType.CREATED, received.get( 0 ) );
+        assertEquals( ChangeType.UPDATED, received.get( 1 ) );
+        assertEquals( ChangeType.DELETED, received.get( 2 ) );
+    }
+
+
+    @Test
+    public void slowListenerDoesNotBlockPublish() throws Exception {
+        final CountDownLatch release = new CountDownLatch( 1 );
+
+        bus.addListener( new EntityChangeListener() {
+            @Override
+            public void onEntityChange( EntityChangeEvent event ) {
+                try {
+                    release.await();
+                }
+                catch ( InterruptedException e ) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        } );
+
+        long start = System.currentTimeMillis();
+
+        // far more than the queue holds, the excess must be dropped rather than block
+        for ( int i = 0; i < 1000; i++ ) {
+            bus.publish( event( ChangeType.UPDATED ) );
+        }
+
+        assertTrue( System.currentTimeMillis() - start < 5000 );
+
+        release.countDown();
+    }
+
+
+    @Test
+    public void transportEventsAreNotForwardedAgain() throws Exception {
+        final CountDownLatch latch = new CountDownLatch( 2 );
+        final List<EntityChangeEvent> sent = new ArrayList<EntityChangeEvent>();
+        final EntityChangeListener[] receiver = new EntityChangeListener[1];
+
+        bus.setTransport( new EntityChangeTransport() {
+            @Override
+            public void send( EntityChangeEvent event ) {
+                sent.add( event );
+            }
+
+
+            @Override
+            public void setReceiver( EntityChangeListener r ) {
+                receiver[0] = r;
+            }
+
+
+            @Override
+            public void close() {
+            }
+        } );
+
+        bus.addListener( new EntityChangeListener() {
+            @Override
+            public void onEntityChange( EntityChangeEvent event ) {
+                latch.countDown();
+            }
+        } );
+
+        bus.publish( event( ChangeType.CREATED ) );
+        receiver[0].onEntityChange( event( ChangeType.UPDATED ) );
+
+        assertTrue( latch.await( 5, TimeUnit.SECONDS ) );
+        assertEquals( 1, sent.size() );
+        assertEquals( ChangeType.CREATED, sent.get( 0 ).getChangeType() );
+    }
+
+
+    @Test
+    public void noSubscribers() {
+        assertFalse( bus.hasSubscribers() );
+        bus.publish( event( ChangeType.CREATED ) );
+    }
+
+
+    private EntityChangeEvent event( ChangeType changeType ) {
+        return new EntityChangeEvent( UUID.randomUUID(), UUID.randomUUID(), "thing", changeType,
+                System.currentTimeMillis() );
+    }
+}
@@ -0,0 +1,132 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.usergrid.mq;
+
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+
+import org.junit.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.apache.usergrid.AbstractCoreIT;
+import org.apache.usergrid.cassandra.Concurrent;
+import org.apache.usergrid.mq.cassandra.io.FilterSearch;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.apache.usergrid.mq.Queue.normalizeQueuePath;
+
+
+/**
+ * Reads filtered pages from a seeded queue, checking them against the messages posted and logging the index columns
+ * read and the time taken for each page. Seed a larger queue with -Dorg.apache.usergrid.mq.FilterSearchIT=1000000
+ */
+@Concurrent()
+public class FilterSearchIT extends AbstractCoreIT {
+    private static final Logger LOG = LoggerFactory.getLogger( FilterSearchIT.class );
+
+    private static final int DEFAULT_COUNT = 5000;
+    private static final String COUNT_PROP = FilterSearchIT.class.getCanonicalName();
+
+    private static final String QUEUE_PATH = "/filtersearch/";
+
+    private static final int PAGE_SIZE = 10;
+
+
+    @Test
+    public void filteredPages() throws Exception {
+        int count = Integer.getInteger( COUNT_PROP, DEFAULT_COUNT );
+
+        QueueManager qm = app.getQm();
+
+        List<UUID> highPriority = new ArrayList<UUID>();
+        List<UUID> rare = new ArrayList<UUID>();
+
+        for ( int i = 0; i < count; i++ ) {
+            Message message = new Message();
+            message.setIndexed( true );
+            message.setIntProperty( "priority", i % 10 );
+            message.setStringProperty( "kind", i % 100 == 0 ? "rare" : "common" );
+
+            qm.postToQueue( QUEUE_PATH, message );
+
+            if ( i % 10 > 5 ) {
+                highPriority.add( message.getUuid() );
+            }
+            if ( i % 100 == 0 ) {
+                rare.add( message.getUuid() );
+            }
+        }
+
+        LOG.info( "Posted {} messages", count );
+
+        checkPages( qm, "select * where priority > 5", highPriority );
+        checkPages( qm, "select * where kind = 'rare' and priority = 0", rare );
+        checkPages( qm, "select * where kind = 'rare' and priority > 5", new ArrayList<UUID>() );
+
+        FilterSearch search =
+                new FilterSearch( setup.getCassSvc().getApplicationKeyspace( app.getId() ) );
+
+        for ( String ql : new String[] {
+                "select * where priority > 5", "select * where kind = 'rare'",
+                "select * where kind = 'common' and priority > 5"
+        } ) {
+            QueueQuery query = QueueQuery.fromQL( ql );
+            query.setLimit( PAGE_SIZE );
+
+            long start = System.nanoTime();
+            QueueResults results = search.getResults( normalizeQueuePath( QUEUE_PATH ), query );
+            long elapsed = System.nanoTime() - start;
+
+            assertEquals( PAGE_SIZE, results.size() );
+            assertTrue( search.getColumnsRead() < count );
+
+            LOG.info( "'{}' read {} index columns in {} ms", new Object[] {
+                    ql, search.getColumnsRead(), elapsed / 1000000
+            } );
+        }
+    }
+
+
+    /** Page through the query a few pages at a time and check each page continues where the last one stopped */
+    private void checkPages( QueueManager qm, String ql, List<UUID> expected ) {
+        UUID last = null;
+        int pages = Math.min( 3, expected.size() / PAGE_SIZE + 1 );
+
+        for ( int page = 0; page < pages; page++ ) {
+            QueueQuery query = QueueQuery.fromQL( ql );
+            query.setLimit( PAGE_SIZE );
+            query.setLastMessageId( last );
+
+            QueueResults results = qm.getFromQueue( QUEUE_PATH, query );
+
+            int from = page * PAGE_SIZE;
+            int to = Math.min( from + PAGE_SIZE, expected.size() );
+
+            List<UUID> found = new ArrayList<UUID>();
+            for ( Message message : results.getMessages() ) {
+                found.add( message.getUuid() );
+            }
+
+            assertEquals( ql, expected.subList( from, to ), found );
+
+            last = results.getLast();
+        }
+    }
+}
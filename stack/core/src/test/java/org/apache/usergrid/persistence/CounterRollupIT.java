@@ -0,0 +1,190 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.usergrid.persistence;
+
+
+import java.util.List;
+import java.util.UUID;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.apache.usergrid.AbstractCoreIT;
+import org.apache.usergrid.CoreITSuite;
+import org.apache.usergrid.count.SimpleBatcher;
+import org.apache.usergrid.persistence.cassandra.CassandraService;
+import org.apache.usergrid.persistence.cassandra.CounterRollup;
+import org.apache.usergrid.persistence.cassandra.CounterUtils;
+import org.apache.usergrid.persistence.cassandra.EntityManagerImpl;
+import org.apache.usergrid.persistence.entities.Event;
+
+import static org.apache.usergrid.persistence.cassandra.ApplicationCF.ENTITY_DICTIONARIES;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+
+/**
+ * Measures the rollup against the full write path through the embedded Cassandra and the batcher wired into
+ * CounterUtils, rather than CassandraCounterStore directly, as the batcher is what counts the counter writes.
+ * Not concurrent, as the tests switch the shared {@link CounterUtils} in and out of rollup mode.
+ */
+public class CounterRollupIT extends AbstractCoreIT {
+
+    private static final Logger LOG = LoggerFactory.getLogger( CounterRollupIT.class );
+
+    private SimpleBatcher batcher;
+    private CounterUtils counterUtils;
+
+
+    @Before
+    public void getSubmitter() {
+        //set the batcher to block the submit so we wait for results when testing
+        batcher = CoreITSuite.cassandraResource.getBean( SimpleBatcher.class );
+        batcher.setBlockingSubmit( true );
+        batcher.setBatchSize( 1 );
+
+        counterUtils = CoreITSuite.cassandraResource.getBean( CounterUtils.class );
+    }
+
+
+    @Test
+    public void writeAmplification() throws Exception {
+        LOG.info( "CounterRollupIT.writeAmplification" );
+
+        UUID applicationId = setup.createApplication( "testOrganization", "testCounterRollupWrites" );
+        EntityManager em = setup.getEmf().getEntityManager( applicationId );
+
+        long normal = countIncrementOps( em );
+
+        counterUtils.setRollup( true );
+        long rollup;
+        try {
+            rollup = countIncrementOps( em );
+        }
+        finally {
+            counterUtils.setRollup( false );
+        }
+        long registrations = countRegistrations( applicationId );
+
+        LOG.info( "Writes per increment: {} normal, {} rollup counter ops and {} rollup registrations",
+                new Object[] { normal, rollup, registrations } );
+
+        // the application, user and group entity counters are written either way, every aggregate row is written
+        // at MINUTE alone and the other resolutions are left to the rollup job
+        int entityCounters = 3;
+        assertEquals( normal - entityCounters, ( rollup - entityCounters ) * CounterResolution.values().length );
+
+        // the first count of a row in a period also registers the row, and the period, for the rollup
+        assertEquals( rollup - entityCounters + 1, registrations );
+        assertTrue( rollup + registrations < normal );
+    }
+
+
+    @Test
+    public void readsMatchRollup() throws Exception {
+        LOG.info( "CounterRollupIT.readsMatchRollup" );
+
+        UUID applicationId = setup.createApplication( "testOrganization", "testCounterRollupReads" );
+        EntityManagerImpl em = ( EntityManagerImpl ) setup.getEmf().getEntityManager( applicationId );
+
+        // past the rollup delay but within the retention, so the periods are closed and stay pending
+        long now = System.currentTimeMillis();
+        long ts = CounterRollup.period( now ) - ( 40 * 60 * 1000 );
+        UUID user = UUID.randomUUID();
+
+        counterUtils.setRollup( true );
+        try {
+            createVisits( em, user, ts, 30 );
+
+            assertVisits( em, user, ts, 30 );
+
+            assertTrue( em.rollupAggregateCounters() > 0 );
+            assertVisits( em, user, ts, 30 );
+
+            // the periods are rolled again, but nothing new is added so the counts are unchanged
+            em.rollupAggregateCounters();
+            assertVisits( em, user, ts, 30 );
+
+            // counts for periods the rollup is done with go straight to every resolution
+            long late = now - ( 24 * 60 * 60 * 1000 );
+            UUID lateUser = UUID.randomUUID();
+            createVisits( em, lateUser, late, 5 );
+
+            assertVisits( em, lateUser, late, 5 );
+            em.rollupAggregateCounters();
+            assertVisits( em, lateUser, late, 5 );
+        }
+        finally {
+            counterUtils.setRollup( false );
+        }
+    }
+
+
+    private void createVisits( EntityManager em, UUID user, long ts, int count ) throws Exception {
+        for ( int i = 0; i < count; i++ ) {
+            Event event = new Event();
+            event.setTimestamp( ts + ( i * 60 * 1000 ) );
+            event.addCounter( "visits", 1 );
+            event.setUser( user );
+            em.create( event );
+        }
+    }
+
+
+    private long countIncrementOps( EntityManager em ) {
+        long before = batcher.getOpCount();
+        em.incrementAggregateCounters( UUID.randomUUID(), UUID.randomUUID(), "web", "application.requests.get", 1 );
+        return batcher.getOpCount() - before;
+    }
+
+
+    /** @return the pending rows and periods registered for the rollup of the application */
+    private long countRegistrations( UUID applicationId ) throws Exception {
+        CassandraService cass = CoreITSuite.cassandraResource.getBean( CassandraService.class );
+        List<Long> periods = new CounterRollup( cass, applicationId ).getPendingPeriods();
+
+        long registrations = periods.size();
+        for ( Long period : periods ) {
+            registrations += cass.getAllColumnNames( cass.getApplicationKeyspace( applicationId ), ENTITY_DICTIONARIES,
+                    CounterRollup.rowsKey( applicationId, period ) ).size();
+        }
+        return registrations;
+    }
+
+
+    private void assertVisits( EntityManager em, UUID user, long ts, long expected ) throws Exception {
+        for ( CounterResolution resolution : new CounterResolution[] {
+                CounterResolution.MINUTE, CounterResolution.HOUR, CounterResolution.DAY, CounterResolution.ALL
+        } ) {
+            Results r = em.getAggregateCounters( user, null, null, "visits", resolution, ts - resolution.interval(),
+                    System.currentTimeMillis(), false );
+            assertNotNull( r.getCounters() );
+            assertEquals( resolution.name(), expected, sum( r.getCounters().get( 0 ).getValues() ) );
+        }
+    }
+
+
+    private long sum( List<AggregateCounter> values ) {
+        long sum = 0;
+        for ( AggregateCounter value : values ) {
+            sum += value.getValue();
+        }
+        return sum;
+    }
+}
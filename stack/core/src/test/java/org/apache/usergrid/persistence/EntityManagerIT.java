@@ -33,6 +33,7 @@ import org.slf4j.LoggerFactory;
 import org.apache.usergrid.AbstractCoreIT;
 import org.apache.usergrid.cassandra.Concurrent;
 import org.apache.usergrid.persistence.Results.Level;
+import org.apache.usergrid.persistence.cassandra.EntityManagerImpl;
 import org.apache.usergrid.persistence.entities.Group;
 import org.apache.usergrid.persistence.entities.User;
 import org.apache.usergrid.utils.UUIDUtils;
@@ -339,6 +340,56 @@ public class EntityManagerIT extends AbstractCoreIT {
     }
 
 
+    @Test
+    public void testSoftDeleteUser() throws Exception {
+        LOG.info( "EntityDaoTest.testSoftDeleteUser" );
+
+        UUID applicationId = setup.createApplication( "testOrganization", "testSoftDeleteUser" );
+
+        EntityManager em = setup.getEmf().getEntityManager( applicationId );
+
+        String name = "test.thing" + UUIDUtils.newTimeUUID();
+
+        Map<String, Object> properties = new LinkedHashMap<String, Object>();
+        properties.put( "username", name );
+        properties.put( "foo", "bar" );
+
+        Entity user = em.create( "user", properties );
+
+        properties = new LinkedHashMap<String, Object>();
+        properties.put( "path", "softdelete" + UUIDUtils.newTimeUUID() );
+
+        Entity group = em.create( "group", properties );
+        em.addToCollection( group, "users", user );
+
+        em.softDelete( user );
+
+        // gone from the primary collection and direct reads immediately
+        Results r = em.searchCollection( em.getApplicationRef(), "users",
+                new Query().addEqualityFilter( "username", name ) );
+        assertEquals( 0, r.size() );
+        assertEquals( null, em.get( user.getUuid() ) );
+
+        // still indexed in the group until cleanup, but filtered from queries
+        r = em.searchCollection( group, "users", new Query().addEqualityFilter( "username", name ) );
+        assertEquals( 0, r.size() );
+
+        // the unique username is released right away
+        properties = new LinkedHashMap<String, Object>();
+        properties.put( "username", name );
+        Entity recreated = em.create( "user", properties );
+
+        ( ( EntityManagerImpl ) em ).purgeTombstones( 100, 0 );
+
+        r = em.searchCollection( group, "users", new Query() );
+        assertEquals( 0, r.size() );
+
+        r = em.searchCollection( em.getApplicationRef(), "users", new Query().addEqualityFilter( "username", name ) );
+        assertEquals( 1, r.size() );
+        assertEquals( recreated.getUuid(), r.getEntity().getUuid() );
+    }
+
+
     @SuppressWarnings("unchecked")
     @Test
     public void testJson() throws Exception {
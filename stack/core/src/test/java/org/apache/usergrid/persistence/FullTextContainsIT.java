@@ -0,0 +1,131 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.usergrid.persistence;
+
+
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.UUID;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.apache.usergrid.AbstractCoreIT;
+import org.apache.usergrid.CoreApplication;
+import org.apache.usergrid.CoreITSuite;
+import org.apache.usergrid.cassandra.Concurrent;
+import org.apache.usergrid.persistence.cassandra.util.TraceTag;
+import org.apache.usergrid.persistence.cassandra.util.TraceTagManager;
+
+import static org.junit.Assert.assertEquals;
+
+
+/**
+ * Runs multi term CONTAINS queries over a generated corpus with a skewed vocabulary, checking the results against the
+ * corpus and logging the rows and columns read for each query next to the same terms chained with AND.
+ */
+@Concurrent()
+public class FullTextContainsIT extends AbstractCoreIT {
+    private static final Logger LOG = LoggerFactory.getLogger( FullTextContainsIT.class );
+
+    private static final int CORPUS_SIZE = 300;
+
+    /** Word i appears in roughly one of every FREQUENCIES[i] documents */
+    private static final String[] WORDS = { "red", "blue", "green", "shoes", "zebra", "quartz" };
+    private static final int[] FREQUENCIES = { 2, 3, 5, 7, 30, 60 };
+
+    @Rule
+    public CoreApplication app = new CoreApplication( setup );
+
+
+    @Test
+    public void containsTerms() throws Exception {
+        Random random = new Random( 47 );
+        Map<String, Set<UUID>> postings = new LinkedHashMap<String, Set<UUID>>();
+        for ( String word : WORDS ) {
+            postings.put( word, new HashSet<UUID>() );
+        }
+
+        for ( int i = 0; i < CORPUS_SIZE; i++ ) {
+            StringBuilder body = new StringBuilder( "the" );
+            Set<String> used = new HashSet<String>();
+            for ( int w = 0; w < WORDS.length; w++ ) {
+                if ( random.nextInt( FREQUENCIES[w] ) == 0 ) {
+                    body.append( ' ' ).append( WORDS[w] );
+                    used.add( WORDS[w] );
+                }
+            }
+
+            app.put( "body", body.toString() );
+            Entity article = app.create( "article" );
+            for ( String word : used ) {
+                postings.get( word ).add( article.getUuid() );
+            }
+        }
+
+        TraceTagManager traceTagManager =
+                CoreITSuite.cassandraResource.getBean( "traceTagManager", TraceTagManager.class );
+
+        for ( String rare : new String[] { "zebra", "quartz" } ) {
+            for ( String common : new String[] { "red", "blue" } ) {
+                Set<UUID> expected = new HashSet<UUID>( postings.get( common ) );
+                expected.retainAll( postings.get( rare ) );
+
+                TraceTag terms = traceTagManager.create( "contains '" + common + " " + rare + "'" );
+                assertEquals( expected, search( traceTagManager, terms,
+                        "select * where body contains 'the " + common + " " + rare + "'" ) );
+
+                TraceTag chained = traceTagManager.create( "contains '" + common + "' and contains '" + rare + "'" );
+                assertEquals( expected, search( traceTagManager, chained,
+                        "select * where body contains '" + common + "' and body contains '" + rare + "'" ) );
+
+                LOG.info( "{} matches: {} rows {} columns as terms, {} rows {} columns chained", new Object[] {
+                        expected.size(), terms.getRows(), terms.getColumns(), chained.getRows(), chained.getColumns()
+                } );
+            }
+        }
+
+        // a trailing wildcard matches the last term as a prefix
+        Set<UUID> expected = new HashSet<UUID>( postings.get( "shoes" ) );
+        expected.retainAll( postings.get( "zebra" ) );
+        assertEquals( expected, search( traceTagManager, traceTagManager.create( "prefix" ),
+                "select * where body contains 'zebra sho*'" ) );
+    }
+
+
+    private Set<UUID> search( TraceTagManager traceTagManager, TraceTag traceTag, String ql ) throws Exception {
+        Query query = Query.fromQL( ql );
+        query.setLimit( Query.MAX_LIMIT );
+
+        Set<UUID> found = new HashSet<UUID>();
+        traceTagManager.attach( traceTag );
+        try {
+            Results results = app.getEm().searchCollection( app.getEm().getApplicationRef(), "articles", query );
+            for ( Entity entity : results.getEntities() ) {
+                found.add( entity.getUuid() );
+            }
+        }
+        finally {
+            traceTagManager.detach();
+        }
+        return found;
+    }
+}
@@ -0,0 +1,193 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.usergrid.persistence;
+
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.apache.usergrid.AbstractCoreIT;
+import org.apache.usergrid.CoreApplication;
+import org.apache.usergrid.CoreITSuite;
+import org.apache.usergrid.cassandra.Concurrent;
+import org.apache.usergrid.count.SimpleBatcher;
+import org.apache.usergrid.persistence.Results.Level;
+import org.apache.usergrid.persistence.exceptions.EntityNotFoundException;
+import org.apache.usergrid.persistence.exceptions.RequiredPropertyNotFoundException;
+import org.apache.usergrid.utils.UUIDUtils;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.fail;
+
+
+/**
+ * Creates entities and connections through the batched import paths, and through the one at a time fallback that
+ * importers use when a batch fails, checking that every entity is counted in its collection exactly once.
+ */
+@Concurrent()
+public class ImportBatchIT extends AbstractCoreIT {
+
+    @Rule
+    public CoreApplication app = new CoreApplication( setup );
+
+
+    @Before
+    public void getSubmitter() {
+        //set the batcher to block the submit so we wait for results when testing
+        SimpleBatcher batcher = CoreITSuite.cassandraResource.getBean( SimpleBatcher.class );
+
+        batcher.setBlockingSubmit( true );
+        batcher.setBatchSize( 1 );
+    }
+
+
+    @Test
+    public void createImported() throws Exception {
+        EntityManager em = app.getEm();
+
+        List<Entity> entities = new ArrayList<Entity>();
+        for ( int i = 0; i < 3; i++ ) {
+            entities.add( widget( i ) );
+        }
+
+        List<Entity> created = em.createImported( entities );
+
+        assertEquals( 3, created.size() );
+        for ( Entity entity : entities ) {
+            Entity widget = em.get( entity.getUuid() );
+            assertNotNull( widget );
+            assertEquals( entity.getProperty( "name" ), widget.getProperty( "name" ) );
+        }
+
+        assertEquals( new Long( 3 ), em.getEntityCounters( app.getId() ).get( "application.collection.widgets" ) );
+    }
+
+
+    @Test
+    public void createImportedFallback() throws Exception {
+        EntityManager em = app.getEm();
+
+        // a user without its required username fails the whole batch
+        List<Entity> entities = new ArrayList<Entity>();
+        entities.add( widget( 0 ) );
+        Map<String, Object> user = new LinkedHashMap<String, Object>();
+        user.put( "name", "nobody" );
+        entities.add( new DynamicEntity( "user", UUIDUtils.newTimeUUID(), user ) );
+        entities.add( widget( 1 ) );
+
+        try {
+            em.createImported( entities );
+            fail( "The batch should have failed" );
+        }
+        catch ( RequiredPropertyNotFoundException e ) {
+            // expected
+        }
+
+        for ( Entity entity : entities ) {
+            assertNull( em.get( entity.getUuid() ) );
+        }
+
+        assertNull( em.getEntityCounters( app.getId() ).get( "application.collection.widgets" ) );
+
+        // the importers then create the entities one at a time
+        for ( Entity entity : entities ) {
+            try {
+                em.create( entity.getUuid(), entity.getType(), entity.getProperties() );
+            }
+            catch ( RequiredPropertyNotFoundException e ) {
+                // expected for the user
+            }
+        }
+
+        assertNotNull( em.get( entities.get( 0 ).getUuid() ) );
+        assertNotNull( em.get( entities.get( 2 ).getUuid() ) );
+
+        assertEquals( new Long( 2 ), em.getEntityCounters( app.getId() ).get( "application.collection.widgets" ) );
+    }
+
+
+    @Test
+    public void createConnections() throws Exception {
+        EntityManager em = app.getEm();
+
+        Entity owner = em.create( "owner", new LinkedHashMap<String, Object>() );
+        Entity first = em.create( "widget", widget( 0 ).getProperties() );
+        Entity second = em.create( "widget", widget( 1 ).getProperties() );
+
+        List<ConnectionRef> connections = new ArrayList<ConnectionRef>();
+        connections.add( em.connectionRef( owner, "likes", first ) );
+        connections.add( em.connectionRef( owner, "likes", second ) );
+
+        em.createConnections( connections );
+
+        Results results = em.getConnectedEntities( owner.getUuid(), "likes", null, Level.IDS );
+        assertEquals( 2, results.size() );
+    }
+
+
+    @Test
+    public void createConnectionsFallback() throws Exception {
+        EntityManager em = app.getEm();
+
+        Entity owner = em.create( "owner", new LinkedHashMap<String, Object>() );
+        Entity first = em.create( "widget", widget( 0 ).getProperties() );
+        Entity second = em.create( "widget", widget( 1 ).getProperties() );
+
+        // a connection to an entity that doesn't exist fails the whole batch
+        List<ConnectionRef> connections = new ArrayList<ConnectionRef>();
+        connections.add( em.connectionRef( owner, "likes", first ) );
+        connections.add( em.connectionRef( owner, "likes", new SimpleEntityRef( "widget", UUIDUtils.newTimeUUID() ) ) );
+        connections.add( em.connectionRef( owner, "likes", second ) );
+
+        try {
+            em.createConnections( connections );
+            fail( "The batch should have failed" );
+        }
+        catch ( EntityNotFoundException e ) {
+            // expected
+        }
+
+        assertEquals( 0, em.getConnectedEntities( owner.getUuid(), "likes", null, Level.IDS ).size() );
+
+        // the importers then create the connections one at a time
+        for ( ConnectionRef connection : connections ) {
+            try {
+                em.createConnection( connection );
+            }
+            catch ( EntityNotFoundException e ) {
+                // expected for the missing widget
+            }
+        }
+
+        Results results = em.getConnectedEntities( owner.getUuid(), "likes", null, Level.IDS );
+        assertEquals( 2, results.size() );
+    }
+
+
+    private Entity widget( int i ) {
+        Map<String, Object> properties = new LinkedHashMap<String, Object>();
+        properties.put( "name", "widget" + i );
+        return new DynamicEntity( "widget", UUIDUtils.newTimeUUID(), properties );
+    }
+}
@@ -0,0 +1,273 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.usergrid.persistence;
+
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.nio.ByteBuffer;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.UUID;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.apache.usergrid.AbstractCoreIT;
+import org.apache.usergrid.CoreApplication;
+import org.apache.usergrid.CoreITSuite;
+import org.apache.usergrid.cassandra.Concurrent;
+import org.apache.usergrid.persistence.cassandra.EntityManagerImpl;
+import org.apache.usergrid.persistence.cassandra.util.TraceTag;
+import org.apache.usergrid.persistence.cassandra.util.TraceTagManager;
+import org.apache.usergrid.utils.UUIDUtils;
+
+import me.prettyprint.hector.api.mutation.Mutator;
+
+import static me.prettyprint.hector.api.factory.HFactory.createMutator;
+import static org.apache.usergrid.persistence.cassandra.Serializers.be;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+
+/**
+ * Counts the rows read and the mutations written by updates of a connected 30 property entity, checking that the
+ * reads don't depend on how many properties change, that unchanged properties write nothing and that the indexes still
+ * follow the changed values.
+ */
+@Concurrent()
+public class PropertyUpdateIT extends AbstractCoreIT {
+    private static final Logger LOG = LoggerFactory.getLogger( PropertyUpdateIT.class );
+
+    private static final int PROPERTY_COUNT = 30;
+
+    @Rule
+    public CoreApplication app = new CoreApplication( setup );
+
+
+    @Test
+    public void unchangedPropertiesSkipped() throws Exception {
+        EntityManager em = app.getEm();
+
+        Entity owner = em.create( "owner", new LinkedHashMap<String, Object>() );
+        Entity widget = createWidget( em, owner );
+
+        TraceTagManager traceTagManager =
+                CoreITSuite.cassandraResource.getBean( "traceTagManager", TraceTagManager.class );
+
+        // a PUT of the whole entity where one field changed
+        Map<String, Object> properties = properties( "value" );
+        properties.put( "p7", "changed" );
+        TraceTag oneChanged = update( traceTagManager, "one changed", widget, properties );
+
+        assertEquals( 1, search( em, "p7 = 'changed'" ) );
+        assertEquals( 0, search( em, "p7 = 'value7'" ) );
+        assertEquals( 1, search( em, "p3 = 'value3'" ) );
+        assertEquals( 1, searchConnected( em, owner, "p7 = 'changed'" ) );
+
+        TraceTag allChanged = update( traceTagManager, "all changed", widget, properties( "other" ) );
+
+        assertEquals( 1, search( em, "p3 = 'other3'" ) );
+        assertEquals( 0, search( em, "p3 = 'value3'" ) );
+        assertEquals( 1, searchConnected( em, owner, "p29 = 'other29'" ) );
+
+        LOG.info( "{} rows {} columns read with one of {} properties changed, {} rows {} columns with all changed",
+                new Object[] {
+                        oneChanged.getRows(), oneChanged.getColumns(), PROPERTY_COUNT, allChanged.getRows(),
+                        allChanged.getColumns()
+                } );
+
+        // the entity, its index entries, containers and incoming connections are each read once per update
+        assertEquals( oneChanged.getRows(), allChanged.getRows() );
+    }
+
+
+    @Test
+    public void fewerWritesThanBatchUpdate() throws Exception {
+        EntityManagerImpl em = ( EntityManagerImpl ) app.getEm();
+
+        Entity owner = em.create( "owner", new LinkedHashMap<String, Object>() );
+        Entity widget = createWidget( em, owner );
+
+        TraceTagManager traceTagManager =
+                CoreITSuite.cassandraResource.getBean( "traceTagManager", TraceTagManager.class );
+
+        // the same PUT of the whole entity with one field changed, through batchUpdateProperties and updateProperties
+        Map<String, Object> properties = properties( "value" );
+        properties.put( "p7", "changed" );
+        CountedUpdate batchUpdate = countUpdate( traceTagManager, "batch update", em, widget, properties, false );
+
+        properties = properties( "value" );
+        properties.put( "p7", "changed again" );
+        CountedUpdate changedUpdate = countUpdate( traceTagManager, "changed update", em, widget, properties, true );
+
+        LOG.info( "One of {} properties changed: {} mutations {} columns read by batchUpdateProperties, {} mutations "
+                + "{} columns read by updateProperties", new Object[] {
+                PROPERTY_COUNT, batchUpdate.getMutationCount(), batchUpdate.reads.getColumns(),
+                changedUpdate.getMutationCount(), changedUpdate.reads.getColumns()
+        } );
+
+        assertTrue( changedUpdate.getMutationCount() < batchUpdate.getMutationCount() );
+        assertTrue( changedUpdate.reads.getColumns() < batchUpdate.reads.getColumns() );
+        assertEquals( 1, searchConnected( em, owner, "p7 = 'changed again'" ) );
+
+        // a PUT changing nothing writes the same as an empty one, the modified timestamp and its index entries alone
+        CountedUpdate unchanged =
+                countUpdate( traceTagManager, "unchanged", em, widget, new LinkedHashMap<String, Object>( properties ),
+                        true );
+        CountedUpdate empty =
+                countUpdate( traceTagManager, "empty", em, widget, new LinkedHashMap<String, Object>(), true );
+
+        LOG.info( "Mutations by column family with nothing changed: {}, with an empty update: {}", unchanged.mutations,
+                empty.mutations );
+
+        assertEquals( empty.mutations, unchanged.mutations );
+    }
+
+
+    private Entity createWidget( EntityManager em, Entity owner ) throws Exception {
+        for ( int i = 0; i < PROPERTY_COUNT; i++ ) {
+            app.put( "p" + i, "value" + i );
+        }
+        Entity widget = app.create( "widget" );
+
+        em.createConnection( owner, "likes", widget );
+
+        return widget;
+    }
+
+
+    /**
+     * Write an update of the entity in its own batch, through batchUpdateChangedProperties or through the
+     * batchUpdateProperties path updates used before it
+     */
+    private CountedUpdate countUpdate( TraceTagManager traceTagManager, String name, EntityManagerImpl em,
+                                       EntityRef entity, Map<String, Object> properties, boolean changedOnly )
+            throws Exception {
+
+        CountedUpdate update = new CountedUpdate( traceTagManager.create( name ),
+                createMutator( setup.getCassSvc().getApplicationKeyspace( app.getId() ), be ) );
+
+        traceTagManager.attach( update.reads );
+        try {
+            UUID timestampUuid = UUIDUtils.newTimeUUID();
+            Mutator<ByteBuffer> m = update.proxy();
+            if ( changedOnly ) {
+                em.batchUpdateChangedProperties( m, em.get( entity.getUuid() ), properties, timestampUuid );
+            }
+            else {
+                em.batchUpdateProperties( m, em.get( entity.getUuid() ), properties, timestampUuid );
+            }
+            m.execute();
+        }
+        finally {
+            traceTagManager.detach();
+        }
+
+        return update;
+    }
+
+
+    private Map<String, Object> properties( String prefix ) {
+        Map<String, Object> properties = new LinkedHashMap<String, Object>();
+        for ( int i = 0; i < PROPERTY_COUNT; i++ ) {
+            properties.put( "p" + i, prefix + i );
+        }
+        return properties;
+    }
+
+
+    private TraceTag update( TraceTagManager traceTagManager, String name, EntityRef entity,
+                             Map<String, Object> properties ) throws Exception {
+        TraceTag traceTag = traceTagManager.create( name );
+        traceTagManager.attach( traceTag );
+        try {
+            app.getEm().updateProperties( entity, properties );
+        }
+        finally {
+            traceTagManager.detach();
+        }
+        return traceTag;
+    }
+
+
+    private int search( EntityManager em, String ql ) throws Exception {
+        return em.searchCollection( em.getApplicationRef(), "widgets", Query.fromQL( ql ) ).size();
+    }
+
+
+    private int searchConnected( EntityManager em, EntityRef owner, String ql ) throws Exception {
+        Query query = Query.fromQL( ql );
+        query.setConnectionType( "likes" );
+        return em.searchConnectedEntities( owner, query ).size();
+    }
+
+
+    /** Counts the mutations added to a batch by column family, with the rows and columns read while building it */
+    private static class CountedUpdate implements InvocationHandler {
+
+        private final TraceTag reads;
+
+        private final Mutator<ByteBuffer> target;
+
+        private final Map<String, Integer> mutations = new TreeMap<String, Integer>();
+
+
+        CountedUpdate( TraceTag reads, Mutator<ByteBuffer> target ) {
+            this.reads = reads;
+            this.target = target;
+        }
+
+
+        @SuppressWarnings( "unchecked" )
+        Mutator<ByteBuffer> proxy() {
+            return ( Mutator<ByteBuffer> ) Proxy
+                    .newProxyInstance( Mutator.class.getClassLoader(), new Class<?>[] { Mutator.class }, this );
+        }
+
+
+        int getMutationCount() {
+            int total = 0;
+            for ( int count : mutations.values() ) {
+                total += count;
+            }
+            return total;
+        }
+
+
+        @Override
+        public Object invoke( Object proxy, Method method, Object[] args ) throws Throwable {
+            if ( method.getName().startsWith( "add" ) && args.length > 1 && args[1] instanceof String ) {
+                String columnFamily = ( String ) args[1];
+                Integer count = mutations.get( columnFamily );
+                mutations.put( columnFamily, ( count != null ? count : 0 ) + 1 );
+            }
+
+            try {
+                Object result = method.invoke( target, args );
+                return result == target ? proxy : result;
+            }
+            catch ( InvocationTargetException e ) {
+                throw e.getCause();
+            }
+        }
+    }
+}
@@ -0,0 +1,252 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.usergrid.persistence;
+
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.apache.usergrid.AbstractCoreIT;
+import org.apache.usergrid.CoreApplication;
+import org.apache.usergrid.cassandra.Concurrent;
+import org.apache.usergrid.persistence.cassandra.CassandraService;
+import org.apache.usergrid.persistence.cassandra.EntityManagerImpl;
+import org.apache.usergrid.persistence.exceptions.DuplicateUniquePropertyExistsException;
+import org.apache.usergrid.utils.UUIDUtils;
+
+import me.prettyprint.hector.api.mutation.Mutator;
+
+import static me.prettyprint.hector.api.factory.HFactory.createMutator;
+import static org.apache.usergrid.persistence.cassandra.ApplicationCF.ENTITY_UNIQUE;
+import static org.apache.usergrid.persistence.cassandra.CassandraPersistenceUtils.addInsertToMutator;
+import static org.apache.usergrid.persistence.cassandra.CassandraPersistenceUtils.key;
+import static org.apache.usergrid.persistence.cassandra.Serializers.be;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.fail;
+
+
+/**
+ * Signs up users concurrently with colliding usernames, checking that every username ends up with a single owner when
+ * unique values are claimed optimistically, and logging the throughput of claims against the lock.
+ */
+@Concurrent()
+public class UniqueClaimIT extends AbstractCoreIT {
+    private static final Logger LOG = LoggerFactory.getLogger( UniqueClaimIT.class );
+
+    private static final int THREADS = 8;
+
+    private static final int NAMES = 50;
+
+    /** Signups attempted for each username */
+    private static final int ATTEMPTS = 4;
+
+    @Rule
+    public CoreApplication app = new CoreApplication( setup );
+
+
+    @Test
+    public void concurrentSignups() throws Exception {
+        EntityManagerImpl em = ( EntityManagerImpl ) app.getEm();
+
+        try {
+            em.setUniqueClaims( true );
+            Map<String, List<UUID>> claimed = signup( em, "claimed" );
+
+            for ( Map.Entry<String, List<UUID>> owners : claimed.entrySet() ) {
+                assertEquals( owners.getKey(), 1, owners.getValue().size() );
+
+                EntityRef alias = em.getAlias( "user", owners.getKey() );
+                assertNotNull( owners.getKey(), alias );
+                assertEquals( owners.getValue().get( 0 ), alias.getUuid() );
+            }
+
+            // the persisted value is unchanged, so the update shouldn't conflict with anything
+            String username = claimed.keySet().iterator().next();
+            UUID owner = claimed.get( username ).get( 0 );
+            em.setProperty( new SimpleEntityRef( "user", owner ), "username", username );
+            assertEquals( owner, em.getAlias( "user", username ).getUuid() );
+
+            em.setUniqueClaims( false );
+            Map<String, List<UUID>> locked = signup( em, "locked" );
+
+            int duplicates = 0;
+            for ( List<UUID> owners : locked.values() ) {
+                duplicates += owners.size() - 1;
+            }
+
+            // the locked write is only queued while the lock is held, so it can still let duplicates through
+            LOG.info( "{} duplicate owners with the lock", duplicates );
+        }
+        finally {
+            em.setUniqueClaims( true );
+        }
+    }
+
+
+    @Test
+    public void earliestClaimWins() throws Exception {
+        EntityManager em = app.getEm();
+
+        // a live claim racing the create, made after it
+        writeClaim( UUIDUtils.newTimeUUID(), "laterclaim",
+                UUIDUtils.newTimeUUID( System.currentTimeMillis() + 10000 ) );
+
+        Map<String, Object> properties = new HashMap<String, Object>();
+        properties.put( "username", "laterclaim" );
+        Entity owner = em.create( "user", properties );
+
+        assertEquals( owner.getUuid(), em.getAlias( "user", "laterclaim" ).getUuid() );
+
+        // and one made before it
+        writeClaim( UUIDUtils.newTimeUUID(), "earlierclaim",
+                UUIDUtils.newTimeUUID( System.currentTimeMillis() - 1000 ) );
+
+        properties.put( "username", "earlierclaim" );
+        try {
+            em.create( "user", properties );
+            fail( "The later claim must yield to the live earlier one" );
+        }
+        catch ( DuplicateUniquePropertyExistsException e ) {
+            // expected
+        }
+    }
+
+
+    @Test
+    public void staleClaimIsSkipped() throws Exception {
+        EntityManager em = app.getEm();
+
+        // a claim past its grace period whose entity was never written
+        writeClaim( UUIDUtils.newTimeUUID(), "staleclaim",
+                UUIDUtils.newTimeUUID( System.currentTimeMillis() - ( 5 * 60 * 1000 ) ) );
+
+        assertNull( em.getAlias( "user", "staleclaim" ) );
+
+        Map<String, Object> properties = new HashMap<String, Object>();
+        properties.put( "username", "staleclaim" );
+        Entity owner = em.create( "user", properties );
+
+        assertEquals( owner.getUuid(), em.getAlias( "user", "staleclaim" ).getUuid() );
+    }
+
+
+    @Test
+    public void failedCreateReleasesClaims() throws Exception {
+        EntityManager em = app.getEm();
+
+        Map<String, Object> properties = new HashMap<String, Object>();
+        properties.put( "username", "releasedfirst" );
+        properties.put( "email", "released@usergrid.com" );
+        em.create( "user", properties );
+
+        // the email is taken, so the claim on the new username is released with the failed create
+        properties.put( "username", "releasedsecond" );
+        try {
+            em.create( "user", properties );
+            fail( "The email is already taken" );
+        }
+        catch ( DuplicateUniquePropertyExistsException e ) {
+            // expected
+        }
+
+        assertNull( em.getAlias( "user", "releasedsecond" ) );
+
+        properties.put( "email", "releasedsecond@usergrid.com" );
+        Entity owner = em.create( "user", properties );
+        assertEquals( owner.getUuid(), em.getAlias( "user", "releasedsecond" ).getUuid() );
+    }
+
+
+    /** Write a claim on a username straight to the unique index */
+    private void writeClaim( UUID entityId, String username, UUID claimedAt ) throws Exception {
+        CassandraService cass = setup.getCassSvc();
+        UUID applicationId = app.getId();
+
+        Mutator<ByteBuffer> m = createMutator( cass.getApplicationKeyspace( applicationId ), be );
+        addInsertToMutator( m, ENTITY_UNIQUE, key( applicationId, "users", "username", username ), entityId,
+                claimedAt, cass.createTimestamp() );
+        m.execute();
+    }
+
+
+    /** @return the entities created for each username */
+    private Map<String, List<UUID>> signup( final EntityManager em, String prefix ) throws Exception {
+        final ConcurrentMap<String, List<UUID>> owners = new ConcurrentHashMap<String, List<UUID>>();
+
+        List<Callable<Void>> signups = new ArrayList<Callable<Void>>();
+        for ( int attempt = 0; attempt < ATTEMPTS; attempt++ ) {
+            for ( int i = 0; i < NAMES; i++ ) {
+                final String username = prefix + i;
+                owners.putIfAbsent( username, new CopyOnWriteArrayList<UUID>() );
+
+                signups.add( new Callable<Void>() {
+                    @Override
+                    public Void call() throws Exception {
+                        Map<String, Object> properties = new HashMap<String, Object>();
+                        properties.put( "username", username );
+                        try {
+                            owners.get( username ).add( em.create( "user", properties ).getUuid() );
+                        }
+                        catch ( DuplicateUniquePropertyExistsException e ) {
+                            // lost the race
+                        }
+                        return null;
+                    }
+                } );
+            }
+        }
+        Collections.shuffle( signups );
+
+        ExecutorService executor = Executors.newFixedThreadPool( THREADS );
+        long start = System.nanoTime();
+        try {
+            for ( Future<Void> future : executor.invokeAll( signups ) ) {
+                future.get();
+            }
+        }
+        finally {
+            executor.shutdown();
+        }
+        long elapsed = System.nanoTime() - start;
+
+        LOG.info( "{}: {} signups in {} ms, {} per second", new Object[] {
+                prefix, signups.size(), TimeUnit.NANOSECONDS.toMillis( elapsed ),
+                signups.size() * 1000000000L / Math.max( elapsed, 1 )
+        } );
+
+        return owners;
+    }
+}
@@ -0,0 +1,176 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.usergrid.persistence.cassandra;
+
+
+import java.util.Properties;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Test;
+import org.apache.usergrid.persistence.cassandra.CassandraOperationPolicy.OperationClass;
+
+import me.prettyprint.cassandra.model.ExecutionResult;
+import me.prettyprint.cassandra.model.QueryResultImpl;
+import me.prettyprint.hector.api.exceptions.HTimedOutException;
+import me.prettyprint.hector.api.exceptions.HUnavailableException;
+import me.prettyprint.hector.api.exceptions.HectorException;
+import me.prettyprint.hector.api.query.Query;
+import me.prettyprint.hector.api.query.QueryResult;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+
+public class CassandraOperationPolicyTest {
+
+    private CassandraOperationPolicy policy;
+
+
+    @After
+    public void tearDown() {
+        if ( policy != null ) {
+            policy.shutdown();
+        }
+    }
+
+
+    @Test
+    public void readsInlineWithoutTimeouts() throws Exception {
+        policy = new CassandraOperationPolicy();
+
+        SlowQuery query = new SlowQuery( 0, 0 );
+        assertEquals( "1", policy.read( OperationClass.READ, query ).get() );
+        assertEquals( 1, query.executions.get() );
+    }
+
+
+    @Test
+    public void readTimesOut() throws Exception {
+        Properties properties = new Properties();
+        properties.setProperty( "cassandra.read.timeout", "50" );
+        policy = new CassandraOperationPolicy( properties );
+
+        try {
+            policy.read( OperationClass.READ, new SlowQuery( 2000, 2000 ) );
+            fail( "Read should have timed out" );
+        }
+        catch ( HTimedOutException e ) {
+            // expected
+        }
+
+        // the multiget class has no timeout of its own
+        assertEquals( "1", policy.read( OperationClass.MULTIGET, new SlowQuery( 100, 100 ) ).get() );
+    }
+
+
+    @Test
+    public void hedgedReadWins() throws Exception {
+        Properties properties = new Properties();
+        properties.setProperty( "cassandra.read.timeout", "1000" );
+        properties.setProperty( "cassandra.read.hedge", "true" );
+        properties.setProperty( "cassandra.read.hedge.delay.min", "20" );
+        policy = new CassandraOperationPolicy( properties );
+
+        // the first attempt stalls, the hedged second attempt returns straight away
+        SlowQuery query = new SlowQuery( 5000, 0 );
+        long start = System.currentTimeMillis();
+
+        assertEquals( "2", policy.read( OperationClass.READ, query ).get() );
+        assertEquals( 2, query.executions.get() );
+        assertTrue( System.currentTimeMillis() - start < 1000 );
+    }
+
+
+    @Test
+    public void hedgeSkippedWhenThreadsBusy() throws Exception {
+        Properties properties = new Properties();
+        properties.setProperty( "cassandra.read.timeout", "2000" );
+        properties.setProperty( "cassandra.read.hedge", "true" );
+        properties.setProperty( "cassandra.read.hedge.delay.min", "20" );
+        properties.setProperty( "cassandra.read.threads", "1" );
+        policy = new CassandraOperationPolicy( properties );
+
+        // the only read thread is busy with the first attempt, so the hedge is rejected rather than run inline
+        SlowQuery query = new SlowQuery( 200, 0 );
+
+        assertEquals( "1", policy.read( OperationClass.READ, query ).get() );
+        assertEquals( 1, query.executions.get() );
+    }
+
+
+    @Test
+    public void retryableExceptions() {
+        policy = new CassandraOperationPolicy();
+
+        assertTrue( policy.isRetryable( new HTimedOutException( "timeout" ) ) );
+        assertTrue( policy.isRetryable( new HUnavailableException( "unavailable" ) ) );
+        assertFalse( policy.isRetryable( new HectorException( "bad request" ) ) );
+    }
+
+
+    @Test
+    public void backoffIsCapped() {
+        Properties properties = new Properties();
+        properties.setProperty( "cassandra.write.retry.backoff", "5" );
+        properties.setProperty( "cassandra.write.retry.backoff.max", "20" );
+        policy = new CassandraOperationPolicy( properties );
+
+        long start = System.currentTimeMillis();
+        for ( int attempt = 1; attempt <= 10; attempt++ ) {
+            policy.backoff( attempt );
+        }
+        assertTrue( System.currentTimeMillis() - start < 10 * 20 + 100 );
+    }
+
+
+    /** Query returning the number of its execution, the first execution and later ones take the given times */
+    private static class SlowQuery implements Query<String> {
+
+        final AtomicInteger executions = new AtomicInteger();
+        final long firstDelay;
+        final long laterDelay;
+
+
+        SlowQuery( long firstDelay, long laterDelay ) {
+            this.firstDelay = firstDelay;
+            this.laterDelay = laterDelay;
+        }
+
+
+        @Override
+        public <Q extends Query<String>> Q setColumnFamily( String cf ) {
+            throw new UnsupportedOperationException();
+        }
+
+
+        @Override
+        public QueryResult<String> execute() {
+            int execution = executions.incrementAndGet();
+            try {
+                Thread.sleep( execution == 1 ? firstDelay : laterDelay );
+            }
+            catch ( InterruptedException e ) {
+                throw new HectorException( e );
+            }
+            return new QueryResultImpl<String>( new ExecutionResult<String>( String.valueOf( execution ), 0, null ),
+                    this );
+        }
+    }
+}
@@ -18,6 +18,7 @@ package org.apache.usergrid.persistence.cassandra;
 
 
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
@@ -40,10 +41,14 @@ import org.apache.usergrid.persistence.Results;
 import org.apache.usergrid.persistence.cassandra.util.TraceTag;
 import org.apache.usergrid.persistence.cassandra.util.TraceTagManager;
 import org.apache.usergrid.persistence.cassandra.util.TraceTagReporter;
+import org.apache.usergrid.persistence.entities.Application;
+import org.apache.usergrid.utils.UUIDUtils;
 
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertTrue;
 
 
@@ -93,6 +98,39 @@ public class EntityManagerFactoryImplIT extends AbstractCoreIT {
     }
 
 
+    @Test
+    public void applicationLookupCache() throws Exception {
+        String name = "testOrganization/lookupCache" + UUIDUtils.newTimeUUID();
+
+        // the miss is cached, but creating the application replaces it
+        assertNull( emf.lookupApplication( name ) );
+        UUID applicationId = emf.createApplication( "testOrganization", name );
+        assertEquals( applicationId, emf.lookupApplication( name ) );
+        assertEquals( applicationId, emf.lookupApplication( name.toUpperCase() ) );
+
+        EntityManagerFactoryImpl factory = ( EntityManagerFactoryImpl ) emf;
+        Application application = factory.getApplication( name );
+        assertNotNull( application );
+        assertEquals( applicationId, application.getUuid() );
+
+        // each caller gets its own copy, so changing one doesn't change the cached entity
+        application.setProperty( "cacheTest", "changed" );
+        Application cached = factory.getApplication( name );
+        assertNotSame( application, cached );
+        assertNull( cached.getProperty( "cacheTest" ) );
+
+        // updating the application entity drops the cached copy
+        emf.getEntityManager( applicationId )
+           .updateApplication( Collections.<String, Object>singletonMap( "cacheTest", "updated" ) );
+        assertEquals( "updated", factory.getApplication( name ).getProperty( "cacheTest" ) );
+
+        emf.invalidateApplication( applicationId );
+
+        Application reread = factory.getApplication( name );
+        assertEquals( applicationId, reread.getUuid() );
+    }
+
+
     @Test
     @Ignore("Fix this EntityManagerFactoryImplIT.testCreateAndGet:105->createApplication:90 » ApplicationAlreadyExists")
     public void testCreateAndGet() throws Exception {
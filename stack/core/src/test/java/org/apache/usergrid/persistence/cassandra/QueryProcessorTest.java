@@ -268,6 +268,112 @@ public class QueryProcessorTest {
     }
 
 
+    @Test
+    public void containsTerms() throws Exception {
+        String queryString = "select * where a contains 'The red Shoes'";
+
+        ANTLRStringStream in = new ANTLRStringStream( queryString );
+        QueryFilterLexer lexer = new QueryFilterLexer( in );
+        TokenRewriteStream tokens = new TokenRewriteStream( lexer );
+        QueryFilterParser parser = new QueryFilterParser( tokens );
+
+        Query query = parser.ql().query;
+
+        QueryProcessor processor = new QueryProcessor( query, null, null, null );
+
+        SliceNode node = ( SliceNode ) processor.getFirstNode();
+
+        // the stop word is dropped and each remaining term gets its own slice
+        assertEquals( 2, node.getCount() );
+
+        Iterator<QuerySlice> slices = node.getAllSlices().iterator();
+
+        QuerySlice slice = slices.next();
+
+        assertEquals( "a.keywords", slice.getPropertyName() );
+        assertEquals( "red", slice.getStart().getValue() );
+        assertEquals( "red", slice.getFinish().getValue() );
+
+        slice = slices.next();
+
+        assertEquals( "a.keywords", slice.getPropertyName() );
+        assertEquals( "shoes", slice.getStart().getValue() );
+        assertEquals( "shoes", slice.getFinish().getValue() );
+    }
+
+
+    @Test
+    public void containsTermsRange() throws Exception {
+        String queryString = "select * where a contains 'red sho*'";
+
+        ANTLRStringStream in = new ANTLRStringStream( queryString );
+        QueryFilterLexer lexer = new QueryFilterLexer( in );
+        TokenRewriteStream tokens = new TokenRewriteStream( lexer );
+        QueryFilterParser parser = new QueryFilterParser( tokens );
+
+        Query query = parser.ql().query;
+
+        QueryProcessor processor = new QueryProcessor( query, null, null, null );
+
+        SliceNode node = ( SliceNode ) processor.getFirstNode();
+
+        assertEquals( 2, node.getCount() );
+
+        Iterator<QuerySlice> slices = node.getAllSlices().iterator();
+
+        QuerySlice slice = slices.next();
+
+        assertEquals( "red", slice.getStart().getValue() );
+        assertEquals( "red", slice.getFinish().getValue() );
+
+        slice = slices.next();
+
+        assertEquals( "a.keywords", slice.getPropertyName() );
+        assertEquals( "sho", slice.getStart().getValue() );
+        assertTrue( slice.getStart().isInclusive() );
+        assertEquals( "sho\uffff", slice.getFinish().getValue() );
+        assertTrue( slice.getFinish().isInclusive() );
+    }
+
+
+    @Test
+    public void containsAnalyzedRange() throws Exception {
+        // the analyzer splits at the hyphen and comma, so the prefix is only the last word
+        assertTermAndPrefix( "select * where a contains 'e-mail*'", "e", "mail" );
+        assertTermAndPrefix( "select * where a contains 'red,sho*'", "red", "sho" );
+    }
+
+
+    private void assertTermAndPrefix( String queryString, String term, String prefix ) throws Exception {
+        ANTLRStringStream in = new ANTLRStringStream( queryString );
+        QueryFilterLexer lexer = new QueryFilterLexer( in );
+        TokenRewriteStream tokens = new TokenRewriteStream( lexer );
+        QueryFilterParser parser = new QueryFilterParser( tokens );
+
+        Query query = parser.ql().query;
+
+        QueryProcessor processor = new QueryProcessor( query, null, null, null );
+
+        SliceNode node = ( SliceNode ) processor.getFirstNode();
+
+        assertEquals( 2, node.getCount() );
+
+        Iterator<QuerySlice> slices = node.getAllSlices().iterator();
+
+        QuerySlice slice = slices.next();
+
+        assertEquals( "a.keywords", slice.getPropertyName() );
+        assertEquals( term, slice.getStart().getValue() );
+        assertEquals( term, slice.getFinish().getValue() );
+
+        slice = slices.next();
+
+        assertEquals( "a.keywords", slice.getPropertyName() );
+        assertEquals( prefix, slice.getStart().getValue() );
+        assertEquals( prefix + "\uffff", slice.getFinish().getValue() );
+    }
+
+
     @Test
     public void within() throws Exception {
         String queryString = "select * where a within .5 of 157.00, 0.00";
@@ -51,4 +51,27 @@ public class TraceTagUnitTest {
         assertEquals( timedOpTag, traceTag.iterator().next() );
         traceTagManager.detach();
     }
+
+
+    @Test
+    public void meteredTraceKeepsTotals() throws Exception {
+        TraceTag traceTag = traceTagManager.createMetered( "testtag2" );
+        traceTagManager.attach( traceTag );
+        for ( int i = 0; i < 150; i++ ) {
+            TimedOpTag timedOpTag = ( TimedOpTag ) taggedOpTimer.start( "op-tag-name" );
+            taggedOpTimer.stop( timedOpTag, i % 3 == 0 ? "batch_mutate" : "get_slice", true );
+        }
+        traceTag.addRead( 1, 10, 200 );
+        traceTag.addRead( 2, 5, 100 );
+        traceTagManager.detach();
+
+        // past the flush count, but metered traces don't hold on to ops so nothing is flushed
+        assertEquals( 0, traceTag.getOpCount() );
+        assertEquals( 150, traceTag.getTotalOps() );
+        assertEquals( Integer.valueOf( 50 ), traceTag.getOpCounts().get( "batch_mutate" ) );
+        assertEquals( Integer.valueOf( 100 ), traceTag.getOpCounts().get( "get_slice" ) );
+        assertEquals( 3, traceTag.getRows() );
+        assertEquals( 15, traceTag.getColumns() );
+        assertEquals( 300, traceTag.getBytes() );
+    }
 }
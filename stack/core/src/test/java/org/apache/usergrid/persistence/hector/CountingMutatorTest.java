@@ -0,0 +1,162 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.usergrid.persistence.hector;
+
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Test;
+
+import me.prettyprint.cassandra.serializers.StringSerializer;
+import me.prettyprint.hector.api.beans.HColumn;
+import me.prettyprint.hector.api.exceptions.HTimedOutException;
+import me.prettyprint.hector.api.factory.HFactory;
+import me.prettyprint.hector.api.mutation.Mutator;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+
+public class CountingMutatorTest {
+
+    @Test
+    public void replaysPendingMutationsOnce() {
+        FailingMutator target = new FailingMutator( 1 );
+        CountingMutator<String> mutator = new CountingMutator<String>( target.proxy(), 100 );
+
+        mutator.addInsertion( "row1", "cf", column( "a" ) );
+        mutator.addInsertion( "row1", "cf", column( "b" ) );
+        mutator.addInsertion( "row2", "cf", column( "c" ) );
+
+        mutator.execute( 2 );
+
+        assertEquals( 2, target.executions );
+        assertEquals( Arrays.asList( "row1/cf/a", "row1/cf/b", "row2/cf/c" ), target.executed );
+
+        // the replay log starts over after a successful execute
+        mutator.addInsertion( "row3", "cf", column( "d" ) );
+        mutator.execute( 2 );
+
+        assertEquals( 3, target.executions );
+        assertEquals( Arrays.asList( "row1/cf/a", "row1/cf/b", "row2/cf/c", "row3/cf/d" ), target.executed );
+    }
+
+
+    @Test
+    public void givesUpAfterRetries() {
+        FailingMutator target = new FailingMutator( 3 );
+        CountingMutator<String> mutator = new CountingMutator<String>( target.proxy(), 100 );
+
+        mutator.addInsertion( "row1", "cf", column( "a" ) );
+
+        try {
+            mutator.execute( 2 );
+            fail( "Execute should have failed" );
+        }
+        catch ( HTimedOutException e ) {
+            // expected
+        }
+
+        assertEquals( 3, target.executions );
+        assertEquals( 0, target.executed.size() );
+    }
+
+
+    @Test
+    public void deletionsAreNotRetried() {
+        FailingMutator target = new FailingMutator( 1 );
+        CountingMutator<String> mutator = new CountingMutator<String>( target.proxy(), 100 );
+
+        mutator.addInsertion( "row1", "cf", column( "a" ) );
+        mutator.addDeletion( "row1", "cf", "b", StringSerializer.get() );
+
+        try {
+            mutator.execute( 2 );
+            fail( "Execute should have failed" );
+        }
+        catch ( HTimedOutException e ) {
+            // expected
+        }
+
+        assertEquals( 1, target.executions );
+    }
+
+
+    private static HColumn<String, String> column( String name ) {
+        return HFactory.createStringColumn( name, "value" );
+    }
+
+
+    /**
+     * Mutator that fails its first executions with a timeout, dropping the pending mutations like Hector does, and
+     * records the mutations of the executions that succeed.
+     */
+    private static class FailingMutator implements InvocationHandler {
+
+        final int failures;
+        final List<String> pending = new ArrayList<String>();
+        final List<String> executed = new ArrayList<String>();
+        int executions;
+
+
+        FailingMutator( int failures ) {
+            this.failures = failures;
+        }
+
+
+        @SuppressWarnings( "unchecked" )
+        Mutator<String> proxy() {
+            return ( Mutator<String> ) Proxy
+                    .newProxyInstance( Mutator.class.getClassLoader(), new Class<?>[] { Mutator.class }, this );
+        }
+
+
+        @Override
+        public Object invoke( Object proxy, Method method, Object[] args ) {
+            String name = method.getName();
+
+            if ( "addInsertion".equals( name ) ) {
+                pending.add( args[0] + "/" + args[1] + "/" + ( ( HColumn<?, ?> ) args[2] ).getName() );
+                return proxy;
+            }
+            if ( "addDeletion".equals( name ) ) {
+                pending.add( args[0] + "/" + args[1] + "/-" + args[2] );
+                return proxy;
+            }
+            if ( "getPendingMutationCount".equals( name ) ) {
+                return pending.size();
+            }
+            if ( "execute".equals( name ) ) {
+                executions++;
+                if ( executions <= failures ) {
+                    pending.clear();
+                    throw new HTimedOutException( "timeout" );
+                }
+                executed.addAll( pending );
+                pending.clear();
+                return null;
+            }
+
+            throw new UnsupportedOperationException( name );
+        }
+    }
+}
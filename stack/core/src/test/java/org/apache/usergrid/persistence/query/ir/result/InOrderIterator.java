@@ -120,6 +120,13 @@ public class InOrderIterator implements ResultIterator {
     }
 
 
+    /** UUIDs are returned in the order they were added, which may not be sorted */
+    @Override
+    public boolean isUUIDOrdered() {
+        return false;
+    }
+
+
     /* (non-Javadoc)
      * @see org.apache.usergrid.persistence.query.ir.result.ResultIterator#finalizeCursor(org.apache.usergrid.persistence.cassandra
      * .CursorCache)
@@ -0,0 +1,73 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.usergrid.persistence.query.ir.result;
+
+
+import java.util.Set;
+import java.util.UUID;
+
+import org.junit.Ignore;
+import org.apache.usergrid.persistence.cassandra.CursorCache;
+
+
+/**
+ * Iterator for testing that returns UUIDs added in ascending order as a uuid ordered iterator.  Counts the pages read
+ * and records the last cursor set.
+ */
+@Ignore("not a test")
+public class OrderedIterator extends InOrderIterator {
+
+    private int nextCount;
+
+    private UUID cursor;
+
+
+    public OrderedIterator( int pageSize ) {
+        super( pageSize );
+    }
+
+
+    @Override
+    public Set<ScanColumn> next() {
+        nextCount++;
+        return super.next();
+    }
+
+
+    @Override
+    public boolean isUUIDOrdered() {
+        return true;
+    }
+
+
+    @Override
+    public void finalizeCursor( CursorCache cache, UUID lastLoaded ) {
+        cursor = lastLoaded;
+    }
+
+
+    /** The number of pages read */
+    public int getNextCount() {
+        return nextCount;
+    }
+
+
+    /** The uuid we were last told to set our cursor to */
+    public UUID getCursor() {
+        return cursor;
+    }
+}
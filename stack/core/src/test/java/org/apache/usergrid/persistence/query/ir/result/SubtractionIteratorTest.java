@@ -17,10 +17,13 @@
 package org.apache.usergrid.persistence.query.ir.result;
 
 
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Set;
 import java.util.UUID;
 
 import org.junit.Test;
+import org.apache.usergrid.persistence.cassandra.CursorCache;
 import org.apache.usergrid.utils.UUIDUtils;
 
 import static org.junit.Assert.assertEquals;
@@ -178,4 +181,122 @@ public class SubtractionIteratorTest {
         assertTrue( page.contains( uuidColumn( id1 ) ) );
         assertEquals( 1, page.size() );
     }
+
+
+    @Test
+    public void smallSubtractReadOnce() {
+        int pageSize = 100;
+
+        OrderedIterator keep = new OrderedIterator( pageSize );
+        OrderedIterator subtract = new OrderedIterator( pageSize );
+
+        List<UUID> expected = new ArrayList<UUID>();
+
+        // subtract 1% of the keep side
+        for ( int i = 0; i < 20000; i++ ) {
+            UUID id = UUIDUtils.newTimeUUID();
+            keep.add( id );
+
+            if ( i % 100 == 0 ) {
+                subtract.add( id );
+            }
+            else {
+                expected.add( id );
+            }
+        }
+
+        SubtractionIterator sub = new SubtractionIterator( pageSize );
+        sub.setKeepIterator( keep );
+        sub.setSubtractIterator( subtract );
+
+        assertEquals( expected, drain( sub ) );
+
+        // read into memory once, rather than once per page of the keep side
+        assertEquals( 200 / pageSize, subtract.getNextCount() );
+    }
+
+
+    @Test
+    public void largeOrderedSubtractReadOnce() {
+        int pageSize = 100;
+
+        OrderedIterator keep = new OrderedIterator( pageSize );
+        OrderedIterator subtract = new OrderedIterator( pageSize );
+
+        List<UUID> expected = new ArrayList<UUID>();
+
+        // subtract 50% of the keep side, too many to hold in memory
+        for ( int i = 0; i < 40000; i++ ) {
+            UUID id = UUIDUtils.newTimeUUID();
+            keep.add( id );
+
+            if ( i % 2 == 0 ) {
+                subtract.add( id );
+            }
+            else {
+                expected.add( id );
+            }
+        }
+
+        SubtractionIterator sub = new SubtractionIterator( pageSize );
+        sub.setKeepIterator( keep );
+        sub.setSubtractIterator( subtract );
+
+        assertEquals( expected, drain( sub ) );
+
+        // the keep side is read once, the subtract side at most twice since we try to read it into memory first
+        int subtractPages = 20000 / pageSize;
+        assertEquals( 40000 / pageSize, keep.getNextCount() );
+        assertTrue( subtract.getNextCount() <= subtractPages * 2 );
+    }
+
+
+    @Test
+    public void orderedSubtractCursor() {
+        int pageSize = 100;
+
+        OrderedIterator keep = new OrderedIterator( pageSize );
+        // the subtract side's page holds every id it has passed over, so it can be positioned at any of them
+        OrderedIterator subtract = new OrderedIterator( pageSize * 10 );
+
+        List<UUID> subtracted = new ArrayList<UUID>();
+
+        for ( int i = 0; i < 40000; i++ ) {
+            UUID id = UUIDUtils.newTimeUUID();
+            keep.add( id );
+
+            if ( i % 2 == 0 ) {
+                subtract.add( id );
+                subtracted.add( id );
+            }
+        }
+
+        SubtractionIterator sub = new SubtractionIterator( pageSize );
+        sub.setKeepIterator( keep );
+        sub.setSubtractIterator( subtract );
+
+        List<ScanColumn> page = new ArrayList<ScanColumn>( sub.next() );
+
+        // we loaded up to the middle of the page
+        UUID lastLoaded = page.get( pageSize / 2 ).getUUID();
+        sub.finalizeCursor( new CursorCache(), lastLoaded );
+
+        assertEquals( lastLoaded, keep.getCursor() );
+
+        // the subtract side resumes after the id before the last one loaded
+        assertEquals( subtracted.get( pageSize / 2 ), subtract.getCursor() );
+    }
+
+
+    private List<UUID> drain( SubtractionIterator sub ) {
+        List<UUID> results = new ArrayList<UUID>();
+
+        while ( sub.hasNext() ) {
+            for ( ScanColumn col : sub.next() ) {
+                results.add( col.getUUID() );
+            }
+        }
+
+        return results;
+    }
 }
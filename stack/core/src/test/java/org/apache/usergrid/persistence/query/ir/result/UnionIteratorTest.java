@@ -18,11 +18,15 @@ package org.apache.usergrid.persistence.query.ir.result;
 
 
 import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Set;
 import java.util.UUID;
 
 import org.junit.Test;
+import org.apache.usergrid.persistence.cassandra.CursorCache;
 import org.apache.usergrid.utils.UUIDUtils;
 
 import me.prettyprint.cassandra.serializers.UUIDSerializer;
@@ -454,6 +458,143 @@ public class UnionIteratorTest {
     }
 
 
+    @Test
+    public void orderedIteratorsReadOnce() {
+
+        int size = 10000;
+        int pageSize = 10;
+
+        OrderedIterator first = new OrderedIterator( pageSize );
+        OrderedIterator second = new OrderedIterator( pageSize );
+        OrderedIterator third = new OrderedIterator( pageSize );
+
+        List<UUID> expected = new ArrayList<UUID>( size * 2 );
+
+        // every third id is in two of the children, so each child has 10k ids
+        for ( int i = 0; i < size * 3 / 2; i++ ) {
+            UUID id = UUIDUtils.newTimeUUID();
+            expected.add( id );
+
+            if ( i % 3 != 0 ) {
+                first.add( id );
+            }
+            if ( i % 3 != 1 ) {
+                second.add( id );
+            }
+            if ( i % 3 != 2 ) {
+                third.add( id );
+            }
+        }
+
+        UnionIterator union = new UnionIterator( pageSize, 0, null );
+        union.addIterator( first );
+        union.addIterator( second );
+        union.addIterator( third );
+
+        List<UUID> results = new ArrayList<UUID>( expected.size() );
+
+        while ( union.hasNext() ) {
+            Set<ScanColumn> page = union.next();
+
+            assertTrue( page.size() <= pageSize );
+
+            for ( ScanColumn col : page ) {
+                results.add( col.getUUID() );
+            }
+        }
+
+        assertEquals( expected, results );
+
+        // each page of each child is read once, rather than every child being read to the end for every page
+        assertEquals( size / pageSize, first.getNextCount() );
+        assertEquals( size / pageSize, second.getNextCount() );
+        assertEquals( size / pageSize, third.getNextCount() );
+    }
+
+
+    @Test
+    public void mixedOrderedIterators() {
+
+        UUID[] ids = new UUID[50];
+
+        for ( int i = 0; i < ids.length; i++ ) {
+            ids[i] = UUIDUtils.minTimeUUID( i + 1 );
+        }
+
+        OrderedIterator ordered = new OrderedIterator( 4 );
+        InOrderIterator unordered = new InOrderIterator( 4 );
+
+        for ( int i = 0; i < ids.length; i++ ) {
+            if ( i % 2 == 0 ) {
+                ordered.add( ids[i] );
+            }
+        }
+
+        for ( int i = ids.length - 1; i >= 0; i-- ) {
+            if ( i % 2 == 1 || i % 5 == 0 ) {
+                unordered.add( ids[i] );
+            }
+        }
+
+        UnionIterator union = new UnionIterator( 7, 0, null );
+        union.addIterator( ordered );
+        union.addIterator( unordered );
+
+        List<UUID> results = new ArrayList<UUID>();
+
+        while ( union.hasNext() ) {
+            for ( ScanColumn col : union.next() ) {
+                results.add( col.getUUID() );
+            }
+        }
+
+        assertEquals( Arrays.asList( ids ), results );
+        assertEquals( 25 / 4 + 1, ordered.getNextCount() );
+    }
+
+
+    @Test
+    public void orderedIteratorCursors() {
+
+        UUID[] ids = new UUID[20];
+
+        for ( int i = 0; i < ids.length; i++ ) {
+            ids[i] = UUIDUtils.minTimeUUID( i + 1 );
+        }
+
+        OrderedIterator first = new OrderedIterator( 3 );
+        OrderedIterator second = new OrderedIterator( 3 );
+
+        for ( int i = 0; i < ids.length; i++ ) {
+            if ( i % 2 == 0 ) {
+                first.add( ids[i] );
+            }
+            else {
+                second.add( ids[i] );
+            }
+        }
+
+        UnionIterator union = new UnionIterator( 5, 1, null );
+        union.addIterator( first );
+        union.addIterator( second );
+
+        union.next();
+        Set<ScanColumn> page = union.next();
+
+        assertTrue( page.contains( uuidColumn( ids[9] ) ) );
+
+        // we loaded up to the middle of the page
+        CursorCache cache = new CursorCache();
+        union.finalizeCursor( cache, ids[7] );
+
+        assertEquals( ids[7], UUIDSerializer.get().fromByteBuffer( cache.getCursorBytes( 1 ) ) );
+
+        // each child resumes after the last id it gave us, if it's still on that page
+        assertEquals( ids[6], first.getCursor() );
+        assertEquals( ids[7], second.getCursor() );
+    }
+
+
     private void reverse( UUID[] array ) {
 
         UUID temp = null;
@@ -17,7 +17,15 @@
 package org.apache.usergrid.mongo;
 
 
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
 import org.jboss.netty.channel.ChannelHandlerContext;
+import org.jboss.netty.channel.ChannelStateEvent;
 import org.jboss.netty.channel.ExceptionEvent;
 import org.jboss.netty.channel.MessageEvent;
 import org.jboss.netty.channel.SimpleChannelUpstreamHandler;
@@ -26,6 +34,7 @@ import org.slf4j.LoggerFactory;
 import org.apache.usergrid.management.ManagementService;
 import org.apache.usergrid.mongo.protocol.Message;
 import org.apache.usergrid.mongo.protocol.OpCrud;
+import org.apache.usergrid.mongo.protocol.OpKillCursors;
 import org.apache.usergrid.mongo.protocol.OpReply;
 import org.apache.usergrid.persistence.EntityManagerFactory;
 import org.apache.usergrid.services.ServiceManagerFactory;
@@ -45,11 +54,22 @@ public class MongoChannelHandler extends SimpleChannelUpstreamHandler {
     private final ManagementService management;
     private final SessionsSecurityManager securityManager;
 
+    /** Open server side cursors for this connection, keyed by the cursor id handed to the client */
+    private final Map<Long, QueryCursor> cursors = new ConcurrentHashMap<Long, QueryCursor>();
+    private final AtomicLong cursorIds = new AtomicLong( new Random().nextInt( Integer.MAX_VALUE ) );
+    private final long cursorTimeout;
+
     Subject subject = null;
 
 
     public MongoChannelHandler( EntityManagerFactory emf, ServiceManagerFactory smf, ManagementService management,
                                 SessionsSecurityManager securityManager ) {
+        this( emf, smf, management, securityManager, MongoServer.DEFAULT_CURSOR_TIMEOUT );
+    }
+
+
+    public MongoChannelHandler( EntityManagerFactory emf, ServiceManagerFactory smf, ManagementService management,
+                                SessionsSecurityManager securityManager, long cursorTimeout ) {
         super();
 
         logger.info( "Starting new client connection..." );
@@ -57,6 +77,7 @@ public class MongoChannelHandler extends SimpleChannelUpstreamHandler {
         this.smf = smf;
         this.management = management;
         this.securityManager = securityManager;
+        this.cursorTimeout = cursorTimeout;
 
         if ( securityManager != null ) {
             subject = new Subject.Builder( securityManager ).buildSubject();
@@ -84,6 +105,58 @@ public class MongoChannelHandler extends SimpleChannelUpstreamHandler {
     }
 
 
+    /** Register a cursor so it can be resumed by OP_GET_MORE. Returns the id to hand to the client. */
+    public long registerCursor( QueryCursor cursor ) {
+        long id = cursorIds.incrementAndGet();
+        cursor.setCursorId( id );
+        cursors.put( id, cursor );
+        return id;
+    }
+
+
+    /** Get an open cursor by id, or null if it was never opened, has been killed or has timed out */
+    public QueryCursor getCursor( long cursorId ) {
+        QueryCursor cursor = cursors.get( cursorId );
+        if ( cursor != null ) {
+            cursor.touch();
+        }
+        return cursor;
+    }
+
+
+    public void removeCursor( long cursorId ) {
+        cursors.remove( cursorId );
+    }
+
+
+    public void removeCursors( Collection<Long> cursorIds ) {
+        for ( Long cursorId : cursorIds ) {
+            cursors.remove( cursorId );
+        }
+    }
+
+
+    public int getOpenCursorCount() {
+        return cursors.size();
+    }
+
+
+    /** Drop cursors that haven't been read within the cursor timeout */
+    protected void expireCursors() {
+        if ( cursors.isEmpty() || cursorTimeout <= 0 ) {
+            return;
+        }
+        long expires = System.currentTimeMillis() - cursorTimeout;
+        for ( Iterator<QueryCursor> i = cursors.values().iterator(); i.hasNext(); ) {
+            QueryCursor cursor = i.next();
+            if ( cursor.getLastAccessed() < expires ) {
+                logger.debug( "Cursor {} timed out", cursor.getCursorId() );
+                i.remove();
+            }
+        }
+    }
+
+
     @Override
     public void messageReceived( ChannelHandlerContext ctx, MessageEvent e ) {
 
@@ -101,6 +174,8 @@ public class MongoChannelHandler extends SimpleChannelUpstreamHandler {
                 message = ( Message ) e.getMessage();
             }
 
+            expireCursors();
+
             if ( message != null ) {
                 logger.info( ">>> {}\n", message );
                 OpReply reply = handleMessage( ctx, e, message );
@@ -126,6 +201,13 @@ public class MongoChannelHandler extends SimpleChannelUpstreamHandler {
     }
 
 
+    @Override
+    public void channelClosed( ChannelHandlerContext ctx, ChannelStateEvent e ) throws Exception {
+        cursors.clear();
+        super.channelClosed( ctx, e );
+    }
+
+
     @Override
     public void exceptionCaught( ChannelHandlerContext ctx, ExceptionEvent e ) {
         logger.warn( "Unexpected exception from downstream.", e.getCause() );
@@ -139,6 +221,12 @@ public class MongoChannelHandler extends SimpleChannelUpstreamHandler {
             return ( ( OpCrud ) message ).doOp( this, ctx, e );
         }
 
+        // the protocol has no reply to OP_KILL_CURSORS
+        if ( message instanceof OpKillCursors ) {
+            removeCursors( ( ( OpKillCursors ) message ).getCursorIDs() );
+            return null;
+        }
+
         OpReply reply = new OpReply( message );
         return reply;
     }
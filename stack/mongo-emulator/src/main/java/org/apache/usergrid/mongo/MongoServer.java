@@ -51,6 +51,18 @@ public class MongoServer {
 
     private static final Logger logger = LoggerFactory.getLogger( MongoServer.class );
 
+    /** Milliseconds an idle server side cursor is kept before it's freed, same as mongod's default */
+    public static final long DEFAULT_CURSOR_TIMEOUT = 600000;
+
+    /** Threads processing requests, across all connections */
+    public static final int DEFAULT_THREADS = 16;
+
+    /** Bytes of undecoded requests queued for a single connection before reads from it are suspended */
+    public static final long DEFAULT_CHANNEL_MEMORY = 1048576;
+
+    /** Bytes of undecoded requests queued across all connections before reads are suspended */
+    public static final long DEFAULT_TOTAL_MEMORY = 1048576;
+
     EntityManagerFactory emf;
     ServiceManagerFactory smf;
     ManagementService management;
@@ -147,12 +159,24 @@ public class MongoServer {
 
         bootstrap.setOption( "child.bufferFactory", HeapChannelBufferFactory.getInstance( ByteOrder.LITTLE_ENDIAN ) );
 
-        // Set up the pipeline factory.
-        ExecutionHandler executionHandler =
-                new ExecutionHandler( new OrderedMemoryAwareThreadPoolExecutor( 16, 1048576, 1048576 ) );
+        // Set up the pipeline factory. Requests on a connection stay ordered so getlasterror and reads see the
+        // writes sent before them, connections are processed concurrently up to the thread count
+        int threads = getIntProperty( "usergrid.mongo.threads", DEFAULT_THREADS );
+        long channelMemory = getLongProperty( "usergrid.mongo.channel.memory", DEFAULT_CHANNEL_MEMORY );
+        long totalMemory = getLongProperty( "usergrid.mongo.total.memory", DEFAULT_TOTAL_MEMORY );
+
+        logger.info( "Mongo request executor using {} threads, {} bytes per connection, {} bytes total",
+                new Object[] { threads, channelMemory, totalMemory } );
+
+        ExecutionHandler executionHandler = new ExecutionHandler(
+                new OrderedMemoryAwareThreadPoolExecutor( threads, channelMemory, totalMemory ) );
+
+        long cursorTimeout = getLongProperty( "usergrid.mongo.cursor.timeout", DEFAULT_CURSOR_TIMEOUT );
+
         // TODO if config'ed for SSL, start the SslMSPF instead, change port as well?
         bootstrap.setPipelineFactory(
-                new MongoServerPipelineFactory( emf, smf, management, securityManager, executionHandler ) );
+                new MongoServerPipelineFactory( emf, smf, management, securityManager, executionHandler,
+                        cursorTimeout ) );
 
         // Bind and start to accept incoming connections.
         channel = bootstrap.bind( new InetSocketAddress( 27017 ) );
@@ -161,6 +185,22 @@ public class MongoServer {
     }
 
 
+    private int getIntProperty( String name, int defaultValue ) {
+        if ( properties == null ) {
+            return defaultValue;
+        }
+        return Integer.parseInt( properties.getProperty( name, String.valueOf( defaultValue ) ) );
+    }
+
+
+    private long getLongProperty( String name, long defaultValue ) {
+        if ( properties == null ) {
+            return defaultValue;
+        }
+        return Long.parseLong( properties.getProperty( name, String.valueOf( defaultValue ) ) );
+    }
+
+
     public void stopServer() {
         logger.info( "Stopping Usergrid Mongo Emulation Server" );
         if ( channel != null ) {
@@ -35,22 +35,31 @@ public class MongoServerPipelineFactory implements ChannelPipelineFactory {
     private final ServiceManagerFactory smf;
     private final ManagementService management;
     private final SessionsSecurityManager securityManager;
+    private final long cursorTimeout;
 
 
     public MongoServerPipelineFactory( EntityManagerFactory emf, ServiceManagerFactory smf,
                                        ManagementService management, SessionsSecurityManager securityManager,
                                        ExecutionHandler executionHandler ) {
+        this( emf, smf, management, securityManager, executionHandler, MongoServer.DEFAULT_CURSOR_TIMEOUT );
+    }
+
+
+    public MongoServerPipelineFactory( EntityManagerFactory emf, ServiceManagerFactory smf,
+                                       ManagementService management, SessionsSecurityManager securityManager,
+                                       ExecutionHandler executionHandler, long cursorTimeout ) {
         this.emf = emf;
         this.smf = smf;
         this.management = management;
         this.securityManager = securityManager;
         this.executionHandler = executionHandler;
+        this.cursorTimeout = cursorTimeout;
     }
 
 
     @Override
     public ChannelPipeline getPipeline() throws Exception {
         return Channels.pipeline( new MongoMessageEncoder(), new MongoMessageDecoder(), executionHandler,
-                new MongoChannelHandler( emf, smf, management, securityManager ) );
+                new MongoChannelHandler( emf, smf, management, securityManager, cursorTimeout ) );
     }
 }
@@ -0,0 +1,134 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.usergrid.mongo;
+
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+
+import org.apache.usergrid.persistence.Entity;
+import org.apache.usergrid.persistence.EntityManager;
+import org.apache.usergrid.persistence.Query;
+import org.apache.usergrid.persistence.Results;
+
+
+/**
+ * Server side state for a Mongo cursor. Wraps a Usergrid query and its paging cursor so further batches can be
+ * read on OP_GET_MORE. Only the Usergrid cursor string is held between batches, never the entities themselves.
+ */
+public class QueryCursor {
+
+    private final UUID applicationId;
+    private final String collectionName;
+    private final Query query;
+
+    private long cursorId;
+    private String cursor;
+    private boolean started;
+    private int position;
+    private volatile long lastAccessed = System.currentTimeMillis();
+
+
+    public QueryCursor( UUID applicationId, String collectionName, Query query ) {
+        this.applicationId = applicationId;
+        this.collectionName = collectionName;
+        this.query = query;
+    }
+
+
+    public long getCursorId() {
+        return cursorId;
+    }
+
+
+    public void setCursorId( long cursorId ) {
+        this.cursorId = cursorId;
+    }
+
+
+    public UUID getApplicationId() {
+        return applicationId;
+    }
+
+
+    public String getCollectionName() {
+        return collectionName;
+    }
+
+
+    /** @return The number of documents already returned or skipped */
+    public int getPosition() {
+        return position;
+    }
+
+
+    public long getLastAccessed() {
+        return lastAccessed;
+    }
+
+
+    public void touch() {
+        lastAccessed = System.currentTimeMillis();
+    }
+
+
+    /** @return True if the underlying query may still return results */
+    public boolean hasMore() {
+        return !started || cursor != null;
+    }
+
+
+    /** Read and discard the next count entities */
+    public void skip( EntityManager em, int count ) throws Exception {
+        int skipped = 0;
+        while ( skipped < count && hasMore() ) {
+            skipped += fetch( em, count - skipped ).size();
+        }
+        position += skipped;
+    }
+
+
+    /** Read up to count entities, following the Usergrid cursor as many pages as needed */
+    public List<Entity> next( EntityManager em, int count ) throws Exception {
+        List<Entity> entities = new ArrayList<Entity>( Math.min( count, Query.MAX_LIMIT ) );
+        while ( entities.size() < count && hasMore() ) {
+            entities.addAll( fetch( em, count - entities.size() ) );
+        }
+        position += entities.size();
+        return entities;
+    }
+
+
+    private List<Entity> fetch( EntityManager em, int count ) throws Exception {
+        touch();
+
+        query.setLimit( Math.min( count, Query.MAX_LIMIT ) );
+        query.setCursor( cursor );
+
+        Results results = em.searchCollection( em.getApplicationRef(), collectionName, query );
+
+        started = true;
+        cursor = results.getCursor();
+
+        List<Entity> entities = results.getEntities();
+        if ( entities == null ) {
+            return new ArrayList<Entity>();
+        }
+        return entities;
+    }
+}
@@ -23,11 +23,20 @@ import java.nio.ByteBuffer;
 import org.jboss.netty.buffer.ChannelBuffer;
 import org.jboss.netty.channel.ChannelHandlerContext;
 import org.jboss.netty.channel.MessageEvent;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 import org.apache.usergrid.mongo.MongoChannelHandler;
+import org.apache.usergrid.mongo.QueryCursor;
+import org.apache.usergrid.persistence.EntityManager;
 
 
 public class OpGetMore extends OpCrud {
 
+    private static final Logger logger = LoggerFactory.getLogger( OpGetMore.class );
+
+    /** Response flag telling the client the cursor id it asked for isn't open */
+    public static final int CURSOR_NOT_FOUND = 1;
+
     int numberToReturn;
     long cursorID;
 
@@ -97,7 +106,40 @@ public class OpGetMore extends OpCrud {
      */
     @Override
     public OpReply doOp( MongoChannelHandler handler, ChannelHandlerContext ctx, MessageEvent messageEvent ) {
-        return new OpReply( this );
+        OpReply reply = new OpReply( this );
+
+        QueryCursor cursor = handler.getCursor( cursorID );
+        if ( cursor == null ) {
+            reply.setResponseFlags( CURSOR_NOT_FOUND );
+            return reply;
+        }
+
+        int count = Math.abs( numberToReturn );
+        if ( count == 0 ) {
+            count = OpQuery.DEFAULT_BATCH_SIZE;
+        }
+
+        try {
+            EntityManager em = handler.getEmf().getEntityManager( cursor.getApplicationId() );
+
+            reply.setStartingFrom( cursor.getPosition() );
+            OpQuery.addEntities( reply, cursor.next( em, count ) );
+        }
+        catch ( Exception ex ) {
+            logger.error( "Unable to read more from cursor " + cursorID, ex );
+            handler.removeCursor( cursorID );
+            return reply;
+        }
+
+        // the client sees cursor id 0 once the results are exhausted, so free it here
+        if ( cursor.hasMore() && ( numberToReturn >= 0 ) ) {
+            reply.setCursorID( cursorID );
+        }
+        else {
+            handler.removeCursor( cursorID );
+        }
+
+        return reply;
     }
 
 
@@ -35,15 +35,21 @@ import org.slf4j.LoggerFactory;
 import org.apache.usergrid.management.ApplicationInfo;
 import org.apache.usergrid.mongo.MongoChannelHandler;
 import org.apache.usergrid.mongo.utils.BSONUtils;
+import org.apache.usergrid.persistence.DynamicEntity;
+import org.apache.usergrid.persistence.Entity;
 import org.apache.usergrid.persistence.EntityManager;
 import org.apache.usergrid.persistence.Identifier;
 import org.apache.usergrid.security.shiro.utils.SubjectUtils;
+import org.apache.usergrid.utils.UUIDUtils;
 
 
 public class OpInsert extends OpCrud {
 
     private static final Logger logger = LoggerFactory.getLogger( OpInsert.class );
 
+    /** Insert flag to keep inserting the remaining documents after one fails */
+    public static final int CONTINUE_ON_ERROR = 1;
+
     protected int flags;
     protected List<BSONObject> documents = new ArrayList<BSONObject>();
 
@@ -146,21 +152,42 @@ public class OpInsert extends OpCrud {
 
         EntityManager em = handler.getEmf().getEntityManager( application.getId() );
 
+        // uuids are assigned up front so a failed batch can be retried one document at a time
+        List<Entity> entities = new ArrayList<Entity>( documents.size() );
 
         for ( BSONObject document : documents ) {
-            try {
-                //special case to serialize mongo ObjectId if required
-                Object id = document.get( "_id" );
+            //special case to serialize mongo ObjectId if required
+            Object id = document.get( "_id" );
 
-                if ( id instanceof ObjectId ) {
-                    document.put( "_id", ( ( ObjectId ) id ).toStringMongod() );
-                }
+            if ( id instanceof ObjectId ) {
+                document.put( "_id", ( ( ObjectId ) id ).toStringMongod() );
+            }
 
-                em.create( getCollectionName(), document.toMap() );
+            entities.add( new DynamicEntity( getCollectionName(), UUIDUtils.newTimeUUID(), document.toMap() ) );
+        }
+
+        if ( entities.size() > 1 ) {
+            try {
+                em.createImported( entities );
+                return null;
             }
             catch ( Exception e ) {
-                logger.error( "Unable to insert mongo document {}", document, e );
+                logger.warn( "Batch insert of {} mongo documents failed, inserting one at a time", entities.size(),
+                        e );
+            }
+        }
+
+        for ( Entity entity : entities ) {
+            try {
+                em.create( entity.getUuid(), entity.getType(), entity.getProperties() );
+            }
+            catch ( Exception e ) {
+                logger.error( "Unable to insert mongo document {}", entity.getProperties(), e );
                 ctx.setAttachment( e );
+
+                if ( ( flags & CONTINUE_ON_ERROR ) == 0 ) {
+                    break;
+                }
             }
         }
 
@@ -21,6 +21,7 @@ import java.io.IOException;
 import java.net.InetSocketAddress;
 import java.nio.ByteBuffer;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Map;
 import java.util.Random;
 import java.util.Set;
@@ -37,6 +38,7 @@ import org.slf4j.LoggerFactory;
 import org.apache.usergrid.management.ApplicationInfo;
 import org.apache.usergrid.management.UserInfo;
 import org.apache.usergrid.mongo.MongoChannelHandler;
+import org.apache.usergrid.mongo.QueryCursor;
 import org.apache.usergrid.mongo.commands.MongoCommand;
 import org.apache.usergrid.mongo.query.MongoQueryParser;
 import org.apache.usergrid.mongo.utils.BSONUtils;
@@ -44,7 +46,6 @@ import org.apache.usergrid.persistence.Entity;
 import org.apache.usergrid.persistence.EntityManager;
 import org.apache.usergrid.persistence.Identifier;
 import org.apache.usergrid.persistence.Query;
-import org.apache.usergrid.persistence.Results;
 import org.apache.usergrid.persistence.Schema;
 import org.apache.usergrid.security.shiro.PrincipalCredentialsToken;
 import org.apache.usergrid.security.shiro.utils.SubjectUtils;
@@ -62,6 +63,9 @@ public class OpQuery extends OpCrud {
 
     private static final Logger logger = LoggerFactory.getLogger( OpQuery.class );
 
+    /** Batch size used when the client doesn't ask for one */
+    static final int DEFAULT_BATCH_SIZE = 30;
+
     int flags;
     int numberToSkip;
     int numberToReturn;
@@ -386,46 +390,31 @@ public class OpQuery extends OpCrud {
             return reply;
         }
 
-        int count = getNumberToReturn();
-        if ( count <= 0 ) {
-            count = 30;
+        // a negative or single document request closes the cursor after the first batch
+        int count = Math.abs( getNumberToReturn() );
+        boolean singleBatch = ( getNumberToReturn() < 0 ) || ( getNumberToReturn() == 1 );
+        if ( count == 0 ) {
+            count = DEFAULT_BATCH_SIZE;
         }
 
         EntityManager em = handler.getEmf().getEntityManager( application.getId() );
 
         try {
-            Results results = null;
-            Query q = MongoQueryParser.toNativeQuery( query, returnFieldSelector, numberToReturn );
-            if ( q != null ) {
-                results = em.searchCollection( em.getApplicationRef(), getCollectionName(), q );
+            Query q = MongoQueryParser.toNativeQuery( query, returnFieldSelector, count );
+            if ( q == null ) {
+                q = new Query();
             }
-            else {
-                results = em.getCollection( em.getApplicationRef(), getCollectionName(), null, count,
-                        Results.Level.ALL_PROPERTIES, false );
+
+            QueryCursor cursor = new QueryCursor( application.getId(), getCollectionName(), q );
+            if ( numberToSkip > 0 ) {
+                cursor.skip( em, numberToSkip );
             }
-            if ( !results.isEmpty() ) {
-                for ( Entity entity : results.getEntities() ) {
-
-                    Object savedId = entity.getProperty( "_id" );
-                    Object mongoId = null;
-
-                    //try to parse it into an ObjectId
-                    if ( savedId == null ) {
-                        mongoId = entity.getUuid();
-                    }
-                    else {
-                        try {
-                            mongoId = new ObjectId( savedId.toString() );
-                            //it's not a mongo Id, use it as is
-                        }
-                        catch ( IllegalArgumentException iae ) {
-                            mongoId = savedId;
-                        }
-                    }
-
-                    reply.addDocument( map( entry( "_id", mongoId ), toJsonMap( entity ),
-                            entry( Schema.PROPERTY_UUID, entity.getUuid().toString() ) ) );
-                }
+
+            reply.setStartingFrom( cursor.getPosition() );
+            addEntities( reply, cursor.next( em, count ) );
+
+            if ( !singleBatch && cursor.hasMore() ) {
+                reply.setCursorID( handler.registerCursor( cursor ) );
             }
         }
         catch ( Exception ex ) {
@@ -435,6 +424,33 @@ public class OpQuery extends OpCrud {
     }
 
 
+    /** Add entities to a reply as documents, using the saved mongo _id where there is one */
+    static void addEntities( OpReply reply, List<Entity> entities ) {
+        for ( Entity entity : entities ) {
+
+            Object savedId = entity.getProperty( "_id" );
+            Object mongoId = null;
+
+            //try to parse it into an ObjectId
+            if ( savedId == null ) {
+                mongoId = entity.getUuid();
+            }
+            else {
+                try {
+                    mongoId = new ObjectId( savedId.toString() );
+                    //it's not a mongo Id, use it as is
+                }
+                catch ( IllegalArgumentException iae ) {
+                    mongoId = savedId;
+                }
+            }
+
+            reply.addDocument( map( entry( "_id", mongoId ), toJsonMap( entity ),
+                    entry( Schema.PROPERTY_UUID, entity.getUuid().toString() ) ) );
+        }
+    }
+
+
     /* (non-Javadoc)
      * @see java.lang.Object#toString()
      */
@@ -121,6 +121,36 @@ public class BasicMongoTest extends AbstractMongoTest {
     }
 
 
+    @Test
+    public void insertBatchTest() throws Exception {
+
+        DB db = getDb();
+
+        List<DBObject> docs = new ArrayList<DBObject>();
+
+        for ( int i = 0; i < 50; i++ ) {
+            BasicDBObject doc = new BasicDBObject();
+            doc.put( "name", "batch" + i );
+            doc.put( "index", i );
+            docs.add( doc );
+        }
+
+        WriteResult result = db.getCollection( "insertbatchtests" ).insert( docs );
+
+        assertNull( result.getError() );
+
+        DBCursor cur = db.getCollection( "insertbatchtests" ).find().batchSize( 20 );
+        int count = 0;
+
+        while ( cur.hasNext() ) {
+            cur.next();
+            count++;
+        }
+
+        assertEquals( 50, count );
+    }
+
+
     @Test
     public void insertDuplicateTest() throws Exception {
 
@@ -162,6 +192,58 @@ public class BasicMongoTest extends AbstractMongoTest {
     }
 
 
+    /**
+     * A duplicate username fails the batched insert, so the documents are inserted one at a time. Each inserted user
+     * must be counted in the collection once.
+     */
+    @Test
+    public void insertBatchFallbackTest() throws Exception {
+
+        DB db = getDb();
+
+        BasicDBObject doc = new BasicDBObject();
+        doc.put( "username", "fallbackduplicate" );
+
+        WriteResult result = db.getCollection( "users" ).insert( doc );
+
+        assertNull( result.getError() );
+
+        UUID appId = emf.lookupApplication( "test-organization/test-app" );
+        EntityManager em = emf.getEntityManager( appId );
+
+        Long before = em.getEntityCounters( appId ).get( "application.collection.users" );
+
+        List<DBObject> docs = new ArrayList<DBObject>();
+
+        for ( String username : new String[] { "fallback0", "fallbackduplicate", "fallback1" } ) {
+            doc = new BasicDBObject();
+            doc.put( "username", username );
+            docs.add( doc );
+        }
+
+        String message = null;
+
+        try {
+            db.getCollection( "users" ).insert( docs, WriteConcern.SAFE.continueOnErrorForInsert( true ) );
+        }
+        catch ( MongoException me ) {
+            message = me.getMessage();
+        }
+
+        assertNotNull( message );
+
+        for ( String username : new String[] { "fallback0", "fallback1" } ) {
+            Results results = em.searchCollection( em.getApplicationRef(), "users",
+                    Query.fromQL( "select * where username = '" + username + "'" ) );
+            assertEquals( 1, results.size() );
+        }
+
+        Long after = em.getEntityCounters( appId ).get( "application.collection.users" );
+
+        assertEquals( before + 2, after.longValue() );
+    }
+
+
     @Test
     public void updateTest() throws Exception {
 
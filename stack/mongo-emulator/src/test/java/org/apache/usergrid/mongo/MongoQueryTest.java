@@ -516,4 +516,58 @@ public class MongoQueryTest extends AbstractMongoTest {
 
         assertTrue( cur.hasNext() );
     }
+
+
+    @Test
+    public void cursorPaging() throws Exception {
+
+        UUID appId = emf.lookupApplication( "test-organization/test-app" );
+        EntityManager em = emf.getEntityManager( appId );
+
+        for ( int i = 0; i < 25; i++ ) {
+            Map<String, Object> properties = new LinkedHashMap<String, Object>();
+            properties.put( "name", "paged" + i );
+            properties.put( "index", i );
+            em.create( "cursorpaging", properties );
+        }
+
+        Mongo m = new Mongo( "localhost", 27017 );
+
+        DB db = m.getDB( "test-organization/test-app" );
+        db.authenticate( "test", "test".toCharArray() );
+
+        DBCollection coll = db.getCollection( "cursorpagings" );
+
+        // batches of 4 force several OP_GET_MORE round trips
+        DBCursor cur = coll.find().batchSize( 4 );
+        int count = 0;
+
+        while ( cur.hasNext() ) {
+            cur.next();
+            count++;
+        }
+
+        assertEquals( 25, count );
+
+        cur = coll.find().skip( 10 ).batchSize( 4 );
+        count = 0;
+
+        while ( cur.hasNext() ) {
+            cur.next();
+            count++;
+        }
+
+        assertEquals( 15, count );
+
+        // a negative batch size returns a single batch and closes the cursor
+        cur = coll.find().batchSize( -5 );
+        count = 0;
+
+        while ( cur.hasNext() ) {
+            cur.next();
+            count++;
+        }
+
+        assertEquals( 5, count );
+    }
 }
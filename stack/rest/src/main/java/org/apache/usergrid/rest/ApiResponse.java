@@ -82,6 +82,7 @@ public class ApiResponse {
     private Map<String, List<String>> params;
     private List<AggregateCounterSet> counters;
     private ClientCredentialsInfo credentials;
+    private StreamingEntityList streamingEntities;
 
     protected Map<String, Object> properties = new TreeMap<String, Object>( String.CASE_INSENSITIVE_ORDER );
 
@@ -379,6 +380,17 @@ public class ApiResponse {
     }
 
 
+    /**
+     * Set the first page of a collection GET, with the entities of every page to be loaded while the response is
+     * written. The next, cursor and count written are those of the last page loaded.
+     */
+    public void setStreamingResults( ServiceResults results, StreamingEntityList entities ) {
+        setResults( results );
+        this.entities = entities;
+        streamingEntities = entities;
+    }
+
+
     public ApiResponse withResults( ServiceResults results ) {
         setResults( results );
         return this;
@@ -396,6 +408,9 @@ public class ApiResponse {
 
     @JsonSerialize( include = Inclusion.NON_NULL )
     public UUID getNext() {
+        if ( streamingEntities != null ) {
+            return streamingEntities.getNext();
+        }
         return next;
     }
 
@@ -407,6 +422,9 @@ public class ApiResponse {
 
     @JsonSerialize( include = Inclusion.NON_NULL )
     public String getCursor() {
+        if ( streamingEntities != null ) {
+            return streamingEntities.getCursor();
+        }
         return cursor;
     }
 
@@ -418,6 +436,9 @@ public class ApiResponse {
 
     @JsonSerialize( include = Inclusion.NON_NULL )
     public Integer getCount() {
+        if ( ( streamingEntities != null ) && ( count != null ) ) {
+            return streamingEntities.getCount();
+        }
         return count;
     }
 
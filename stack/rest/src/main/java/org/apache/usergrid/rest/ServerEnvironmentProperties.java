@@ -19,6 +19,8 @@ package org.apache.usergrid.rest;
 
 import java.util.Properties;
 
+import org.apache.commons.lang.math.NumberUtils;
+
 
 public class ServerEnvironmentProperties {
 
@@ -29,6 +31,8 @@ public class ServerEnvironmentProperties {
 
     public static final String REDIRECT_ROOT = "usergrid.redirect_root";
 
+    public static final String STREAM_PAGE_SIZE = "usergrid.rest.stream.page.size";
+
     private Properties properties;
 
 
@@ -60,4 +64,10 @@ public class ServerEnvironmentProperties {
     public String getRedirectRoot() {
         return properties.getProperty( REDIRECT_ROOT );
     }
+
+
+    /** The page size collection GETs are loaded in while being written, or 0 to load them whole */
+    public int getStreamPageSize() {
+        return NumberUtils.toInt( properties.getProperty( STREAM_PAGE_SIZE ), 0 );
+    }
 }
@@ -0,0 +1,195 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.usergrid.rest;
+
+
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.UUID;
+
+import org.apache.usergrid.persistence.Entity;
+import org.apache.usergrid.services.ServiceResults;
+
+
+/**
+ * The entities of a large collection GET, loaded a page at a time while the response is being written. Iterating the
+ * list runs the query for each page as the previous one is used up, and nothing holds on to a page once it has been
+ * iterated, so the response never holds more than one page of entities.
+ * <p/>
+ * The list can be iterated once. The cursor, next and count describe the pages loaded so far, so they are only final
+ * once iteration has finished. Getting an element or the size before iterating loads every page up front.
+ *
+ * @see ApiResponse#setStreamingResults(ServiceResults, StreamingEntityList)
+ */
+public class StreamingEntityList extends AbstractList<Entity> {
+
+    /** Runs the query for a page of the collection */
+    public interface PageLoader {
+
+        ServiceResults load( String cursor, int limit ) throws Exception;
+    }
+
+
+    private final PageLoader loader;
+    private final int limit;
+    private final int pageSize;
+
+    private ServiceResults firstPage;
+    private String cursor;
+    private UUID next;
+    private int count;
+
+    private boolean iterated;
+    private List<Entity> loaded;
+
+
+    /**
+     * @param firstPage the results of the first page, already loaded
+     * @param limit the total number of entities requested
+     * @param pageSize the number of entities to load at a time
+     * @param loader loads the remaining pages
+     */
+    public StreamingEntityList( ServiceResults firstPage, int limit, int pageSize, PageLoader loader ) {
+        this.firstPage = firstPage;
+        this.limit = limit;
+        this.pageSize = pageSize;
+        this.loader = loader;
+        cursor = firstPage.getCursor();
+        next = firstPage.getNextResult();
+    }
+
+
+    @Override
+    public Iterator<Entity> iterator() {
+        if ( loaded != null ) {
+            return loaded.iterator();
+        }
+        if ( iterated ) {
+            throw new IllegalStateException( "Streamed entities can only be iterated once" );
+        }
+        iterated = true;
+        return new PageIterator();
+    }
+
+
+    @Override
+    public Entity get( int index ) {
+        return getLoaded().get( index );
+    }
+
+
+    @Override
+    public int size() {
+        return getLoaded().size();
+    }
+
+
+    private List<Entity> getLoaded() {
+        if ( loaded == null ) {
+            List<Entity> entities = new ArrayList<Entity>();
+            for ( Iterator<Entity> i = iterator(); i.hasNext(); ) {
+                entities.add( i.next() );
+            }
+            loaded = entities;
+        }
+        return loaded;
+    }
+
+
+    /** The cursor for the page after the last one loaded */
+    public String getCursor() {
+        return cursor;
+    }
+
+
+    public UUID getNext() {
+        return next;
+    }
+
+
+    /** The number of entities iterated so far */
+    public int getCount() {
+        return count;
+    }
+
+
+    private static Iterator<Entity> entitiesOf( ServiceResults results ) {
+        List<Entity> entities = results.getEntities();
+        return entities != null ? entities.iterator() : Collections.<Entity>emptyList().iterator();
+    }
+
+
+    private class PageIterator implements Iterator<Entity> {
+
+        private Iterator<Entity> page = entitiesOf( firstPage );
+
+
+        private PageIterator() {
+            firstPage = null;
+        }
+
+
+        @Override
+        public boolean hasNext() {
+            if ( page.hasNext() ) {
+                return true;
+            }
+            if ( ( cursor == null ) || ( count >= limit ) ) {
+                return false;
+            }
+
+            ServiceResults results;
+            try {
+                results = loader.load( cursor, Math.min( pageSize, limit - count ) );
+            }
+            catch ( Exception e ) {
+                throw new RuntimeException( "Unable to load the next page of entities", e );
+            }
+
+            cursor = results.getCursor();
+            next = results.getNextResult();
+            page = entitiesOf( results );
+
+            // an empty page is the end of the collection, whatever its cursor
+            if ( !page.hasNext() ) {
+                cursor = null;
+                return false;
+            }
+            return true;
+        }
+
+
+        @Override
+        public Entity next() {
+            if ( !hasNext() ) {
+                throw new NoSuchElementException();
+            }
+            count++;
+            return page.next();
+        }
+
+
+        @Override
+        public void remove() {
+            throw new UnsupportedOperationException();
+        }
+    }
+}
@@ -37,6 +37,8 @@ import javax.ws.rs.PathParam;
 import javax.ws.rs.Produces;
 import javax.ws.rs.QueryParam;
 import javax.ws.rs.core.Context;
+import javax.ws.rs.core.EntityTag;
+import javax.ws.rs.core.HttpHeaders;
 import javax.ws.rs.core.MediaType;
 import javax.ws.rs.core.MultivaluedMap;
 import javax.ws.rs.core.PathSegment;
@@ -52,16 +54,24 @@ import org.springframework.context.annotation.Scope;
 import org.springframework.stereotype.Component;
 import org.apache.usergrid.persistence.Entity;
 import org.apache.usergrid.persistence.EntityManager;
+import org.apache.usergrid.persistence.EntityRef;
 import org.apache.usergrid.persistence.Query;
+import org.apache.usergrid.persistence.SimpleEntityRef;
 import org.apache.usergrid.rest.AbstractContextResource;
 import org.apache.usergrid.rest.ApiResponse;
+import org.apache.usergrid.rest.StreamingEntityList;
 import org.apache.usergrid.rest.applications.assets.AssetsResource;
 import org.apache.usergrid.rest.security.annotations.RequireApplicationAccess;
+import org.apache.usergrid.rest.utils.AssetStreamingOutput;
+import org.apache.usergrid.rest.utils.ConditionalGetUtils;
 import org.apache.usergrid.security.oauth.AccessInfo;
+import org.apache.usergrid.security.shiro.utils.SubjectUtils;
 import org.apache.usergrid.services.assets.data.AssetUtils;
+import org.apache.usergrid.services.assets.data.ByteRange;
 import org.apache.usergrid.services.assets.data.BinaryStore;
 import org.apache.usergrid.utils.InflectionUtils;
 import org.apache.commons.lang.StringUtils;
+import org.apache.shiro.subject.Subject;
 
 import com.sun.jersey.api.json.JSONWithPadding;
 import com.sun.jersey.core.provider.EntityHolder;
@@ -73,10 +83,14 @@ import com.sun.jersey.multipart.FormDataMultiPart;
 import static javax.ws.rs.core.MediaType.APPLICATION_JSON_TYPE;
 
 import static org.apache.commons.lang.StringUtils.isNotBlank;
+import static org.apache.usergrid.persistence.Schema.PROPERTY_MODIFIED;
+import static org.apache.usergrid.security.shiro.utils.SubjectUtils.getPermissionFromPath;
 import static org.apache.usergrid.services.ServiceParameter.addParameter;
 import static org.apache.usergrid.services.ServicePayload.batchPayload;
 import static org.apache.usergrid.services.ServicePayload.idListPayload;
 import static org.apache.usergrid.services.ServicePayload.payload;
+import static org.apache.usergrid.utils.ConversionUtils.getLong;
+import static org.apache.usergrid.utils.InflectionUtils.pluralize;
 import static org.apache.usergrid.utils.JsonUtils.mapToJsonString;
 import static org.apache.usergrid.utils.JsonUtils.normalizeJsonTree;
 
@@ -236,11 +250,7 @@ public class ServiceResource extends AbstractContextResource {
         LOG.debug( "ServiceResource.executeServiceRequest" );
 
         boolean tree = "true".equalsIgnoreCase( ui.getQueryParameters().getFirst( "tree" ) );
-        boolean collectionGet = false;
-        if ( action == ServiceAction.GET ) {
-            collectionGet = (getServiceParameters().size() == 1 && InflectionUtils
-                    .isPlural(getServiceParameters().get(0)));
-        }
+        boolean collectionGet = ( action == ServiceAction.GET ) && isCollectionRequest();
         addQueryParams( getServiceParameters(), ui );
         ServiceRequest r = services.newRequest( action, tree, getServiceParameters(), payload );
         response.setServiceRequest( r );
@@ -278,21 +288,185 @@ public class ServiceResource extends AbstractContextResource {
     @GET
     @Produces({MediaType.APPLICATION_JSON, MediaType.TEXT_HTML})
     @RequireApplicationAccess
-    public JSONWithPadding executeGet( @Context UriInfo ui,
-                                       @QueryParam("callback") @DefaultValue("callback") String callback )
+    public Response executeGet( @Context UriInfo ui,
+                                @QueryParam("callback") @DefaultValue("callback") String callback )
             throws Exception {
 
         LOG.debug( "ServiceResource.executeGet" );
 
+        UUID itemId = getItemId();
+        if ( ( itemId != null ) && isConditionalRequest() ) {
+            Response notModified = evaluateItemPreconditions( ui, itemId );
+            if ( notModified != null ) {
+                return notModified;
+            }
+        }
+
         ApiResponse response = createApiResponse();
 
         response.setAction( "get" );
         response.setApplication( services.getApplication() );
         response.setParams( ui.getQueryParameters() );
 
-        executeServiceRequest( ui, response, ServiceAction.GET, null );
+        if ( executeStreamingGet( ui, response ) ) {
+            // validators aren't known until the last page has been written
+            return Response.ok( new JSONWithPadding( response, callback ) ).build();
+        }
 
-        return new JSONWithPadding( response, callback );
+        ServiceResults results = executeServiceRequest( ui, response, ServiceAction.GET, null );
+
+        EntityTag tag = null;
+        Date lastModified = null;
+        if ( ( results != null ) && !results.hasData() && ( response.getList() == null ) && ( response.getCounters()
+                == null ) ) {
+            List<Entity> entities = results.getEntities();
+            if ( ( entities != null ) && !entities.isEmpty() && ( ConditionalGetUtils.lastModified( entities )
+                    != null ) ) {
+                if ( ( itemId != null ) && ( entities.size() == 1 ) ) {
+                    lastModified = ConditionalGetUtils.lastModified( entities );
+                    tag = ConditionalGetUtils.entityTag( itemId, entities.get( 0 ).getModified() );
+                }
+                else {
+                    // a page has no Last-Modified, as entities leaving it don't make anything on it newer
+                    tag = ConditionalGetUtils.pageTag( entities, results.getCursor() );
+                }
+            }
+        }
+
+        if ( tag == null ) {
+            return Response.ok( new JSONWithPadding( response, callback ) ).build();
+        }
+
+        if ( lastModified == null ) {
+            Response.ResponseBuilder notModified = request.evaluatePreconditions( tag );
+            if ( notModified != null ) {
+                return notModified.tag( tag ).build();
+            }
+
+            return Response.ok( new JSONWithPadding( response, callback ) ).tag( tag ).build();
+        }
+
+        Response.ResponseBuilder notModified = request.evaluatePreconditions( lastModified, tag );
+        if ( notModified != null ) {
+            return notModified.tag( tag ).lastModified( lastModified ).build();
+        }
+
+        return Response.ok( new JSONWithPadding( response, callback ) ).tag( tag ).lastModified( lastModified )
+                       .build();
+    }
+
+
+    private boolean isConditionalRequest() {
+        return ( httpServletRequest.getHeader( HttpHeaders.IF_NONE_MATCH ) != null ) || (
+                httpServletRequest.getHeader( HttpHeaders.IF_MODIFIED_SINCE ) != null );
+    }
+
+
+    /** @return the id of the entity if this is a request for a single entity by id from an application collection */
+    private UUID getItemId() {
+        List<ServiceParameter> parameters = getServiceParameters();
+        if ( ( parameters.size() == 2 ) && parameters.get( 0 ).isName() && InflectionUtils
+                .isPlural( parameters.get( 0 ) ) && parameters.get( 1 ).isId() ) {
+            return parameters.get( 1 ).getId();
+        }
+        return null;
+    }
+
+
+    /**
+     * Answer a conditional GET of a single entity from its modified time, without loading the entity or running the
+     * service request. The entity has to be in the collection and readable by the subject, as the service would
+     * check. Anything else is left to the service request.
+     *
+     * @return a 304 response, or null if the service request should be run
+     */
+    private Response evaluateItemPreconditions( UriInfo ui, UUID itemId ) throws Exception {
+        if ( Query.fromQueryParams( ui.getQueryParameters() ) != null ) {
+            return null;
+        }
+
+        String collectionName = pluralize( getServiceParameters().get( 0 ).getName() );
+        EntityManager em = services.getEntityManager();
+        EntityRef entity = new SimpleEntityRef( itemId );
+
+        Subject subject = SubjectUtils.getSubject();
+        if ( ( subject != null ) && !subject.isPermitted(
+                getPermissionFromPath( services.getApplicationId(), "get", "/" + collectionName + "/" + itemId ) ) ) {
+            return null;
+        }
+
+        Object modified = em.getProperty( entity, PROPERTY_MODIFIED );
+        if ( ( modified == null ) || !em.isCollectionMember( services.getApplicationRef(), collectionName, entity ) ) {
+            return null;
+        }
+
+        EntityTag tag = ConditionalGetUtils.entityTag( itemId, getLong( modified ) );
+        Date lastModified = new Date( getLong( modified ) );
+        Response.ResponseBuilder notModified = request.evaluatePreconditions( lastModified, tag );
+        if ( notModified == null ) {
+            return null;
+        }
+
+        httpServletRequest.setAttribute( "applicationId", services.getApplicationId() );
+        return notModified.tag( tag ).lastModified( lastModified ).build();
+    }
+
+
+    private boolean isCollectionRequest() {
+        return getServiceParameters().size() == 1 && InflectionUtils.isPlural( getServiceParameters().get( 0 ) );
+    }
+
+
+    /**
+     * Execute a collection GET for more entities than the stream page size a page at a time. Only the first page is
+     * loaded here, the rest are loaded as the response is written.
+     *
+     * @return false if the request isn't one that can be streamed, and nothing was executed
+     */
+    private boolean executeStreamingGet( UriInfo ui, ApiResponse response ) throws Exception {
+        final int pageSize = properties.getStreamPageSize();
+        if ( ( pageSize <= 0 ) || !isCollectionRequest() ) {
+            return false;
+        }
+
+        final Query query = Query.fromQueryParams( ui.getQueryParameters() );
+        if ( ( query == null ) || query.hasSelectSubjects() || ( query.getLimit() <= pageSize ) ) {
+            return false;
+        }
+
+        LOG.debug( "ServiceResource.executeStreamingGet" );
+
+        final boolean tree = "true".equalsIgnoreCase( ui.getQueryParameters().getFirst( "tree" ) );
+        final List<ServiceParameter> parameters = addParameter( getServiceParameters(), query );
+
+        int limit = query.getLimit();
+        query.setLimit( pageSize );
+
+        ServiceRequest r = services.newRequest( ServiceAction.GET, tree, parameters, null );
+        response.setServiceRequest( r );
+        ServiceResults results = r.execute();
+        if ( results != null ) {
+            if ( results.hasData() ) {
+                response.setData( results.getData() );
+            }
+            if ( results.getServiceMetadata() != null ) {
+                response.setMetadata( results.getServiceMetadata() );
+            }
+            response.setCount( 0 );
+            response.setStreamingResults( results,
+                    new StreamingEntityList( results, limit, pageSize, new StreamingEntityList.PageLoader() {
+                        @Override
+                        public ServiceResults load( String cursor, int limit ) throws Exception {
+                            query.setCursor( cursor );
+                            query.setLimit( limit );
+                            return services.newRequest( ServiceAction.GET, tree, parameters, null ).execute();
+                        }
+                    } ) );
+        }
+
+        httpServletRequest.setAttribute( "applicationId", services.getApplicationId() );
+
+        return true;
     }
 
 
@@ -577,6 +751,7 @@ public class ServiceResource extends AbstractContextResource {
     @Produces(MediaType.WILDCARD)
     public Response executeStreamGet( @Context UriInfo ui, @PathParam("entityId") PathSegment entityId,
                                       @HeaderParam("range") String rangeHeader,
+                                      @HeaderParam("if-range") String ifRange,
                                       @HeaderParam("if-modified-since") String modifiedSince ) throws Exception {
 
         LOG.debug( "ServiceResource.executeStreamGet" );
@@ -593,45 +768,48 @@ public class ServiceResource extends AbstractContextResource {
 
         Map<String, Object> fileMetadata = AssetUtils.getFileMetadata( entity );
 
+        Long lastModified = ( Long ) fileMetadata.get( AssetUtils.LAST_MODIFIED );
+
         // return a 302 if not modified
         Date modified = AssetUtils.fromIfModifiedSince( modifiedSince );
         if ( modified != null ) {
-            Long lastModified = ( Long ) fileMetadata.get( AssetUtils.LAST_MODIFIED );
             if ( lastModified - modified.getTime() < 0 ) {
                 return Response.status( Response.Status.NOT_MODIFIED ).build();
             }
         }
 
-        boolean range = StringUtils.isNotBlank( rangeHeader );
-        long start = 0, end = 0, contentLength = 0;
-        InputStream inputStream;
+        return buildAssetResponse( entity, fileMetadata, lastModified, rangeHeader, ifRange );
+    }
 
-        if ( range ) { // honor range request, calculate start & end
 
-            String rangeValue = rangeHeader.trim().substring( "bytes=".length() );
-            contentLength = ( Long ) fileMetadata.get( AssetUtils.CONTENT_LENGTH );
-            end = contentLength - 1;
-            if ( rangeValue.startsWith( "-" ) ) {
-                start = contentLength - 1 - Long.parseLong( rangeValue.substring( "-".length() ) );
+    /**
+     * Builds the response carrying an asset's data. A single byte range is served as a 206 when the If-Range
+     * validator, if sent, still matches; only the requested bytes are read from the binary store.
+     */
+    protected Response buildAssetResponse( Entity entity, Map<String, Object> fileMetadata, long lastModified,
+                                           String rangeHeader, String ifRange ) throws Exception {
+
+        String etag = ( String ) fileMetadata.get( AssetUtils.E_TAG );
+        Number contentLength = ( Number ) fileMetadata.get( AssetUtils.CONTENT_LENGTH );
+
+        ByteRange range = null;
+        if ( contentLength != null && ByteRange.isCurrent( ifRange, etag, lastModified ) ) {
+            try {
+                range = ByteRange.parse( rangeHeader, contentLength.longValue() );
             }
-            else {
-                String[] startEnd = rangeValue.split( "-" );
-                long parsedStart = Long.parseLong( startEnd[0] );
-                if ( parsedStart > start && parsedStart < end ) {
-                    start = parsedStart;
-                }
-                if ( startEnd.length > 1 ) {
-                    long parsedEnd = Long.parseLong( startEnd[1] );
-                    if ( parsedEnd > start && parsedEnd < end ) {
-                        end = parsedEnd;
-                    }
-                }
+            catch ( IllegalArgumentException e ) {
+                // 416 Requested Range Not Satisfiable
+                return Response.status( 416 )
+                               .header( "Content-Range", ByteRange.unsatisfiedContentRange( contentLength.longValue() ) )
+                               .build();
             }
-
-            inputStream = binaryStore.read( getApplicationId(), entity, start, end - start );
         }
-        else { // no range
 
+        InputStream inputStream;
+        if ( range != null ) {
+            inputStream = binaryStore.read( getApplicationId(), entity, range.getStart(), range.getLength() );
+        }
+        else {
             inputStream = binaryStore.read( getApplicationId(), entity );
         }
 
@@ -640,17 +818,18 @@ public class ServiceResource extends AbstractContextResource {
             return Response.status( Response.Status.NOT_FOUND ).build();
         }
 
-        Long lastModified = ( Long ) fileMetadata.get( AssetUtils.LAST_MODIFIED );
         Response.ResponseBuilder responseBuilder =
-                Response.ok( inputStream ).type( ( String ) fileMetadata.get( AssetUtils.CONTENT_TYPE ) )
-                        .lastModified( new Date( lastModified ) );
+                Response.status( range != null ? 206 : 200 ).entity( new AssetStreamingOutput( inputStream ) )
+                        .type( ( String ) fileMetadata.get( AssetUtils.CONTENT_TYPE ) )
+                        .lastModified( new Date( lastModified ) ).header( "Accept-Ranges", "bytes" );
 
-        if ( fileMetadata.get( AssetUtils.E_TAG ) != null ) {
-            responseBuilder.tag( ( String ) fileMetadata.get( AssetUtils.E_TAG ) );
+        if ( etag != null ) {
+            responseBuilder.tag( etag );
         }
 
-        if ( range ) {
-            responseBuilder.header( "Content-Range", "bytes " + start + "-" + end + "/" + contentLength );
+        if ( range != null ) {
+            responseBuilder.header( "Content-Range", range.toContentRange() )
+                           .header( HttpHeaders.CONTENT_LENGTH, range.getLength() );
         }
 
         return responseBuilder.build();
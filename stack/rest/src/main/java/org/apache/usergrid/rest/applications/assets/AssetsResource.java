@@ -50,7 +50,6 @@ import org.apache.usergrid.rest.applications.ServiceResource;
 import org.apache.usergrid.rest.security.annotations.RequireApplicationAccess;
 import org.apache.usergrid.services.assets.data.AssetUtils;
 import org.apache.usergrid.services.assets.data.BinaryStore;
-import org.apache.usergrid.utils.StringUtils;
 
 import com.sun.jersey.api.json.JSONWithPadding;
 import com.sun.jersey.core.header.FormDataContentDisposition;
@@ -84,8 +83,8 @@ public class AssetsResource extends ServiceResource {
     @Override
     @RequireApplicationAccess
     @GET
-    public JSONWithPadding executeGet( @Context UriInfo ui,
-                                       @QueryParam("callback") @DefaultValue("callback") String callback )
+    public Response executeGet( @Context UriInfo ui,
+                                @QueryParam("callback") @DefaultValue("callback") String callback )
             throws Exception {
         logger.info( "In AssetsResource.executeGet with ui: {} and callback: {}", ui, callback );
         return super.executeGet( ui, callback );
@@ -159,6 +158,7 @@ public class AssetsResource extends ServiceResource {
     @Path("{entityId: [A-Fa-f0-9]{8}-[A-Fa-f0-9]{4}-[A-Fa-f0-9]{4}-[A-Fa-f0-9]{4}-[A-Fa-f0-9]{12}}/data")
     public Response findAsset( @Context UriInfo ui, @QueryParam("callback") @DefaultValue("callback") String callback,
                                @PathParam("entityId") PathSegment entityId, @HeaderParam("range") String range,
+                               @HeaderParam("if-range") String ifRange,
                                @HeaderParam("if-modified-since") String modifiedSince ) throws Exception {
         UUID assetId = UUID.fromString( entityId.getPath() );
         logger.info( "In AssetsResource.findAsset with id: {}, range: {}, modifiedSince: {}",
@@ -177,30 +177,6 @@ public class AssetsResource extends ServiceResource {
             }
         }
 
-        InputStream is;
-        if ( StringUtils.isBlank( range ) ) {
-            is = binaryStore.read( getApplicationId(), asset );
-        }
-        else {
-            // TODO range parser
-            is = binaryStore.read( getApplicationId(), asset );
-        }
-        if ( is == null ) {
-            return Response.status( Response.Status.NOT_FOUND ).build();
-        }
-
-        logger.info( "AssetResource.findAsset read inputStream, composing response" );
-        Response.ResponseBuilder responseBuilder =
-                Response.ok( is ).type( fileMetadata.get( "content-type" ).toString() )
-                        .lastModified( new Date( asset.getModified() ) );
-        if ( fileMetadata.get( AssetUtils.E_TAG ) != null ) {
-            responseBuilder.tag( ( String ) fileMetadata.get( AssetUtils.E_TAG ) );
-        }
-        if ( StringUtils.isNotBlank( range ) ) {
-            logger.info( "Range header was not blank, sending back Content-Range" );
-            // TODO build content range header if needed
-            //responseBuilder.header("Content-Range", );
-        }
-        return responseBuilder.build();
+        return buildAssetResponse( asset, fileMetadata, asset.getModified(), range, ifRange );
     }
 }
@@ -23,6 +23,7 @@ import javax.ws.rs.Produces;
 import javax.ws.rs.QueryParam;
 import javax.ws.rs.core.Context;
 import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.Response;
 import javax.ws.rs.core.UriInfo;
 
 import org.slf4j.Logger;
@@ -56,8 +57,8 @@ public class EventsResource extends ServiceResource {
 
     @Override
     @GET
-    public JSONWithPadding executeGet( @Context UriInfo ui,
-                                       @QueryParam("callback") @DefaultValue("callback") String callback )
+    public Response executeGet( @Context UriInfo ui,
+                                @QueryParam("callback") @DefaultValue("callback") String callback )
             throws Exception {
         QueueQuery query = QueueQuery.fromQueryParams( ui.getQueryParameters() );
         if ( query == null ) {
@@ -65,6 +66,6 @@ public class EventsResource extends ServiceResource {
         }
         query.setPosition( QueuePosition.START );
         QueueResults results = ( ( ApplicationResource ) parent ).getQueues().getFromQueue( "/events", query );
-        return new JSONWithPadding( results, callback );
+        return Response.ok( new JSONWithPadding( results, callback ) ).build();
     }
 }
@@ -17,6 +17,13 @@
 package org.apache.usergrid.rest.filters;
 
 
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.regex.Pattern;
+
 import javax.servlet.http.HttpServletRequest;
 import javax.ws.rs.core.Context;
 
@@ -24,6 +31,7 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Component;
+import org.apache.usergrid.persistence.Schema;
 import org.apache.usergrid.persistence.cassandra.util.TraceTag;
 import org.apache.usergrid.persistence.cassandra.util.TraceTagManager;
 import org.apache.usergrid.persistence.cassandra.util.TraceTagReporter;
@@ -33,16 +41,57 @@ import com.sun.jersey.spi.container.ContainerRequest;
 import com.sun.jersey.spi.container.ContainerRequestFilter;
 import com.sun.jersey.spi.container.ContainerResponse;
 import com.sun.jersey.spi.container.ContainerResponseFilter;
+import com.yammer.metrics.Metrics;
 
 
 /**
- * Attach and detach trace tags at start and end of request scopes
+ * Attach and detach trace tags at start and end of request scopes.
+ * <p/>
+ * Besides explicit traces, a sample of requests is profiled: the Cassandra operations, rows, columns and bytes of each
+ * sampled request are published as histograms per endpoint. If enabled, a client can ask for the profile of its
+ * request to be returned in response headers by sending the XX-TRACE-PROFILE header. Pages of a streamed collection
+ * response are read after the response filter has run, so their reads aren't part of the profile.
  *
  * @author zznate
  */
 @Component
 public class TracingFilter implements ContainerRequestFilter, ContainerResponseFilter {
 
+    public static final String TRACE_ID_HEADER = "XX-TRACE-ID";
+    public static final String PROFILE_HEADER = "XX-TRACE-PROFILE";
+    public static final String PROFILE_OPS_HEADER = "XX-TRACE-PROFILE-OPS";
+
+    private static final Pattern UUID_PATTERN =
+            Pattern.compile( "[A-Fa-f0-9]{8}-[A-Fa-f0-9]{4}-[A-Fa-f0-9]{4}-[A-Fa-f0-9]{4}-[A-Fa-f0-9]{12}" );
+
+    /** Top level paths that aren't an organization or application name */
+    private static final Set<String> ROOT_PATHS =
+            new HashSet<String>( Arrays.asList( "management", "system", "status", "lb-status" ) );
+    private static final Set<String> APPLICATION_PATHS = new HashSet<String>( Arrays.asList( "applications", "apps" ) );
+    private static final Set<String> ORGANIZATION_PATHS =
+            new HashSet<String>( Arrays.asList( "organizations", "orgs", "o" ) );
+
+    private static final Set<String> METHODS =
+            new HashSet<String>( Arrays.asList( "GET", "POST", "PUT", "DELETE", "HEAD", "OPTIONS" ) );
+
+    /** Path segments kept in endpoint names, any other collection or connection name becomes a placeholder */
+    private static final Set<String> KNOWN_NAMES = new HashSet<String>(
+            Arrays.asList( "apps", "applications", "orgs", "organizations", "users", "groups", "roles", "token",
+                    "me", "credentials", "password", "resetpw", "activate", "confirm", "reactivate", "permissions",
+                    "rolenames", "feed", "connections", "connecting", "following", "followers" ) );
+
+    /** Path segments past this depth are folded into the endpoint name "..." */
+    private static final int MAX_SEGMENTS = 8;
+
+    static {
+        for ( String entityType : new String[] { "application", "user", "group", "role" } ) {
+            Set<String> collections = Schema.getDefaultSchema().getCollectionNames( entityType );
+            if ( collections != null ) {
+                KNOWN_NAMES.addAll( collections );
+            }
+        }
+    }
+
     private Logger logger = LoggerFactory.getLogger( TracingFilter.class );
 
     @Autowired
@@ -54,25 +103,38 @@ public class TracingFilter implements ContainerRequestFilter, ContainerResponseF
     @Context
     private HttpServletRequest httpServletRequest;
 
+    private final Random random = new Random();
+
 
     @Override
     public ContainerRequest filter( ContainerRequest request ) {
-        if ( !traceTagManager.getTraceEnabled() && !traceTagManager.getExplicitOnly() ) {
-            return request;
-        }
-        String traceId;
+        String traceId = null;
         if ( traceTagManager.getExplicitOnly() ) {
             // if we are set in explicit mode and the header is not present, leave.
-            String id = httpServletRequest.getHeader( "XX-TRACE-ID" );
-            if ( StringUtils.isBlank( id ) ) {
-                return request;
+            String id = httpServletRequest.getHeader( TRACE_ID_HEADER );
+            if ( !StringUtils.isBlank( id ) ) {
+                traceId = id.concat( "-REST-" ).concat( request.getPath( true ) );
             }
-            traceId = id.concat( "-REST-" ).concat( request.getPath( true ) );
         }
-        else {
+        else if ( traceTagManager.getTraceEnabled() ) {
             traceId = "TRACE-".concat( request.getPath( true ) );
         }
-        TraceTag traceTag = traceTagManager.create( traceId );
+
+        if ( ( traceId == null ) && ( isProfileRequested( request ) || isSampled() ) ) {
+            traceId = "PROFILE-".concat( request.getPath( true ) );
+        }
+
+        if ( traceId == null ) {
+            return request;
+        }
+
+        if ( traceTagManager.isActive() ) {
+            // left behind by a request on this thread that never reached the response filter
+            logger.warn( "Discarding unfinished trace {}", traceTagManager.detach() );
+        }
+        // profiles only keep totals, which are sent to the metrics registry rather than the reporter
+        TraceTag traceTag = traceId.startsWith( "PROFILE-" ) ? traceTagManager.createMetered( traceId ) :
+                            traceTagManager.create( traceId );
         traceTagManager.attach( traceTag );
 
         return request;
@@ -83,8 +145,140 @@ public class TracingFilter implements ContainerRequestFilter, ContainerResponseF
     public ContainerResponse filter( ContainerRequest request, ContainerResponse response ) {
         if ( traceTagManager.isActive() ) {
             TraceTag traceTag = traceTagManager.detach();
-            traceTagReporter.report( traceTag );
+            publish( getEndpoint( request.getMethod(), request.getPath( true ) ), traceTag );
+
+            if ( isProfileRequested( request ) ) {
+                response.getHttpHeaders().putSingle( PROFILE_HEADER, formatProfile( traceTag ) );
+                response.getHttpHeaders().putSingle( PROFILE_OPS_HEADER, formatOps( traceTag ) );
+            }
+
+            if ( !traceTag.getMetered() ) {
+                traceTagReporter.report( traceTag );
+            }
         }
         return response;
     }
+
+
+    private boolean isProfileRequested( ContainerRequest request ) {
+        return traceTagManager.getProfileHeaders() && !StringUtils.isBlank(
+                request.getHeaderValue( PROFILE_HEADER ) );
+    }
+
+
+    private boolean isSampled() {
+        double rate = traceTagManager.getSampleRate();
+        return ( rate > 0 ) && ( random.nextDouble() < rate );
+    }
+
+
+    /** Update the histograms of the endpoint with the totals of a finished request */
+    private void publish( String endpoint, TraceTag traceTag ) {
+        Metrics.newHistogram( TracingFilter.class, "cassandra_ops", endpoint, true ).update( traceTag.getTotalOps() );
+        Metrics.newHistogram( TracingFilter.class, "cassandra_time", endpoint, true )
+               .update( traceTag.getTotalElapsed() );
+        Metrics.newHistogram( TracingFilter.class, "cassandra_rows", endpoint, true ).update( traceTag.getRows() );
+        Metrics.newHistogram( TracingFilter.class, "cassandra_columns", endpoint, true )
+               .update( traceTag.getColumns() );
+        Metrics.newHistogram( TracingFilter.class, "cassandra_bytes", endpoint, true ).update( traceTag.getBytes() );
+    }
+
+
+    static String formatProfile( TraceTag traceTag ) {
+        return new StringBuilder( "ops=" ).append( traceTag.getTotalOps() ).append( ";time=" )
+                .append( traceTag.getTotalElapsed() ).append( ";rows=" ).append( traceTag.getRows() )
+                .append( ";columns=" ).append( traceTag.getColumns() ).append( ";bytes=" )
+                .append( traceTag.getBytes() ).toString();
+    }
+
+
+    static String formatOps( TraceTag traceTag ) {
+        StringBuilder ops = new StringBuilder();
+        for ( Map.Entry<String, Integer> op : traceTag.getOpCounts().entrySet() ) {
+            if ( ops.length() > 0 ) {
+                ops.append( ';' );
+            }
+            ops.append( op.getKey() ).append( '=' ).append( op.getValue() );
+        }
+        return ops.toString();
+    }
+
+
+    /**
+     * Get the name metrics are published under for a request. Organization, application and entity names and ids are
+     * replaced with placeholders so that all requests to the same kind of resource share an endpoint, for example
+     * "GET /{org}/{app}/users/{id}/groups". Collection and connection names other than the built in ones become
+     * placeholders too, and deep paths are cut short, so requests can't add endpoints, and their histograms, without
+     * bound.
+     */
+    static String getEndpoint( String method, String path ) {
+        String[] segments = StringUtils.split( path, '/' );
+        StringBuilder endpoint =
+                new StringBuilder( METHODS.contains( method ) ? method : "OTHER" ).append( ' ' );
+
+        int start = 0;
+        if ( segments.length > 0 ) {
+            String first = segments[0].toLowerCase();
+            if ( ROOT_PATHS.contains( first ) ) {
+                endpoint.append( '/' ).append( first );
+                start = 1;
+            }
+            else if ( APPLICATION_PATHS.contains( first ) ) {
+                endpoint.append( '/' ).append( first );
+                start = appendPlaceholders( endpoint, segments, 1, "{app}" );
+            }
+            else if ( ORGANIZATION_PATHS.contains( first ) ) {
+                endpoint.append( '/' ).append( first );
+                start = appendPlaceholders( endpoint, segments, 1, "{org}", "{app}" );
+            }
+            else if ( isUuid( first ) ) {
+                start = appendPlaceholders( endpoint, segments, 0, "{app}" );
+            }
+            else {
+                start = appendPlaceholders( endpoint, segments, 0, "{org}", "{app}" );
+            }
+        }
+
+        // the rest of the path alternates between collection or connection names, and entity names or ids
+        for ( int i = start; i < segments.length; i++ ) {
+            if ( i >= MAX_SEGMENTS ) {
+                endpoint.append( "/..." );
+                break;
+            }
+            String segment = segments[i];
+            if ( ( ( i - start ) % 2 != 0 ) || isUuid( segment ) ) {
+                endpoint.append( "/{id}" );
+            }
+            else if ( KNOWN_NAMES.contains( segment.toLowerCase() ) ) {
+                endpoint.append( '/' ).append( segment.toLowerCase() );
+            }
+            else {
+                endpoint.append( i == start ? "/{collection}" : "/{connection}" );
+            }
+        }
+
+        if ( segments.length == 0 ) {
+            endpoint.append( '/' );
+        }
+        return endpoint.toString();
+    }
+
+
+    private static int appendPlaceholders( StringBuilder endpoint, String[] segments, int start,
+                                           String... placeholders ) {
+        int i = start;
+        for ( String placeholder : placeholders ) {
+            if ( i >= segments.length ) {
+                break;
+            }
+            endpoint.append( '/' ).append( placeholder );
+            i++;
+        }
+        return i;
+    }
+
+
+    private static boolean isUuid( String segment ) {
+        return UUID_PATTERN.matcher( segment ).matches();
+    }
 }
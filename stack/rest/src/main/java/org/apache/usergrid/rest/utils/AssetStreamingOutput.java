@@ -0,0 +1,60 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.usergrid.rest.utils;
+
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+import javax.ws.rs.WebApplicationException;
+import javax.ws.rs.core.StreamingOutput;
+
+import org.apache.usergrid.services.assets.data.FileRangeInputStream;
+
+import org.apache.commons.io.IOUtils;
+
+
+/**
+ * Writes asset data to the response and closes the source. Local file slices go through {@link
+ * FileRangeInputStream#transferTo(OutputStream)}; anything else is copied through a buffer.
+ */
+public class AssetStreamingOutput implements StreamingOutput {
+
+    private final InputStream inputStream;
+
+
+    public AssetStreamingOutput( InputStream inputStream ) {
+        this.inputStream = inputStream;
+    }
+
+
+    @Override
+    public void write( OutputStream output ) throws IOException, WebApplicationException {
+        try {
+            if ( inputStream instanceof FileRangeInputStream ) {
+                ( ( FileRangeInputStream ) inputStream ).transferTo( output );
+            }
+            else {
+                IOUtils.copyLarge( inputStream, output );
+            }
+        }
+        finally {
+            IOUtils.closeQuietly( inputStream );
+        }
+    }
+}
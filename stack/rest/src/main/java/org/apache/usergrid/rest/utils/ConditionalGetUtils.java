@@ -0,0 +1,74 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.usergrid.rest.utils;
+
+
+import java.util.Date;
+import java.util.List;
+import java.util.UUID;
+
+import javax.ws.rs.core.EntityTag;
+
+import org.apache.usergrid.persistence.Entity;
+
+import com.google.common.base.Charsets;
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
+
+
+/**
+ * Validators for conditional GETs of entities and pages of entities. Tags are weak, since the response envelope
+ * around the entities (timestamps, durations, request params) differs between two GETs of the same data.
+ */
+public class ConditionalGetUtils {
+
+    /** Tag for an entity as of its modified time */
+    public static EntityTag entityTag( UUID uuid, long modified ) {
+        return new EntityTag( uuid + "." + modified, true );
+    }
+
+
+    /** Tag for a page of entities and the cursor after it, or null if any entity has no modified time */
+    public static EntityTag pageTag( List<Entity> entities, String cursor ) {
+        Hasher hasher = Hashing.md5().newHasher();
+        for ( Entity entity : entities ) {
+            if ( entity.getModified() == null ) {
+                return null;
+            }
+            hasher.putLong( entity.getUuid().getMostSignificantBits() );
+            hasher.putLong( entity.getUuid().getLeastSignificantBits() );
+            hasher.putLong( entity.getModified() );
+        }
+        if ( cursor != null ) {
+            hasher.putBytes( cursor.getBytes( Charsets.UTF_8 ) );
+        }
+        return new EntityTag( hasher.hash().toString(), true );
+    }
+
+
+    /** The latest modified time of the entities, or null if there are none or any has no modified time */
+    public static Date lastModified( List<Entity> entities ) {
+        long lastModified = 0;
+        for ( Entity entity : entities ) {
+            if ( entity.getModified() == null ) {
+                return null;
+            }
+            lastModified = Math.max( lastModified, entity.getModified() );
+        }
+        return lastModified > 0 ? new Date( lastModified ) : null;
+    }
+}
@@ -37,6 +37,7 @@ import org.apache.usergrid.services.assets.data.AssetUtils;
 
 import org.apache.commons.io.IOUtils;
 
+import com.sun.jersey.api.client.ClientResponse;
 import com.sun.jersey.multipart.FormDataMultiPart;
 
 import static org.junit.Assert.assertEquals;
@@ -132,6 +133,52 @@ public class AssetResourceIT extends AbstractRestIT {
     }
 
 
+    @Test
+    public void rangeOnDynamicEntity() throws Exception {
+        UserRepo.INSTANCE.load( resource(), access_token );
+
+        Map<String, String> payload = hashMap( "name", "rangeasset" );
+
+        JsonNode node = resource().path( "/test-organization/test-app/foos" ).queryParam( "access_token", access_token )
+                .accept( MediaType.APPLICATION_JSON ).type( MediaType.APPLICATION_JSON_TYPE )
+                .post( JsonNode.class, payload );
+
+        String uuid = node.get( "entities" ).get( 0 ).get( "uuid" ).getTextValue();
+
+        byte[] data = IOUtils.toByteArray( this.getClass().getResourceAsStream( "/cassandra_eye.jpg" ) );
+        resource().path( "/test-organization/test-app/foos/" + uuid ).queryParam( "access_token", access_token )
+                .type( MediaType.APPLICATION_OCTET_STREAM_TYPE ).put( data );
+
+        ClientResponse response =
+                resource().path( "/test-organization/test-app/foos/" + uuid ).queryParam( "access_token", access_token )
+                        .accept( MediaType.APPLICATION_OCTET_STREAM_TYPE ).header( "Range", "bytes=100-199" )
+                        .get( ClientResponse.class );
+
+        assertEquals( 206, response.getStatus() );
+        assertEquals( "bytes 100-199/7979", response.getHeaders().getFirst( "Content-Range" ) );
+        byte[] foundData = IOUtils.toByteArray( response.getEntityInputStream() );
+        assertEquals( 100, foundData.length );
+        assertEquals( data[100], foundData[0] );
+        assertEquals( data[199], foundData[99] );
+
+        // a stale If-Range gets the whole asset
+        response = resource().path( "/test-organization/test-app/foos/" + uuid )
+                .queryParam( "access_token", access_token ).accept( MediaType.APPLICATION_OCTET_STREAM_TYPE )
+                .header( "Range", "bytes=100-199" ).header( "If-Range", "\"stale\"" ).get( ClientResponse.class );
+
+        assertEquals( 200, response.getStatus() );
+        assertEquals( 7979, IOUtils.toByteArray( response.getEntityInputStream() ).length );
+
+        // past the end of the asset
+        response = resource().path( "/test-organization/test-app/foos/" + uuid )
+                .queryParam( "access_token", access_token ).accept( MediaType.APPLICATION_OCTET_STREAM_TYPE )
+                .header( "Range", "bytes=8000-" ).get( ClientResponse.class );
+
+        assertEquals( 416, response.getStatus() );
+        assertEquals( "bytes */7979", response.getHeaders().getFirst( "Content-Range" ) );
+    }
+
+
     @Test
     public void multipartPostFormOnDynamicEntity() throws Exception {
         UserRepo.INSTANCE.load( resource(), access_token );
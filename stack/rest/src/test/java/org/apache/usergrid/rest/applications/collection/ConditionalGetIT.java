@@ -0,0 +1,143 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.usergrid.rest.applications.collection;
+
+
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TimeZone;
+
+import javax.ws.rs.core.HttpHeaders;
+import javax.ws.rs.core.MediaType;
+
+import org.codehaus.jackson.JsonNode;
+import org.junit.Rule;
+import org.junit.Test;
+import org.apache.usergrid.cassandra.Concurrent;
+import org.apache.usergrid.rest.AbstractRestIT;
+import org.apache.usergrid.rest.TestContextSetup;
+import org.apache.usergrid.rest.test.resource.CustomCollection;
+
+import com.sun.jersey.api.client.ClientResponse;
+import com.sun.jersey.api.client.WebResource;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.apache.usergrid.utils.MapUtils.hashMap;
+
+
+/** Tests ETag, Last-Modified and 304 responses to conditional GETs */
+@Concurrent()
+public class ConditionalGetIT extends AbstractRestIT {
+
+    @Rule
+    public TestContextSetup context = new TestContextSetup( this );
+
+
+    @Test
+    public void entityNotModified() throws Exception {
+
+        CustomCollection things = context.application().collection( "things" );
+
+        Map<String, String> data = hashMap( "name", "thing1" );
+        String uuid = getEntity( things.create( data ), 0 ).get( "uuid" ).asText();
+        String path = "/" + uuid;
+
+        ClientResponse response = thingsPath( path ).get( ClientResponse.class );
+        assertEquals( 200, response.getStatus() );
+        String etag = response.getHeaders().getFirst( HttpHeaders.ETAG );
+        String lastModified = response.getHeaders().getFirst( HttpHeaders.LAST_MODIFIED );
+        assertNotNull( etag );
+        assertNotNull( lastModified );
+
+        response = thingsPath( path ).header( HttpHeaders.IF_NONE_MATCH, etag ).get( ClientResponse.class );
+        assertEquals( 304, response.getStatus() );
+        assertEquals( etag, response.getHeaders().getFirst( HttpHeaders.ETAG ) );
+
+        response = thingsPath( path ).header( HttpHeaders.IF_MODIFIED_SINCE, lastModified ).get( ClientResponse.class );
+        assertEquals( 304, response.getStatus() );
+
+        // an update changes the tag
+        thingsPath( path ).put( JsonNode.class, hashMap( "color", "blue" ) );
+
+        response = thingsPath( path ).header( HttpHeaders.IF_NONE_MATCH, etag ).get( ClientResponse.class );
+        assertEquals( 200, response.getStatus() );
+        assertFalse( etag.equals( response.getHeaders().getFirst( HttpHeaders.ETAG ) ) );
+        assertEquals( "blue", getEntity( response.getEntity( JsonNode.class ), 0 ).get( "color" ).asText() );
+    }
+
+
+    @Test
+    public void pageNotModified() throws Exception {
+
+        CustomCollection things = context.application().collection( "things" );
+
+        for ( int i = 0; i < 5; i++ ) {
+            things.create( hashMap( "name", String.valueOf( i ) ) );
+        }
+
+        ClientResponse response = thingsPath( "" ).get( ClientResponse.class );
+        assertEquals( 200, response.getStatus() );
+        String etag = response.getHeaders().getFirst( HttpHeaders.ETAG );
+        assertNotNull( etag );
+        assertNull( response.getHeaders().getFirst( HttpHeaders.LAST_MODIFIED ) );
+
+        response = thingsPath( "" ).header( HttpHeaders.IF_NONE_MATCH, etag ).get( ClientResponse.class );
+        assertEquals( 304, response.getStatus() );
+
+        // a new entity changes the page
+        things.create( hashMap( "name", "5" ) );
+
+        response = thingsPath( "" ).header( HttpHeaders.IF_NONE_MATCH, etag ).get( ClientResponse.class );
+        assertEquals( 200, response.getStatus() );
+    }
+
+
+    @Test
+    public void pageIgnoresModifiedSince() throws Exception {
+
+        CustomCollection things = context.application().collection( "things" );
+
+        String uuid = null;
+        for ( int i = 0; i < 5; i++ ) {
+            uuid = getEntity( things.create( hashMap( "name", String.valueOf( i ) ) ), 0 ).get( "uuid" ).asText();
+        }
+
+        // removing an entity from the page leaves nothing on it modified since
+        thingsPath( "/" + uuid ).delete( JsonNode.class );
+
+        SimpleDateFormat format = new SimpleDateFormat( "EEE, dd MMM yyyy HH:mm:ss zzz", Locale.US );
+        format.setTimeZone( TimeZone.getTimeZone( "GMT" ) );
+        String modifiedSince = format.format( new Date( System.currentTimeMillis() + 60000 ) );
+
+        ClientResponse response =
+                thingsPath( "" ).header( HttpHeaders.IF_MODIFIED_SINCE, modifiedSince ).get( ClientResponse.class );
+        assertEquals( 200, response.getStatus() );
+        assertEquals( 4, response.getEntity( JsonNode.class ).get( "entities" ).size() );
+    }
+
+
+    private WebResource.Builder thingsPath( String path ) {
+        return resource().path( context.getOrgName() + "/" + context.getAppName() + "/things" + path )
+                .queryParam( "access_token", context.getActiveUser().getToken() ).accept( MediaType.APPLICATION_JSON )
+                .type( MediaType.APPLICATION_JSON_TYPE );
+    }
+}
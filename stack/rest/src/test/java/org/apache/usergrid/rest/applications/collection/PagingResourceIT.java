@@ -37,6 +37,7 @@ import org.apache.usergrid.rest.test.resource.EntityResource;
 
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertTrue;
 import static org.apache.usergrid.utils.MapUtils.hashMap;
@@ -89,6 +90,44 @@ public class PagingResourceIT extends AbstractRestIT {
     }
 
 
+    /** A limit above usergrid.rest.stream.page.size is loaded a page at a time, the response should be the same */
+    @Test
+    public void streamedCollectionPaging() throws Exception {
+
+        CustomCollection things = context.application().collection( "things" );
+
+        int size = 150;
+
+        List<Map<String, String>> created = new ArrayList<Map<String, String>>( size );
+
+        for ( int i = 0; i < size; i++ ) {
+            Map<String, String> entity = hashMap( "name", String.valueOf( i ) );
+            things.create( entity );
+
+            created.add( entity );
+        }
+
+        JsonNode node = things.withLimit( 120 ).get();
+        ApiResponse response = parse( node );
+
+        assertEquals( 120, response.getEntityCount() );
+        assertEquals( 120, node.get( "count" ).asInt() );
+        for ( int i = 0; i < 120; i++ ) {
+            assertEquals( created.get( i ).get( "name" ),
+                    response.getEntities().get( i ).getProperties().get( "name" ).asText() );
+        }
+        assertNotNull( response.getCursor() );
+
+        // the cursor picks up after the last page streamed
+        response = parse( things.withLimit( 120 ).withCursor( response.getCursor() ).get() );
+
+        assertEquals( 30, response.getEntityCount() );
+        assertEquals( created.get( 120 ).get( "name" ),
+                response.getEntities().get( 0 ).getProperties().get( "name" ).asText() );
+        assertNull( response.getCursor() );
+    }
+
+
     @Test
     public void startPaging() throws Exception {
 
@@ -0,0 +1,55 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.usergrid.rest.filters;
+
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+
+public class TracingFilterTest {
+
+    @Test
+    public void endpointNames() {
+        assertEquals( "GET /{org}/{app}/users",
+                TracingFilter.getEndpoint( "GET", "test-organization/test-app/users" ) );
+        assertEquals( "GET /{org}/{app}/users/{id}/groups",
+                TracingFilter.getEndpoint( "GET", "/test-organization/test-app/Users/fred/groups" ) );
+        assertEquals( "PUT /{app}/users/{id}",
+                TracingFilter.getEndpoint( "PUT", "4a3d5cc4-5c17-11e3-9d0c-e1de0eaa5f4f/users/fred" ) );
+        assertEquals( "DELETE /{org}/{app}/users/{id}/{connection}/{id}", TracingFilter.getEndpoint( "DELETE",
+                "test-organization/test-app/users/fred/likes/4a3d5cc4-5c17-11e3-9d0c-e1de0eaa5f4f" ) );
+        assertEquals( "GET /orgs/{org}/{app}/devices",
+                TracingFilter.getEndpoint( "GET", "orgs/test-organization/test-app/devices" ) );
+        assertEquals( "POST /management/orgs/{id}/apps",
+                TracingFilter.getEndpoint( "POST", "management/orgs/test-organization/apps" ) );
+        assertEquals( "GET /status", TracingFilter.getEndpoint( "GET", "status" ) );
+        assertEquals( "GET /", TracingFilter.getEndpoint( "GET", "" ) );
+    }
+
+
+    @Test
+    public void requestNamesArePlaceholders() {
+        assertEquals( "GET /{org}/{app}/{collection}/{id}/{connection}",
+                TracingFilter.getEndpoint( "GET", "test-organization/test-app/widgets/fred/admires" ) );
+        assertEquals( "GET /{org}/{app}/{collection}", TracingFilter.getEndpoint( "GET", "org/app/gadgets" ) );
+        assertEquals( "OTHER /{org}/{app}/users", TracingFilter.getEndpoint( "FOO", "org/app/users" ) );
+        assertEquals( "GET /{org}/{app}/users/{id}/{connection}/{id}/{connection}/{id}/...",
+                TracingFilter.getEndpoint( "GET", "org/app/users/a/b/c/d/e/f/g/h/i/j" ) );
+    }
+}
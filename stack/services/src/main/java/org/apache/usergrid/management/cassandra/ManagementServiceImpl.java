@@ -18,6 +18,8 @@ package org.apache.usergrid.management.cassandra;
 
 
 import java.nio.ByteBuffer;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashMap;
@@ -27,6 +29,11 @@ import java.util.Map.Entry;
 import java.util.Properties;
 import java.util.Set;
 import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -72,8 +79,13 @@ import org.apache.usergrid.utils.MailUtils;
 import org.apache.usergrid.utils.StringUtils;
 import org.apache.usergrid.utils.UUIDUtils;
 
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
 import com.google.common.collect.BiMap;
 import com.google.common.collect.HashBiMap;
+import com.yammer.metrics.Metrics;
+import com.yammer.metrics.core.Counter;
+
 import static java.lang.Boolean.parseBoolean;
 import static org.apache.commons.codec.binary.Base64.encodeBase64URLSafeString;
 import static org.apache.commons.codec.digest.DigestUtils.sha;
@@ -137,6 +149,23 @@ public class ManagementServiceImpl implements ManagementService {
     public static final String REGISTRATION_REQUIRES_EMAIL_CONFIRMATION = "registration_requires_email_confirmation";
     public static final String NOTIFY_ADMIN_OF_NEW_USERS = "notify_admin_of_new_users";
 
+    /** How long (milliseconds) a verified client id/secret pair is trusted without re-reading it, 0 disables */
+    public static final String PROPERTIES_CLIENT_CREDENTIALS_CACHE_TTL = "usergrid.auth.client.cache.ttl";
+
+    /** Maximum number of client credentials, applications and organizations to hold in each cache */
+    public static final String PROPERTIES_CLIENT_CREDENTIALS_CACHE_SIZE = "usergrid.auth.client.cache.size";
+
+    private static final String CLIENT_CREDENTIALS_HASH_ALGORITHM = "HmacSHA256";
+
+    private static final Counter clientCredentialsCacheHits =
+            Metrics.newCounter( ManagementServiceImpl.class, "client_credentials_cache_hits" );
+    private static final Counter clientCredentialsCacheMisses =
+            Metrics.newCounter( ManagementServiceImpl.class, "client_credentials_cache_misses" );
+    private static final Counter principalInfoCacheHits =
+            Metrics.newCounter( ManagementServiceImpl.class, "principal_info_cache_hits" );
+    private static final Counter principalInfoCacheMisses =
+            Metrics.newCounter( ManagementServiceImpl.class, "principal_info_cache_misses" );
+
     protected ServiceManagerFactory smf;
 
     protected EntityManagerFactory emf;
@@ -154,6 +183,24 @@ public class ManagementServiceImpl implements ManagementService {
 
     protected EncryptionService encryptionService;
 
+    /**
+     * Client secrets that have recently been verified against Cassandra, keyed by the application or organization
+     * uuid. Only a keyed hash of the secret is held, the hash key is random and never leaves this instance.
+     */
+    private Cache<UUID, byte[]> clientCredentialsCache;
+
+    private Cache<UUID, ApplicationInfo> applicationInfoCache;
+
+    private Cache<UUID, OrganizationInfo> organizationInfoCache;
+
+    /**
+     * Bumped by every application or organization info invalidation, so a load that started before one isn't put back
+     * in the cache after it
+     */
+    private final AtomicLong principalInfoGeneration = new AtomicLong();
+
+    private SecretKeySpec clientCredentialsHashKey;
+
 
     /** Must be constructed with a CassandraClientPool. */
     public ManagementServiceImpl() {
@@ -170,6 +217,35 @@ public class ManagementServiceImpl implements ManagementService {
     @Autowired
     public void setProperties( Properties properties ) {
         this.properties = new AccountCreationPropsImpl( properties );
+
+        long ttl = Long.parseLong( this.properties.getProperty( PROPERTIES_CLIENT_CREDENTIALS_CACHE_TTL, "0" ) );
+        long size = Long.parseLong( this.properties.getProperty( PROPERTIES_CLIENT_CREDENTIALS_CACHE_SIZE, "10000" ) );
+        setClientCredentialsCache( ttl, size );
+    }
+
+
+    /**
+     * Set up the client credentials caches. Entries expire after ttl milliseconds, so a secret regenerated on another
+     * node is honored here for at most that long. A ttl of 0 disables caching.
+     */
+    public void setClientCredentialsCache( long ttl, long size ) {
+        if ( ttl <= 0 || size <= 0 ) {
+            clientCredentialsCache = null;
+            applicationInfoCache = null;
+            organizationInfoCache = null;
+            return;
+        }
+
+        byte[] key = new byte[32];
+        new SecureRandom().nextBytes( key );
+        clientCredentialsHashKey = new SecretKeySpec( key, CLIENT_CREDENTIALS_HASH_ALGORITHM );
+
+        clientCredentialsCache =
+                CacheBuilder.newBuilder().maximumSize( size ).expireAfterWrite( ttl, TimeUnit.MILLISECONDS ).build();
+        applicationInfoCache =
+                CacheBuilder.newBuilder().maximumSize( size ).expireAfterWrite( ttl, TimeUnit.MILLISECONDS ).build();
+        organizationInfoCache =
+                CacheBuilder.newBuilder().maximumSize( size ).expireAfterWrite( ttl, TimeUnit.MILLISECONDS ).build();
     }
 
 
@@ -493,6 +569,7 @@ public class ManagementServiceImpl implements ManagementService {
                 }
             }
         }
+        invalidateOrganizationInfo( organizationInfo.getUuid() );
     }
 
 
@@ -1749,10 +1826,111 @@ public class ManagementServiceImpl implements ManagementService {
         writeUserToken( MANAGEMENT_APPLICATION_ID, new SimpleEntityRef( type.getEntityType(), id ),
                 encryptionService.plainTextCredentials( secret, id, MANAGEMENT_APPLICATION_ID ) );
 
+        if ( clientCredentialsCache != null ) {
+            clientCredentialsCache.invalidate( id );
+        }
+        if ( AuthPrincipalType.APPLICATION.equals( type ) ) {
+            invalidateApplicationInfo( id );
+        }
+        else if ( AuthPrincipalType.ORGANIZATION.equals( type ) ) {
+            invalidateOrganizationInfo( id );
+        }
+
         return secret;
     }
 
 
+    /**
+     * Check a client secret for an application or organization, using the client credentials cache when enabled. A
+     * secret that doesn't match the cached hash is always re-checked against the stored one.
+     */
+    protected boolean isValidClientSecret( AuthPrincipalType type, UUID uuid, String clientSecret ) throws Exception {
+        if ( clientCredentialsCache == null ) {
+            return clientSecret.equals( getSecret( MANAGEMENT_APPLICATION_ID, type, uuid ) );
+        }
+
+        byte[] hash = hashClientSecret( uuid, clientSecret );
+        byte[] cached = clientCredentialsCache.getIfPresent( uuid );
+        if ( ( cached != null ) && MessageDigest.isEqual( cached, hash ) ) {
+            clientCredentialsCacheHits.inc();
+            return true;
+        }
+
+        clientCredentialsCacheMisses.inc();
+        if ( clientSecret.equals( getSecret( MANAGEMENT_APPLICATION_ID, type, uuid ) ) ) {
+            clientCredentialsCache.put( uuid, hash );
+            return true;
+        }
+        return false;
+    }
+
+
+    private byte[] hashClientSecret( UUID uuid, String clientSecret ) throws Exception {
+        Mac mac = Mac.getInstance( CLIENT_CREDENTIALS_HASH_ALGORITHM );
+        mac.init( clientCredentialsHashKey );
+        mac.update( bytes( uuid ) );
+        return mac.doFinal( bytes( clientSecret ) );
+    }
+
+
+    /** Get application info for client credentials, from the cache when enabled */
+    protected ApplicationInfo getCachedApplicationInfo( UUID applicationId ) throws Exception {
+        if ( applicationInfoCache == null ) {
+            return getApplicationInfo( applicationId );
+        }
+        ApplicationInfo app = applicationInfoCache.getIfPresent( applicationId );
+        if ( app != null ) {
+            principalInfoCacheHits.inc();
+            return app;
+        }
+        principalInfoCacheMisses.inc();
+        long generation = principalInfoGeneration.get();
+        app = getApplicationInfo( applicationId );
+        if ( ( app != null ) && ( principalInfoGeneration.get() == generation ) ) {
+            applicationInfoCache.put( applicationId, app );
+        }
+        return app;
+    }
+
+
+    /** Get organization info for client credentials, from the cache when enabled */
+    protected OrganizationInfo getCachedOrganizationInfo( UUID organizationId ) throws Exception {
+        if ( organizationInfoCache == null ) {
+            return getOrganizationByUuid( organizationId );
+        }
+        OrganizationInfo organization = organizationInfoCache.getIfPresent( organizationId );
+        if ( organization != null ) {
+            principalInfoCacheHits.inc();
+            return organization;
+        }
+        principalInfoCacheMisses.inc();
+        long generation = principalInfoGeneration.get();
+        organization = getOrganizationByUuid( organizationId );
+        if ( ( organization != null ) && ( principalInfoGeneration.get() == generation ) ) {
+            organizationInfoCache.put( organizationId, organization );
+        }
+        return organization;
+    }
+
+
+    /** Call once the change has been written, so that loads racing it aren't cached */
+    private void invalidateApplicationInfo( UUID applicationId ) {
+        if ( applicationInfoCache != null ) {
+            principalInfoGeneration.incrementAndGet();
+            applicationInfoCache.invalidate( applicationId );
+        }
+    }
+
+
+    /** Call once the change has been written, so that loads racing it aren't cached */
+    private void invalidateOrganizationInfo( UUID organizationId ) {
+        if ( organizationInfoCache != null ) {
+            principalInfoGeneration.incrementAndGet();
+            organizationInfoCache.invalidate( organizationId );
+        }
+    }
+
+
     @Override
     public String newClientSecretForOrganization( UUID organizationId ) throws Exception {
         return newSecretKey( AuthPrincipalType.ORGANIZATION, organizationId );
@@ -1779,7 +1957,7 @@ public class ManagementServiceImpl implements ManagementService {
             return null;
         }
         AccessInfo access_info = null;
-        if ( clientSecret.equals( getSecret( MANAGEMENT_APPLICATION_ID, type, uuid ) ) ) {
+        if ( isValidClientSecret( type, uuid, clientSecret ) ) {
 
             String token = getTokenForPrincipal( ACCESS, null, MANAGEMENT_APPLICATION_ID, type, uuid, ttl );
 
@@ -1788,11 +1966,11 @@ public class ManagementServiceImpl implements ManagementService {
             access_info = new AccessInfo().withExpiresIn( duration ).withAccessToken( token );
 
             if ( type.equals( AuthPrincipalType.APPLICATION ) ) {
-                ApplicationInfo app = getApplicationInfo( uuid );
+                ApplicationInfo app = getCachedApplicationInfo( uuid );
                 access_info = access_info.withProperty( "application", app.getId() );
             }
             else if ( type.equals( AuthPrincipalType.ORGANIZATION ) ) {
-                OrganizationInfo organization = getOrganizationByUuid( uuid );
+                OrganizationInfo organization = getCachedOrganizationInfo( uuid );
                 access_info = access_info.withProperty( "organization", getOrganizationData( organization ) );
             }
         }
@@ -1816,14 +1994,14 @@ public class ManagementServiceImpl implements ManagementService {
             return null;
         }
         PrincipalCredentialsToken token = null;
-        if ( clientSecret.equals( getSecret( MANAGEMENT_APPLICATION_ID, type, uuid ) ) ) {
+        if ( isValidClientSecret( type, uuid, clientSecret ) ) {
             if ( type.equals( AuthPrincipalType.APPLICATION ) ) {
-                ApplicationInfo app = getApplicationInfo( uuid );
+                ApplicationInfo app = getCachedApplicationInfo( uuid );
                 token = new PrincipalCredentialsToken( new ApplicationPrincipal( app ),
                         new ApplicationClientCredentials( clientId, clientSecret ) );
             }
             else if ( type.equals( AuthPrincipalType.ORGANIZATION ) ) {
-                OrganizationInfo organization = getOrganizationByUuid( uuid );
+                OrganizationInfo organization = getCachedOrganizationInfo( uuid );
                 token = new PrincipalCredentialsToken( new OrganizationPrincipal( organization ),
                         new OrganizationClientCredentials( clientId, clientSecret ) );
             }
@@ -2215,6 +2393,7 @@ public class ManagementServiceImpl implements ManagementService {
     private void activateOrganization( OrganizationInfo organization, boolean sendEmail ) throws Exception {
         EntityManager em = emf.getEntityManager( MANAGEMENT_APPLICATION_ID );
         em.setProperty( new SimpleEntityRef( Group.ENTITY_TYPE, organization.getUuid() ), "activated", true );
+        invalidateOrganizationInfo( organization.getUuid() );
         List<UserInfo> users = getAdminUsersForOrganization( organization.getUuid() );
         for ( UserInfo user : users ) {
             boolean confirmed = user.isConfirmed() || !newAdminUsersRequireConfirmation();
@@ -2233,6 +2412,7 @@ public class ManagementServiceImpl implements ManagementService {
     public void deactivateOrganization( UUID organizationId ) throws Exception {
         EntityManager em = emf.getEntityManager( MANAGEMENT_APPLICATION_ID );
         em.setProperty( new SimpleEntityRef( Group.ENTITY_TYPE, organizationId ), "activated", false );
+        invalidateOrganizationInfo( organizationId );
     }
 
 
@@ -2248,6 +2428,7 @@ public class ManagementServiceImpl implements ManagementService {
     public void enableOrganization( UUID organizationId ) throws Exception {
         EntityManager em = emf.getEntityManager( MANAGEMENT_APPLICATION_ID );
         em.setProperty( new SimpleEntityRef( Group.ENTITY_TYPE, organizationId ), "disabled", false );
+        invalidateOrganizationInfo( organizationId );
     }
 
 
@@ -2255,6 +2436,7 @@ public class ManagementServiceImpl implements ManagementService {
     public void disableOrganization( UUID organizationId ) throws Exception {
         EntityManager em = emf.getEntityManager( MANAGEMENT_APPLICATION_ID );
         em.setProperty( new SimpleEntityRef( Group.ENTITY_TYPE, organizationId ), "disabled", true );
+        invalidateOrganizationInfo( organizationId );
     }
 
 
@@ -2663,6 +2845,8 @@ public class ManagementServiceImpl implements ManagementService {
         org.setProperties( props );
 
         em.update( org );
+
+        invalidateOrganizationInfo( orgId );
     }
 
 
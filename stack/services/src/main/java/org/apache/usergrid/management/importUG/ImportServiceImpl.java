@@ -35,13 +35,13 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import rx.Observable;
 import rx.Subscriber;
-import rx.functions.Action1;
 import rx.functions.Func1;
 import rx.schedulers.Schedulers;
 
 import java.io.File;
 import java.io.IOException;
 import java.util.*;
+import java.util.concurrent.Semaphore;
 import java.util.concurrent.atomic.AtomicLong;
 
 import static org.apache.usergrid.persistence.cassandra.CassandraService.MANAGEMENT_APPLICATION_ID;
@@ -59,6 +59,12 @@ public class ImportServiceImpl implements ImportService {
     //Amount of time that has passed before sending another heart beat in millis
     public static final int TIMESTAMP_DELTA = 5000;
 
+    //Default number of parsed events written to cassandra in a single mutation batch
+    public static final int DEFAULT_BATCH_SIZE = 100;
+
+    //Default number of batches per file that may be written concurrently
+    public static final int DEFAULT_BATCH_CONCURRENCY = 8;
+
     private static final Logger logger = LoggerFactory.getLogger(ImportServiceImpl.class);
 
     //injected the Entity Manager Factory
@@ -72,7 +78,9 @@ public class ImportServiceImpl implements ImportService {
     private ManagementService managementService;
     private JsonFactory jsonFactory = new JsonFactory();
 
-    private int entityCount = 0;
+    private int batchSize = DEFAULT_BATCH_SIZE;
+
+    private int batchConcurrency = DEFAULT_BATCH_CONCURRENCY;
 
     /**
      * This schedules the main import Job
@@ -311,6 +319,26 @@ public class ImportServiceImpl implements ImportService {
         this.managementService = managementService;
     }
 
+
+    public int getBatchSize() {
+        return batchSize;
+    }
+
+
+    public void setBatchSize(final int batchSize) {
+        this.batchSize = batchSize;
+    }
+
+
+    public int getBatchConcurrency() {
+        return batchConcurrency;
+    }
+
+
+    public void setBatchConcurrency(final int batchConcurrency) {
+        this.batchConcurrency = batchConcurrency;
+    }
+
     /**
      * This method gets the files from s3 and also creates sub-jobs for each file i.e. File Import Jobs
      * @param jobExecution the job created by the scheduler with all the required config data
@@ -598,10 +626,8 @@ public class ImportServiceImpl implements ImportService {
                 // get entity manager for the application
                 EntityManager em = emf.getEntityManager(application.getId());
 
-                while (jp.nextToken() != JsonToken.END_ARRAY) {
-                    // import the entities in this file
-                    importEntityStuff(jp, em, rootEm, fileImport, jobExecution);
-                }
+                // import the entities in this file
+                importEntityStuff(jp, em, rootEm, fileImport, jobExecution);
                 jp.close();
 
                 // Updates the state of file import job
@@ -684,8 +710,12 @@ public class ImportServiceImpl implements ImportService {
 
 
     /**
-     * Imports the entity's connecting references (collections, connections and dictionaries)
-     * @param jp  JsonParser pointing to the beginning of the object.
+     * Imports the entities of a file and their connecting references (collections, connections and dictionaries).
+     * Parsed events are grouped into batches of batchSize, and up to batchConcurrency batches are written at the same
+     * time. Once that many batches are in flight the parser blocks until one of them completes, so a large file is
+     * never buffered in memory ahead of what cassandra can absorb. A batch only writes its connections and
+     * dictionaries once every earlier batch has written its entities, since they may refer to any of them.
+     * @param jp  JsonParser pointing to the beginning of the entity array.
      * @param em Entity Manager for the application being imported
      * @param rootEm Entity manager for the root applicaition
      * @param fileImport the file import entity
@@ -698,68 +728,252 @@ public class ImportServiceImpl implements ImportService {
 
         final Observable<WriteEvent> observable = Observable.create(subscribe);
 
+        // permits are taken on the parser thread and released by the writer, which bounds the batches in flight
+        final Semaphore inFlight = new Semaphore(batchConcurrency);
+
+        final ImportProgress progress = new ImportProgress(rootEm, fileImport, jobExecution);
+
         /**
-         * This is the action we want to perform for every UUID we receive
+         * Each batch becomes its own observable on the io scheduler, merging them lets the writes run concurrently
          */
-        final Action1<WriteEvent> doWork = new Action1<WriteEvent>() {
+        final Observable<Observable<Integer>> batches = observable.buffer(batchSize).map(new Func1<List<WriteEvent>, Observable<Integer>>() {
             @Override
-            public void call(WriteEvent writeEvent) {
-                writeEvent.doWrite(em, jobExecution, fileImport);
+            public Observable<Integer> call(final List<WriteEvent> batch) {
+
+                inFlight.acquireUninterruptibly();
+                final long sequence = progress.nextSequence();
+
+                return Observable.create(new Observable.OnSubscribe<Integer>() {
+                    @Override
+                    public void call(final Subscriber<? super Integer> subscriber) {
+                        try {
+                            UUID lastEntityUuid = writeBatch(sequence, batch, em, jobExecution, fileImport, progress);
+                            progress.completed(sequence, lastEntityUuid);
+
+                            subscriber.onNext(batch.size());
+                            subscriber.onCompleted();
+                        } catch (Throwable t) {
+                            subscriber.onError(t);
+                        } finally {
+                            inFlight.release();
+                        }
+                    }
+                }).subscribeOn(Schedulers.io());
             }
+        });
+
+        Observable.merge(batches).toBlocking().lastOrDefault(0);
+
+        logger.info("Imported {} entities and {} events from {}", new Object[] {
+                progress.getEntityCount(), progress.getEventCount(), fileImport.getFileName()});
+    }
+
 
-        };
+    /**
+     * Writes a batch of parsed events. Entities are created first in a single mutation, then the batch waits until
+     * every earlier batch has created its entities, and only then are connections created in a second mutation and
+     * dictionaries written, so that they never refer to an entity that has not been written yet.
+     * If a batched write fails, its events are retried one by one so that the failing event is recorded on the
+     * file import entity and the rest of the batch is still imported. Only the events that were written are counted.
+     * @return the uuid of the last entity in the batch, or null if the batch contained no entities
+     */
+    private UUID writeBatch(final long sequence, final List<WriteEvent> batch, final EntityManager em,
+                            final JobExecution jobExecution, final FileImport fileImport,
+                            final ImportProgress progress) {
+
+        List<EntityEvent> entityEvents = new ArrayList<EntityEvent>();
+        List<ConnectionEvent> connectionEvents = new ArrayList<ConnectionEvent>();
+        List<WriteEvent> otherEvents = new ArrayList<WriteEvent>();
+
+        for (WriteEvent writeEvent : batch) {
+            if (writeEvent instanceof EntityEvent) {
+                entityEvents.add((EntityEvent) writeEvent);
+            } else if (writeEvent instanceof ConnectionEvent) {
+                connectionEvents.add((ConnectionEvent) writeEvent);
+            } else {
+                otherEvents.add(writeEvent);
+            }
+        }
 
+        UUID lastEntityUuid = null;
+        int entitiesWritten = 0;
+        int eventsWritten = 0;
+
+        try {
+            if (!entityEvents.isEmpty()) {
+                List<Entity> entities = new ArrayList<Entity>(entityEvents.size());
+                for (EntityEvent entityEvent : entityEvents) {
+                    entities.add(entityEvent.toEntity());
+                }
+                try {
+                    em.createImported(entities);
+                    entitiesWritten = entityEvents.size();
+                } catch (Exception e) {
+                    logger.warn("Batch create failed, importing " + entityEvents.size() + " entities one at a time", e);
+                    for (EntityEvent entityEvent : entityEvents) {
+                        if (entityEvent.doWrite(em, jobExecution, fileImport)) {
+                            entitiesWritten++;
+                        }
+                    }
+                }
+                lastEntityUuid = entityEvents.get(entityEvents.size() - 1).getEntityUuid();
+            }
+        } finally {
+            // later batches must not wait forever on a batch whose entities failed
+            progress.entitiesWritten(sequence);
+        }
+        eventsWritten += entitiesWritten;
+
+        progress.awaitEntitiesBefore(sequence);
+
+        if (!connectionEvents.isEmpty()) {
+            try {
+                List<ConnectionRef> connections = new ArrayList<ConnectionRef>(connectionEvents.size());
+                for (ConnectionEvent connectionEvent : connectionEvents) {
+                    connections.add(connectionEvent.toConnectionRef(em));
+                }
+                em.createConnections(connections);
+                eventsWritten += connectionEvents.size();
+            } catch (Exception e) {
+                logger.warn("Batch connect failed, importing " + connectionEvents.size() + " connections one at a time", e);
+                for (ConnectionEvent connectionEvent : connectionEvents) {
+                    if (connectionEvent.doWrite(em, jobExecution, fileImport)) {
+                        eventsWritten++;
+                    }
+                }
+            }
+        }
+
+        for (WriteEvent writeEvent : otherEvents) {
+            if (writeEvent.doWrite(em, jobExecution, fileImport)) {
+                eventsWritten++;
+            }
+        }
+
+        progress.written(entitiesWritten, eventsWritten);
+
+        return lastEntityUuid;
+    }
+
+
+    /**
+     * Tracks the progress of a single file import. Counters are updated once per batch, and the last updated uuid
+     * is only checkpointed once every batch before it has completed, since batches finish out of order. It also
+     * lets a batch wait until every earlier batch has written its entities before it writes its connections.
+     */
+    private final class ImportProgress {
+        private final EntityManager rootEm;
+        private final FileImport fileImport;
+        private final JobExecution jobExecution;
+
+        private final AtomicLong sequence = new AtomicLong();
+        private final AtomicLong entityCount = new AtomicLong();
+        private final AtomicLong eventCount = new AtomicLong();
+
+        private final SortedMap<Long, UUID> completed = new TreeMap<Long, UUID>();
+        private final Set<Long> completedWithoutEntities = new HashSet<Long>();
+        private long nextToCheckpoint = 0;
+
+        private final Object entityLock = new Object();
+        private final Set<Long> entitiesWrittenOutOfOrder = new HashSet<Long>();
+        private long entitiesWrittenThrough = 0;
+
+        ImportProgress(EntityManager rootEm, FileImport fileImport, JobExecution jobExecution) {
+            this.rootEm = rootEm;
+            this.fileImport = fileImport;
+            this.jobExecution = jobExecution;
+        }
+
+        long nextSequence() {
+            return sequence.getAndIncrement();
+        }
+
+        long getEntityCount() {
+            return entityCount.get();
+        }
+
+        long getEventCount() {
+            return eventCount.get();
+        }
+
+        void written(int entities, int events) {
+            entityCount.addAndGet(entities);
+            eventCount.addAndGet(events);
+        }
 
-        final AtomicLong entityCounter = new AtomicLong();
-        final AtomicLong eventCounter = new AtomicLong();
         /**
-         * This is boilerplate glue code.  We have to follow this for the parallel operation.  In the "call"
-         * method we want to simply return the input observable + the chain of operations we want to invoke
+         * Records that the given batch is done writing its entities, whether or not they were all written
          */
-        observable.parallel(new Func1<Observable<WriteEvent>, Observable<WriteEvent>>() {
-            @Override
-            public Observable<WriteEvent> call(Observable<WriteEvent> entityWrapperObservable) {
-
-                /* TODO:
-                 * need to fixed so that number of entities created can be counted correctly
-                 * and also update the last updated UUID for the fileImport which is a must for resumability
-                 */
-//                return entityWrapperObservable.doOnNext(doWork).doOnNext(new Action1<WriteEvent>() {
-//
-//                         @Override
-//                         public void call(WriteEvent writeEvent) {
-//                             if (!(writeEvent instanceof EntityEvent)) {
-//                                 final long val = eventCounter.incrementAndGet();
-//                                 if(val % 50 == 0) {
-//                                     jobExecution.heartbeat();
-//                                 }
-//                                 return;
-//                             }
-//
-//                             final long value = entityCounter.incrementAndGet();
-//                             if (value % 2000 == 0) {
-//                                 try {
-//                                     logger.error("UUID = " +((EntityEvent) writeEvent).getEntityUuid().toString() + " value = " + value +"");
-//                                     fileImport.setLastUpdatedUUID(((EntityEvent) writeEvent).getEntityUuid().toString());
-//                                     //checkpoint the UUID here.
-//                                     rootEm.update(fileImport);
-//                                 } catch(Exception ex) {}
-//                             }
-//                             if(value % 100 == 0) {
-//                                 logger.error("heartbeat sent by " + fileImport.getFileName());
-//                                 jobExecution.heartbeat();
-//                             }
-//                         }
-//                     }
-//                );
-
-                return entityWrapperObservable.doOnNext(doWork);
+        void entitiesWritten(long batchSequence) {
+            synchronized (entityLock) {
+                entitiesWrittenOutOfOrder.add(batchSequence);
+                while (entitiesWrittenOutOfOrder.remove(entitiesWrittenThrough)) {
+                    entitiesWrittenThrough++;
+                }
+                entityLock.notifyAll();
+            }
+        }
+
+        /**
+         * Blocks until every batch before the given one is done writing its entities. Earlier batches were started
+         * before this one and never wait on a later batch for their entities, so this can't deadlock.
+         */
+        void awaitEntitiesBefore(long batchSequence) {
+            synchronized (entityLock) {
+                while (entitiesWrittenThrough < batchSequence) {
+                    try {
+                        entityLock.wait();
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        throw new RuntimeException("Interrupted waiting for earlier batches to import", e);
+                    }
+                }
             }
-        }, Schedulers.io()).toBlocking().last();
+        }
+
+        void completed(long batchSequence, UUID lastEntityUuid) {
+            UUID checkpoint = null;
+
+            synchronized (this) {
+                if (lastEntityUuid != null) {
+                    completed.put(batchSequence, lastEntityUuid);
+                } else {
+                    completedWithoutEntities.add(batchSequence);
+                }
+
+                // advance over every contiguous completed batch
+                while (true) {
+                    if (completed.containsKey(nextToCheckpoint)) {
+                        checkpoint = completed.remove(nextToCheckpoint);
+                    } else if (!completedWithoutEntities.remove(nextToCheckpoint)) {
+                        break;
+                    }
+                    nextToCheckpoint++;
+                }
+            }
+
+            jobExecution.heartbeat();
+
+            if (checkpoint == null) {
+                return;
+            }
+
+            synchronized (fileImport) {
+                fileImport.setLastUpdatedUUID(checkpoint.toString());
+                try {
+                    rootEm.update(fileImport);
+                } catch (Exception e) {
+                    logger.error("Unable to checkpoint import of " + fileImport.getFileName(), e);
+                }
+            }
+        }
     }
 
     private interface WriteEvent {
-        public void doWrite(EntityManager em, JobExecution jobExecution, FileImport fileImport);
+        /**
+         * @return true if the event was written, false if the failure was recorded on the file import
+         */
+        public boolean doWrite(EntityManager em, JobExecution jobExecution, FileImport fileImport);
     }
 
     private final class EntityEvent implements WriteEvent {
@@ -777,13 +991,18 @@ public class ImportServiceImpl implements ImportService {
             return entityUuid;
         }
 
+        public Entity toEntity() {
+            return new DynamicEntity(entityType, entityUuid, properties);
+        }
+
         // Creates entities
         @Override
-        public void doWrite(EntityManager em, JobExecution jobExecution, FileImport fileImport) {
+        public boolean doWrite(EntityManager em, JobExecution jobExecution, FileImport fileImport) {
             EntityManager rootEm = emf.getEntityManager(MANAGEMENT_APPLICATION_ID);
 
             try {
                 em.create(entityUuid, entityType, properties);
+                return true;
             } catch (Exception e) {
                 fileImport.setErrorMessage(e.getMessage());
                 try {
@@ -791,6 +1010,7 @@ public class ImportServiceImpl implements ImportService {
                 } catch (Exception ex) {
                 }
             }
+            return false;
         }
     }
 
@@ -806,13 +1026,18 @@ public class ImportServiceImpl implements ImportService {
 
         }
 
+        public ConnectionRef toConnectionRef(EntityManager em) throws Exception {
+            return em.connectionRef(ownerEntityRef, connectionType, entryRef);
+        }
+
         // creates connections between entities
         @Override
-        public void doWrite(EntityManager em, JobExecution jobExecution, FileImport fileImport) {
+        public boolean doWrite(EntityManager em, JobExecution jobExecution, FileImport fileImport) {
             EntityManager rootEm = emf.getEntityManager(MANAGEMENT_APPLICATION_ID);
 
             try {
                 em.createConnection(ownerEntityRef, connectionType, entryRef);
+                return true;
             } catch (Exception e) {
                 fileImport.setErrorMessage(e.getMessage());
                 try {
@@ -820,6 +1045,7 @@ public class ImportServiceImpl implements ImportService {
                 } catch (Exception ex) {
                 }
             }
+            return false;
         }
     }
 
@@ -837,10 +1063,11 @@ public class ImportServiceImpl implements ImportService {
 
         // adds map to the dictionary
         @Override
-        public void doWrite(EntityManager em, JobExecution jobExecution, FileImport fileImport) {
+        public boolean doWrite(EntityManager em, JobExecution jobExecution, FileImport fileImport) {
             EntityManager rootEm = emf.getEntityManager(MANAGEMENT_APPLICATION_ID);
             try {
                 em.addMapToDictionary(ownerEntityRef, dictionaryName, dictionary);
+                return true;
             } catch (Exception e) {
                 fileImport.setErrorMessage(e.getMessage());
                 try {
@@ -848,6 +1075,7 @@ public class ImportServiceImpl implements ImportService {
                 } catch (Exception ex) {
                 }
             }
+            return false;
         }
     }
 
@@ -869,92 +1097,103 @@ public class ImportServiceImpl implements ImportService {
         @Override
         public void call(final Subscriber<? super WriteEvent> subscriber) {
 
+            try {
+                while (!subscriber.isUnsubscribed() && jp.nextToken() != JsonToken.END_ARRAY) {
+                    parseEntity(subscriber);
+                }
+                subscriber.onCompleted();
+            } catch (Exception e) {
+                // skip illegal entity UUID and go to next one
+                fileImport.setErrorMessage(e.getMessage());
+                try {
+                    rootEm.update(fileImport);
+                } catch (Exception ex) {
+                }
+                subscriber.onError(e);
+            }
+        }
+
+        /**
+         * Emits the events for a single entity object and its connections and dictionaries
+         */
+        private void parseEntity(final Subscriber<? super WriteEvent> subscriber) throws Exception {
+
             WriteEvent entityWrapper = null;
             EntityRef ownerEntityRef = null;
             String entityUuid = "";
             String entityType = "";
-            try {
-                while (!subscriber.isUnsubscribed() && jp.nextToken() != JsonToken.END_OBJECT) {
-                    String collectionName = jp.getCurrentName();
 
-                    // create the  wrapper for connections
-                    if (collectionName.equals("connections")) {
+            while (!subscriber.isUnsubscribed() && jp.nextToken() != JsonToken.END_OBJECT) {
+                String collectionName = jp.getCurrentName();
 
-                        jp.nextToken(); // START_OBJECT
-                        while (jp.nextToken() != JsonToken.END_OBJECT) {
-                            String connectionType = jp.getCurrentName();
+                // create the  wrapper for connections
+                if (collectionName.equals("connections")) {
 
-                            jp.nextToken(); // START_ARRAY
-                            while (jp.nextToken() != JsonToken.END_ARRAY) {
-                                String entryId = jp.getText();
+                    jp.nextToken(); // START_OBJECT
+                    while (jp.nextToken() != JsonToken.END_OBJECT) {
+                        String connectionType = jp.getCurrentName();
 
-                                EntityRef entryRef = new SimpleEntityRef(UUID.fromString(entryId));
-                                entityWrapper = new ConnectionEvent(ownerEntityRef, connectionType, entryRef);
+                        jp.nextToken(); // START_ARRAY
+                        while (jp.nextToken() != JsonToken.END_ARRAY) {
+                            String entryId = jp.getText();
 
-                                // Creates a new subscriber to the observer with the given connection wrapper
-                                subscriber.onNext(entityWrapper);
-                            }
-                        }
+                            EntityRef entryRef = new SimpleEntityRef(UUID.fromString(entryId));
+                            entityWrapper = new ConnectionEvent(ownerEntityRef, connectionType, entryRef);
 
+                            // Creates a new subscriber to the observer with the given connection wrapper
+                            subscriber.onNext(entityWrapper);
+                        }
                     }
-                    // create the  wrapper for dictionaries
-                    else if (collectionName.equals("dictionaries")) {
 
-                        jp.nextToken(); // START_OBJECT
-                        while (jp.nextToken() != JsonToken.END_OBJECT) {
+                }
+                // create the  wrapper for dictionaries
+                else if (collectionName.equals("dictionaries")) {
+
+                    jp.nextToken(); // START_OBJECT
+                    while (jp.nextToken() != JsonToken.END_OBJECT) {
 
-                            String dictionaryName = jp.getCurrentName();
+                        String dictionaryName = jp.getCurrentName();
 
-                            jp.nextToken();
+                        jp.nextToken();
 
-                            Map<String, Object> dictionary = jp.readValueAs(HashMap.class);
-                            entityWrapper = new DictionaryEvent(ownerEntityRef, dictionaryName, dictionary);
+                        Map<String, Object> dictionary = jp.readValueAs(HashMap.class);
+                        entityWrapper = new DictionaryEvent(ownerEntityRef, dictionaryName, dictionary);
 
-                            // Creates a new subscriber to the observer with the given dictionary wrapper
-                            subscriber.onNext(entityWrapper);
-                        }
-                        subscriber.onCompleted();
+                        // Creates a new subscriber to the observer with the given dictionary wrapper
+                        subscriber.onNext(entityWrapper);
+                    }
 
-                    } else {
+                } else {
 
-                        // Regular collections
-                        jp.nextToken(); // START_OBJECT
+                    // Regular collections
+                    jp.nextToken(); // START_OBJECT
 
-                        Map<String, Object> properties = new HashMap<String, Object>();
-                        JsonToken token = jp.nextToken();
+                    Map<String, Object> properties = new HashMap<String, Object>();
+                    JsonToken token = jp.nextToken();
 
-                        while (token != JsonToken.END_OBJECT) {
-                            if (token == JsonToken.VALUE_STRING || token == JsonToken.VALUE_NUMBER_INT) {
-                                String key = jp.getCurrentName();
-                                if (key.equals("uuid")) {
-                                    entityUuid = jp.getText();
+                    while (token != JsonToken.END_OBJECT) {
+                        if (token == JsonToken.VALUE_STRING || token == JsonToken.VALUE_NUMBER_INT) {
+                            String key = jp.getCurrentName();
+                            if (key.equals("uuid")) {
+                                entityUuid = jp.getText();
 
-                                } else if (key.equals("type")) {
-                                    entityType = jp.getText();
-                                } else if (key.length() != 0 && jp.getText().length() != 0) {
-                                    String value = jp.getText();
-                                    properties.put(key, value);
-                                }
+                            } else if (key.equals("type")) {
+                                entityType = jp.getText();
+                            } else if (key.length() != 0 && jp.getText().length() != 0) {
+                                String value = jp.getText();
+                                properties.put(key, value);
                             }
-                            token = jp.nextToken();
                         }
+                        token = jp.nextToken();
+                    }
 
-                        ownerEntityRef = new SimpleEntityRef(entityType, UUID.fromString(entityUuid));
-                        entityWrapper = new EntityEvent(UUID.fromString(entityUuid), entityType, properties);
+                    ownerEntityRef = new SimpleEntityRef(entityType, UUID.fromString(entityUuid));
+                    entityWrapper = new EntityEvent(UUID.fromString(entityUuid), entityType, properties);
 
-                        // Creates a new subscriber to the observer with the given dictionary wrapper
-                        subscriber.onNext(entityWrapper);
+                    // Creates a new subscriber to the observer with the given dictionary wrapper
+                    subscriber.onNext(entityWrapper);
 
-                    }
                 }
-            } catch (Exception e) {
-                // skip illegal entity UUID and go to next one
-                fileImport.setErrorMessage(e.getMessage());
-                try {
-                    rootEm.update(fileImport);
-                } catch (Exception ex) {
-                }
-                subscriber.onError(e);
             }
         }
     }
@@ -0,0 +1,478 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.usergrid.security.shiro;
+
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+
+import org.apache.shiro.authz.Permission;
+
+
+/**
+ * The granted permissions of a subject compiled for checking application requests. Granted paths are merged into a
+ * trie of path segments with <code>*</code> and <code>**</code> nodes, so a check walks the requested path once and
+ * then compares verb bitmasks and application ids, instead of running AntPathMatcher for every granted permission.
+ * <p/>
+ * Answers exactly what {@link CustomPermission#implies(Permission)} over each granted permission would. Granted
+ * permissions the trie can't express (partial wildcards, <code>?</code> and <code>{}</code> patterns,
+ * <code>${user}</code> and <code>/me/</code> substitutions, whitespace or case that AntPathMatcher treats differently
+ * from a plain compare) are still checked one by one, and so is every request that isn't a plain application path.
+ */
+public class CompiledPermissions {
+
+    private static final String APPLICATIONS = "applications";
+
+    private static final String WILDCARD = "*";
+
+    private static final String DOUBLE_WILDCARD = "**";
+
+    /** Requested verbs no granted permission names, only granted by a wildcard */
+    private static final long UNKNOWN_VERB = 1L << 63;
+
+    private static final long ANY_VERB = -1L;
+
+    private static final int MAX_VERBS = 63;
+
+    /** Every granted permission, for requests the trie can't answer */
+    private final List<Permission> granted;
+
+    /** Granted permissions the trie can't express, checked one by one before the trie */
+    private final List<Permission> uncompiled = new ArrayList<Permission>();
+
+    /** Bit of each verb named by a compiled permission */
+    private final Map<String, Long> verbBits = new HashMap<String, Long>();
+
+    /** Verbs granted by each compiled permission */
+    private final List<Long> verbMasks = new ArrayList<Long>();
+
+    /** Application ids granted by each compiled permission, null for any application */
+    private final List<Set<String>> applicationIds = new ArrayList<Set<String>>();
+
+    /** Compiled permissions granting every path */
+    private final BitSet anyPath = new BitSet();
+
+    private final Node root = new Node( false );
+
+
+    public CompiledPermissions( Collection<? extends Permission> permissions ) {
+        granted = new ArrayList<Permission>( permissions );
+
+        for ( Permission permission : granted ) {
+            if ( !compile( permission ) ) {
+                uncompiled.add( permission );
+            }
+        }
+    }
+
+
+    /** @return true if any of the granted permissions implies the requested one */
+    public boolean implies( Permission requested ) {
+        if ( !isApplicationPath( requested ) ) {
+            for ( Permission permission : granted ) {
+                if ( permission.implies( requested ) ) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        for ( Permission permission : uncompiled ) {
+            if ( permission.implies( requested ) ) {
+                return true;
+            }
+        }
+
+        List<Set<String>> parts = ( ( CustomPermission ) requested ).getParts();
+
+        long verbs = 0;
+        for ( String verb : parts.get( 1 ) ) {
+            Long bit = verbBits.get( verb.toLowerCase( Locale.ENGLISH ) );
+            verbs |= bit != null ? bit : UNKNOWN_VERB;
+        }
+
+        Set<String> applications = new HashSet<String>();
+        for ( String applicationId : parts.get( 2 ) ) {
+            applications.add( applicationId.toLowerCase( Locale.ENGLISH ) );
+        }
+
+        BitSet candidates = null;
+        for ( String path : parts.get( 3 ) ) {
+            BitSet matched = match( CustomPermission.makePath( path ) );
+            if ( candidates == null ) {
+                candidates = matched;
+            }
+            else {
+                candidates.and( matched );
+            }
+            if ( candidates.isEmpty() ) {
+                return false;
+            }
+        }
+
+        for ( int i = candidates.nextSetBit( 0 ); i >= 0; i = candidates.nextSetBit( i + 1 ) ) {
+            if ( ( verbMasks.get( i ) & verbs ) != verbs ) {
+                continue;
+            }
+            Set<String> grantedIds = applicationIds.get( i );
+            if ( ( grantedIds == null ) || grantedIds.containsAll( applications ) ) {
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+
+    /**
+     * Add the permission to the trie.
+     *
+     * @return false if the permission has to be checked one by one
+     */
+    private boolean compile( Permission permission ) {
+        if ( !( permission instanceof CustomPermission ) ) {
+            return false;
+        }
+
+        List<Set<String>> parts = ( ( CustomPermission ) permission ).getParts();
+
+        // anything past the path has to be a wildcard to imply an application path
+        for ( int i = 4; i < parts.size(); i++ ) {
+            if ( !parts.get( i ).contains( WILDCARD ) ) {
+                return true;
+            }
+        }
+
+        Set<String> domain = parts.get( 0 );
+        if ( !domain.contains( WILDCARD ) ) {
+            if ( !isLiteral( domain ) ) {
+                return false;
+            }
+            if ( !domain.contains( APPLICATIONS ) ) {
+                // never implies an application path
+                return true;
+            }
+        }
+
+        long verbs = ANY_VERB;
+        if ( ( parts.size() > 1 ) && !parts.get( 1 ).contains( WILDCARD ) ) {
+            if ( !isLiteral( parts.get( 1 ) ) ) {
+                return false;
+            }
+            verbs = 0;
+            for ( String verb : parts.get( 1 ) ) {
+                Long bit = verbBits.get( verb );
+                if ( bit == null ) {
+                    if ( verbBits.size() >= MAX_VERBS ) {
+                        return false;
+                    }
+                    bit = 1L << verbBits.size();
+                    verbBits.put( verb, bit );
+                }
+                verbs |= bit;
+            }
+        }
+
+        Set<String> applications = null;
+        if ( ( parts.size() > 2 ) && !parts.get( 2 ).contains( WILDCARD ) ) {
+            if ( !isLiteral( parts.get( 2 ) ) ) {
+                return false;
+            }
+            applications = new HashSet<String>( parts.get( 2 ) );
+        }
+
+        List<String> paths = new ArrayList<String>();
+        if ( parts.size() > 3 ) {
+            for ( String path : parts.get( 3 ) ) {
+                path = CustomPermission.makePath( path );
+                if ( !isGrantablePath( path ) ) {
+                    return false;
+                }
+                paths.add( path );
+            }
+        }
+
+        int index = verbMasks.size();
+        verbMasks.add( verbs );
+        applicationIds.add( applications );
+
+        if ( paths.isEmpty() ) {
+            anyPath.set( index );
+        }
+        for ( String path : paths ) {
+            add( path, index );
+        }
+
+        return true;
+    }
+
+
+    /**
+     * Add a granted path to the trie. AntPathMatcher compares a pattern segment by segment, but whether a trailing
+     * slash matters depends on the kind of pattern: not at all for patterns with <code>**</code>, and for patterns
+     * with only <code>*</code> it matters after CustomPermission's second try with slashes appended, which leaves a
+     * requested path with a trailing slash unmatched only by a pattern ending in <code>*</code> without one. A pattern
+     * ending in <code>*</code> also matches a path one segment shorter.
+     */
+    private void add( String path, int index ) {
+        Node node = root;
+        boolean wildcard = false;
+        boolean doubleWildcard = false;
+        String last = null;
+
+        for ( String segment : segments( path ) ) {
+            if ( DOUBLE_WILDCARD.equals( segment ) ) {
+                if ( node.doubleWildcard == null ) {
+                    node.doubleWildcard = new Node( true );
+                }
+                node = node.doubleWildcard;
+                doubleWildcard = true;
+            }
+            else if ( WILDCARD.equals( segment ) ) {
+                if ( node.wildcard == null ) {
+                    node.wildcard = new Node( false );
+                }
+                node = node.wildcard;
+                wildcard = true;
+            }
+            else {
+                Node child = node.children.get( segment );
+                if ( child == null ) {
+                    child = new Node( false );
+                    node.children.put( segment, child );
+                }
+                node = child;
+            }
+            last = segment;
+        }
+
+        boolean slash = path.endsWith( "/" );
+
+        if ( doubleWildcard ) {
+            node.glob.set( index );
+        }
+        else if ( !wildcard ) {
+            ( slash ? node.exactSlash : node.exact ).set( index );
+        }
+        else if ( slash || !WILDCARD.equals( last ) ) {
+            node.any.set( index );
+        }
+        else {
+            node.noSlash.set( index );
+        }
+    }
+
+
+    /** @return the compiled permissions with a path matching the requested path */
+    private BitSet match( String path ) {
+        BitSet matched = ( BitSet ) anyPath.clone();
+
+        List<Node> nodes = new ArrayList<Node>();
+        root.addTo( nodes );
+
+        for ( String segment : segments( path ) ) {
+            List<Node> next = new ArrayList<Node>();
+            for ( Node node : nodes ) {
+                if ( node.isDoubleWildcard ) {
+                    node.addTo( next );
+                }
+                Node child = node.children.get( segment );
+                if ( child != null ) {
+                    child.addTo( next );
+                }
+                if ( node.wildcard != null ) {
+                    node.wildcard.addTo( next );
+                }
+            }
+            if ( next.isEmpty() ) {
+                return matched;
+            }
+            nodes = next;
+        }
+
+        boolean slash = path.endsWith( "/" );
+
+        for ( Node node : nodes ) {
+            matched.or( slash ? node.exactSlash : node.exact );
+            matched.or( node.any );
+            if ( !slash ) {
+                matched.or( node.noSlash );
+            }
+            matched.or( node.glob );
+            if ( node.wildcard != null ) {
+                matched.or( node.wildcard.any );
+                matched.or( node.wildcard.noSlash );
+            }
+        }
+
+        return matched;
+    }
+
+
+    private static List<String> segments( String path ) {
+        List<String> segments = new ArrayList<String>();
+        int start = 1;
+        while ( start < path.length() ) {
+            int end = path.indexOf( '/', start );
+            if ( end < 0 ) {
+                end = path.length();
+            }
+            segments.add( path.substring( start, end ) );
+            start = end + 1;
+        }
+        return segments;
+    }
+
+
+    /** @return true if the request is a single path, the only kind the trie answers */
+    private static boolean isApplicationPath( Permission requested ) {
+        if ( !( requested instanceof CustomPermission ) ) {
+            return false;
+        }
+
+        List<Set<String>> parts = ( ( CustomPermission ) requested ).getParts();
+        if ( ( parts.size() != 4 ) || ( parts.get( 0 ).size() != 1 ) || !parts.get( 0 ).contains( APPLICATIONS ) ) {
+            return false;
+        }
+
+        for ( int i = 1; i < 3; i++ ) {
+            for ( String subpart : parts.get( i ) ) {
+                if ( !isAscii( subpart ) || ( subpart.indexOf( '/' ) >= 0 ) ) {
+                    return false;
+                }
+            }
+        }
+
+        for ( String path : parts.get( 3 ) ) {
+            if ( !isPlainPath( CustomPermission.makePath( path ) ) ) {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+
+    /** @return true for lower case ascii without characters that make CustomPermission compare it as a pattern */
+    private static boolean isLiteral( Set<String> part ) {
+        for ( String subpart : part ) {
+            if ( !isAscii( subpart ) || !subpart.equals( subpart.toLowerCase( Locale.ENGLISH ) ) ) {
+                return false;
+            }
+            for ( int i = 0; i < subpart.length(); i++ ) {
+                if ( "*?/$".indexOf( subpart.charAt( i ) ) >= 0 ) {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+
+    /**
+     * @return true for a granted path made of literal, <code>*</code> and <code>**</code> segments that
+     *         AntPathMatcher and a plain compare agree on
+     */
+    private static boolean isGrantablePath( String path ) {
+        if ( !isPlainPath( path.replace( "*", "x" ) ) || path.contains( CustomPermission.ME ) ) {
+            return false;
+        }
+        for ( String segment : segments( path ) ) {
+            if ( ( segment.indexOf( '*' ) >= 0 ) && !WILDCARD.equals( segment ) && !DOUBLE_WILDCARD.equals( segment ) ) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+
+    /**
+     * @return true for a lower case ascii path without empty segments, whitespace, patterns or substitutions, where
+     *         AntPathMatcher's segment compare and a plain compare agree
+     */
+    private static boolean isPlainPath( String path ) {
+        if ( !path.startsWith( "/" ) || path.contains( "//" ) ) {
+            return false;
+        }
+        for ( int i = 0; i < path.length(); i++ ) {
+            char c = path.charAt( i );
+            if ( ( c <= ' ' ) || ( c > '~' ) || ( ( c >= 'A' ) && ( c <= 'Z' ) ) || ( "*?{}$\\".indexOf( c ) >= 0 ) ) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+
+    private static boolean isAscii( String s ) {
+        for ( int i = 0; i < s.length(); i++ ) {
+            if ( s.charAt( i ) > '~' ) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+
+    private static class Node {
+
+        final boolean isDoubleWildcard;
+
+        final Map<String, Node> children = new HashMap<String, Node>();
+
+        Node wildcard;
+
+        Node doubleWildcard;
+
+        /** Literal paths ending here, without and with a trailing slash */
+        final BitSet exact = new BitSet();
+        final BitSet exactSlash = new BitSet();
+
+        /** Patterns with <code>*</code> ending here that match with or without a trailing slash */
+        final BitSet any = new BitSet();
+
+        /** Patterns ending in <code>*</code> here that only match without a trailing slash */
+        final BitSet noSlash = new BitSet();
+
+        /** Patterns with <code>**</code> ending here */
+        final BitSet glob = new BitSet();
+
+
+        Node( boolean isDoubleWildcard ) {
+            this.isDoubleWildcard = isDoubleWildcard;
+        }
+
+
+        /** Add this node, and the <code>**</code> nodes that match no segments after it */
+        void addTo( List<Node> nodes ) {
+            if ( nodes.contains( this ) ) {
+                return;
+            }
+            nodes.add( this );
+            if ( doubleWildcard != null ) {
+                doubleWildcard.addTo( nodes );
+            }
+        }
+    }
+}
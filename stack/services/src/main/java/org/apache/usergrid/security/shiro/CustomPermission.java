@@ -34,7 +34,7 @@ public class CustomPermission extends WildcardPermission {
     /**
      *
      */
-    private static final String ME = "/me/";
+    static final String ME = "/me/";
 
     static AntPathMatcher matcher = new AntPathMatcher();
 
@@ -17,7 +17,11 @@
 package org.apache.usergrid.security.shiro;
 
 
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.UUID;
@@ -67,6 +71,7 @@ import org.apache.shiro.authc.SimpleAuthenticationInfo;
 import org.apache.shiro.authc.credential.AllowAllCredentialsMatcher;
 import org.apache.shiro.authc.credential.CredentialsMatcher;
 import org.apache.shiro.authz.AuthorizationInfo;
+import org.apache.shiro.authz.Permission;
 import org.apache.shiro.authz.SimpleAuthorizationInfo;
 import org.apache.shiro.authz.permission.PermissionResolver;
 import org.apache.shiro.cache.CacheManager;
@@ -75,6 +80,8 @@ import org.apache.shiro.session.Session;
 import org.apache.shiro.subject.PrincipalCollection;
 import org.apache.shiro.subject.Subject;
 
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
 import com.google.common.collect.HashBiMap;
 
 import static org.apache.commons.lang.StringUtils.isBlank;
@@ -95,10 +102,17 @@ public class Realm extends AuthorizingRealm {
     public final static String ROLE_APPLICATION_ADMIN = "application-admin";
     public final static String ROLE_APPLICATION_USER = "application-user";
 
+    /** Maximum number of distinct granted permission sets kept compiled */
+    private static final int COMPILED_PERMISSIONS_CACHE_SIZE = 10000;
+
     private EntityManagerFactory emf;
     private ManagementService management;
     private TokenService tokens;
 
+    /** Compiled granted permissions by the permission strings they were compiled from */
+    private final Cache<Set<String>, CompiledPermissions> compiledPermissions =
+            CacheBuilder.newBuilder().maximumSize( COMPILED_PERMISSIONS_CACHE_SIZE ).build();
+
 
     @Value( "${" + PROPERTIES_SYSADMIN_LOGIN_ALLOWED + "}" )
     private boolean superUserEnabled;
@@ -480,6 +494,51 @@ public class Realm extends AuthorizingRealm {
     }
 
 
+    /**
+     * Check the permission against the granted permissions compiled into a trie, rather than resolving and matching
+     * each granted permission string. The authorization info is built again for each check, so compiled permissions
+     * are kept by the permission strings they came from and only compiled again when those change.
+     */
+    @Override
+    public boolean isPermitted( PrincipalCollection principals, Permission permission ) {
+        AuthorizationInfo info = getAuthorizationInfo( principals );
+        if ( info == null ) {
+            return false;
+        }
+        return getCompiledPermissions( info ).implies( permission );
+    }
+
+
+    private CompiledPermissions getCompiledPermissions( AuthorizationInfo info ) {
+        Collection<String> strings = info.getStringPermissions();
+        Collection<Permission> objects = info.getObjectPermissions();
+
+        Set<String> key = strings != null ? new HashSet<String>( strings ) : Collections.<String>emptySet();
+
+        if ( ( objects != null ) && !objects.isEmpty() ) {
+            List<Permission> permissions = new ArrayList<Permission>( objects );
+            permissions.addAll( resolvePermissions( key ) );
+            return new CompiledPermissions( permissions );
+        }
+
+        CompiledPermissions compiled = compiledPermissions.getIfPresent( key );
+        if ( compiled == null ) {
+            compiled = new CompiledPermissions( resolvePermissions( key ) );
+            compiledPermissions.put( key, compiled );
+        }
+        return compiled;
+    }
+
+
+    private List<Permission> resolvePermissions( Set<String> strings ) {
+        List<Permission> permissions = new ArrayList<Permission>( strings.size() );
+        for ( String string : strings ) {
+            permissions.add( getPermissionResolver().resolvePermission( string ) );
+        }
+        return permissions;
+    }
+
+
     /** Grant all permissions for the role names on this application */
     private void grantAppRoles( SimpleAuthorizationInfo info, EntityManager em, UUID applicationId, TokenInfo token,
                                 PrincipalIdentifier principal, Set<String> rolenames ) throws Exception {
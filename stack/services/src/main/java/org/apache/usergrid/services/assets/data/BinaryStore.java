@@ -32,10 +32,10 @@ public interface BinaryStore {
      */
     void write( UUID appId, Entity entity, InputStream inputStream ) throws IOException;
 
-    /** read the entity's file data from the store */
+    /** read the entity's file data from the store, or null if there is none */
     InputStream read( UUID appId, Entity entity ) throws IOException;
 
-    /** read partial data from the store */
+    /** read length bytes of the entity's file data starting at offset, or null if there is none */
     InputStream read( UUID appId, Entity entity, long offset, long length ) throws IOException;
 
     /** delete the entity data from the store. */
@@ -0,0 +1,181 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.usergrid.services.assets.data;
+
+
+import java.util.Date;
+
+import org.apache.usergrid.utils.StringUtils;
+
+
+/**
+ * A single satisfiable byte range from an HTTP Range header, resolved against the length of the asset. Multiple ranges
+ * are not supported; a header asking for more than one is treated like a header asking for none.
+ */
+public class ByteRange {
+
+    private static final String BYTES_UNIT = "bytes=";
+
+    private final long start;
+    private final long end;
+    private final long total;
+
+
+    public ByteRange( long start, long end, long total ) {
+        this.start = start;
+        this.end = end;
+        this.total = total;
+    }
+
+
+    /**
+     * Parse a Range header value against the full length of the asset.
+     *
+     * @return the range, or null if the header is blank, malformed or lists several ranges and the whole asset should
+     *         be served
+     *
+     * @throws IllegalArgumentException if the range is well formed but cannot be satisfied
+     */
+    public static ByteRange parse( String header, long total ) {
+        if ( StringUtils.isBlank( header ) ) {
+            return null;
+        }
+
+        String value = header.trim();
+        if ( !value.regionMatches( true, 0, BYTES_UNIT, 0, BYTES_UNIT.length() ) ) {
+            return null;
+        }
+
+        value = value.substring( BYTES_UNIT.length() ).trim();
+        if ( value.indexOf( ',' ) >= 0 ) {
+            return null;
+        }
+
+        int dash = value.indexOf( '-' );
+        if ( dash < 0 ) {
+            return null;
+        }
+
+        String first = value.substring( 0, dash ).trim();
+        String last = value.substring( dash + 1 ).trim();
+
+        long start;
+        long end;
+        try {
+            if ( first.length() == 0 ) {
+                // suffix range, the final n bytes
+                if ( last.length() == 0 ) {
+                    return null;
+                }
+                long suffix = Long.parseLong( last );
+                if ( suffix <= 0 || total == 0 ) {
+                    throw new IllegalArgumentException( "Unsatisfiable range " + header );
+                }
+                start = Math.max( 0, total - suffix );
+                end = total - 1;
+            }
+            else {
+                start = Long.parseLong( first );
+                end = total - 1;
+                if ( last.length() > 0 ) {
+                    long lastPos = Long.parseLong( last );
+                    if ( lastPos < start ) {
+                        return null;
+                    }
+                    end = Math.min( lastPos, end );
+                }
+                if ( start >= total ) {
+                    throw new IllegalArgumentException( "Unsatisfiable range " + header );
+                }
+            }
+        }
+        catch ( NumberFormatException e ) {
+            return null;
+        }
+
+        return new ByteRange( start, end, total );
+    }
+
+
+    /**
+     * Evaluate an If-Range header. A range may be served only if the validator still matches the stored data; weak
+     * entity tags never match.
+     *
+     * @return true if there is no If-Range header or it matches the etag or last modified time of the asset
+     */
+    public static boolean isCurrent( String ifRange, String etag, long lastModified ) {
+        if ( StringUtils.isBlank( ifRange ) ) {
+            return true;
+        }
+
+        String value = ifRange.trim();
+        if ( value.startsWith( "W/" ) ) {
+            return false;
+        }
+        if ( value.startsWith( "\"" ) ) {
+            return etag != null && unquote( value ).equals( unquote( etag ) );
+        }
+
+        // HTTP dates only carry whole seconds
+        Date date = AssetUtils.fromIfModifiedSince( value );
+        return date != null && date.getTime() / 1000 == lastModified / 1000;
+    }
+
+
+    private static String unquote( String tag ) {
+        if ( tag.length() > 1 && tag.startsWith( "\"" ) && tag.endsWith( "\"" ) ) {
+            return tag.substring( 1, tag.length() - 1 );
+        }
+        return tag;
+    }
+
+
+    /** @return the first byte position, inclusive */
+    public long getStart() {
+        return start;
+    }
+
+
+    /** @return the last byte position, inclusive */
+    public long getEnd() {
+        return end;
+    }
+
+
+    /** @return the number of bytes in the range */
+    public long getLength() {
+        return end - start + 1;
+    }
+
+
+    /** @return the full length of the asset */
+    public long getTotal() {
+        return total;
+    }
+
+
+    /** @return the value of the Content-Range header for a 206 response */
+    public String toContentRange() {
+        return "bytes " + start + "-" + end + "/" + total;
+    }
+
+
+    /** @return the value of the Content-Range header for a 416 response */
+    public static String unsatisfiedContentRange( long total ) {
+        return "bytes */" + total;
+    }
+}
@@ -0,0 +1,155 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.usergrid.services.assets.data;
+
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+
+
+/**
+ * Reads a slice of a file with positional channel reads. {@link #transferTo(OutputStream)} hands the remaining bytes to
+ * {@link FileChannel#transferTo(long, long, WritableByteChannel)} so the kernel can copy them without passing through a
+ * heap buffer when the target allows it.
+ */
+public class FileRangeInputStream extends InputStream {
+
+    private final RandomAccessFile file;
+    private final FileChannel channel;
+    private long position;
+    private long remaining;
+    private long mark;
+    private long markRemaining;
+
+
+    /** Open the file for reading up to length bytes starting at offset. The slice is clipped to the end of the file */
+    public FileRangeInputStream( File source, long offset, long length ) throws IOException {
+        this.file = new RandomAccessFile( source, "r" );
+        this.channel = file.getChannel();
+
+        long size = channel.size();
+        this.position = Math.min( Math.max( offset, 0 ), size );
+        this.remaining = Math.max( 0, Math.min( length, size - position ) );
+    }
+
+
+    @Override
+    public int read() throws IOException {
+        byte[] single = new byte[1];
+        int read = read( single, 0, 1 );
+        return read < 0 ? -1 : single[0] & 0xff;
+    }
+
+
+    @Override
+    public int read( byte[] b, int off, int len ) throws IOException {
+        if ( len == 0 ) {
+            return 0;
+        }
+        if ( remaining <= 0 ) {
+            return -1;
+        }
+
+        int toRead = ( int ) Math.min( len, remaining );
+        int read = channel.read( ByteBuffer.wrap( b, off, toRead ), position );
+        if ( read < 0 ) {
+            remaining = 0;
+            return -1;
+        }
+
+        position += read;
+        remaining -= read;
+        return read;
+    }
+
+
+    @Override
+    public long skip( long n ) throws IOException {
+        long skipped = Math.max( 0, Math.min( n, remaining ) );
+        position += skipped;
+        remaining -= skipped;
+        return skipped;
+    }
+
+
+    @Override
+    public int available() throws IOException {
+        return ( int ) Math.min( Integer.MAX_VALUE, remaining );
+    }
+
+
+    @Override
+    public boolean markSupported() {
+        return true;
+    }
+
+
+    @Override
+    public synchronized void mark( int readlimit ) {
+        mark = position;
+        markRemaining = remaining;
+    }
+
+
+    @Override
+    public synchronized void reset() throws IOException {
+        position = mark;
+        remaining = markRemaining;
+    }
+
+
+    /** @return the number of bytes left in the slice */
+    public long getRemaining() {
+        return remaining;
+    }
+
+
+    /**
+     * Write the rest of the slice to the output stream with {@link FileChannel#transferTo(long, long,
+     * WritableByteChannel)}.
+     *
+     * @return the number of bytes written
+     */
+    public long transferTo( OutputStream out ) throws IOException {
+        WritableByteChannel target = Channels.newChannel( out );
+        long written = 0;
+        while ( remaining > 0 ) {
+            long count = channel.transferTo( position, remaining, target );
+            if ( count <= 0 ) {
+                break;
+            }
+            position += count;
+            remaining -= count;
+            written += count;
+        }
+        out.flush();
+        return written;
+    }
+
+
+    @Override
+    public void close() throws IOException {
+        file.close();
+    }
+}
@@ -17,7 +17,6 @@
 package org.apache.usergrid.services.assets.data;
 
 
-import java.io.BufferedInputStream;
 import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
@@ -77,13 +76,21 @@ public class LocalFileBinaryStore implements BinaryStore {
 
     @Override
     public InputStream read( UUID appId, Entity entity ) throws IOException {
-        return read( appId, entity, 0, FileUtils.ONE_MB * 5 );
+        return read( appId, entity, 0, Long.MAX_VALUE );
     }
 
 
+    /**
+     * Returns a {@link FileRangeInputStream} positioned at offset, so callers serving a range never read the skipped
+     * bytes and can stream the slice with {@link FileRangeInputStream#transferTo(java.io.OutputStream)}
+     */
     @Override
     public InputStream read( UUID appId, Entity entity, long offset, long length ) throws IOException {
-        return new BufferedInputStream( FileUtils.openInputStream( path( appId, entity ) ) );
+        File file = path( appId, entity );
+        if ( !file.exists() || file.isDirectory() ) {
+            return null;
+        }
+        return new FileRangeInputStream( file, offset, length );
     }
 
 
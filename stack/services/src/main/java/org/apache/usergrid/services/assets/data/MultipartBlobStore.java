@@ -0,0 +1,47 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.usergrid.services.assets.data;
+
+
+import java.io.IOException;
+import java.util.Map;
+
+
+/**
+ * The part level operations of a multipart upload. Parts are numbered from 1 and may be uploaded concurrently and in
+ * any order; all but the last must be the same size.
+ */
+public interface MultipartBlobStore {
+
+    /** @return the id of the new upload */
+    String initiate( String key, String contentType, String contentDisposition ) throws IOException;
+
+    /** @return the etag of the part */
+    String uploadPart( String key, String uploadId, int partNumber, byte[] data ) throws IOException;
+
+    /**
+     * Assemble the uploaded parts into the blob.
+     *
+     * @param parts the etag of each part keyed by part number
+     *
+     * @return the etag of the blob
+     */
+    String complete( String key, String uploadId, Map<Integer, String> parts ) throws IOException;
+
+    /** Discard any parts uploaded so far */
+    void abort( String key, String uploadId );
+}
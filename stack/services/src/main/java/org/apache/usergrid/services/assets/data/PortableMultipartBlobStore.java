@@ -0,0 +1,134 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.usergrid.services.assets.data;
+
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.SequenceInputStream;
+import java.util.Enumeration;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.jclouds.blobstore.BlobStore;
+import org.jclouds.blobstore.domain.Blob;
+import org.jclouds.blobstore.domain.BlobBuilder;
+
+
+/**
+ * Multipart uploads for providers without a native multipart API, such as the transient in-memory provider. Each part
+ * is stored as its own blob and the parts are streamed into the final blob on completion.
+ */
+public class PortableMultipartBlobStore implements MultipartBlobStore {
+
+    private final BlobStore blobStore;
+    private final String bucketName;
+    private final ConcurrentMap<String, String[]> uploads = new ConcurrentHashMap<String, String[]>();
+
+
+    public PortableMultipartBlobStore( BlobStore blobStore, String bucketName ) {
+        this.blobStore = blobStore;
+        this.bucketName = bucketName;
+    }
+
+
+    @Override
+    public String initiate( String key, String contentType, String contentDisposition ) throws IOException {
+        String uploadId = UUID.randomUUID().toString();
+        uploads.put( uploadId, new String[] { contentType, contentDisposition } );
+        return uploadId;
+    }
+
+
+    @Override
+    public String uploadPart( String key, String uploadId, int partNumber, byte[] data ) throws IOException {
+        Blob part = blobStore.blobBuilder( partKey( key, uploadId, partNumber ) ).payload( data ).build();
+        return blobStore.putBlob( bucketName, part );
+    }
+
+
+    @Override
+    public String complete( final String key, final String uploadId, Map<Integer, String> parts ) throws IOException {
+        String[] headers = uploads.remove( uploadId );
+        if ( headers == null ) {
+            throw new IOException( "Unknown upload " + uploadId );
+        }
+
+        final Iterator<Integer> partNumbers = new TreeMap<Integer, String>( parts ).keySet().iterator();
+        long length = 0;
+        for ( Integer partNumber : parts.keySet() ) {
+            length += blobStore.blobMetadata( bucketName, partKey( key, uploadId, partNumber ) ).getContentMetadata()
+                               .getContentLength();
+        }
+
+        // open each part only when the previous one has been read
+        InputStream input = new SequenceInputStream( new Enumeration<InputStream>() {
+            @Override
+            public boolean hasMoreElements() {
+                return partNumbers.hasNext();
+            }
+
+
+            @Override
+            public InputStream nextElement() {
+                return blobStore.getBlob( bucketName, partKey( key, uploadId, partNumbers.next() ) ).getPayload()
+                                .getInput();
+            }
+        } );
+
+        try {
+            BlobBuilder.PayloadBlobBuilder bb =
+                    blobStore.blobBuilder( key ).payload( input ).contentLength( length ).contentType( headers[0] );
+            if ( headers[1] != null ) {
+                bb.contentDisposition( headers[1] );
+            }
+            return blobStore.putBlob( bucketName, bb.build() );
+        }
+        finally {
+            input.close();
+            removeParts( key, uploadId, parts );
+        }
+    }
+
+
+    @Override
+    public void abort( String key, String uploadId ) {
+        uploads.remove( uploadId );
+        blobStore.deleteDirectory( bucketName, partPrefix( key, uploadId ) );
+    }
+
+
+    private void removeParts( String key, String uploadId, Map<Integer, String> parts ) {
+        for ( Integer partNumber : parts.keySet() ) {
+            blobStore.removeBlob( bucketName, partKey( key, uploadId, partNumber ) );
+        }
+    }
+
+
+    private static String partPrefix( String key, String uploadId ) {
+        return key + ".parts/" + uploadId;
+    }
+
+
+    private static String partKey( String key, String uploadId, int partNumber ) {
+        return partPrefix( key, uploadId ) + "/" + partNumber;
+    }
+}
@@ -17,26 +17,25 @@
 package org.apache.usergrid.services.assets.data;
 
 
-import java.io.BufferedOutputStream;
-import java.io.ByteArrayOutputStream;
-import java.io.File;
-import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.OutputStream;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.UUID;
-import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Callable;
 import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
 
 import org.jclouds.ContextBuilder;
-import org.jclouds.blobstore.AsyncBlobStore;
 import org.jclouds.blobstore.BlobStore;
 import org.jclouds.blobstore.BlobStoreContext;
 import org.jclouds.blobstore.domain.Blob;
 import org.jclouds.blobstore.domain.BlobBuilder;
 import org.jclouds.blobstore.options.GetOptions;
-import org.jclouds.blobstore.options.PutOptions;
 import org.jclouds.http.config.JavaUrlHttpCommandExecutorServiceModule;
 import org.jclouds.logging.log4j.config.Log4JLoggingModule;
 import org.jclouds.netty.config.NettyPayloadModule;
@@ -52,23 +51,45 @@ import org.apache.commons.io.FileUtils;
 import org.apache.commons.io.IOUtils;
 
 import com.google.common.collect.ImmutableSet;
+import com.google.common.util.concurrent.FutureCallback;
+import com.google.common.util.concurrent.Futures;
 import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.ListeningExecutorService;
+import com.google.common.util.concurrent.MoreExecutors;
 import com.google.inject.Module;
 
 
+/**
+ * Stores assets in S3, or any other jclouds blobstore provider. Uploads are read from the request stream one part at a
+ * time. Anything larger than a single part is sent as a multipart upload whose parts are uploaded in parallel from a
+ * bounded pool, while the bytes buffered across all uploads on this node are capped.
+ */
 public class S3BinaryStore implements BinaryStore {
 
     private static final Iterable<? extends Module> MODULES = ImmutableSet
             .of( new JavaUrlHttpCommandExecutorServiceModule(), new Log4JLoggingModule(), new NettyPayloadModule() );
 
     private static final Logger LOG = LoggerFactory.getLogger( S3BinaryStore.class );
-    private static final long FIVE_MB = ( FileUtils.ONE_MB * 5 );
+
+    /** S3 rejects multipart parts smaller than this, other than the last */
+    public static final int MIN_PART_SIZE = ( int ) ( FileUtils.ONE_MB * 5 );
+
+    /** Bytes handed to the mime type detector */
+    private static final int MIME_SNIFF_SIZE = 8 * 1024;
+
+    private static final String S3_PROVIDER = "aws-s3";
 
     private BlobStoreContext context;
+    private MultipartBlobStore multipartBlobStore;
+    private String provider = S3_PROVIDER;
     private String accessId;
     private String secretKey;
     private String bucketName;
-    private ExecutorService executor = Executors.newFixedThreadPool( 10 );
+    private int partSize = MIN_PART_SIZE;
+    private int uploadThreads = 10;
+    private int maxInFlightBytes = ( int ) ( FileUtils.ONE_MB * 100 );
+    private ListeningExecutorService executor;
+    private Semaphore inFlightBytes;
 
     @Autowired
     private EntityManagerFactory emf;
@@ -81,20 +102,76 @@ public class S3BinaryStore implements BinaryStore {
     }
 
 
-    private BlobStoreContext getContext() {
+    /** The jclouds blobstore provider. "aws-s3" by default; anything else uses portable multipart uploads */
+    public void setProvider( String provider ) {
+        this.provider = provider;
+    }
+
+
+    /** The size of each part of a multipart upload, and the largest upload sent in a single request */
+    public void setPartSize( int partSize ) {
+        this.partSize = partSize;
+    }
+
+
+    /** Threads uploading parts, shared by all uploads */
+    public void setUploadThreads( int uploadThreads ) {
+        this.uploadThreads = uploadThreads;
+    }
+
+
+    /** Cap on the bytes read from requests but not yet uploaded, across all uploads on this node */
+    public void setMaxInFlightBytes( int maxInFlightBytes ) {
+        this.maxInFlightBytes = maxInFlightBytes;
+    }
+
+
+    public void setEntityManagerFactory( EntityManagerFactory emf ) {
+        this.emf = emf;
+    }
+
+
+    /** Override how multipart uploads are performed */
+    public void setMultipartBlobStore( MultipartBlobStore multipartBlobStore ) {
+        this.multipartBlobStore = multipartBlobStore;
+    }
+
+
+    private synchronized BlobStoreContext getContext() {
         if ( context == null ) {
-            context = ContextBuilder.newBuilder( "aws-s3" ).credentials( accessId, secretKey ).modules( MODULES )
+            if ( S3_PROVIDER.equals( provider ) && partSize < MIN_PART_SIZE ) {
+                throw new IllegalStateException( "S3 multipart parts must be at least " + MIN_PART_SIZE + " bytes" );
+            }
+
+            context = ContextBuilder.newBuilder( provider ).credentials( accessId, secretKey ).modules( MODULES )
                                     .buildView( BlobStoreContext.class );
 
             BlobStore blobStore = context.getBlobStore();
             blobStore.createContainerInLocation( null, bucketName );
+
+            if ( multipartBlobStore == null ) {
+                multipartBlobStore = S3_PROVIDER.equals( provider ) ? new S3MultipartBlobStore( context, bucketName ) :
+                                     new PortableMultipartBlobStore( blobStore, bucketName );
+            }
         }
 
         return context;
     }
 
 
+    private synchronized ListeningExecutorService getExecutor() {
+        if ( executor == null ) {
+            executor = MoreExecutors.listeningDecorator( Executors.newFixedThreadPool( uploadThreads ) );
+            inFlightBytes = new Semaphore( maxInFlightBytes );
+        }
+        return executor;
+    }
+
+
     public void destroy() {
+        if ( executor != null ) {
+            executor.shutdown();
+        }
         if ( context != null ) {
             context.close();
         }
@@ -105,107 +182,243 @@ public class S3BinaryStore implements BinaryStore {
     public void write( final UUID appId, final Entity entity, InputStream inputStream ) throws IOException {
 
         String uploadFileName = AssetUtils.buildAssetKey( appId, entity );
-        ByteArrayOutputStream baos = new ByteArrayOutputStream();
-        long written = IOUtils.copyLarge( inputStream, baos, 0, FIVE_MB );
-        byte[] data = baos.toByteArray();
 
         final Map<String, Object> fileMetadata = AssetUtils.getFileMetadata( entity );
         fileMetadata.put( AssetUtils.LAST_MODIFIED, System.currentTimeMillis() );
 
-        String mimeType = AssetMimeHandler.get().getMimeType( entity, data );
+        byte[] data = nextPart( inputStream );
+        boolean reserved = data != null;
+        if ( data == null ) {
+            data = new byte[0];
+        }
 
-        if ( written < FIVE_MB ) { // total smaller than 5mb
+        byte[] head = Arrays.copyOf( data, Math.min( data.length, MIME_SNIFF_SIZE ) );
+        String mimeType = AssetMimeHandler.get().getMimeType( entity, head );
+        Object disposition = fileMetadata.get( AssetUtils.CONTENT_DISPOSITION );
 
-            BlobStore blobStore = getContext().getBlobStore();
-            BlobBuilder.PayloadBlobBuilder bb =
-                    blobStore.blobBuilder( uploadFileName ).payload( data ).calculateMD5().contentType( mimeType );
+        if ( data.length < partSize ) { // fits in a single part
 
-            fileMetadata.put( AssetUtils.CONTENT_LENGTH, written );
-            if ( fileMetadata.get( AssetUtils.CONTENT_DISPOSITION ) != null ) {
-                bb.contentDisposition( fileMetadata.get( AssetUtils.CONTENT_DISPOSITION ).toString() );
+            try {
+                BlobStore blobStore = getContext().getBlobStore();
+                BlobBuilder.PayloadBlobBuilder bb =
+                        blobStore.blobBuilder( uploadFileName ).payload( data ).calculateMD5().contentType( mimeType );
+
+                fileMetadata.put( AssetUtils.CONTENT_LENGTH, ( long ) data.length );
+                if ( disposition != null ) {
+                    bb.contentDisposition( disposition.toString() );
+                }
+                final Blob blob = bb.build();
+
+                String md5sum = Hex.encodeHexString( blob.getMetadata().getContentMetadata().getContentMD5() );
+                fileMetadata.put( AssetUtils.CHECKSUM, md5sum );
+
+                String eTag = blobStore.putBlob( bucketName, blob );
+                fileMetadata.put( AssetUtils.E_TAG, eTag );
+            }
+            finally {
+                if ( reserved ) {
+                    release();
+                }
             }
-            final Blob blob = bb.build();
+        }
+        else { // stream the rest as a multipart upload
+
+            String contentDisposition = disposition != null ? disposition.toString() : null;
+            writeMultipart( appId, entity, uploadFileName, mimeType, contentDisposition, data, inputStream );
+        }
+    }
+
+
+    /**
+     * Upload the first part and every part after it from the stream. Returns once the stream has been consumed; the
+     * entity is updated with the length and etag of the blob when the last part has been uploaded and the parts have
+     * been assembled.
+     */
+    private void writeMultipart( final UUID appId, final Entity entity, final String key, String mimeType,
+                                 String disposition, byte[] firstPart, InputStream inputStream ) throws IOException {
 
-            String md5sum = Hex.encodeHexString( blob.getMetadata().getContentMetadata().getContentMD5() );
-            fileMetadata.put( AssetUtils.CHECKSUM, md5sum );
+        getContext();
+        final MultipartBlobStore parts = multipartBlobStore;
 
-            String eTag = blobStore.putBlob( bucketName, blob );
-            fileMetadata.put( AssetUtils.E_TAG, eTag );
+        final String uploadId;
+        try {
+            uploadId = parts.initiate( key, mimeType, disposition );
+        }
+        catch ( IOException e ) {
+            release();
+            throw e;
+        }
+        catch ( RuntimeException e ) {
+            release();
+            throw e;
         }
-        else { // bigger than 5mb... dump 5 mb tmp files and upload from them
 
-            // todo: yes, AsyncBlobStore is deprecated, but there appears to be no replacement yet
-            final AsyncBlobStore blobStore = getContext().getAsyncBlobStore();
+        final List<ListenableFuture<String>> partTags = new ArrayList<ListenableFuture<String>>();
+        long written = 0;
 
-            File tempFile = File.createTempFile( entity.getUuid().toString(), "tmp" );
-            tempFile.deleteOnExit();
-            OutputStream os = null;
-            try {
-                os = new BufferedOutputStream( new FileOutputStream( tempFile.getAbsolutePath() ) );
-                os.write( data );
-                written += IOUtils.copyLarge( inputStream, os, 0, ( FileUtils.ONE_GB * 5 ) );
+        try {
+            byte[] part = firstPart;
+            while ( part != null ) {
+                partTags.add( uploadPart( parts, key, uploadId, partTags.size() + 1, part ) );
+                written += part.length;
+                part = part.length < partSize ? null : nextPart( inputStream );
             }
-            finally {
-                IOUtils.closeQuietly( os );
+        }
+        catch ( IOException e ) {
+            abortWhenSettled( parts, key, uploadId, partTags );
+            throw e;
+        }
+        catch ( RuntimeException e ) {
+            abortWhenSettled( parts, key, uploadId, partTags );
+            throw e;
+        }
+
+        final long length = written;
+        final Map<String, Object> fileMetadata = AssetUtils.getFileMetadata( entity );
+
+        Futures.addCallback( Futures.allAsList( partTags ), new FutureCallback<List<String>>() {
+            @Override
+            public void onSuccess( List<String> tags ) {
+                Map<Integer, String> partMap = new LinkedHashMap<Integer, String>();
+                for ( int i = 0; i < tags.size(); i++ ) {
+                    partMap.put( i + 1, tags.get( i ) );
+                }
+
+                String eTag;
+                try {
+                    eTag = parts.complete( key, uploadId, partMap );
+                }
+                catch ( Exception e ) {
+                    LOG.error( "error completing upload of " + key, e );
+                    parts.abort( key, uploadId );
+                    return;
+                }
+
+                try {
+                    fileMetadata.put( AssetUtils.CONTENT_LENGTH, length );
+                    fileMetadata.put( AssetUtils.E_TAG, eTag );
+                    EntityManager em = emf.getEntityManager( appId );
+                    em.update( entity );
+                }
+                catch ( Exception e ) {
+                    LOG.error( "error updating asset " + entity.getUuid() + " after upload", e );
+                }
             }
 
-            BlobBuilder.PayloadBlobBuilder bb =
-                    blobStore.blobBuilder( uploadFileName ).payload( tempFile ).calculateMD5().contentType( mimeType );
 
-            fileMetadata.put( AssetUtils.CONTENT_LENGTH, written );
-            if ( fileMetadata.get( AssetUtils.CONTENT_DISPOSITION ) != null ) {
-                bb.contentDisposition( fileMetadata.get( AssetUtils.CONTENT_DISPOSITION ).toString() );
+            @Override
+            public void onFailure( Throwable t ) {
+                LOG.error( "error uploading " + key, t );
+                parts.abort( key, uploadId );
             }
-            final Blob blob = bb.build();
-
-            final File finalTempFile = tempFile;
-            final ListenableFuture<String> future =
-                    blobStore.putBlob( bucketName, blob, PutOptions.Builder.multipart() );
-
-            Runnable listener = new Runnable() {
-                @Override
-                public void run() {
-                    try {
-                        String eTag = future.get();
-                        fileMetadata.put( AssetUtils.E_TAG, eTag );
-                        EntityManager em = emf.getEntityManager( appId );
-                        em.update( entity );
-                        finalTempFile.delete();
-                    }
-                    catch ( Exception e ) {
-                        LOG.error( "error uploading", e );
-                    }
-                    if ( finalTempFile != null && finalTempFile.exists() ) {
-                        finalTempFile.delete();
-                    }
+        } );
+    }
+
+
+    /** Upload a part from the pool, releasing its in-flight bytes once it has been sent */
+    private ListenableFuture<String> uploadPart( final MultipartBlobStore parts, final String key,
+                                                 final String uploadId, final int partNumber, final byte[] data ) {
+        return getExecutor().submit( new Callable<String>() {
+            @Override
+            public String call() throws Exception {
+                try {
+                    return parts.uploadPart( key, uploadId, partNumber, data );
+                }
+                finally {
+                    release();
                 }
-            };
-            future.addListener( listener, executor );
+            }
+        } );
+    }
+
+
+    /** Abort the upload once the parts already submitted have finished, so none of them outlive it */
+    private void abortWhenSettled( final MultipartBlobStore parts, final String key, final String uploadId,
+                                   List<ListenableFuture<String>> partTags ) {
+        Futures.successfulAsList( partTags ).addListener( new Runnable() {
+            @Override
+            public void run() {
+                parts.abort( key, uploadId );
+            }
+        }, MoreExecutors.sameThreadExecutor() );
+    }
+
+
+    /**
+     * Reserve a part's worth of in-flight bytes, blocking while the node is at its cap, and read up to a full part from
+     * the stream.
+     *
+     * @return the bytes read, or null with nothing reserved at the end of the stream
+     */
+    private byte[] nextPart( InputStream inputStream ) throws IOException {
+        acquire();
+
+        boolean filled = false;
+        try {
+            byte[] buffer = new byte[partSize];
+            int length = IOUtils.read( inputStream, buffer );
+            if ( length == 0 ) {
+                return null;
+            }
+            filled = true;
+            return length == buffer.length ? buffer : Arrays.copyOf( buffer, length );
+        }
+        finally {
+            if ( !filled ) {
+                release();
+            }
         }
     }
 
 
-    @Override
-    public InputStream read( UUID appId, Entity entity, long offset, long length ) throws IOException {
-        BlobStore blobStore = getContext().getBlobStore();
-        Blob blob;
-        if ( offset == 0 && length == FIVE_MB ) {
-            blob = blobStore.getBlob( bucketName, AssetUtils.buildAssetKey( appId, entity ) );
+    private void acquire() throws IOException {
+        getExecutor();
+        try {
+            inFlightBytes.acquire( permitsPerPart() );
         }
-        else {
-            GetOptions options = GetOptions.Builder.range( offset, length );
-            blob = blobStore.getBlob( bucketName, AssetUtils.buildAssetKey( appId, entity ), options );
+        catch ( InterruptedException e ) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException( "Interrupted waiting to buffer an upload" );
         }
-        if ( blob == null || blob.getPayload() == null ) {
+    }
+
+
+    private void release() {
+        inFlightBytes.release( permitsPerPart() );
+    }
+
+
+    /** A part larger than the cap still gets through, one at a time */
+    private int permitsPerPart() {
+        return Math.min( partSize, maxInFlightBytes );
+    }
+
+
+    /** Issues a ranged GET, so only the requested bytes leave S3 */
+    @Override
+    public InputStream read( UUID appId, Entity entity, long offset, long length ) throws IOException {
+        if ( length <= 0 ) {
             return null;
         }
-        return blob.getPayload().getInput();
+        // the range is inclusive of the last byte
+        GetOptions options = GetOptions.Builder.range( offset, offset + length - 1 );
+        BlobStore blobStore = getContext().getBlobStore();
+        return getInput( blobStore.getBlob( bucketName, AssetUtils.buildAssetKey( appId, entity ), options ) );
     }
 
 
     @Override
     public InputStream read( UUID appId, Entity entity ) throws IOException {
-        return read( appId, entity, 0, FIVE_MB );
+        BlobStore blobStore = getContext().getBlobStore();
+        return getInput( blobStore.getBlob( bucketName, AssetUtils.buildAssetKey( appId, entity ) ) );
+    }
+
+
+    private InputStream getInput( Blob blob ) {
+        if ( blob == null || blob.getPayload() == null ) {
+            return null;
+        }
+        return blob.getPayload().getInput();
     }
 
 
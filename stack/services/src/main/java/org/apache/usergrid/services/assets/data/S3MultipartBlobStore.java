@@ -0,0 +1,69 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.usergrid.services.assets.data;
+
+
+import java.io.IOException;
+import java.util.Map;
+
+import org.jclouds.aws.s3.AWSS3ApiMetadata;
+import org.jclouds.aws.s3.AWSS3Client;
+import org.jclouds.blobstore.BlobStoreContext;
+import org.jclouds.io.Payloads;
+import org.jclouds.s3.domain.ObjectMetadataBuilder;
+
+
+/** Multipart uploads through the native S3 API, which assembles the parts server side */
+public class S3MultipartBlobStore implements MultipartBlobStore {
+
+    private final AWSS3Client client;
+    private final String bucketName;
+
+
+    public S3MultipartBlobStore( BlobStoreContext context, String bucketName ) {
+        this.client = context.unwrap( AWSS3ApiMetadata.CONTEXT_TOKEN ).getApi();
+        this.bucketName = bucketName;
+    }
+
+
+    @Override
+    public String initiate( String key, String contentType, String contentDisposition ) throws IOException {
+        ObjectMetadataBuilder metadata = ObjectMetadataBuilder.create().key( key ).contentType( contentType );
+        if ( contentDisposition != null ) {
+            metadata.contentDisposition( contentDisposition );
+        }
+        return client.initiateMultipartUpload( bucketName, metadata.build() );
+    }
+
+
+    @Override
+    public String uploadPart( String key, String uploadId, int partNumber, byte[] data ) throws IOException {
+        return client.uploadPart( bucketName, key, partNumber, uploadId, Payloads.newByteArrayPayload( data ) );
+    }
+
+
+    @Override
+    public String complete( String key, String uploadId, Map<Integer, String> parts ) throws IOException {
+        return client.completeMultipartUpload( bucketName, key, uploadId, parts );
+    }
+
+
+    @Override
+    public void abort( String key, String uploadId ) {
+        client.abortMultipartUpload( bucketName, key, uploadId );
+    }
+}
@@ -318,6 +318,23 @@ public class ManagementServiceIT {
     }
 
 
+    @Test
+    public void clientCredentialsCacheInvalidatedOnNewSecret() throws Exception {
+        String clientId = setup.getMgmtSvc().getClientIdForApplication( applicationId );
+        String oldSecret = setup.getMgmtSvc().getClientSecretForApplication( applicationId );
+
+        // verify twice so the second check is served from the cache
+        assertNotNull( setup.getMgmtSvc().getPrincipalCredentialsTokenForClientCredentials( clientId, oldSecret ) );
+        assertNotNull( setup.getMgmtSvc().getPrincipalCredentialsTokenForClientCredentials( clientId, oldSecret ) );
+        assertNull( setup.getMgmtSvc().getPrincipalCredentialsTokenForClientCredentials( clientId, "bogus" ) );
+
+        String newSecret = setup.getMgmtSvc().newClientSecretForApplication( applicationId );
+
+        assertNull( setup.getMgmtSvc().getPrincipalCredentialsTokenForClientCredentials( clientId, oldSecret ) );
+        assertNotNull( setup.getMgmtSvc().getPrincipalCredentialsTokenForClientCredentials( clientId, newSecret ) );
+    }
+
+
     @Test
     public void userTokenRevoke() throws Exception {
         EntityManager em = setup.getEmf().getEntityManager( applicationId );
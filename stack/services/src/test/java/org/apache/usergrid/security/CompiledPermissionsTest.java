@@ -0,0 +1,218 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.usergrid.security;
+
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.UUID;
+
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.apache.usergrid.management.UserInfo;
+import org.apache.usergrid.persistence.entities.User;
+import org.apache.usergrid.security.shiro.CompiledPermissions;
+import org.apache.usergrid.security.shiro.CustomPermission;
+import org.apache.usergrid.security.shiro.principals.ApplicationUserPrincipal;
+import org.apache.usergrid.utils.UUIDUtils;
+
+import org.apache.shiro.SecurityUtils;
+import org.apache.shiro.mgt.DefaultSecurityManager;
+import org.apache.shiro.subject.SimplePrincipalCollection;
+import org.apache.shiro.subject.Subject;
+import org.apache.shiro.subject.support.SubjectThreadState;
+import org.apache.shiro.util.ThreadState;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+
+/** Compares {@link CompiledPermissions} with checking each granted {@link CustomPermission} in turn. */
+public class CompiledPermissionsTest {
+
+    private static final String APP1 = "00000000-0000-0000-0000-000000000001";
+    private static final String APP2 = "00000000-0000-0000-0000-000000000002";
+
+    private static final String[] DOMAINS = { "applications", "applications", "applications", "*", "organizations" };
+
+    private static final String[] VERBS = { "get", "post", "put", "delete", "access", "admin" };
+
+    private static final String[] APPS = { APP1, APP2, "*", APP1 + "," + APP2, "Other" };
+
+    private static final String[] GRANTED_SEGMENTS =
+            { "users", "groups", "activities", "edanuff", "me", "${user}", "*", "*", "**", "**", "foo*", "?oo",
+                    "{id}", "Users" };
+
+    private static final String[] REQUESTED_SEGMENTS =
+            { "users", "groups", "activities", "edanuff", "me", "foo", "boo", "Users", "*" };
+
+    private static ThreadState subjectThreadState;
+
+    private static UUID userId = UUIDUtils.newTimeUUID();
+
+
+    @BeforeClass
+    public static void setSubject() {
+        SecurityUtils.setSecurityManager( new DefaultSecurityManager() );
+
+        User user = new User();
+        user.setUuid( userId );
+        user.setUsername( "edanuff" );
+
+        UUID applicationId = UUID.fromString( APP1 );
+        ApplicationUserPrincipal principal =
+                new ApplicationUserPrincipal( applicationId, new UserInfo( applicationId, user.getProperties() ) );
+        Subject subject = new Subject.Builder( SecurityUtils.getSecurityManager() )
+                .principals( new SimplePrincipalCollection( principal, "usergrid" ) ).buildSubject();
+
+        subjectThreadState = new SubjectThreadState( subject );
+        subjectThreadState.bind();
+    }
+
+
+    @AfterClass
+    public static void clearSubject() {
+        subjectThreadState.clear();
+        SecurityUtils.setSecurityManager( null );
+    }
+
+
+    @Test
+    public void examples() {
+        List<CustomPermission> granted = new ArrayList<CustomPermission>();
+        granted.add( new CustomPermission( "applications:get,put:" + APP1 + ":/groups/*/users" ) );
+        granted.add( new CustomPermission( "applications:get:" + APP1 + ":/users/*" ) );
+        granted.add( new CustomPermission( "applications:delete:" + APP2 + ":/devices/**" ) );
+        granted.add( new CustomPermission( "applications:access:" + APP2 ) );
+
+        CompiledPermissions compiled = new CompiledPermissions( granted );
+
+        assertTrue( compiled.implies( new CustomPermission( "applications:put:" + APP1 + ":/groups/g1/users" ) ) );
+        assertFalse( compiled.implies( new CustomPermission( "applications:post:" + APP1 + ":/groups/g1/users" ) ) );
+        assertTrue( compiled.implies( new CustomPermission( "applications:get:" + APP1 + ":/users" ) ) );
+        assertTrue( compiled.implies( new CustomPermission( "applications:get:" + APP1 + ":/users/fred" ) ) );
+        assertFalse( compiled.implies( new CustomPermission( "applications:get:" + APP1 + ":/users/fred/" ) ) );
+        assertFalse( compiled.implies( new CustomPermission( "applications:get:" + APP2 + ":/users/fred" ) ) );
+        assertTrue( compiled.implies( new CustomPermission( "applications:delete:" + APP2 + ":/devices/a/b" ) ) );
+        assertTrue( compiled.implies( new CustomPermission( "applications:access:" + APP2 + ":/anything" ) ) );
+        assertTrue( compiled.implies( new CustomPermission( "applications:access:" + APP2 ) ) );
+        assertFalse( compiled.implies( new CustomPermission( "applications:access:" + APP1 ) ) );
+    }
+
+
+    @Test
+    public void sameAsCustomPermission() {
+        Random random = new Random( 20140601 );
+
+        for ( int set = 0; set < 500; set++ ) {
+            List<CustomPermission> granted = new ArrayList<CustomPermission>();
+            int count = 1 + random.nextInt( 12 );
+            for ( int i = 0; i < count; i++ ) {
+                granted.add( new CustomPermission( grantedPermission( random ) ) );
+            }
+
+            CompiledPermissions compiled = new CompiledPermissions( granted );
+
+            for ( int check = 0; check < 200; check++ ) {
+                CustomPermission requested = new CustomPermission( requestedPermission( random ) );
+
+                boolean expected = false;
+                for ( CustomPermission permission : granted ) {
+                    if ( permission.implies( requested ) ) {
+                        expected = true;
+                        break;
+                    }
+                }
+
+                assertEquals( granted + " implies " + requested, expected, compiled.implies( requested ) );
+            }
+        }
+    }
+
+
+    private static String grantedPermission( Random random ) {
+        StringBuilder permission = new StringBuilder( pick( random, DOMAINS ) );
+
+        int parts = 1 + random.nextInt( 5 );
+        if ( parts > 1 ) {
+            permission.append( ':' ).append( random.nextInt( 5 ) == 0 ? "*" : verbs( random ) );
+        }
+        if ( parts > 2 ) {
+            permission.append( ':' ).append( pick( random, APPS ) );
+        }
+        if ( parts > 3 ) {
+            permission.append( ':' ).append( paths( random, GRANTED_SEGMENTS ) );
+        }
+        if ( parts > 4 ) {
+            permission.append( ':' ).append( random.nextBoolean() ? "*" : "x" );
+        }
+        return permission.toString();
+    }
+
+
+    private static String requestedPermission( Random random ) {
+        switch ( random.nextInt( 10 ) ) {
+            case 0:
+                return "applications:access:" + pick( random, APPS );
+            case 1:
+                return "organizations:get:" + APP1 + ":" + paths( random, REQUESTED_SEGMENTS );
+            default:
+                return "applications:" + verbs( random ) + ":" + ( random.nextBoolean() ? APP1 : APP2 ) + ":" + paths(
+                        random, REQUESTED_SEGMENTS );
+        }
+    }
+
+
+    private static String verbs( Random random ) {
+        String verbs = pick( random, VERBS );
+        if ( random.nextInt( 4 ) == 0 ) {
+            verbs += "," + pick( random, VERBS );
+        }
+        return verbs;
+    }
+
+
+    private static String paths( Random random, String[] segments ) {
+        String paths = path( random, segments );
+        if ( random.nextInt( 5 ) == 0 ) {
+            paths += "," + path( random, segments );
+        }
+        return paths;
+    }
+
+
+    private static String path( Random random, String[] segments ) {
+        StringBuilder path = new StringBuilder();
+        int length = random.nextInt( 5 );
+        for ( int i = 0; i < length; i++ ) {
+            path.append( random.nextInt( 20 ) == 0 ? "//" : "/" );
+            path.append( random.nextInt( 8 ) == 0 ? userId.toString() : pick( random, segments ) );
+        }
+        if ( ( path.length() == 0 ) || random.nextInt( 4 ) == 0 ) {
+            path.append( '/' );
+        }
+        return path.toString();
+    }
+
+
+    private static String pick( Random random, String[] values ) {
+        return values[random.nextInt( values.length )];
+    }
+}
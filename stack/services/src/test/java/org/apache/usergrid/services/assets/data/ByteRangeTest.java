@@ -0,0 +1,119 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.usergrid.services.assets.data;
+
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.InputStream;
+
+import org.junit.Test;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+
+public class ByteRangeTest {
+
+    @Test
+    public void parsesRanges() {
+        ByteRange range = ByteRange.parse( "bytes=0-99", 1000 );
+        assertEquals( 0, range.getStart() );
+        assertEquals( 99, range.getEnd() );
+        assertEquals( 100, range.getLength() );
+        assertEquals( "bytes 0-99/1000", range.toContentRange() );
+
+        range = ByteRange.parse( "bytes=500-", 1000 );
+        assertEquals( 500, range.getStart() );
+        assertEquals( 999, range.getEnd() );
+
+        range = ByteRange.parse( "bytes=-100", 1000 );
+        assertEquals( 900, range.getStart() );
+        assertEquals( 999, range.getEnd() );
+
+        // clipped to the end of the asset
+        range = ByteRange.parse( "bytes=900-5000", 1000 );
+        assertEquals( 999, range.getEnd() );
+        range = ByteRange.parse( "bytes=-5000", 1000 );
+        assertEquals( 0, range.getStart() );
+    }
+
+
+    @Test
+    public void ignoresUnsupportedRanges() {
+        assertNull( ByteRange.parse( null, 1000 ) );
+        assertNull( ByteRange.parse( "", 1000 ) );
+        assertNull( ByteRange.parse( "items=0-10", 1000 ) );
+        assertNull( ByteRange.parse( "bytes=0-10,20-30", 1000 ) );
+        assertNull( ByteRange.parse( "bytes=10-5", 1000 ) );
+        assertNull( ByteRange.parse( "bytes=a-b", 1000 ) );
+    }
+
+
+    @Test(expected = IllegalArgumentException.class)
+    public void unsatisfiableRange() {
+        ByteRange.parse( "bytes=1000-", 1000 );
+    }
+
+
+    @Test
+    public void ifRange() {
+        long modified = 1400000000123L;
+        String date = "Tue, 13 May 2014 16:53:20 GMT";
+
+        assertTrue( ByteRange.isCurrent( null, "abc", modified ) );
+        assertTrue( ByteRange.isCurrent( "\"abc\"", "abc", modified ) );
+        assertTrue( ByteRange.isCurrent( "\"abc\"", "\"abc\"", modified ) );
+        assertFalse( ByteRange.isCurrent( "\"abd\"", "abc", modified ) );
+        assertFalse( ByteRange.isCurrent( "W/\"abc\"", "abc", modified ) );
+        assertTrue( ByteRange.isCurrent( date, null, modified ) );
+        assertFalse( ByteRange.isCurrent( date, null, modified + 1000 ) );
+    }
+
+
+    @Test
+    public void fileRange() throws Exception {
+        byte[] data = new byte[4096];
+        for ( int i = 0; i < data.length; i++ ) {
+            data[i] = ( byte ) i;
+        }
+        File file = File.createTempFile( "range", "test" );
+        file.deleteOnExit();
+        FileUtils.writeByteArrayToFile( file, data );
+
+        InputStream is = new FileRangeInputStream( file, 100, 200 );
+        byte[] read = IOUtils.toByteArray( is );
+        is.close();
+        assertEquals( 200, read.length );
+        assertEquals( data[100], read[0] );
+        assertEquals( data[299], read[199] );
+
+        FileRangeInputStream fis = new FileRangeInputStream( file, 4000, 1000 );
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        assertEquals( 96, fis.transferTo( out ) );
+        fis.close();
+        byte[] expected = new byte[96];
+        System.arraycopy( data, 4000, expected, 0, 96 );
+        assertArrayEquals( expected, out.toByteArray() );
+    }
+}
@@ -0,0 +1,245 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.usergrid.services.assets.data;
+
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+import org.apache.usergrid.persistence.Entity;
+import org.apache.usergrid.persistence.EntityManager;
+import org.apache.usergrid.persistence.EntityManagerFactory;
+import org.apache.usergrid.persistence.entities.Asset;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+
+/** Streams uploads through the transient in-memory jclouds provider */
+public class S3BinaryStoreTest {
+
+    private static final int PART_SIZE = ( int ) FileUtils.ONE_MB;
+    private static final int MAX_IN_FLIGHT = PART_SIZE * 4;
+
+    private UUID appId = UUID.randomUUID();
+    private S3BinaryStore store;
+    private CountDownLatch updated;
+
+
+    @Before
+    public void setup() throws Exception {
+        updated = new CountDownLatch( 1 );
+
+        EntityManager em = mock( EntityManager.class );
+        doAnswer( new Answer<Void>() {
+            @Override
+            public Void answer( InvocationOnMock invocation ) throws Throwable {
+                updated.countDown();
+                return null;
+            }
+        } ).when( em ).update( any( Entity.class ) );
+
+        EntityManagerFactory emf = mock( EntityManagerFactory.class );
+        when( emf.getEntityManager( appId ) ).thenReturn( em );
+
+        store = new S3BinaryStore( "identity", "credential", "assets" );
+        store.setProvider( "transient" );
+        store.setPartSize( PART_SIZE );
+        store.setUploadThreads( 3 );
+        store.setMaxInFlightBytes( MAX_IN_FLIGHT );
+        store.setEntityManagerFactory( emf );
+    }
+
+
+    @After
+    public void teardown() {
+        store.destroy();
+    }
+
+
+    @Test
+    public void singlePartUpload() throws Exception {
+        Asset asset = asset();
+        long length = PART_SIZE / 2;
+
+        store.write( appId, asset, new PatternInputStream( length ) );
+
+        Map<String, Object> fileMetadata = AssetUtils.getFileMetadata( asset );
+        assertEquals( length, fileMetadata.get( AssetUtils.CONTENT_LENGTH ) );
+        assertNotNull( fileMetadata.get( AssetUtils.E_TAG ) );
+        assertNotNull( fileMetadata.get( AssetUtils.CONTENT_TYPE ) );
+        assertMatches( store.read( appId, asset ), 0, length );
+    }
+
+
+    @Test
+    public void multipartUpload() throws Exception {
+        Asset asset = asset();
+        long length = PART_SIZE * 12L + 12345;
+
+        store.write( appId, asset, new PatternInputStream( length ) );
+        assertTrue( updated.await( 30, TimeUnit.SECONDS ) );
+
+        Map<String, Object> fileMetadata = AssetUtils.getFileMetadata( asset );
+        assertEquals( length, fileMetadata.get( AssetUtils.CONTENT_LENGTH ) );
+        assertNotNull( fileMetadata.get( AssetUtils.E_TAG ) );
+        assertMatches( store.read( appId, asset ), 0, length );
+        assertMatches( store.read( appId, asset, PART_SIZE - 10, 20 ), PART_SIZE - 10, 20 );
+    }
+
+
+    @Test
+    public void largeUploadBuffersAtMostTheCap() throws Exception {
+        long length = FileUtils.ONE_MB * 256;
+        final PatternInputStream source = new PatternInputStream( length );
+        final AtomicLong uploaded = new AtomicLong();
+        final AtomicLong maxBuffered = new AtomicLong();
+        final AtomicInteger partCount = new AtomicInteger();
+
+        // discards parts after a short delay, so reading the request outpaces uploading
+        store.setMultipartBlobStore( new MultipartBlobStore() {
+            @Override
+            public String initiate( String key, String contentType, String contentDisposition ) {
+                return "upload";
+            }
+
+
+            @Override
+            public String uploadPart( String key, String uploadId, int partNumber, byte[] data ) throws IOException {
+                long buffered = source.getPosition() - uploaded.get();
+                synchronized ( maxBuffered ) {
+                    maxBuffered.set( Math.max( maxBuffered.get(), buffered ) );
+                }
+                try {
+                    Thread.sleep( 2 );
+                }
+                catch ( InterruptedException e ) {
+                    throw new IOException( e );
+                }
+                uploaded.addAndGet( data.length );
+                partCount.incrementAndGet();
+                return String.valueOf( partNumber );
+            }
+
+
+            @Override
+            public String complete( String key, String uploadId, Map<Integer, String> parts ) {
+                assertEquals( partCount.get(), parts.size() );
+                return "etag";
+            }
+
+
+            @Override
+            public void abort( String key, String uploadId ) {
+            }
+        } );
+
+        Asset asset = asset();
+        store.write( appId, asset, source );
+        assertTrue( updated.await( 60, TimeUnit.SECONDS ) );
+
+        assertEquals( length, uploaded.get() );
+        assertEquals( 256, partCount.get() );
+        assertEquals( length, AssetUtils.getFileMetadata( asset ).get( AssetUtils.CONTENT_LENGTH ) );
+
+        // the reader may be one part ahead, filling the buffer it is waiting to reserve room for
+        assertTrue( "buffered " + maxBuffered.get(), maxBuffered.get() <= MAX_IN_FLIGHT + PART_SIZE );
+    }
+
+
+    private Asset asset() {
+        Asset asset = new Asset();
+        asset.setUuid( UUID.randomUUID() );
+        asset.setPath( "path/to/" + asset.getUuid() );
+        return asset;
+    }
+
+
+    private static void assertMatches( InputStream is, long offset, long length ) throws IOException {
+        assertNotNull( is );
+        byte[] data = IOUtils.toByteArray( is );
+        assertEquals( length, data.length );
+        for ( int i = 0; i < data.length; i++ ) {
+            assertEquals( PatternInputStream.valueAt( offset + i ), data[i] );
+        }
+    }
+
+
+    /** A synthetic stream of the given length that is never held in memory */
+    private static class PatternInputStream extends InputStream {
+
+        private final long length;
+        private volatile long position;
+
+
+        PatternInputStream( long length ) {
+            this.length = length;
+        }
+
+
+        static byte valueAt( long position ) {
+            return ( byte ) ( position % 251 );
+        }
+
+
+        long getPosition() {
+            return position;
+        }
+
+
+        @Override
+        public int read() {
+            if ( position >= length ) {
+                return -1;
+            }
+            return valueAt( position++ ) & 0xff;
+        }
+
+
+        @Override
+        public int read( byte[] b, int off, int len ) {
+            if ( position >= length ) {
+                return -1;
+            }
+            int count = ( int ) Math.min( len, length - position );
+            for ( int i = 0; i < count; i++ ) {
+                b[off + i] = valueAt( position + i );
+            }
+            position += count;
+            return count;
+        }
+    }
+}
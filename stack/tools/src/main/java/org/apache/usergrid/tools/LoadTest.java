@@ -0,0 +1,453 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.usergrid.tools;
+
+
+import java.io.File;
+import java.io.FileWriter;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.UUID;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.apache.usergrid.management.ApplicationInfo;
+import org.apache.usergrid.management.OrganizationOwnerInfo;
+import org.apache.usergrid.mq.Message;
+import org.apache.usergrid.mq.QueueManager;
+import org.apache.usergrid.mq.QueueQuery;
+import org.apache.usergrid.persistence.Entity;
+import org.apache.usergrid.persistence.Query;
+import org.apache.usergrid.services.ServiceAction;
+import org.apache.usergrid.services.ServiceManager;
+import org.apache.usergrid.services.ServiceResults;
+
+import org.apache.commons.cli.CommandLine;
+import org.apache.commons.cli.Option;
+import org.apache.commons.cli.OptionBuilder;
+import org.apache.commons.cli.Options;
+import org.apache.commons.lang.StringUtils;
+
+import org.HdrHistogram.Histogram;
+
+import static org.apache.usergrid.services.ServiceParameter.parameters;
+import static org.apache.usergrid.services.ServicePayload.payload;
+import static org.apache.usergrid.utils.JsonUtils.mapToFormattedJsonString;
+
+
+/**
+ * Drives a configurable mix of operations through the services layer and records latency histograms and throughput
+ * per operation. Results are written as JSON so runs can be compared across builds.
+ * <p/>
+ * Can be run against the embedded Cassandra used by the tests: java -jar usergrid-tools.jar LoadTest -embedded
+ * -duration 60 -workers 8 -mix create:30,read:30,update:10,query:10,connect:5,post:5,consume:5,token:5
+ * -output load.json
+ */
+public class LoadTest extends ToolBase {
+
+    private static final Logger logger = LoggerFactory.getLogger( LoadTest.class );
+
+    public static final String DEFAULT_MIX =
+            "create:25,read:30,update:10,delete:5,query:10,connect:5,post:5,consume:5,token:5";
+
+    private static final String COLLECTION = "loadtests";
+
+    private static final String QUEUE = "/loadtest";
+
+    private static final int TAG_COUNT = 10;
+
+    /** Latencies are recorded in microseconds, anything above an hour is clamped */
+    private static final long HIGHEST_TRACKABLE_MICROS = TimeUnit.HOURS.toMicros( 1 );
+
+    private ServiceManager sm;
+
+    private QueueManager qm;
+
+    private UUID applicationId;
+
+    private UUID userId;
+
+
+    @Override
+    @SuppressWarnings("static-access")
+    public Options createOptions() {
+
+        Options options = super.createOptions();
+
+        options.addOption( OptionBuilder.withDescription( "Start an embedded Cassandra and set up the schema" )
+                                        .create( "embedded" ) );
+
+        options.addOption( OptionBuilder.withArgName( "seconds" ).hasArg()
+                                        .withDescription( "How long to run, in seconds. Default 60" )
+                                        .create( "duration" ) );
+
+        options.addOption( OptionBuilder.withArgName( "seconds" ).hasArg()
+                                        .withDescription( "Warm up period excluded from results. Default 10" )
+                                        .create( "warmup" ) );
+
+        options.addOption( OptionBuilder.withArgName( "workers" ).hasArg()
+                                        .withDescription( "Number of concurrent workers. Default 4" )
+                                        .create( "workers" ) );
+
+        options.addOption( OptionBuilder.withArgName( "mix" ).hasArg()
+                                        .withDescription( "Weighted operations, e.g. " + DEFAULT_MIX )
+                                        .create( "mix" ) );
+
+        options.addOption( OptionBuilder.withArgName( "file" ).hasArg()
+                                        .withDescription( "File to write the JSON results to" ).create( "output" ) );
+
+        return options;
+    }
+
+
+    @Override
+    public void runTool( CommandLine line ) throws Exception {
+
+        boolean embeddedCassandra = line.hasOption( "embedded" );
+
+        if ( embeddedCassandra ) {
+            startEmbedded();
+        }
+
+        startSpring();
+
+        if ( embeddedCassandra ) {
+            setupCassandra();
+        }
+
+        int duration = Integer.parseInt( line.getOptionValue( "duration", "60" ) );
+        int warmup = Integer.parseInt( line.getOptionValue( "warmup", "10" ) );
+        int workers = Integer.parseInt( line.getOptionValue( "workers", "4" ) );
+        Map<Operation, Integer> mix = parseMix( line.getOptionValue( "mix", DEFAULT_MIX ) );
+
+        setupApplication();
+
+        logger.info( "Warming up for {} seconds", warmup );
+        runWorkers( workers, mix, TimeUnit.SECONDS.toMillis( warmup ) );
+
+        logger.info( "Running {} workers for {} seconds with mix {}", new Object[] { workers, duration, mix } );
+        long started = System.currentTimeMillis();
+        List<WorkerStats> stats = runWorkers( workers, mix, TimeUnit.SECONDS.toMillis( duration ) );
+        long elapsed = System.currentTimeMillis() - started;
+
+        Map<String, Object> results = new LinkedHashMap<String, Object>();
+        results.put( "started", started );
+        results.put( "elapsedMillis", elapsed );
+        results.put( "workers", workers );
+        results.put( "mix", line.getOptionValue( "mix", DEFAULT_MIX ) );
+        results.put( "operations", summarize( stats, elapsed ) );
+
+        String json = mapToFormattedJsonString( results );
+
+        if ( line.hasOption( "output" ) ) {
+            FileWriter writer = new FileWriter( new File( line.getOptionValue( "output" ) ) );
+            try {
+                writer.write( json );
+            }
+            finally {
+                writer.close();
+            }
+        }
+
+        System.out.println( json );
+
+        if ( embeddedCassandra ) {
+            teardownEmbedded();
+        }
+    }
+
+
+    /** Creates a fresh organization, application and app user for this run */
+    private void setupApplication() throws Exception {
+        String suffix = Long.toString( System.currentTimeMillis() );
+
+        OrganizationOwnerInfo owner = managementService
+                .createOwnerAndOrganization( "loadtest" + suffix, "loadtest" + suffix, "Load Test",
+                        "loadtest" + suffix + "@usergrid.com", "loadtest" );
+
+        ApplicationInfo application =
+                managementService.createApplication( owner.getOrganization().getUuid(), "loadtest" + suffix );
+
+        applicationId = application.getId();
+        sm = smf.getServiceManager( applicationId );
+        qm = sm.getQueueManager();
+
+        Map<String, Object> user = new HashMap<String, Object>();
+        user.put( "username", "loaduser" + suffix );
+        user.put( "email", "loaduser" + suffix + "@usergrid.com" );
+
+        userId = sm.newRequest( ServiceAction.POST, parameters( "users" ), payload( user ) ).execute().getEntity()
+                   .getUuid();
+    }
+
+
+    private List<WorkerStats> runWorkers( int workers, Map<Operation, Integer> mix, long durationMillis )
+            throws Exception {
+
+        ExecutorService executor = Executors.newFixedThreadPool( workers );
+
+        long deadline = System.currentTimeMillis() + durationMillis;
+
+        List<Future<WorkerStats>> futures = new ArrayList<Future<WorkerStats>>();
+
+        for ( int i = 0; i < workers; i++ ) {
+            futures.add( executor.submit( new Worker( i, mix, deadline ) ) );
+        }
+
+        List<WorkerStats> stats = new ArrayList<WorkerStats>();
+
+        for ( Future<WorkerStats> future : futures ) {
+            stats.add( future.get() );
+        }
+
+        executor.shutdown();
+
+        return stats;
+    }
+
+
+    private Map<String, Object> summarize( List<WorkerStats> stats, long elapsedMillis ) {
+
+        Map<String, Object> operations = new LinkedHashMap<String, Object>();
+
+        for ( Operation operation : Operation.values() ) {
+            Histogram merged = new Histogram( HIGHEST_TRACKABLE_MICROS, 3 );
+            long errors = 0;
+
+            for ( WorkerStats workerStats : stats ) {
+                merged.add( workerStats.latencies.get( operation ) );
+                errors += workerStats.errors.get( operation );
+            }
+
+            if ( merged.getTotalCount() == 0 && errors == 0 ) {
+                continue;
+            }
+
+            Map<String, Object> latency = new LinkedHashMap<String, Object>();
+            latency.put( "mean", merged.getMean() );
+            latency.put( "p50", merged.getValueAtPercentile( 50.0 ) );
+            latency.put( "p99", merged.getValueAtPercentile( 99.0 ) );
+            latency.put( "p999", merged.getValueAtPercentile( 99.9 ) );
+            latency.put( "max", merged.getMaxValue() );
+
+            Map<String, Object> summary = new LinkedHashMap<String, Object>();
+            summary.put( "count", merged.getTotalCount() );
+            summary.put( "errors", errors );
+            summary.put( "throughputPerSecond", merged.getTotalCount() * 1000.0 / elapsedMillis );
+            summary.put( "latencyMicros", latency );
+
+            operations.put( operation.name().toLowerCase(), summary );
+        }
+
+        return operations;
+    }
+
+
+    static Map<Operation, Integer> parseMix( String mix ) {
+        Map<Operation, Integer> weights = new LinkedHashMap<Operation, Integer>();
+
+        for ( String entry : StringUtils.split( mix, ',' ) ) {
+            String[] parts = StringUtils.split( entry.trim(), ':' );
+            Operation operation = Operation.valueOf( parts[0].trim().toUpperCase() );
+            int weight = parts.length > 1 ? Integer.parseInt( parts[1].trim() ) : 1;
+            if ( weight > 0 ) {
+                weights.put( operation, weight );
+            }
+        }
+
+        if ( weights.isEmpty() ) {
+            throw new IllegalArgumentException( "No operations in mix " + mix );
+        }
+
+        return weights;
+    }
+
+
+    enum Operation {
+        CREATE, READ, UPDATE, DELETE, QUERY, CONNECT, POST, CONSUME, TOKEN
+    }
+
+
+    private static class WorkerStats {
+
+        private final Map<Operation, Histogram> latencies = new HashMap<Operation, Histogram>();
+
+        private final Map<Operation, Long> errors = new HashMap<Operation, Long>();
+
+
+        private WorkerStats() {
+            for ( Operation operation : Operation.values() ) {
+                latencies.put( operation, new Histogram( HIGHEST_TRACKABLE_MICROS, 3 ) );
+                errors.put( operation, 0L );
+            }
+        }
+
+
+        private void record( Operation operation, long startNanos ) {
+            long micros = TimeUnit.NANOSECONDS.toMicros( System.nanoTime() - startNanos );
+            latencies.get( operation ).recordValue( Math.min( micros, HIGHEST_TRACKABLE_MICROS ) );
+        }
+
+
+        private void error( Operation operation ) {
+            errors.put( operation, errors.get( operation ) + 1 );
+        }
+    }
+
+
+    /**
+     * Runs randomly chosen operations until the deadline.  Each worker only reads, updates, connects and deletes
+     * entities it created itself, so no coordination between workers is needed.
+     */
+    private class Worker implements Callable<WorkerStats> {
+
+        private final int workerNumber;
+
+        private final Operation[] schedule;
+
+        private final long deadline;
+
+        private final Random random;
+
+        private final List<UUID> created = new ArrayList<UUID>();
+
+        private final UUID consumerId = UUID.randomUUID();
+
+        private long sequence;
+
+
+        private Worker( int workerNumber, Map<Operation, Integer> mix, long deadline ) {
+            this.workerNumber = workerNumber;
+            this.deadline = deadline;
+            this.random = new Random( workerNumber );
+
+            List<Operation> weighted = new ArrayList<Operation>();
+            for ( Map.Entry<Operation, Integer> entry : mix.entrySet() ) {
+                for ( int i = 0; i < entry.getValue(); i++ ) {
+                    weighted.add( entry.getKey() );
+                }
+            }
+            this.schedule = weighted.toArray( new Operation[weighted.size()] );
+        }
+
+
+        @Override
+        public WorkerStats call() throws Exception {
+
+            WorkerStats stats = new WorkerStats();
+
+            while ( System.currentTimeMillis() < deadline ) {
+                Operation operation = schedule[random.nextInt( schedule.length )];
+
+                // operations on existing entities need something to work with
+                if ( created.size() < 2 && operation != Operation.POST && operation != Operation.CONSUME
+                        && operation != Operation.TOKEN && operation != Operation.QUERY ) {
+                    operation = Operation.CREATE;
+                }
+
+                long start = System.nanoTime();
+
+                try {
+                    execute( operation );
+                    stats.record( operation, start );
+                }
+                catch ( Exception e ) {
+                    logger.debug( "Operation {} failed", operation, e );
+                    stats.error( operation );
+                }
+            }
+
+            return stats;
+        }
+
+
+        private void execute( Operation operation ) throws Exception {
+            switch ( operation ) {
+                case CREATE:
+                    Map<String, Object> properties = new HashMap<String, Object>();
+                    properties.put( "name", "load-" + workerNumber + "-" + sequence++ );
+                    properties.put( "tag", "tag" + random.nextInt( TAG_COUNT ) );
+                    properties.put( "value", random.nextInt() );
+                    ServiceResults results =
+                            sm.newRequest( ServiceAction.POST, parameters( COLLECTION ), payload( properties ) )
+                              .execute();
+                    created.add( results.getEntity().getUuid() );
+                    break;
+
+                case READ:
+                    sm.newRequest( ServiceAction.GET, parameters( COLLECTION, randomEntity() ) ).execute();
+                    break;
+
+                case UPDATE:
+                    Map<String, Object> update = new HashMap<String, Object>();
+                    update.put( "value", random.nextInt() );
+                    sm.newRequest( ServiceAction.PUT, parameters( COLLECTION, randomEntity() ), payload( update ) )
+                      .execute();
+                    break;
+
+                case DELETE:
+                    UUID deleted = created.remove( random.nextInt( created.size() ) );
+                    sm.newRequest( ServiceAction.DELETE, parameters( COLLECTION, deleted ) ).execute();
+                    break;
+
+                case QUERY:
+                    Query query = Query.fromQL( "select * where tag = 'tag" + random.nextInt( TAG_COUNT ) + "'" );
+                    query.setLimit( 10 );
+                    sm.newRequest( ServiceAction.GET, parameters( COLLECTION, query ) ).execute();
+                    break;
+
+                case CONNECT:
+                    sm.newRequest( ServiceAction.POST,
+                            parameters( COLLECTION, randomEntity(), "likes", randomEntity() ) ).execute();
+                    break;
+
+                case POST:
+                    Map<String, Object> body = new HashMap<String, Object>();
+                    body.put( "worker", workerNumber );
+                    body.put( "sequence", sequence++ );
+                    qm.postToQueue( QUEUE, new Message( body ) );
+                    break;
+
+                case CONSUME:
+                    QueueQuery queueQuery = new QueueQuery();
+                    queueQuery.setConsumerId( consumerId );
+                    queueQuery.setLimit( 10 );
+                    qm.getFromQueue( QUEUE, queueQuery );
+                    break;
+
+                case TOKEN:
+                    String token = managementService.getAccessTokenForAppUser( applicationId, userId, 0 );
+                    managementService.getAppUserFromAccessToken( token );
+                    break;
+            }
+        }
+
+
+        private UUID randomEntity() {
+            return created.get( random.nextInt( created.size() ) );
+        }
+    }
+}
@@ -0,0 +1,99 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.usergrid.websocket;
+
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.jboss.netty.channel.Channel;
+import org.jboss.netty.channel.group.ChannelGroup;
+import org.jboss.netty.handler.codec.http.websocket.DefaultWebSocketFrame;
+import org.apache.usergrid.events.EntityChangeEvent;
+import org.apache.usergrid.events.EntityChangeListener;
+
+import com.yammer.metrics.Metrics;
+import com.yammer.metrics.core.Counter;
+
+import static org.apache.usergrid.persistence.Schema.defaultCollectionName;
+import static org.apache.usergrid.utils.JsonUtils.mapToJsonString;
+
+
+/**
+ * Pushes entity change events to the websocket channels subscribed to the entity's collection or to the entity
+ * itself.  A channel whose outbound buffer is over its high water mark is not writable, events for it are dropped
+ * rather than queued so a slow client cannot exhaust memory.
+ */
+public class EntityChangeDispatcher implements EntityChangeListener {
+
+    private final Counter delivered = Metrics.newCounter( EntityChangeDispatcher.class, "events_delivered" );
+    private final Counter dropped = Metrics.newCounter( EntityChangeDispatcher.class, "events_dropped" );
+
+
+    @Override
+    public void onEntityChange( EntityChangeEvent event ) {
+        String collection = defaultCollectionName( event.getEntityType() );
+        String collectionPath = WebSocketChannelHandler.subscriptionPath( event.getApplicationId(), collection, null );
+        String entityPath =
+                WebSocketChannelHandler.subscriptionPath( event.getApplicationId(), collection, event.getEntityId() );
+
+        ChannelGroup collectionGroup = WebSocketChannelHandler.getSubscribers( collectionPath );
+        ChannelGroup entityGroup = WebSocketChannelHandler.getSubscribers( entityPath );
+
+        if ( isEmpty( collectionGroup ) && isEmpty( entityGroup ) ) {
+            return;
+        }
+
+        String message = toJson( event );
+
+        send( collectionGroup, message );
+        send( entityGroup, message );
+    }
+
+
+    private boolean isEmpty( ChannelGroup group ) {
+        return ( group == null ) || group.isEmpty();
+    }
+
+
+    private void send( ChannelGroup group, String message ) {
+        if ( isEmpty( group ) ) {
+            return;
+        }
+        for ( Channel channel : group ) {
+            if ( channel.isWritable() ) {
+                channel.write( new DefaultWebSocketFrame( message ) );
+                delivered.inc();
+            }
+            else {
+                dropped.inc();
+            }
+        }
+    }
+
+
+    static String toJson( EntityChangeEvent event ) {
+        Map<String, Object> message = new LinkedHashMap<String, Object>();
+        message.put( "action", event.getChangeType().name().toLowerCase() );
+        message.put( "application", event.getApplicationId() );
+        message.put( "collection", defaultCollectionName( event.getEntityType() ) );
+        message.put( "type", event.getEntityType() );
+        message.put( "uuid", event.getEntityId() );
+        message.put( "timestamp", event.getTimestamp() );
+        return mapToJsonString( message );
+    }
+}
@@ -18,7 +18,9 @@ package org.apache.usergrid.websocket;
 
 
 import java.security.MessageDigest;
+import java.util.ArrayList;
 import java.util.List;
+import java.util.UUID;
 import java.util.concurrent.ConcurrentHashMap;
 
 import org.jboss.netty.buffer.ChannelBuffer;
@@ -42,15 +44,18 @@ import org.jboss.netty.handler.codec.http.HttpRequest;
 import org.jboss.netty.handler.codec.http.HttpResponse;
 import org.jboss.netty.handler.codec.http.HttpResponseStatus;
 import org.jboss.netty.handler.codec.http.QueryStringDecoder;
-import org.jboss.netty.handler.codec.http.websocket.DefaultWebSocketFrame;
 import org.jboss.netty.handler.codec.http.websocket.WebSocketFrame;
 import org.jboss.netty.handler.codec.http.websocket.WebSocketFrameDecoder;
 import org.jboss.netty.handler.codec.http.websocket.WebSocketFrameEncoder;
 import org.jboss.netty.util.CharsetUtil;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.apache.usergrid.management.ApplicationInfo;
 import org.apache.usergrid.management.ManagementService;
+import org.apache.usergrid.management.OrganizationInfo;
+import org.apache.usergrid.management.UserInfo;
 import org.apache.usergrid.persistence.EntityManagerFactory;
+import org.apache.usergrid.security.shiro.PrincipalCredentialsToken;
 import org.apache.usergrid.services.ServiceManagerFactory;
 
 import org.apache.shiro.mgt.SessionsSecurityManager;
@@ -59,6 +64,8 @@ import org.apache.shiro.subject.Subject;
 import static org.apache.commons.lang.StringUtils.isEmpty;
 import static org.apache.commons.lang.StringUtils.removeEnd;
 import static org.apache.commons.lang.StringUtils.split;
+import static org.apache.usergrid.security.shiro.utils.SubjectUtils.getPermissionFromPath;
+import static org.apache.usergrid.utils.UUIDUtils.tryGetUUID;
 import static org.jboss.netty.handler.codec.http.HttpHeaders.Names.CONNECTION;
 import static org.jboss.netty.handler.codec.http.HttpHeaders.Names.CONTENT_TYPE;
 import static org.jboss.netty.handler.codec.http.HttpHeaders.Names.ORIGIN;
@@ -95,7 +102,7 @@ public class WebSocketChannelHandler extends SimpleChannelUpstreamHandler {
 
     private static ConcurrentHashMap<String, ChannelGroup> subscribers = new ConcurrentHashMap<String, ChannelGroup>();
 
-    List<String> subscriptions;
+    List<String> subscriptions = new ArrayList<String>();
 
 
     public WebSocketChannelHandler( EntityManagerFactory emf, ServiceManagerFactory smf, ManagementService management,
@@ -185,6 +192,16 @@ public class WebSocketChannelHandler extends SimpleChannelUpstreamHandler {
     }
 
 
+    @Override
+    public void channelClosed( ChannelHandlerContext ctx, ChannelStateEvent e ) throws Exception {
+        super.channelClosed( ctx, e );
+        for ( String path : subscriptions ) {
+            removeSubscription( path, ctx.getChannel() );
+        }
+        subscriptions.clear();
+    }
+
+
     @Override
     public void messageReceived( ChannelHandlerContext ctx, MessageEvent e ) throws Exception {
         Object msg = e.getMessage();
@@ -237,27 +254,36 @@ public class WebSocketChannelHandler extends SimpleChannelUpstreamHandler {
             String path = qs.getPath();
             LOG.info( path );
 
-            // Fill in the headers and contents depending on handshake method.
-            if ( req.containsHeader( SEC_WEBSOCKET_KEY1 ) && req.containsHeader( SEC_WEBSOCKET_KEY2 ) ) {
+            // Subscribe to /{application uuid}/{collection} or /{application uuid}/{collection}/{entity uuid}
+            String[] segments = split( path, '/' );
 
-                String[] segments = split( path, '/' );
+            if ( ( segments.length != 2 ) && ( segments.length != 3 ) ) {
+                LOG.info( "Wrong number of path segments, expected 2 or 3, found " + segments.length );
+                sendHttpResponse( ctx, req, FORBIDDEN );
+                return;
+            }
 
-                if ( segments.length != 3 ) {
-                    LOG.info( "Wrong number of path segments, expected 3, found " + segments.length );
-                    sendHttpResponse( ctx, req, FORBIDDEN );
-                    return;
-                }
+            UUID applicationId = tryGetUUID( segments[0] );
+            String collection = segments[1].toLowerCase();
+            UUID entityId = segments.length == 3 ? tryGetUUID( segments[2] ) : null;
 
-                String nsStr = segments[0];
-                String collStr = segments[1];
-                String idStr = segments[2];
+            if ( ( applicationId == null ) || isEmpty( collection ) || ( ( segments.length == 3 ) && ( entityId
+                    == null ) ) ) {
+                sendHttpResponse( ctx, req, FORBIDDEN );
+                return;
+            }
 
-                LOG.info( nsStr + "/" + collStr + "/" + idStr );
+            List<String> tokens = qs.getParameters().get( "access_token" );
+            String accessToken = ( tokens != null ) && !tokens.isEmpty() ? tokens.get( 0 ) : null;
 
-                if ( isEmpty( nsStr ) || isEmpty( collStr ) || isEmpty( idStr ) ) {
-                    sendHttpResponse( ctx, req, FORBIDDEN );
-                    return;
-                }
+            if ( !isAuthorized( accessToken, applicationId, collection, entityId ) ) {
+                LOG.info( "Access token not permitted to subscribe to " + path );
+                sendHttpResponse( ctx, req, FORBIDDEN );
+                return;
+            }
+
+            // Fill in the headers and contents depending on handshake method.
+            if ( req.containsHeader( SEC_WEBSOCKET_KEY1 ) && req.containsHeader( SEC_WEBSOCKET_KEY2 ) ) {
 
                 // New handshake method with a challenge:
                 res.addHeader( SEC_WEBSOCKET_ORIGIN, req.getHeader( ORIGIN ) );
@@ -302,6 +328,10 @@ public class WebSocketChannelHandler extends SimpleChannelUpstreamHandler {
 
             p.replace( "encoder", "wsencoder", new WebSocketFrameEncoder() );
 
+            String subscription = subscriptionPath( applicationId, collection, entityId );
+            addSubscription( subscription, ctx.getChannel() );
+            subscriptions.add( subscription );
+
             return;
         }
 
@@ -311,8 +341,81 @@ public class WebSocketChannelHandler extends SimpleChannelUpstreamHandler {
 
 
     private void handleWebSocketFrame( ChannelHandlerContext ctx, WebSocketFrame frame ) {
-        // Send the uppercased string back.
-        ctx.getChannel().write( new DefaultWebSocketFrame( frame.getTextData().toUpperCase() ) );
+        // Subscriptions are fixed by the handshake path, clients only listen
+        LOG.debug( "Ignoring frame from subscriber: {}", frame.getTextData() );
+    }
+
+
+    /**
+     * Check the access token may read the subscribed collection or entity.  Application users are checked against
+     * their permissions on the subscribed path, and are refused when no security manager is configured to check them.
+     * Application client credentials are checked against the application, and admin users against the owning
+     * organization.
+     */
+    private boolean isAuthorized( String accessToken, UUID applicationId, String collection, UUID entityId ) {
+        if ( isEmpty( accessToken ) || ( management == null ) ) {
+            return false;
+        }
+
+        try {
+            UserInfo user = management.getAppUserFromAccessToken( accessToken );
+            if ( user != null ) {
+                if ( !applicationId.equals( user.getApplicationId() ) ) {
+                    return false;
+                }
+                if ( subject == null ) {
+                    LOG.warn( "No security manager to check the permissions of application user {}", user.getUuid() );
+                    return false;
+                }
+                String path = "/" + collection;
+                if ( entityId != null ) {
+                    path += "/" + entityId;
+                }
+                subject.login( PrincipalCredentialsToken.getFromAppUserInfoAndAccessToken( user, accessToken ) );
+                return subject.isPermitted( getPermissionFromPath( applicationId, "get", path ) );
+            }
+        }
+        catch ( Exception e ) {
+            LOG.debug( "Not an application user token", e );
+        }
+
+        try {
+            ApplicationInfo application = management.getApplicationInfoFromAccessToken( accessToken );
+            if ( application != null ) {
+                return applicationId.equals( application.getId() );
+            }
+        }
+        catch ( Exception e ) {
+            LOG.debug( "Not an application token", e );
+        }
+
+        try {
+            UserInfo admin = management.getAdminUserInfoFromAccessToken( accessToken );
+            if ( admin != null ) {
+                OrganizationInfo organization = management.getOrganizationForApplication( applicationId );
+                return ( organization != null ) && management.getOrganizationsForAdminUser( admin.getUuid() )
+                                                             .containsKey( organization.getUuid() );
+            }
+        }
+        catch ( Exception e ) {
+            LOG.debug( "Not an admin user token", e );
+        }
+
+        return false;
+    }
+
+
+    static String subscriptionPath( UUID applicationId, String collection, UUID entityId ) {
+        String path = applicationId + "/" + collection;
+        if ( entityId != null ) {
+            path += "/" + entityId;
+        }
+        return path;
+    }
+
+
+    static ChannelGroup getSubscribers( String path ) {
+        return subscribers.get( path );
     }
 
     // TODO Review this for concurrency safety
@@ -326,7 +429,11 @@ public class WebSocketChannelHandler extends SimpleChannelUpstreamHandler {
         ChannelGroup group = subscribers.get( path );
 
         if ( group == null ) {
-            group = subscribers.putIfAbsent( path, new DefaultChannelGroup() );
+            ChannelGroup created = new DefaultChannelGroup( path );
+            group = subscribers.putIfAbsent( path, created );
+            if ( group == null ) {
+                group = created;
+            }
         }
 
         return group;
@@ -334,15 +441,24 @@ public class WebSocketChannelHandler extends SimpleChannelUpstreamHandler {
 
 
     public void addSubscription( String path, Channel channel ) {
-        ChannelGroup group = subscribers.get( path );
-        synchronized ( group ) {
-            group.add( channel );
+        while ( true ) {
+            ChannelGroup group = getChannelGroupWithDefault( path );
+            synchronized ( group ) {
+                // the group may have been emptied and removed since we looked it up
+                if ( subscribers.get( path ) == group ) {
+                    group.add( channel );
+                    return;
+                }
+            }
         }
     }
 
 
     public void removeSubscription( String path, Channel channel ) {
         ChannelGroup group = subscribers.get( path );
+        if ( group == null ) {
+            return;
+        }
         synchronized ( group ) {
             group.remove( channel );
             if ( group.isEmpty() ) {
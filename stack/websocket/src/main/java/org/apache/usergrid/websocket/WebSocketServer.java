@@ -32,6 +32,7 @@ import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.config.AutowireCapableBeanFactory;
 import org.springframework.context.ApplicationContext;
 import org.springframework.context.support.ClassPathXmlApplicationContext;
+import org.apache.usergrid.events.EntityChangeBus;
 import org.apache.usergrid.management.ManagementService;
 import org.apache.usergrid.persistence.EntityManagerFactory;
 import org.apache.usergrid.persistence.cassandra.EntityManagerFactoryImpl;
@@ -65,6 +66,8 @@ public class WebSocketServer {
     boolean ssl = false;
     Channel channel;
     Properties properties;
+    EntityChangeBus entityChangeBus;
+    EntityChangeDispatcher dispatcher;
 
 
     public static void main( String[] args ) throws Exception {
@@ -107,6 +110,12 @@ public class WebSocketServer {
     }
 
 
+    @Autowired(required = false)
+    public void setEntityChangeBus( EntityChangeBus entityChangeBus ) {
+        this.entityChangeBus = entityChangeBus;
+    }
+
+
     public Properties getProperties() {
         return properties;
     }
@@ -163,15 +172,32 @@ public class WebSocketServer {
         bootstrap.setPipelineFactory(
                 new WebSocketServerPipelineFactory( emf, smf, management, securityManager, executionHandler, ssl ) );
 
+        // Bound the bytes queued for a slow client, change events to it are dropped once over the high mark
+        if ( properties != null ) {
+            bootstrap.setOption( "child.writeBufferHighWaterMark",
+                    Integer.parseInt( properties.getProperty( "usergrid.websocket.buffer.high", "65536" ) ) );
+            bootstrap.setOption( "child.writeBufferLowWaterMark",
+                    Integer.parseInt( properties.getProperty( "usergrid.websocket.buffer.low", "32768" ) ) );
+        }
+
         // Bind and start to accept incoming connections.
         channel = bootstrap.bind( new InetSocketAddress( 8088 ) );
 
+        if ( entityChangeBus != null ) {
+            dispatcher = new EntityChangeDispatcher();
+            entityChangeBus.addListener( dispatcher );
+        }
+
         logger.info( "Usergrid WebSocket Server started..." );
     }
 
 
     public void stopServer() {
         logger.info( "Stopping WebSocket Server" );
+        if ( dispatcher != null ) {
+            entityChangeBus.removeListener( dispatcher );
+            dispatcher = null;
+        }
         if ( channel != null ) {
             channel.close();
             channel = null;